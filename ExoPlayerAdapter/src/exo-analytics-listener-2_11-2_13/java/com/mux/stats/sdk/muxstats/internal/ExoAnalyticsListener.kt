@@ -39,7 +39,8 @@ private class ExoAnalyticsListener(player: ExoPlayer, val collector:  MuxStateCo
     eventTime: AnalyticsListener.EventTime,
     playbackParameters: PlaybackParameters
   ) {
-    //todo
+    // The position advances at a different speed now
+    collector.positionWatcher?.sync()
   }
 
   // TODO: Requires exo 2.12
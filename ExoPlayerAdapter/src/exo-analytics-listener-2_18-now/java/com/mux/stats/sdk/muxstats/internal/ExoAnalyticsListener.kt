@@ -41,7 +41,8 @@ private class ExoAnalyticsListener(player: ExoPlayer, val collector:  MuxStateCo
     eventTime: EventTime,
     playbackParameters: PlaybackParameters
   ) {
-    //todo
+    // The position advances at a different speed now
+    collector.positionWatcher?.sync()
   }
 
   override fun onPlayWhenReadyChanged(
@@ -138,7 +139,8 @@ private class ExoAnalyticsListener(player: ExoPlayer, val collector:  MuxStateCo
         .onLoadCanceled(
           loadEventInfo.loadTaskId,
           loadEventInfo.uri.path,
-          loadEventInfo.responseHeaders
+          loadEventInfo.responseHeaders,
+          loadEventInfo.dataSpec
         )
     }
   }
@@ -155,7 +157,8 @@ private class ExoAnalyticsListener(player: ExoPlayer, val collector:  MuxStateCo
         loadEventInfo.uri.path,
         loadEventInfo.bytesLoaded,
         mediaLoadData.trackFormat,
-        loadEventInfo.responseHeaders
+        loadEventInfo.responseHeaders,
+        loadEventInfo.dataSpec
       )
     }
   }
@@ -167,7 +170,9 @@ private class ExoAnalyticsListener(player: ExoPlayer, val collector:  MuxStateCo
     e: IOException,
     wasCanceled: Boolean
   ) {
-    bandwidthMetricCollector.onLoadError(loadEventInfo.loadTaskId, loadEventInfo.uri.path, e)
+    bandwidthMetricCollector.onLoadError(
+      loadEventInfo.loadTaskId, loadEventInfo.uri.path, e, loadEventInfo.dataSpec
+    )
   }
 
   override fun onLoadStarted(
@@ -42,7 +42,8 @@ private class ExoAnalyticsListener(player: ExoPlayer, val collector:  MuxStateCo
     eventTime: AnalyticsListener.EventTime,
     playbackParameters: PlaybackParameters
   ) {
-    //todo
+    // The position advances at a different speed now
+    collector.positionWatcher?.sync()
   }
 
   // TODO: Requires exo 2.12
@@ -143,7 +144,8 @@ private class ExoAnalyticsListener(player: ExoPlayer, val collector:  MuxStateCo
         .onLoadCanceled(
           loadEventInfo.loadTaskId,
           loadEventInfo.uri.path,
-          loadEventInfo.responseHeaders
+          loadEventInfo.responseHeaders,
+          loadEventInfo.dataSpec
         )
     }
   }
@@ -159,7 +161,8 @@ private class ExoAnalyticsListener(player: ExoPlayer, val collector:  MuxStateCo
         loadEventInfo.uri.path,
         loadEventInfo.bytesLoaded,
         mediaLoadData.trackFormat,
-        loadEventInfo.responseHeaders
+        loadEventInfo.responseHeaders,
+        loadEventInfo.dataSpec
       )
     }
   }
@@ -171,7 +174,9 @@ private class ExoAnalyticsListener(player: ExoPlayer, val collector:  MuxStateCo
     e: IOException,
     wasCanceled: Boolean
   ) {
-    bandwidthMetricCollector.onLoadError(loadEventInfo.loadTaskId, loadEventInfo.uri.path, e)
+    bandwidthMetricCollector.onLoadError(
+      loadEventInfo.loadTaskId, loadEventInfo.uri.path, e, loadEventInfo.dataSpec
+    )
   }
 
   override fun onLoadStarted(
@@ -36,7 +36,8 @@ private class ExoAnalyticsListener(player: ExoPlayer, val collector:  MuxStateCo
     eventTime: EventTime,
     playbackParameters: PlaybackParameters
   ) {
-    //todo
+    // The position advances at a different speed now
+    collector.positionWatcher?.sync()
   }
 
   override fun onPlayerStateChanged(
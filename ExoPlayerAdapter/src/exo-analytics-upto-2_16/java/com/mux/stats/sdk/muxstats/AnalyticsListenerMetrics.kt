@@ -5,7 +5,6 @@ import com.google.android.exoplayer2.analytics.AnalyticsListener
 import com.mux.stats.sdk.core.util.MuxLogger
 import com.mux.stats.sdk.muxstats.exoplayeradapter.MuxPlayerAdapter
 import com.mux.stats.sdk.muxstats.exoplayeradapter.internal.logTag
-import com.mux.stats.sdk.muxstats.exoplayeradapter.internal.watchContentPosition
 import com.mux.stats.sdk.muxstats.exoplayeradapter.internal.weak
 import com.mux.stats.sdk.muxstats.internal.exoAnalyticsListener
 
@@ -20,13 +19,11 @@ private class AnalyticsListenerBindingUpTo16 : MuxPlayerAdapter.PlayerBinding<Si
   override fun bindPlayer(player: SimpleExoPlayer, collector:  MuxStateCollectorBase) {
     listener = exoAnalyticsListener(player, collector).also {
       player.addAnalyticsListener(it)
-      player.watchContentPosition(collector)
     }
   }
 
   override fun unbindPlayer(player: SimpleExoPlayer, collector:  MuxStateCollectorBase) {
     listener?.let { player.removeAnalyticsListener(it) }
-    collector.positionWatcher?.stop("unbound")
     listener = null
   }
 }
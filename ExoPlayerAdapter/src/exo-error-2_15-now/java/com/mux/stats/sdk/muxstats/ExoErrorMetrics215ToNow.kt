@@ -26,8 +26,6 @@ private class ExoErrorMetricsByListener215ToNow : MuxPlayerAdapter.PlayerBinding
   }
 
   override fun unbindPlayer(player: ExoPlayer, collector:  MuxStateCollectorBase) {
-    collector.positionWatcher?.stop("player unbound")
-    collector.positionWatcher = null
     playerListener?.let { player.removeListener(it) }
   }
 
@@ -28,8 +28,6 @@ private class ExoErrorMetricsByListenerJust214 : MuxPlayerAdapter.PlayerBinding<
   }
 
   override fun unbindPlayer(player: ExoPlayer, collector:  MuxStateCollectorBase) {
-    collector.positionWatcher?.stop("player unbound")
-    collector.positionWatcher = null
     playerListener?.let { player.removeListener(it) }
   }
 
@@ -10,7 +10,6 @@ import com.mux.stats.sdk.muxstats.exoplayeradapter.MuxPlayerAdapter
 import com.mux.stats.sdk.muxstats.exoplayeradapter.internal.handleExoPlaybackState
 import com.mux.stats.sdk.muxstats.exoplayeradapter.internal.handlePositionDiscontinuity
 import com.mux.stats.sdk.muxstats.exoplayeradapter.internal.logTag
-import com.mux.stats.sdk.muxstats.exoplayeradapter.internal.watchContentPosition
 import com.mux.stats.sdk.muxstats.exoplayeradapter.internal.weak
 
 /**
@@ -35,8 +34,6 @@ private class BasicExoMetrics14toNow : MuxPlayerAdapter.PlayerBinding<ExoPlayer>
   }
 
   override fun unbindPlayer(player: ExoPlayer, collector:  MuxStateCollectorBase) {
-    collector.positionWatcher?.stop("player unbound")
-    collector.positionWatcher = null
     playerListener?.let { player.removeListener(it) }
   }
 
@@ -73,7 +70,7 @@ private class PlayerListener(player: ExoPlayer, val collector:  MuxStateCollecto
     trackGroups: TrackGroupArray,
     trackSelections: TrackSelectionArray
   ) {
-    player?.watchContentPosition(collector)
+    collector.positionWatcher?.sync()
   }
 } // class PlayerListener
 
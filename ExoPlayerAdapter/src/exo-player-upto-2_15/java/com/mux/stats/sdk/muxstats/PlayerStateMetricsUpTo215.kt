@@ -5,7 +5,6 @@ import com.google.android.exoplayer2.SimpleExoPlayer
 import com.mux.stats.sdk.core.util.MuxLogger
 import com.mux.stats.sdk.muxstats.exoplayeradapter.MuxPlayerAdapter
 import com.mux.stats.sdk.muxstats.exoplayeradapter.internal.logTag
-import com.mux.stats.sdk.muxstats.exoplayeradapter.internal.watchContentPosition
 import com.mux.stats.sdk.muxstats.exoplayeradapter.internal.weak
 
 /**
@@ -30,12 +29,10 @@ private class PlayerStateMetricsTo215 : MuxPlayerAdapter.PlayerBinding<ExoPlayer
     } else {
       playerListener = basicExoEvents().also { it.bindPlayer(player, collector) }
     }
-    player.watchContentPosition(collector)
   }
 
   override fun unbindPlayer(player: ExoPlayer, collector:  MuxStateCollectorBase) {
     playerListener?.unbindPlayer(player, collector)
-    collector.positionWatcher?.stop("unbound")
     if (player is SimpleExoPlayer) {
       analyticsListener?.unbindPlayer(player, collector)
     }
@@ -1,6 +1,8 @@
 package com.mux.stats.sdk.muxstats
 
+import android.os.SystemClock
 import com.google.android.exoplayer2.Timeline
+import com.google.android.exoplayer2.upstream.DataSource
 import com.mux.stats.sdk.core.events.IEvent
 import com.mux.stats.sdk.core.events.IEventDispatcher
 import com.mux.stats.sdk.core.events.InternalErrorEvent
@@ -9,13 +11,21 @@ import com.mux.stats.sdk.core.model.BandwidthMetricData
 import com.mux.stats.sdk.core.model.CustomerVideoData
 import com.mux.stats.sdk.core.model.SessionTag
 import com.mux.stats.sdk.core.util.MuxLogger
+import com.mux.stats.sdk.muxstats.exoplayeradapter.InFlightLoadStats
 import com.mux.stats.sdk.muxstats.exoplayeradapter.MuxPlayerState
+import com.mux.stats.sdk.muxstats.exoplayeradapter.PositionSamplingPolicy
+import com.mux.stats.sdk.muxstats.exoplayeradapter.internal.AllowedHeaderList
 import com.mux.stats.sdk.muxstats.exoplayeradapter.internal.BandwidthMetricDispatcher
+import com.mux.stats.sdk.muxstats.exoplayeradapter.internal.ConnectionDetails
+import com.mux.stats.sdk.muxstats.exoplayeradapter.internal.ConnectionDetailsTable
+import com.mux.stats.sdk.muxstats.exoplayeradapter.internal.HeaderAllowlist
+import com.mux.stats.sdk.muxstats.exoplayeradapter.internal.RequestEventLimiter
+import com.mux.stats.sdk.muxstats.exoplayeradapter.internal.SharedTicker
+import com.mux.stats.sdk.muxstats.exoplayeradapter.internal.StateTransitions
+import com.mux.stats.sdk.muxstats.exoplayeradapter.internal.TransferTimings
 import com.mux.stats.sdk.muxstats.exoplayeradapter.internal.logTag
-import com.mux.stats.sdk.muxstats.exoplayeradapter.internal.noneOf
-import com.mux.stats.sdk.muxstats.exoplayeradapter.internal.oneOf
-import kotlinx.coroutines.*
 import java.util.*
+import java.util.concurrent.atomic.AtomicInteger
 import java.util.regex.Pattern
 import kotlin.properties.Delegates
 
@@ -26,6 +36,8 @@ import kotlin.properties.Delegates
  *
  * You should supply one of these to [MuxPlayerAdapter], and call is methods from your
  * [MuxPlayerAdapter.PlayerBinding]
+ *
+ * Each playback event sent to the [IEventDispatcher] is a new object, unless [reuseEvents] is set
  */
 abstract class  MuxStateCollectorBase(
   // TODO em: if  MuxStateCollectorBase is in MuxStats, don't need this janky block
@@ -85,9 +97,11 @@ abstract class  MuxStateCollectorBase(
   var sourceDurationMs: Long = TIME_UNKNOWN
 
   /**
-   * The current playback position of the player
+   * The current playback position of the player. While a [positionWatcher] is running, this is
+   * extrapolated from its last sample of the player
    */
   var playbackPositionMills: Long = TIME_UNKNOWN
+    get() = positionWatcher?.extrapolatePositionMillis() ?: field
 
   /**
    * The media bitrate advertised by the current media item
@@ -115,8 +129,8 @@ abstract class  MuxStateCollectorBase(
   var numberOfDroppedFrames: Long = 0;
 
   /**
-   * An asynchronous watcher for playback position. It waits for the given update interval, and
-   * then sets the [.playbackPositionMillis] property on this object. It can be stopped by
+   * A watcher for playback position. It samples the player's position when the player's state
+   * changes, and [playbackPositionMills] is extrapolated from there. It can be stopped by
    * calling [PositionWatcher.stop], and will automatically stop if it can no longer
    * access play time info
    */
@@ -125,17 +139,60 @@ abstract class  MuxStateCollectorBase(
             old?.apply { stop("watcher replaced") }
           }
 
+  /**
+   * How often the [positionWatcher] samples the player's position between state changes. If null,
+   * the watcher's [PositionWatcher.updateIntervalMillis] is used while seeking or starting up, with
+   * the defaults of [PositionSamplingPolicy] otherwise
+   */
+  var positionSamplingPolicy: PositionSamplingPolicy? = null
+    set(value) {
+      field = value
+      positionWatcher?.sync()
+    }
+
+  /**
+   * True if the app is in the foreground. The [positionSamplingPolicy] may sample less often while
+   * the app is in the background
+   */
+  var appInForeground: Boolean = true
+    set(value) {
+      if (field != value) {
+        field = value
+        positionWatcher?.sync()
+      }
+    }
+
+  /**
+   * Number of times the [positionWatcher]'s timer woke up to sample the position during the current
+   * view
+   */
+  var positionTicksInView: Int = 0
+    private set
+
   private var sessionTags: List<SessionTag> = Collections.emptyList()
 
   private var firstFrameRenderedAtMillis = FIRST_FRAME_NOT_RENDERED // Based on system time
-  private var seekingInProgress = false // TODO: em - We have a SEEKING state so why do we have this
   private var firstFrameReceived = false
 
-  private var pauseEventsSent = 0
-  private var playEventsSent = 0
-  private var totalEventsSent = 0
-  private var seekingEventsSent = 0
-  private var seekedEventsSent = 0
+  // Dispatched instead of new events while [reuseEvents] is true
+  private val timeUpdateEvent = TimeUpdateEvent(null)
+  private val playEvent = PlayEvent(null)
+  private val playingEvent = PlayingEvent(null)
+  private val pauseEvent = PauseEvent(null)
+  private val seekingEvent = SeekingEvent(null)
+  private val seekedEvent = SeekedEvent(null)
+  private val endedEvent = EndedEvent(null)
+  private val renditionChangeEvent = RenditionChangeEvent(null)
+  private val rebufferStartEvent = RebufferStartEvent(null)
+  private val rebufferEndEvent = RebufferEndEvent(null)
+
+  // The StateTransitions EMIT_ flags of every event sent since the view started
+  private var sentInView = 0
+
+  // Changes every time a new view starts
+  @get:JvmSynthetic
+  internal var viewIndex = 0
+    private set
 
   private var dead = false
 
@@ -144,9 +201,133 @@ abstract class  MuxStateCollectorBase(
 
   /**
    *  List of string patterns that will be used to determine if certain HTTP header will be
-   *  reported to the backend.
+   *  reported to the backend. Setting the list copies it, and later changes to the copy are
+   *  reported as they're made
    *  */
-  var allowedHeaders = ArrayList<AllowedHeaderSpec>()
+  var allowedHeaders: ArrayList<AllowedHeaderSpec> =
+    AllowedHeaderList(emptyList(), this) { updateHeaderAllowlist() }
+    @Synchronized set(value) {
+      field = AllowedHeaderList(value, this) { updateHeaderAllowlist() }
+      updateHeaderAllowlist()
+    }
+
+  /**
+   * Headers the collector asked to be reported, in addition to [allowedHeaders]. Unlike
+   * [allowedHeaders], these are kept across video changes.
+   */
+  var collectorAllowedHeaders: List<AllowedHeaderSpec> = emptyList()
+    @Synchronized set(value) {
+      field = value
+      updateHeaderAllowlist()
+    }
+
+  /**
+   * [allowedHeaders] and [collectorAllowedHeaders], compiled together. Replaced when either changes
+   */
+  @Volatile
+  @get:JvmSynthetic
+  internal var headerAllowlist: HeaderAllowlist = HeaderAllowlist.EMPTY
+    private set
+
+  /**
+   * Fraction of network request events that are reported, from 0 to 1. The collector can lower
+   * this to reduce its load.
+   */
+  var requestEventSampleRate = 1F
+
+  /**
+   * How often request events are summarized, in milliseconds, or 0 to send an event for each
+   * request, up to a limit per segment duration. When this is more than 0, every request is counted
+   * in a summary for its request type, and each interval sends at most one event of each kind per
+   * request type
+   */
+  var requestAggregationIntervalMillis = 0L
+
+  /**
+   * Number of request events of each kind (completed, canceled, failed) that can be sent at once,
+   * when request events are not summarized. See [requestEventsPerSecond]
+   */
+  var requestEventBurst = RequestEventLimiter.DEFAULT_BURST
+
+  /**
+   * Number of request events of each kind that can be sent per second on average, when request
+   * events are not summarized. Events past the limit are dropped and counted
+   */
+  var requestEventsPerSecond = RequestEventLimiter.DEFAULT_EVENTS_PER_SECOND
+
+  /**
+   * Notified when the player starts and finishes loading media, or null
+   */
+  var loadActivityListener: LoadActivityListener? = null
+
+  /**
+   * If true, state transitions dispatch the same event objects every time, so they don't allocate.
+   * Only set it if the dispatcher delivers each event before [IEventDispatcher.dispatch] returns,
+   * and no listener keeps a reference to an event after handling it. False by default
+   */
+  @Volatile
+  var reuseEvents = false
+
+  /**
+   * Sends the request summaries still waiting for their interval to end. Set by the
+   * [BandwidthMetricDispatcher], and run before the view changes and when this is released
+   */
+  @get:JvmSynthetic
+  @set:JvmSynthetic
+  internal var requestMetricsDrain: Runnable? = null
+
+  /**
+   * Reads the counters of the segment loads in flight. Set by the [BandwidthMetricDispatcher]
+   */
+  @get:JvmSynthetic
+  @set:JvmSynthetic
+  internal var inFlightLoadStatsSource: (() -> InFlightLoadStats)? = null
+
+  /**
+   * Counters of the segment loads that started and haven't finished yet, including the ones that
+   * were evicted because their end never arrived, or null if loads aren't tracked. Read on the
+   * thread the player calls back on
+   */
+  val inFlightLoadStats: InFlightLoadStats?
+    get() = inFlightLoadStatsSource?.invoke()
+
+  /**
+   * When each network request made through a [timedDataSourceFactory] was sent and answered
+   */
+  @get:JvmSynthetic
+  internal val transferTimings = TransferTimings()
+
+  /**
+   * Wraps the player's [DataSource.Factory] so request events report when each request was sent,
+   * when its response started and when it ended, as seen by the data source. Without it, requests
+   * are timed from when the player says it started and finished loading
+   */
+  fun timedDataSourceFactory(upstream: DataSource.Factory): DataSource.Factory =
+    transferTimings.wrap(upstream)
+
+  /**
+   * How the HTTP client made recent requests, until their loads finish
+   */
+  @get:JvmSynthetic
+  internal val connectionDetails = ConnectionDetailsTable()
+
+  /**
+   * Records how the app's HTTP client made a request, so it's added to the request event for the
+   * load of that URL. Call this when the request finishes, before the player finishes the load
+   *
+   * @param url The URL that was requested
+   * @param protocol The negotiated protocol, like h2, h3 or http/1.1, or null if unknown
+   * @param socketReused True if the request used a connection that was already open
+   * @param handshakeMillis Time taken to connect, including the TLS handshake
+   */
+  fun recordConnection(
+    url: String,
+    protocol: String?,
+    socketReused: Boolean,
+    handshakeMillis: Long
+  ) {
+    connectionDetails.put(url, ConnectionDetails(protocol, socketReused, handshakeMillis))
+  }
 
 
   /**
@@ -198,21 +379,8 @@ abstract class  MuxStateCollectorBase(
    * reported as rebuffering events
    */
   fun buffering() {
-    // Only process buffering if we are not already buffering or seeking
-    if (_playerState.noneOf(
-        MuxPlayerState.BUFFERING,
-        MuxPlayerState.REBUFFERING,
-        MuxPlayerState.SEEKED
-      ) && !seekingInProgress
-    ) {
-      if (_playerState == MuxPlayerState.PLAYING) {
-        // If we were playing then the player buffers, that's re-buffering instead
-        rebufferingStarted()
-      } else {
-        _playerState = MuxPlayerState.BUFFERING
-        dispatch(TimeUpdateEvent(null))
-      }
-    }
+    // Only processed if we are not already buffering or seeking
+    transition(StateTransitions.INPUT_BUFFERING)
   }
 
   /**
@@ -220,13 +388,10 @@ abstract class  MuxStateCollectorBase(
    * the caller intends for the video to play
    */
   fun play() {
-    if (playEventsSent <= 0
-      || (!seekingInProgress
-              && _playerState.noneOf(MuxPlayerState.REBUFFERING, MuxPlayerState.SEEKED))
-    ) {
-      _playerState = MuxPlayerState.PLAY
-      dispatch(PlayEvent(null))
-    }
+    transition(
+      if (hasSent(StateTransitions.EMIT_PLAY)) StateTransitions.INPUT_PLAY
+      else StateTransitions.INPUT_FIRST_PLAY
+    )
   }
 
   /**
@@ -234,26 +399,15 @@ abstract class  MuxStateCollectorBase(
    * which is the state of preparing with intent to play
    * If seeking is in progress, this is ignored, when on seeked,state transitions to either playing,
    * or seeked from there
-   * If rebuffering was in progress,
+   * If rebuffering was in progress, a RebufferEndEvent is sent first
    */
   fun playing() {
-    // Negative Logic Version
-    if (seekingInProgress) {
-      // We will dispatch playing event after seeked event
+    if (_playerState == MuxPlayerState.SEEKING) {
+      // The playing event is sent after the seeked event instead
       MuxLogger.d("MuxStats", "Ignoring playing event, seeking in progress !!!")
       return
     }
-    if (_playerState.oneOf(MuxPlayerState.PAUSED, MuxPlayerState.FINISHED_PLAYING_ADS)) {
-      play()
-    } else if (_playerState == MuxPlayerState.REBUFFERING) {
-      rebufferingEnded()
-    } else if (_playerState == MuxPlayerState.PLAYING) {
-      // No need to re-enter the playing state
-      return
-    }
-
-    _playerState = MuxPlayerState.PLAYING
-    dispatch(PlayingEvent(null))
+    transition(StateTransitions.INPUT_PLAYING)
   }
 
   /**
@@ -264,20 +418,11 @@ abstract class  MuxStateCollectorBase(
    * Otherwise, we move to the PAUSED state and send a PauseEvent
    */
   fun pause() {
-    // Process unless we're already paused
-    if (_playerState == MuxPlayerState.SEEKED && pauseEventsSent > 0) {
-      // No pause event after seeked
-      return
-    }
-    if (_playerState == MuxPlayerState.REBUFFERING) {
-      rebufferingEnded()
-    }
-    if (seekingInProgress) {
-      seeked(false)
-      return
-    }
-    _playerState = MuxPlayerState.PAUSED
-    dispatch(PauseEvent(null))
+    // No pause event after seeked, unless it's the first one
+    transition(
+      if (hasSent(StateTransitions.EMIT_PAUSE)) StateTransitions.INPUT_PAUSE
+      else StateTransitions.INPUT_FIRST_PAUSE
+    )
   }
 
   /**
@@ -288,35 +433,26 @@ abstract class  MuxStateCollectorBase(
    */
   fun seeked(inferPlayingState: Boolean) {
     // Only handle if we were previously seeking
-    if (seekingInProgress) {
-      if (inferPlayingState) {
-        // If inferring playing state, we may also assume the player is playing based on
-        // collected state data
-        if (
-          (((System.currentTimeMillis() - firstFrameRenderedAtMillis
-                  > timeToWaitAfterFirstFrameReceived) && firstFrameReceived) || !mediaHasVideoTrack!!)
-          && seekingEventsSent > 0
-        ) {
-          // This is a playback !!!
-          dispatch(SeekedEvent(null))
-          seekingInProgress = false
-          MuxLogger.d("MuxStats", "Playing called from seeked event !!!")
-          playing()
-        } else {
-          // No playback yet.
-          MuxLogger.d("MuxStats", "Seeked before playback started");
-        }
-      } else {
-        // If not inferring player state, just dispatch the event
-        dispatch(SeekedEvent(null))
-        seekingInProgress = false
-        _playerState = MuxPlayerState.SEEKED
-      }
-
-
-      if (seekingEventsSent == 0) {
-        seekingInProgress = false
-      }
+    if (_playerState != MuxPlayerState.SEEKING) {
+      return
+    }
+    if (!inferPlayingState) {
+      // If not inferring player state, just dispatch the event
+      transition(StateTransitions.INPUT_SEEKED)
+    } else if (!hasSent(StateTransitions.EMIT_SEEKING)) {
+      // The view was reset while seeking, so this seek isn't part of it
+      transition(StateTransitions.INPUT_SEEKED_ABANDONED)
+    } else if (
+      ((System.currentTimeMillis() - firstFrameRenderedAtMillis
+              > timeToWaitAfterFirstFrameReceived) && firstFrameReceived) || !mediaHasVideoTrack!!
+    ) {
+      // If inferring playing state, we may also assume the player is playing based on
+      // collected state data
+      MuxLogger.d("MuxStats", "Playing called from seeked event !!!")
+      transition(StateTransitions.INPUT_SEEKED_PLAYING)
+    } else {
+      // No playback yet.
+      MuxLogger.d("MuxStats", "Seeked before playback started");
     }
   }
 
@@ -330,19 +466,11 @@ abstract class  MuxStateCollectorBase(
     //  This (I think?) causes state handling for another event to call seeked()
     //  We should eliminate the improper seeking() call, or find good criteria to ignore it,
     //  or reset seeking state (possibly other state data too) when ViewStart is dispatched (use an IEventListener I guess)
-    if (playEventsSent == 0) {
-      // Ignore this, we have received a seek event before we have received playerready event,
-      // so this event should be ignored.
-      return;
-    }
-    if (muxPlayerState == MuxPlayerState.PLAYING) {
-      dispatch(PauseEvent(null))
-    }
-    _playerState = MuxPlayerState.SEEKING
-    seekingInProgress = true
-    firstFrameRenderedAtMillis = FIRST_FRAME_NOT_RENDERED
-    dispatch(SeekingEvent(null))
-    firstFrameReceived = false
+    // Seeks before the first play event come before playerready, so they're ignored
+    transition(
+      if (hasSent(StateTransitions.EMIT_PLAY)) StateTransitions.INPUT_SEEKING
+      else StateTransitions.INPUT_SEEKING_BEFORE_PLAY
+    )
   }
 
   /**
@@ -350,9 +478,7 @@ abstract class  MuxStateCollectorBase(
    * A PauseEvent and EndedEvent will both be sent, and the state will be set to ENDED
    */
   fun ended() {
-    dispatch(PauseEvent(null))
-    dispatch(EndedEvent(null))
-    _playerState = MuxPlayerState.ENDED
+    transition(StateTransitions.INPUT_ENDED)
   }
 
   fun isPaused(): Boolean {
@@ -413,21 +539,21 @@ abstract class  MuxStateCollectorBase(
     this.sourceWidth = sourceWidth
     this.sourceHeight = sourceHeight
 
-    dispatch(RenditionChangeEvent(null))
+    dispatch(if (reuseEvents) renditionChangeEvent else RenditionChangeEvent(null))
   }
 
   /**
    * Call when an Ad begins playing
    */
   fun playingAds() {
-    _playerState = MuxPlayerState.PLAYING_ADS
+    transition(StateTransitions.INPUT_PLAYING_ADS)
   }
 
   /**
    * Call when all ads are finished being played
    */
   fun finishedPlayingAds() {
-    _playerState = MuxPlayerState.FINISHED_PLAYING_ADS
+    transition(StateTransitions.INPUT_FINISHED_PLAYING_ADS)
   }
 
   fun onMainPlaylistTags(tags: List<SessionTag>) {
@@ -443,6 +569,8 @@ abstract class  MuxStateCollectorBase(
    */
   fun release() {
     positionWatcher?.stop("tracker released")
+    requestMetricsDrain?.run()
+    requestMetricsDrain = null
     dead = true
   }
 
@@ -453,59 +581,92 @@ abstract class  MuxStateCollectorBase(
   private fun firstFrameRendered(): Boolean = !trackFirstFrameRendered
           || (firstFrameReceived && (System.currentTimeMillis() - firstFrameRenderedAtMillis > FIRST_FRAME_WAIT_MILLIS))
 
-  /**
-   * Called internally when the player starts rebuffering. Rebuffering is buffering after the
-   * initial content had started playing
-   */
-  private fun rebufferingStarted() {
-    _playerState = MuxPlayerState.REBUFFERING
-    dispatch(RebufferStartEvent(null))
-  }
-
-  /**
-   * Called internally when the player finishes rebuffering. Callers are responsible for setting the
-   * new appropriate player state
-   */
-  private fun rebufferingEnded() {
-    dispatch(RebufferEndEvent(null))
-  }
-
   private fun reset() {
+    // Summaries belong to the view that's ending
+    requestMetricsDrain?.run()
+    MuxLogger.d(logTag(), "Position ticks in view: $positionTicksInView")
+    positionTicksInView = 0
+    viewIndex++
     mimeType = null
     numberOfDroppedFrames = 0;
-    playEventsSent = 0
-    pauseEventsSent = 0
-    totalEventsSent = 0
-    seekingEventsSent = 0
-    seekedEventsSent = 0
+    sentInView = 0
     firstFrameReceived = false
     firstFrameRenderedAtMillis = FIRST_FRAME_NOT_RENDERED
     currentTimelineWindow = Timeline.Window()
     allowedHeaders.clear()
   }
 
-  @JvmSynthetic
-  internal fun dispatch(event: IEvent) {
-    totalEventsSent++
-    when (event.type) {
-      PlayEvent.TYPE -> {
-        playEventsSent++
-      }
+  // allowedHeaders is changed while holding the same lock
+  @Synchronized
+  private fun updateHeaderAllowlist() {
+    headerAllowlist = HeaderAllowlist(allowedHeaders + collectorAllowedHeaders)
+  }
 
-      PauseEvent.TYPE -> {
-        pauseEventsSent++
-      }
+  /**
+   * Moves to the next state for the given input, and dispatches the events the transition calls
+   * for, in the order the [StateTransitions] defines
+   */
+  private fun transition(input: Int) {
+    val transition = StateTransitions.lookup(_playerState, input)
+    if (transition == StateTransitions.IGNORE) {
+      return
+    }
+    val previousState = _playerState
+    _playerState = StateTransitions.nextState(_playerState, transition)
+    sentInView = sentInView or transition
+    if (_playerState != previousState) {
+      // Listeners may read the position while handling these events, so sample it first
+      positionWatcher?.sync()
+    }
+    if (transition and StateTransitions.RESET_FIRST_FRAME != 0) {
+      firstFrameRenderedAtMillis = FIRST_FRAME_NOT_RENDERED
+      firstFrameReceived = false
+    }
+    emit(transition, StateTransitions.EMIT_REBUFFER_END, rebufferEndEvent) {
+      RebufferEndEvent(null)
+    }
+    emit(transition, StateTransitions.EMIT_PAUSE, pauseEvent) { PauseEvent(null) }
+    emit(transition, StateTransitions.EMIT_SEEKING, seekingEvent) { SeekingEvent(null) }
+    emit(transition, StateTransitions.EMIT_SEEKED, seekedEvent) { SeekedEvent(null) }
+    emit(transition, StateTransitions.EMIT_PLAY, playEvent) { PlayEvent(null) }
+    emit(transition, StateTransitions.EMIT_PLAYING, playingEvent) { PlayingEvent(null) }
+    emit(transition, StateTransitions.EMIT_ENDED, endedEvent) { EndedEvent(null) }
+    emit(transition, StateTransitions.EMIT_REBUFFER_START, rebufferStartEvent) {
+      RebufferStartEvent(null)
+    }
+    emit(transition, StateTransitions.EMIT_TIME_UPDATE, timeUpdateEvent) { TimeUpdateEvent(null) }
+  }
 
-      SeekingEvent.TYPE -> {
-        seekingEventsSent++
-      }
+  /**
+   * Dispatches the reused event, or a new one if [reuseEvents] is false, if the transition calls
+   * for it
+   */
+  private inline fun emit(transition: Int, emitFlag: Int, reused: IEvent, create: () -> IEvent) {
+    if (transition and emitFlag != 0) {
+      dispatch(if (reuseEvents) reused else create())
     }
+  }
+
+  /**
+   * True if at least one event of the given [StateTransitions] EMIT_ type was sent in this view
+   */
+  private fun hasSent(emitFlag: Int) = sentInView and emitFlag != 0
+
+  @JvmSynthetic
+  internal fun dispatch(event: IEvent) {
     dispatcher.dispatch(event)
   }
 
   /**
-   * Manages a timer loop in a coroutine scope that periodically polls the player for its current
-   * playback position. The polling is done from the main thread.
+   * Keeps track of the player's playback position without polling it. The position is sampled,
+   * along with the playback speed and the time, whenever the player's state changes or its position
+   * jumps, and is extrapolated from the last sample when it's read.
+   *
+   * Between state changes, the collector's [positionSamplingPolicy] decides how often the position
+   * is sampled again. While playing, samples correct for drift. While seeking, they pick up seeked
+   * events that may not otherwise be delivered in sequence. By default, it doesn't wake up at all
+   * in other states. Periodic samples are taken on the main thread, by a timer shared with every
+   * other watcher.
    *
    * This object should be stopped when no longer needed. To handle cases where users forget to
    * release our SDK, implementations should not hold strong references to big objects like context
@@ -519,39 +680,152 @@ abstract class  MuxStateCollectorBase(
     val updateIntervalMillis: Long,
     val stateCollector: MuxStateCollectorBase
   ) {
-    private val timerScope: CoroutineScope = CoroutineScope(Dispatchers.Default)
+    companion object {
+      private val liveWatchers = AtomicInteger(0)
+
+      /**
+       * Number of watchers in the process that were started and haven't been stopped yet. Useful
+       * for finding leaks
+       */
+      @JvmStatic
+      val liveCount: Int get() = liveWatchers.get()
+    }
+
+    // Used when the collector has no policy of its own
+    private val defaultPolicy = PositionSamplingPolicy(fastIntervalMillis = updateIntervalMillis)
+
+    private val tick = Runnable {
+      stateCollector.positionTicksInView++
+      sample(checkSeeked = true)
+    }
+    @Volatile private var stopped = false
+    private var live = false // Guarded by this object
+
+    // The last sample. Guarded by this object, since the position may be read on other threads
+    private var sampledPositionMillis = TIME_UNKNOWN
+    private var sampledAtRealtimeMillis = 0L
+    private var sampledSpeed = 0F
 
     protected abstract fun getTimeMillis(): Long?
 
+    /**
+     * Returns the player's playback speed, as a multiple of normal speed
+     */
+    protected open fun getPlaybackSpeed(): Float = 1F
+
     fun stop(message: String) {
-      timerScope.cancel(message)
+      MuxLogger.d(logTag(), "PositionWatcher stopped: $message")
+      synchronized(this) {
+        stopped = true
+        if (live) {
+          live = false
+          liveWatchers.decrementAndGet()
+        }
+      }
+      SharedTicker.unregister(tick)
     }
 
+    /**
+     * Registers with the shared timer, and takes the first sample on the main thread. Calling this
+     * again just takes a new sample
+     */
     fun start() {
-      timerScope.launch {
-        while (true) {
-          updateOnMain(this)
-          delay(updateIntervalMillis)
+      synchronized(this) {
+        if (stopped) {
+          return
+        }
+        if (!live) {
+          live = true
+          liveWatchers.incrementAndGet()
         }
       }
+      SharedTicker.schedule(tick, 0)
     }
 
-    private fun updateOnMain(coroutineScope: CoroutineScope) {
-      coroutineScope.launch(Dispatchers.Main) {
-        val position = getTimeMillis()
-        if (position != null) {
-          stateCollector.playbackPositionMills = position
-          // pick up seeked events that may not otherwise be delivered in sequence
-          if (stateCollector.seekingInProgress) {
-            stateCollector.seeked(true)
-          }
-        } else {
-          // If the data source is returning null, assume caller cleaned up the player
-          MuxLogger.d(logTag(), "PlaybackPositionWatcher: Player lost. Stopping")
-          stop("player lost")
+    /**
+     * Samples the position now. Call on the player's thread when something might have changed its
+     * position or speed, like a state change, a discontinuity or new playback parameters
+     */
+    fun sync() {
+      sample(checkSeeked = false)
+    }
+
+    /**
+     * Returns the position extrapolated from the last sample, or null if there isn't one
+     */
+    fun extrapolatePositionMillis(): Long? {
+      val position = synchronized(this) {
+        if (stopped || sampledPositionMillis == TIME_UNKNOWN) {
+          return null
         }
+        val elapsed = SystemClock.elapsedRealtime() - sampledAtRealtimeMillis
+        sampledPositionMillis + (elapsed * sampledSpeed).toLong()
+      }
+      val duration = stateCollector.sourceDurationMs
+      return if (duration > 0) position.coerceAtMost(duration) else position
+    }
+
+    private fun sample(checkSeeked: Boolean) {
+      if (stopped) {
+        // In case this was rescheduled while it was being stopped
+        SharedTicker.unregister(tick)
+        return
+      }
+      val position = getTimeMillis()
+      if (position == null) {
+        // If the data source is returning null, assume caller cleaned up the player
+        MuxLogger.d(logTag(), "PlaybackPositionWatcher: Player lost. Stopping")
+        stop("player lost")
+        return
+      }
+
+      val state = stateCollector.muxPlayerState
+      val speed = if (state == MuxPlayerState.PLAYING) getPlaybackSpeed() else 0F
+      synchronized(this) {
+        sampledPositionMillis = position
+        sampledAtRealtimeMillis = SystemClock.elapsedRealtime()
+        sampledSpeed = speed
+      }
+      // Kept for when this watcher is stopped
+      stateCollector.playbackPositionMills = position
+
+      if (checkSeeked && state == MuxPlayerState.SEEKING) {
+        // pick up seeked events that may not otherwise be delivered in sequence. This samples again
+        // if the state changes
+        stateCollector.seeked(true)
       }
+      scheduleNextSample()
     }
+
+    private fun scheduleNextSample() {
+      if (stopped) {
+        return
+      }
+      val policy = stateCollector.positionSamplingPolicy ?: defaultPolicy
+      val interval =
+        policy.intervalMillis(stateCollector.muxPlayerState, stateCollector.appInForeground)
+      if (interval < 0) { // PositionSamplingPolicy.SUSPENDED
+        SharedTicker.cancel(tick)
+      } else {
+        SharedTicker.schedule(tick, interval)
+      }
+    }
+  }
+
+  /**
+   * Listens for the player's media loads. Other network traffic can be timed to go out while the
+   * radio is already on for a load
+   */
+  interface LoadActivityListener {
+    /**
+     * Called when the player starts loading media
+     */
+    fun onLoadStarted()
+
+    /**
+     * Called when a load completes, fails or is canceled
+     */
+    fun onLoadFinished()
   }
 
   sealed class AllowedHeaderSpec {
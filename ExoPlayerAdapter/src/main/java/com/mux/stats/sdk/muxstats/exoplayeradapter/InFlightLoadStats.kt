@@ -0,0 +1,26 @@
+package com.mux.stats.sdk.muxstats.exoplayeradapter
+
+/**
+ * Counters of the segment loads a collector keeps track of between their start and their end, so
+ * their request events can describe the whole request. Loads whose end never arrives are evicted
+ * after a while, or when too many are in flight. The counters cover every view since the player
+ * was bound
+ *
+ * @param inFlight Number of loads that started and haven't finished yet
+ * @param peakInFlight Largest number of loads in flight at once
+ * @param evictedByAge Number of loads evicted because they were in flight for too long
+ * @param evictedByCapacity Number of loads evicted because too many were in flight
+ * @param cleared Number of loads still in flight when their view ended
+ */
+class InFlightLoadStats(
+  val inFlight: Int,
+  val peakInFlight: Int,
+  val evictedByAge: Long,
+  val evictedByCapacity: Long,
+  val cleared: Long,
+) {
+  override fun toString(): String {
+    return "InFlightLoadStats{inFlight=$inFlight, peakInFlight=$peakInFlight" +
+        ", evictedByAge=$evictedByAge, evictedByCapacity=$evictedByCapacity, cleared=$cleared}"
+  }
+}
@@ -16,8 +16,23 @@ class MuxPlayerAdapter<PlayerView, MainPlayer, ExtraPlayer>(
   val basicMetrics: PlayerBinding<MainPlayer>,
   @Suppress("MemberVisibilityCanBePrivate")
   val extraMetrics: ExtraPlayerBindings<ExtraPlayer>? = null,
+  private val positionWatcherFactory: PositionWatcherFactory<MainPlayer>? = null,
 ) {
 
+  /**
+   * The watcher tracking the position of [basicPlayer], or null if there isn't one. There's never
+   * more than one watcher per adapter: it's created when a player is bound, and stopped when the
+   * player is unbound
+   */
+  var positionWatcher: MuxStateCollectorBase.PositionWatcher? = null
+    private set
+
+  /**
+   * 1 if this adapter has a running position watcher, 0 if not. Useful for finding leaks
+   */
+  val livePositionWatcherCount: Int
+    get() = if (positionWatcher != null) 1 else 0
+
   /**
    * The main Player being observed by this Adapter. When changed, the old player will be unbound
    * and the new player will be bound
@@ -39,6 +54,7 @@ class MuxPlayerAdapter<PlayerView, MainPlayer, ExtraPlayer>(
 
   init {
     basicMetrics.bindPlayer(player, collector)
+    startPositionWatcher(player)
     extraMetrics?.bindings?.onEach { it.bindPlayer(extraMetrics.player!!, collector) }
   }
 
@@ -49,6 +65,7 @@ class MuxPlayerAdapter<PlayerView, MainPlayer, ExtraPlayer>(
     basicPlayer?.let { player ->
       basicMetrics.unbindPlayer(player, collector)
     }
+    stopPositionWatcher()
     extraPlayer?.let { player ->
       extraMetrics?.bindings?.onEach { binding -> binding.unbindPlayer(player, collector) }
     }
@@ -56,7 +73,31 @@ class MuxPlayerAdapter<PlayerView, MainPlayer, ExtraPlayer>(
 
   private fun changeBasicPlayer(player: MainPlayer?, collector: MuxStateCollectorBase) {
     basicPlayer?.let { oldPlayer -> basicMetrics.unbindPlayer(oldPlayer, collector) }
-    player?.let { newPlayer -> basicMetrics.bindPlayer(newPlayer, collector) }
+    stopPositionWatcher()
+    player?.let { newPlayer ->
+      basicMetrics.bindPlayer(newPlayer, collector)
+      startPositionWatcher(newPlayer)
+    }
+  }
+
+  private fun startPositionWatcher(player: MainPlayer) {
+    stopPositionWatcher()
+    positionWatcherFactory?.let { factory ->
+      val watcher = factory.createPositionWatcher(player, collector)
+      positionWatcher = watcher
+      collector.positionWatcher = watcher
+      watcher.start()
+    }
+  }
+
+  private fun stopPositionWatcher() {
+    positionWatcher?.let { watcher ->
+      watcher.stop("player unbound")
+      if (collector.positionWatcher === watcher) {
+        collector.positionWatcher = null
+      }
+    }
+    positionWatcher = null
   }
 
   private fun changeExtraPlayer(player: ExtraPlayer?, collector: MuxStateCollectorBase) {
@@ -88,6 +129,17 @@ class MuxPlayerAdapter<PlayerView, MainPlayer, ExtraPlayer>(
     fun unbindPlayer(player: Player, collector: MuxStateCollectorBase)
   }
 
+  /**
+   * Creates the [MuxStateCollectorBase.PositionWatcher] for a player being bound. The adapter
+   * starts it, and stops it when the player is unbound
+   */
+  fun interface PositionWatcherFactory<Player> {
+    fun createPositionWatcher(
+      player: Player,
+      collector: MuxStateCollectorBase
+    ): MuxStateCollectorBase.PositionWatcher
+  }
+
   /**
    * Container for bindings that gather metrics that may not be available from all players, such as
    * session data, or bandwidth metrics. These may come from a different source object (ie an
@@ -0,0 +1,55 @@
+package com.mux.stats.sdk.muxstats.exoplayeradapter
+
+import com.mux.stats.sdk.muxstats.MuxStateCollectorBase
+
+/**
+ * Decides how often a [MuxStateCollectorBase.PositionWatcher] samples the player's position between
+ * state changes, based on the player's state and whether the app is in the foreground.
+ *
+ * By default, the position is sampled every [fastIntervalMillis] while seeking or starting up,
+ * every [playingIntervalMillis] while playing, and not at all otherwise. While the app is in the
+ * background, it's sampled every [backgroundIntervalMillis], which by default means not at all.
+ * Seeks are sampled in the background too, since seeked events are detected by sampling.
+ *
+ * Override [intervalMillis] for other policies
+ *
+ * @param fastIntervalMillis Interval while seeking, and while starting playback
+ * @param playingIntervalMillis Interval while playing, to correct for drift in the extrapolated
+ *    position
+ * @param backgroundIntervalMillis Interval while the app is in the background and not seeking, or
+ *    [SUSPENDED]
+ */
+open class PositionSamplingPolicy @JvmOverloads constructor(
+  val fastIntervalMillis: Long = DEFAULT_FAST_INTERVAL_MILLIS,
+  val playingIntervalMillis: Long = DEFAULT_PLAYING_INTERVAL_MILLIS,
+  val backgroundIntervalMillis: Long = SUSPENDED,
+) {
+
+  companion object {
+    /**
+     * Returned by [intervalMillis] when the position shouldn't be sampled until the next state
+     * change
+     */
+    const val SUSPENDED = -1L
+
+    const val DEFAULT_FAST_INTERVAL_MILLIS = 150L
+    const val DEFAULT_PLAYING_INTERVAL_MILLIS = 5_000L
+  }
+
+  /**
+   * Returns how long to wait before the next sample, or [SUSPENDED] to wait for the next state
+   * change
+   *
+   * @param state The player's current state
+   * @param appInForeground True if the app is in the foreground
+   */
+  open fun intervalMillis(state: MuxPlayerState, appInForeground: Boolean): Long {
+    return when {
+      state == MuxPlayerState.SEEKING -> fastIntervalMillis
+      !appInForeground -> backgroundIntervalMillis
+      state == MuxPlayerState.PLAY || state == MuxPlayerState.BUFFERING -> fastIntervalMillis
+      state == MuxPlayerState.PLAYING -> playingIntervalMillis
+      else -> SUSPENDED
+    }
+  }
+}
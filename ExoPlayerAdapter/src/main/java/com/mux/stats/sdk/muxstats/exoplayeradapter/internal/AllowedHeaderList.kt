@@ -0,0 +1,209 @@
+package com.mux.stats.sdk.muxstats.exoplayeradapter.internal
+
+import com.mux.stats.sdk.muxstats.MuxStateCollectorBase.AllowedHeaderSpec
+import java.util.Arrays
+import java.util.ConcurrentModificationException
+import java.util.function.Predicate
+import java.util.function.UnaryOperator
+
+/**
+ * The ArrayList behind [com.mux.stats.sdk.muxstats.MuxStateCollectorBase.allowedHeaders]. Every
+ * change is made while holding [lock], then [onChange] is called, so the collector can replace its
+ * [HeaderAllowlist] no matter how the list was changed.
+ *
+ * ArrayList changes its array directly in its bulk operations, iterators and sub-lists, so those
+ * are all overridden here too. Iterators and sub-lists make their changes through this list's own
+ * methods.
+ */
+internal class AllowedHeaderList(
+  initial: Collection<AllowedHeaderSpec>,
+  private val lock: Any,
+  private val onChange: () -> Unit,
+) : ArrayList<AllowedHeaderSpec>(initial) {
+
+  override fun add(element: AllowedHeaderSpec): Boolean = changing { super.add(element) }
+
+  override fun add(index: Int, element: AllowedHeaderSpec) = changing { super.add(index, element) }
+
+  override fun addAll(elements: Collection<AllowedHeaderSpec>): Boolean =
+    changing { super.addAll(elements) }
+
+  override fun addAll(index: Int, elements: Collection<AllowedHeaderSpec>): Boolean =
+    changing { super.addAll(index, elements) }
+
+  override fun set(index: Int, element: AllowedHeaderSpec): AllowedHeaderSpec =
+    changing { super.set(index, element) }
+
+  override fun remove(element: AllowedHeaderSpec): Boolean = changing { super.remove(element) }
+
+  override fun removeAt(index: Int): AllowedHeaderSpec = changing { super.removeAt(index) }
+
+  override fun removeAll(elements: Collection<AllowedHeaderSpec>): Boolean =
+    changing { super.removeAll(elements) }
+
+  override fun retainAll(elements: Collection<AllowedHeaderSpec>): Boolean =
+    changing { super.retainAll(elements) }
+
+  override fun removeRange(fromIndex: Int, toIndex: Int) =
+    changing { super.removeRange(fromIndex, toIndex) }
+
+  override fun clear() = changing { super.clear() }
+
+  override fun removeIf(filter: Predicate<in AllowedHeaderSpec>): Boolean = changing {
+    val kept = filterNot { filter.test(it) }
+    val removed = kept.size < size
+    if (removed) {
+      super.clear()
+      super.addAll(kept)
+    }
+    removed
+  }
+
+  override fun replaceAll(operator: UnaryOperator<AllowedHeaderSpec>) = changing {
+    for (index in indices) {
+      super.set(index, operator.apply(super.get(index)))
+    }
+  }
+
+  override fun sort(c: Comparator<in AllowedHeaderSpec>?) = changing {
+    val sorted = toTypedArray()
+    Arrays.sort(sorted, c)
+    sorted.forEachIndexed { index, element -> super.set(index, element) }
+  }
+
+  override fun iterator(): MutableIterator<AllowedHeaderSpec> = Itr(0)
+
+  override fun listIterator(): MutableListIterator<AllowedHeaderSpec> = Itr(0)
+
+  override fun listIterator(index: Int): MutableListIterator<AllowedHeaderSpec> {
+    if (index < 0 || index > size) {
+      throw IndexOutOfBoundsException("Index: $index, Size: $size")
+    }
+    return Itr(index)
+  }
+
+  override fun subList(fromIndex: Int, toIndex: Int): MutableList<AllowedHeaderSpec> {
+    if (fromIndex < 0 || toIndex > size || fromIndex > toIndex) {
+      throw IndexOutOfBoundsException("fromIndex: $fromIndex, toIndex: $toIndex, size: $size")
+    }
+    return SubList(fromIndex, toIndex)
+  }
+
+  private inline fun <T> changing(block: () -> T): T = synchronized(lock) {
+    val result = block()
+    onChange()
+    result
+  }
+
+  private fun checkUnchanged(expectedModCount: Int) {
+    if (modCount != expectedModCount) {
+      throw ConcurrentModificationException()
+    }
+  }
+
+  private inner class Itr(private var cursor: Int) : MutableListIterator<AllowedHeaderSpec> {
+    private var lastReturned = -1
+    private var expectedModCount = modCount
+
+    override fun hasNext() = cursor < size
+
+    override fun hasPrevious() = cursor > 0
+
+    override fun nextIndex() = cursor
+
+    override fun previousIndex() = cursor - 1
+
+    override fun next(): AllowedHeaderSpec {
+      checkUnchanged(expectedModCount)
+      if (cursor >= size) {
+        throw NoSuchElementException()
+      }
+      lastReturned = cursor++
+      return get(lastReturned)
+    }
+
+    override fun previous(): AllowedHeaderSpec {
+      checkUnchanged(expectedModCount)
+      if (cursor <= 0) {
+        throw NoSuchElementException()
+      }
+      lastReturned = --cursor
+      return get(lastReturned)
+    }
+
+    override fun remove() {
+      check(lastReturned >= 0)
+      checkUnchanged(expectedModCount)
+      this@AllowedHeaderList.removeAt(lastReturned)
+      cursor = lastReturned
+      lastReturned = -1
+      expectedModCount = modCount
+    }
+
+    override fun set(element: AllowedHeaderSpec) {
+      check(lastReturned >= 0)
+      checkUnchanged(expectedModCount)
+      this@AllowedHeaderList[lastReturned] = element
+    }
+
+    override fun add(element: AllowedHeaderSpec) {
+      checkUnchanged(expectedModCount)
+      this@AllowedHeaderList.add(cursor++, element)
+      lastReturned = -1
+      expectedModCount = modCount
+    }
+  }
+
+  /**
+   * A range of this list. Fails like ArrayList's sub-lists do if this list is changed other than
+   * through the sub-list
+   */
+  private inner class SubList(
+    private val fromIndex: Int,
+    private var toIndex: Int,
+  ) : AbstractMutableList<AllowedHeaderSpec>(), RandomAccess {
+    private var expectedModCount = this@AllowedHeaderList.modCount
+
+    override val size: Int
+      get() {
+        checkUnchanged(expectedModCount)
+        return toIndex - fromIndex
+      }
+
+    override fun get(index: Int): AllowedHeaderSpec =
+      this@AllowedHeaderList[fromIndex + checkIndex(index, size)]
+
+    override fun set(index: Int, element: AllowedHeaderSpec): AllowedHeaderSpec =
+      this@AllowedHeaderList.set(fromIndex + checkIndex(index, size), element)
+
+    override fun add(index: Int, element: AllowedHeaderSpec) {
+      this@AllowedHeaderList.add(fromIndex + checkIndex(index, size + 1), element)
+      changedBy(1)
+    }
+
+    override fun removeAt(index: Int): AllowedHeaderSpec {
+      val removed = this@AllowedHeaderList.removeAt(fromIndex + checkIndex(index, size))
+      changedBy(-1)
+      return removed
+    }
+
+    override fun removeRange(fromIndex: Int, toIndex: Int) {
+      checkUnchanged(expectedModCount)
+      this@AllowedHeaderList.removeRange(this.fromIndex + fromIndex, this.fromIndex + toIndex)
+      changedBy(fromIndex - toIndex)
+    }
+
+    private fun changedBy(sizeChange: Int) {
+      toIndex += sizeChange
+      expectedModCount = this@AllowedHeaderList.modCount
+      modCount++
+    }
+
+    private fun checkIndex(index: Int, bound: Int): Int {
+      if (index < 0 || index >= bound) {
+        throw IndexOutOfBoundsException("Index: $index, Size: $size")
+      }
+      return index
+    }
+  }
+}
@@ -1,10 +1,12 @@
 package com.mux.stats.sdk.muxstats.exoplayeradapter.internal
 
+import android.os.SystemClock
 import com.google.android.exoplayer2.C
 import com.google.android.exoplayer2.ExoPlayer
 import com.google.android.exoplayer2.Format
 import com.google.android.exoplayer2.source.TrackGroup
 import com.google.android.exoplayer2.source.TrackGroupArray
+import com.google.android.exoplayer2.upstream.DataSpec
 import com.mux.stats.sdk.core.events.playback.PlaybackEvent
 import com.mux.stats.sdk.core.events.playback.RequestCanceled
 import com.mux.stats.sdk.core.events.playback.RequestCompleted
@@ -21,25 +23,35 @@ import java.util.*
  * point both HLS and DASH segments are processed in same way so all metrics are collected here.
  */
 internal open class BandwidthMetric(val player: ExoPlayer, val collector:  MuxStateCollectorBase) {
-    /** Available qualities. */
+    /** Available qualities. Setting them indexes their levels for {@link #onLoadCompleted}. */
     var availableTracks: TrackGroupArray? = null
+        set(value) {
+            field = value
+            renditionLevels = RenditionLevelIndex.of(value)
+        }
+
+    private var renditionLevels = RenditionLevelIndex.EMPTY_INDEX
 
     /**
      * Each segment that started loading is stored here until the segment ceases loading.
-     * The segment url is the key value of the map.
+     * The loadTaskId is the key value of the table. Segments that never finish are evicted
+     * eventually, and the table is cleared when a new view starts
      */
-    var loadedSegments: HashMap<Long, BandwidthMetricData> =  HashMap<Long, BandwidthMetricData>()
+    val loadedSegments: InFlightLoadTable = InFlightLoadTable()
+
+    // The collector's view when loadedSegments was last used
+    private var viewIndex = collector.viewIndex
 
     /**
      * When the segment failed to load an error will be reported to the backend. This also
-     * removes the segment that failed to load from the {@link #loadedSegments} hash map.
+     * removes the segment that failed to load from the {@link #loadedSegments} table.
      *
      * @param loadTaskId, unique segment id.
      * @param e, error that occured.
      * @return segment that failed to load.
      */
     open fun onLoadError(loadTaskId: Long, e: IOException): BandwidthMetricData {
-        var segmentData: BandwidthMetricData? = loadedSegments[loadTaskId]
+        var segmentData: BandwidthMetricData? = inFlightSegments().remove(loadTaskId)
         if (segmentData == null) {
             segmentData = BandwidthMetricData()
             // TODO We should see how to put minimal stats here !!!
@@ -61,7 +73,7 @@ internal open class BandwidthMetric(val player: ExoPlayer, val collector:  MuxSt
      * @return Canceled segment.
      */
     open fun onLoadCanceled(loadTaskId:Long): BandwidthMetricData {
-        var segmentData: BandwidthMetricData? = loadedSegments.get(loadTaskId)
+        var segmentData: BandwidthMetricData? = inFlightSegments().remove(loadTaskId)
         if (segmentData == null) {
             segmentData = BandwidthMetricData()
             // TODO We should see how to put minimal stats here !!!
@@ -85,7 +97,7 @@ internal open class BandwidthMetric(val player: ExoPlayer, val collector:  MuxSt
           }
       }
         val segmentData = BandwidthMetricData()
-        // TODO RequestStart timestamp is currently not available from ExoPlayer
+        // ExoPlayer doesn't say when the request was sent. TransferTimings can, if it's installed
         segmentData.requestResponseStart = System.currentTimeMillis()
         segmentData.requestMediaStartTime = mediaStartTimeMs
         if (segmentWidth != 0 && segmentHeight != 0) {
@@ -121,7 +133,7 @@ internal open class BandwidthMetric(val player: ExoPlayer, val collector:  MuxSt
         segmentData.requestResponseHeaders = null
         segmentData.requestHostName = host
         segmentData.requestRenditionLists = collector.renditionList
-        loadedSegments[loadTaskId] = segmentData
+        inFlightSegments().put(loadTaskId, segmentData, SystemClock.elapsedRealtime())
         return segmentData
     }
 
@@ -165,26 +177,31 @@ internal open class BandwidthMetric(val player: ExoPlayer, val collector:  MuxSt
      */
     open fun onLoadCompleted(loadTaskId:Long, segmentUrl:String?, bytesLoaded:Long, trackFormat:Format?)
             : BandwidthMetricData? {
-        val segmentData:BandwidthMetricData = loadedSegments[loadTaskId] ?: return null
+        val segmentData:BandwidthMetricData = inFlightSegments().remove(loadTaskId) ?: return null
       
       segmentData.setRequestBytesLoaded(bytesLoaded);
         segmentData.setRequestResponseEnd(System.currentTimeMillis());
-        if (trackFormat != null && availableTracks != null) {
-            for (i  in 0 until availableTracks!!.length) {
-                val tracks: TrackGroup = availableTracks!!.get(i)
-                for (trackGroupIndex in 0 until tracks.length) {
-                    val currentFormat:Format = tracks.getFormat(trackGroupIndex)
-                    if (trackFormat.width == currentFormat.width
-                        && trackFormat.height == currentFormat.height
-                        && trackFormat.bitrate == currentFormat.bitrate) {
-                        segmentData.setRequestCurrentLevel(trackGroupIndex);
-                    }
-                }
+        if (trackFormat != null) {
+            val level = renditionLevels.levelOf(
+                trackFormat.width, trackFormat.height, trackFormat.bitrate)
+            if (level != RenditionLevelIndex.NO_LEVEL) {
+                segmentData.setRequestCurrentLevel(level);
             }
         }
-        loadedSegments.remove(loadTaskId);
         return segmentData;
     }
+
+    /**
+     * Returns {@link #loadedSegments}, after dropping the segments of earlier views
+     */
+    private fun inFlightSegments(): InFlightLoadTable {
+        if (viewIndex != collector.viewIndex) {
+            viewIndex = collector.viewIndex
+            MuxLogger.d("BandwidthMetrics", "At view end: " + loadedSegments.stats())
+            loadedSegments.clear()
+        }
+        return loadedSegments
+    }
 }
 
 internal class BandwidthMetricHls(player: ExoPlayer,
@@ -226,16 +243,34 @@ internal class BandwidthMetricHls(player: ExoPlayer,
 internal class BandwidthMetricDispatcher(player: ExoPlayer,
                                 collector:  MuxStateCollectorBase
 ) {
+    companion object {
+        /**
+         * Added to the headers of a request event when events of its kind were dropped before it,
+         * with the number that were dropped. The SDK allows x-litix headers by default
+         */
+        const val DROPPED_EVENTS_HEADER = "x-litix-dropped-request-events"
+    }
+
     private val player: ExoPlayer? by weak(player)
     private val collector:  MuxStateCollectorBase? by weak(collector)
     protected var bandwidthMetricHls: BandwidthMetricHls = BandwidthMetricHls(player, collector)
     protected var debugModeOn:Boolean = false
-    protected var requestSegmentDuration:Long = 1000
-    protected var lastRequestSentAt:Long = -1
-    protected var maxNumberOfEventsPerSegmentDuration:Int = 10
-    protected var numberOfRequestCompletedBeaconsSentPerSegment:Int = 0
-    protected var numberOfRequestCancelBeaconsSentPerSegment:Int = 0
-    protected var numberOfRequestFailedBeaconsSentPerSegment:Int = 0
+    private var requestEventLimiter: RequestEventLimiter = RequestEventLimiter()
+    private val random = Random()
+    @Volatile private var requestAggregator: RequestMetricsAggregator? = null
+    private val drainRequestAggregator = object : Runnable {
+        override fun run() {
+            // Registered again by the next interval, so idle dispatchers aren't kept
+            SharedTicker.unregister(this)
+            drainRequestMetrics()
+        }
+    }
+
+    init {
+        // The collector sends what's summarized when the view ends, before the interval does
+        collector.requestMetricsDrain = drainRequestAggregator
+        collector.inFlightLoadStatsSource = { bandwidthMetricHls.loadedSegments.stats() }
+    }
 
 
     fun currentBandwidthMetric(): BandwidthMetricHls {
@@ -246,27 +281,36 @@ internal class BandwidthMetricDispatcher(player: ExoPlayer,
         return bandwidthMetricHls
     }
 
-    fun onLoadError(loadTaskId:Long, segmentUrl:String?, e:IOException) {
+    fun onLoadError(loadTaskId:Long, segmentUrl:String?, e:IOException,
+                    dataSpec: DataSpec? = null) {
+        collector?.loadActivityListener?.onLoadFinished()
         if (player == null ||  collector == null
             || currentBandwidthMetric() == null) {
             return;
         }
         var loadData:BandwidthMetricData = currentBandwidthMetric().onLoadError(loadTaskId, e)
+        applyTransferTiming(loadData, dataSpec)
+        applyConnectionDetails(loadData, dataSpec)
         dispatch(data = loadData, event = RequestFailed(null))
     }
 
-    fun onLoadCanceled(loadTaskId: Long, segmentUrl: String?, headers: Map<String, List<String>>) {
+    fun onLoadCanceled(loadTaskId: Long, segmentUrl: String?, headers: Map<String, List<String>>,
+                       dataSpec: DataSpec? = null) {
+        collector?.loadActivityListener?.onLoadFinished()
         if (player == null || collector == null
             || currentBandwidthMetric() == null) {
             return
         }
         val loadData:BandwidthMetricData = currentBandwidthMetric().onLoadCanceled(loadTaskId)
+        applyTransferTiming(loadData, dataSpec)
         parseHeaders(loadData, headers)
+        applyConnectionDetails(loadData, dataSpec)
         dispatch(loadData, RequestCanceled(null))
     }
 
     fun onLoadStarted(loadTaskId:Long, mediaStartTimeMs:Long, mediaEndTimeMs:Long, segmentUrl:String?,
                       dataType:Int, host:String?, segmentMimeType:String?, segmentWidth:Int, segmentHeight:Int) {
+        collector?.loadActivityListener?.onLoadStarted()
         if (player == null  || collector == null
             || currentBandwidthMetric() == null) {
             return
@@ -277,18 +321,37 @@ internal class BandwidthMetricDispatcher(player: ExoPlayer,
 
     fun onLoadCompleted(
         loadTaskId:Long, segmentUrl:String?, bytesLoaded:Long, trackFormat:Format?,
-        responseHeaders:Map<String, List<String>>) {
+        responseHeaders:Map<String, List<String>>, dataSpec: DataSpec? = null) {
+        collector?.loadActivityListener?.onLoadFinished()
         if (player == null  || collector == null) {
             return
         }
         val loadData:BandwidthMetricData? = currentBandwidthMetric().onLoadCompleted(
             loadTaskId, segmentUrl, bytesLoaded, trackFormat)
         if (loadData != null) {
+            applyTransferTiming(loadData, dataSpec)
             parseHeaders(loadData, responseHeaders)
+            applyConnectionDetails(loadData, dataSpec)
             dispatch(loadData, RequestCompleted(null))
         }
     }
 
+    /**
+     * Replaces the load's timing with that of its network transfer, if the player's data sources
+     * come from {@link MuxStateCollectorBase#timedDataSourceFactory}
+     */
+    private fun applyTransferTiming(loadData: BandwidthMetricData, dataSpec: DataSpec?) {
+        collector?.transferTimings?.take(dataSpec)?.applyTo(loadData)
+    }
+
+    /**
+     * Adds how the HTTP client made the load's request to its headers, if the app reported it with
+     * {@link MuxStateCollectorBase#recordConnection}. Must be called after the headers are parsed
+     */
+    private fun applyConnectionDetails(loadData: BandwidthMetricData, dataSpec: DataSpec?) {
+        collector?.connectionDetails?.take(dataSpec?.uri?.toString())?.applyTo(loadData)
+    }
+
     fun parseHeaders(loadData:BandwidthMetricData, responseHeaders:Map<String, List<String>>) {
       val headers: Hashtable<String, String>? = parseHeaders(responseHeaders)
       if (headers != null) {
@@ -334,110 +397,104 @@ internal class BandwidthMetricDispatcher(player: ExoPlayer,
     }
 
     fun dispatch(data: BandwidthMetricData, event: PlaybackEvent) {
+        val aggregationIntervalMillis = collector?.requestAggregationIntervalMillis ?: 0L
+        if (aggregationIntervalMillis > 0) {
+            // Summaries are already bounded, so they're neither sampled nor limited
+            aggregate(data, event, aggregationIntervalMillis)
+            return
+        }
+        val sampleRate = collector?.requestEventSampleRate ?: 1F
+        if (sampleRate < 1F && random.nextFloat() >= sampleRate) {
+            // The collector asked for only some of the request events
+            return
+        }
         if (shouldDispatchEvent(data, event)) {
             event.bandwidthMetricData = data
             collector?.dispatch(event)
         }
     }
 
-    fun parseHeaders(responseHeaders:Map<String, List<String>>): Hashtable<String, String>? {
-        if (responseHeaders.isEmpty()) {
-            return null
+    /**
+     * Counts the request in the summary of its request type. The summaries are sent once the
+     * interval that the first of them opened is over
+     */
+    private fun aggregate(data: BandwidthMetricData, event: PlaybackEvent, intervalMillis: Long) {
+        var aggregator = requestAggregator
+        if (aggregator == null || aggregator.intervalMillis != intervalMillis) {
+            // Send what was summarized at the old interval before starting over
+            drainRequestMetrics()
+            aggregator = RequestMetricsAggregator(intervalMillis)
+            requestAggregator = aggregator
         }
+        if (aggregator.record(event, data)) {
+            SharedTicker.schedule(drainRequestAggregator, intervalMillis)
+        }
+    }
 
-        val headers:Hashtable<String, String> = Hashtable<String, String>()
-        for (headerName in responseHeaders.keys) {
-            var headerAllowed = false
-            synchronized (this) {
-                for (allowedHeader in collector!!.allowedHeaders) {
-                    if (allowedHeader.isAllowed(headerName)) {
-                        headerAllowed = true
-                    }
-                }
+    /**
+     * Sends the events for every summary in the current interval, and ends it
+     */
+    private fun drainRequestMetrics() {
+        val aggregator = requestAggregator ?: return
+        for (summary in aggregator.drain()) {
+            if (debugModeOn) {
+                MuxLogger.d("BandwidthMetrics", summary.toString())
             }
-            if (!headerAllowed) {
-                // Pass this header, we do not need it
-                continue
-            }
-
-            val headerValues:List<String> = responseHeaders[headerName]!!
-            if (headerValues.size == 1) {
-              headers[headerName] = headerValues[0];
-            } else if (headerValues.size > 1) {
-                // In the case that there is more than one header, we squash
-                // it down to a single comma-separated value per RFC 2616
-                // https://www.w3.org/Protocols/rfc2616/rfc2616-sec4.html#sec4.2
-                var headerValue:String = headerValues[0]
-                for (i in 1 until headerValues.size) {
-                    headerValue = headerValue + ", " + headerValues[i];
-                }
-                headers[headerName] = headerValue;
+            for (event in summary.toEvents()) {
+                collector?.dispatch(event)
             }
         }
-        return headers;
+    }
+
+    fun parseHeaders(responseHeaders:Map<String, List<String>>): Hashtable<String, String>? {
+        val allowlist = collector?.headerAllowlist ?: return null
+        return allowlist.collect(responseHeaders)
     }
 
     /**
      * Make sure we do not overflow backend with Request events in case we have a broken live stream
      * and player keeps loading manifest or some other short segment not really needed for playback.
+     * Each kind of request event has its own budget, see {@link RequestEventLimiter}. The number
+     * of events dropped before this one is added to its headers as
+     * {@link #DROPPED_EVENTS_HEADER}.
      *
      * @param data, all statistics collected for this segment.
      * @param event, event to be dispatched.
-     * @return true if number of request completed events do not exceed two request per media
-     * segment duration.
+     * @return true if the event is within the budget for its kind.
      */
     fun shouldDispatchEvent(data:BandwidthMetricData, event:PlaybackEvent): Boolean {
-        if (data != null) {
-          requestSegmentDuration = if (data.requestMediaDuration == null || data.requestMediaDuration < 1000) {
-            1000;
-          } else {
-            data.requestMediaDuration;
-          }
-        }
-        val timeDiff:Long = System.currentTimeMillis() - lastRequestSentAt;
-        if (timeDiff > requestSegmentDuration) {
-            // Reset all stats
-            lastRequestSentAt = System.currentTimeMillis();
-            numberOfRequestCompletedBeaconsSentPerSegment = 0;
-            numberOfRequestCancelBeaconsSentPerSegment = 0;
-            numberOfRequestFailedBeaconsSentPerSegment = 0;
-        }
-        if (event is RequestCompleted) {
-            numberOfRequestCompletedBeaconsSentPerSegment ++;
-        }
-        if (event is RequestCanceled) {
-            numberOfRequestCancelBeaconsSentPerSegment ++;
-        }
-        if (event is RequestFailed) {
-            numberOfRequestFailedBeaconsSentPerSegment ++;
-        }
-        if (numberOfRequestCompletedBeaconsSentPerSegment > maxNumberOfEventsPerSegmentDuration
-            || numberOfRequestCancelBeaconsSentPerSegment > maxNumberOfEventsPerSegmentDuration
-            || numberOfRequestFailedBeaconsSentPerSegment > maxNumberOfEventsPerSegmentDuration) {
+        val kind = RequestEventLimiter.kindOf(event)
+        val dropped = currentRequestEventLimiter().tryAcquire(kind)
+        if (dropped == RequestEventLimiter.DROPPED) {
             if (debugModeOn) {
                 MuxLogger.d("BandwidthMetrics", "Dropping event: " + event.getType()
-                        + "\nnumberOfRequestCompletedBeaconsSentPerSegment: "
-                        + numberOfRequestCompletedBeaconsSentPerSegment
-                        + "\nnumberOfRequestCancelBeaconsSentPerSegment: "
-                        + numberOfRequestCancelBeaconsSentPerSegment
-                        + "\nnumberOfRequestFailedBeaconsSentPerSegment: "
-                        + numberOfRequestFailedBeaconsSentPerSegment
-                        + "\ntimeDiff: " + timeDiff
-                );
+                        + ", dropped so far: " + requestEventLimiter.droppedCount(kind))
             }
-            return false;
+            return false
+        }
+        if (dropped > 0) {
+            val headers = data.requestResponseHeaders ?: Hashtable<String, String>()
+            headers[DROPPED_EVENTS_HEADER] = dropped.toString()
+            data.requestResponseHeaders = headers
         }
         if (debugModeOn) {
             MuxLogger.d("BandwidthMetrics", "All good: " + event.getType()
-                    + "\nnumberOfRequestCompletedBeaconsSentPerSegment: "
-                    + numberOfRequestCompletedBeaconsSentPerSegment
-                    + "\nnumberOfRequestCancelBeaconsSentPerSegment: "
-                    + numberOfRequestCancelBeaconsSentPerSegment
-                    + "\nnumberOfRequestFailedBeaconsSentPerSegment: "
-                    + numberOfRequestFailedBeaconsSentPerSegment
-                    + "\ntimeDiff: " + timeDiff
-            );
+                    + ", dropped before it: " + dropped)
+        }
+        return true
+    }
+
+    /**
+     * Returns the limiter, after replacing it if the collector's budget changed
+     */
+    private fun currentRequestEventLimiter(): RequestEventLimiter {
+        val burst = collector?.requestEventBurst ?: RequestEventLimiter.DEFAULT_BURST
+        val eventsPerSecond = collector?.requestEventsPerSecond
+            ?: RequestEventLimiter.DEFAULT_EVENTS_PER_SECOND
+        if (requestEventLimiter.burst != burst
+            || requestEventLimiter.eventsPerSecond != eventsPerSecond) {
+            requestEventLimiter = RequestEventLimiter(burst, eventsPerSecond)
         }
-        return true;
+        return requestEventLimiter
     }
 }
\ No newline at end of file
@@ -46,7 +46,8 @@ fun  MuxStateCollectorBase.createExoPlayerAdapter(
     listOf(
       createExoSessionDataBinding()
     )
-  )
+  ),
+  positionWatcherFactory = { boundPlayer, collector -> boundPlayer.watchContentPosition(collector) }
 )
 
 private fun uiDelegate(context: Context, playerView: View?): MuxUiDelegate<View> {
@@ -0,0 +1,81 @@
+package com.mux.stats.sdk.muxstats.exoplayeradapter.internal
+
+import com.mux.stats.sdk.core.model.BandwidthMetricData
+import java.util.*
+
+/**
+ * How the network stack made one request, as reported by the app's HTTP client after the request
+ * finished. Request events have no fields for these, so they're added to the event's headers
+ */
+internal class ConnectionDetails(
+  /** The protocol negotiated with the server, like h2, h3 or http/1.1, or null if unknown */
+  val protocol: String?,
+  /** True if the request used a connection that was already open */
+  val socketReused: Boolean,
+  /** Time taken to connect, including the TLS handshake, or 0 if the socket was reused */
+  val handshakeMillis: Long,
+) {
+
+  companion object {
+    const val TRANSPORT_HEADER = "x-litix-transport"
+    const val PROTOCOL_HEADER = "x-litix-protocol"
+    const val SOCKET_REUSED_HEADER = "x-litix-socket-reused"
+    const val HANDSHAKE_HEADER = "x-litix-handshake-ms"
+  }
+
+  /** quic for HTTP/3 and Google QUIC, tcp for everything else */
+  val transport: String?
+    get() = when {
+      protocol.isNullOrEmpty() -> null
+      protocol.startsWith("h3") || protocol.contains("quic") -> "quic"
+      else -> "tcp"
+    }
+
+  fun applyTo(data: BandwidthMetricData) {
+    val headers = data.requestResponseHeaders ?: Hashtable<String, String>()
+    transport?.let { headers[TRANSPORT_HEADER] = it }
+    if (!protocol.isNullOrEmpty()) {
+      headers[PROTOCOL_HEADER] = protocol
+    }
+    headers[SOCKET_REUSED_HEADER] = socketReused.toString()
+    headers[HANDSHAKE_HEADER] = handshakeMillis.toString()
+    data.requestResponseHeaders = headers
+  }
+}
+
+/**
+ * Holds [ConnectionDetails] by URL until the load of that URL finishes. HTTP clients report
+ * requests on their own threads, usually just before the player finishes the load. The table
+ * holds up to [maxRequests] requests, forgetting the oldest when it's full
+ */
+internal class ConnectionDetailsTable(private val maxRequests: Int = DEFAULT_MAX_REQUESTS) {
+
+  companion object {
+    const val DEFAULT_MAX_REQUESTS = 64
+  }
+
+  private val byUrl = object : LinkedHashMap<String, ConnectionDetails>() {
+    override fun removeEldestEntry(
+      eldest: MutableMap.MutableEntry<String, ConnectionDetails>?
+    ): Boolean = size > maxRequests
+  }
+
+  /**
+   * Number of requests whose load hasn't taken them yet
+   */
+  val size: Int
+    @Synchronized get() = byUrl.size
+
+  @Synchronized
+  fun put(url: String, details: ConnectionDetails) {
+    // Re-inserted, so a URL requested again isn't the first to go
+    byUrl.remove(url)
+    byUrl[url] = details
+  }
+
+  /**
+   * Removes and returns the details of the last request for the URL, if there was one
+   */
+  @Synchronized
+  fun take(url: String?): ConnectionDetails? = url?.let { byUrl.remove(it) }
+}
@@ -0,0 +1,81 @@
+package com.mux.stats.sdk.muxstats.exoplayeradapter.internal
+
+import com.mux.stats.sdk.muxstats.MuxStateCollectorBase.AllowedHeaderSpec
+import java.util.*
+import java.util.concurrent.ConcurrentHashMap
+
+/**
+ * An immutable snapshot of the response headers that may be reported to the backend. Collectors
+ * replace their snapshot when the allowed headers change, instead of changing it, so it can be
+ * read on any thread without locking.
+ *
+ * Response headers have the same few names over and over, so the decision for each name is cached.
+ * The cache holds up to [maxCachedNames] names, and starts over when it's full
+ */
+internal class HeaderAllowlist(
+  specs: List<AllowedHeaderSpec>,
+  private val maxCachedNames: Int = DEFAULT_MAX_CACHED_NAMES,
+) {
+
+  companion object {
+    const val DEFAULT_MAX_CACHED_NAMES = 128
+
+    /**
+     * Allows no headers
+     */
+    @JvmField
+    val EMPTY = HeaderAllowlist(emptyList())
+  }
+
+  private val specs: Array<AllowedHeaderSpec> = specs.toTypedArray()
+  private val decisions = ConcurrentHashMap<String, Boolean>()
+
+  /**
+   * Returns true if a header with this name may be reported
+   */
+  fun isAllowed(headerName: String?): Boolean {
+    if (headerName == null || specs.isEmpty()) {
+      // Null names are status lines
+      return false
+    }
+    decisions[headerName]?.let { return it }
+
+    val allowed = specs.any { it.isAllowed(headerName) }
+    if (decisions.size >= maxCachedNames) {
+      decisions.clear()
+    }
+    decisions[headerName] = allowed
+    return allowed
+  }
+
+  /**
+   * Returns the allowed headers, with multiple values joined into a single comma-separated value
+   * per RFC 2616 (https://www.w3.org/Protocols/rfc2616/rfc2616-sec4.html#sec4.2). Returns null if
+   * there are no headers at all
+   */
+  fun collect(responseHeaders: Map<String, List<String>>): Hashtable<String, String>? {
+    if (responseHeaders.isEmpty()) {
+      return null
+    }
+    val headers = Hashtable<String, String>()
+    var joined: StringBuilder? = null
+    for ((headerName, headerValues) in responseHeaders) {
+      if (headerValues.isEmpty() || !isAllowed(headerName)) {
+        continue
+      }
+      if (headerValues.size == 1) {
+        headers[headerName] = headerValues[0]
+      } else {
+        val builder = joined?.apply { setLength(0) } ?: StringBuilder().also { joined = it }
+        for (valueIndex in headerValues.indices) {
+          if (valueIndex > 0) {
+            builder.append(", ")
+          }
+          builder.append(headerValues[valueIndex])
+        }
+        headers[headerName] = builder.toString()
+      }
+    }
+    return headers
+  }
+}
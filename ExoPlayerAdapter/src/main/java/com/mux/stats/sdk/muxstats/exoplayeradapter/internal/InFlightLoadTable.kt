@@ -0,0 +1,229 @@
+package com.mux.stats.sdk.muxstats.exoplayeradapter.internal
+
+import com.mux.stats.sdk.core.model.BandwidthMetricData
+import com.mux.stats.sdk.muxstats.exoplayeradapter.InFlightLoadStats
+
+/**
+ * Segment loads that started but haven't finished yet, keyed by ExoPlayer's loadTaskId. Keys are
+ * stored unboxed in an open-addressing table with linear probing, so adding and removing loads
+ * doesn't allocate.
+ *
+ * The table holds at most [capacity] loads. Loads whose completion never arrives are evicted once
+ * they're older than [maxAgeMillis], checked whenever a load is added, and if the table is still
+ * full, the oldest load is evicted to make room. Evictions are counted, see [stats]. Not
+ * thread-safe
+ */
+internal class InFlightLoadTable(
+  val capacity: Int = DEFAULT_CAPACITY,
+  val maxAgeMillis: Long = DEFAULT_MAX_AGE_MILLIS,
+) {
+
+  companion object {
+    const val DEFAULT_CAPACITY = 64
+    const val DEFAULT_MAX_AGE_MILLIS = 5 * 60 * 1000L
+
+    private const val EMPTY = -1 // in the slots array
+  }
+
+  // Twice the capacity, rounded up to a power of 2, so probe sequences stay short
+  private val slotCount = Integer.highestOneBit((capacity * 2 - 1).coerceAtLeast(1)) shl 1
+  private val mask = slotCount - 1
+
+  // Each slot holds an index into the entry arrays, or EMPTY
+  private val slots = IntArray(slotCount) { EMPTY }
+  private val keys = LongArray(capacity)
+  private val values = arrayOfNulls<BandwidthMetricData>(capacity)
+  private val startedAtMillis = LongArray(capacity)
+  private val slotOfEntry = IntArray(capacity)
+
+  // No load started before this, so nothing can expire until maxAgeMillis after it
+  private var oldestStartedAtMillis = Long.MAX_VALUE
+
+  /**
+   * Number of loads in the table
+   */
+  var size = 0
+    private set
+
+  /**
+   * Largest number of loads the table held at once
+   */
+  var peakSize = 0
+    private set
+
+  /**
+   * Number of loads evicted because they were older than [maxAgeMillis]
+   */
+  var evictedByAge = 0L
+    private set
+
+  /**
+   * Number of loads evicted because the table was full
+   */
+  var evictedByCapacity = 0L
+    private set
+
+  /**
+   * Number of loads dropped by [clear]
+   */
+  var cleared = 0L
+    private set
+
+  /**
+   * Adds a load that started at [nowMillis], replacing any load with the same id. Evicts loads
+   * older than [maxAgeMillis] first, and if the table is still full, the oldest load
+   */
+  fun put(loadTaskId: Long, data: BandwidthMetricData, nowMillis: Long) {
+    if (nowMillis - maxAgeMillis > oldestStartedAtMillis) {
+      evictExpired(nowMillis)
+    }
+    var slot = findSlot(loadTaskId)
+    if (slot == EMPTY) {
+      if (size == capacity) {
+        makeRoom(nowMillis)
+      }
+      val entry = size++
+      slot = freeSlotFor(loadTaskId)
+      slots[slot] = entry
+      slotOfEntry[entry] = slot
+      keys[entry] = loadTaskId
+      peakSize = maxOf(peakSize, size)
+    }
+    val entry = slots[slot]
+    values[entry] = data
+    startedAtMillis[entry] = nowMillis
+    oldestStartedAtMillis = minOf(oldestStartedAtMillis, nowMillis)
+  }
+
+  /**
+   * Returns the load with the given id, or null if there isn't one
+   */
+  operator fun get(loadTaskId: Long): BandwidthMetricData? {
+    val slot = findSlot(loadTaskId)
+    return if (slot == EMPTY) null else values[slots[slot]]
+  }
+
+  /**
+   * Removes and returns the load with the given id, or null if there isn't one
+   */
+  fun remove(loadTaskId: Long): BandwidthMetricData? {
+    val slot = findSlot(loadTaskId)
+    if (slot == EMPTY) {
+      return null
+    }
+    val data = values[slots[slot]]
+    removeSlot(slot)
+    return data
+  }
+
+  /**
+   * Evicts every load that started before [nowMillis] - [maxAgeMillis]
+   */
+  fun evictExpired(nowMillis: Long) {
+    val cutoff = nowMillis - maxAgeMillis
+    var oldest = Long.MAX_VALUE
+    var entry = 0
+    while (entry < size) {
+      if (startedAtMillis[entry] < cutoff) {
+        // The last entry moves here, so look at this index again
+        removeSlot(slotOfEntry[entry])
+        evictedByAge++
+      } else {
+        oldest = minOf(oldest, startedAtMillis[entry])
+        entry++
+      }
+    }
+    oldestStartedAtMillis = oldest
+  }
+
+  /**
+   * Removes every load
+   */
+  fun clear() {
+    cleared += size
+    slots.fill(EMPTY)
+    values.fill(null)
+    size = 0
+    oldestStartedAtMillis = Long.MAX_VALUE
+  }
+
+  /**
+   * Returns a snapshot of the table's counters
+   */
+  fun stats() = InFlightLoadStats(size, peakSize, evictedByAge, evictedByCapacity, cleared)
+
+  private fun makeRoom(nowMillis: Long) {
+    evictExpired(nowMillis)
+    if (size < capacity) {
+      return
+    }
+    var oldest = 0
+    for (entry in 1 until size) {
+      if (startedAtMillis[entry] < startedAtMillis[oldest]) {
+        oldest = entry
+      }
+    }
+    removeSlot(slotOfEntry[oldest])
+    evictedByCapacity++
+  }
+
+  private fun findSlot(loadTaskId: Long): Int {
+    var slot = home(loadTaskId)
+    while (true) {
+      val entry = slots[slot]
+      if (entry == EMPTY) {
+        return EMPTY
+      } else if (keys[entry] == loadTaskId) {
+        return slot
+      }
+      slot = (slot + 1) and mask
+    }
+  }
+
+  private fun freeSlotFor(loadTaskId: Long): Int {
+    var slot = home(loadTaskId)
+    while (slots[slot] != EMPTY) {
+      slot = (slot + 1) and mask
+    }
+    return slot
+  }
+
+  /**
+   * Empties a slot, keeping the entry arrays dense and every probe sequence unbroken
+   */
+  private fun removeSlot(slot: Int) {
+    val entry = slots[slot]
+    // Move the last entry into the hole, so entries stay in 0 until size
+    val last = --size
+    if (entry != last) {
+      keys[entry] = keys[last]
+      values[entry] = values[last]
+      startedAtMillis[entry] = startedAtMillis[last]
+      slotOfEntry[entry] = slotOfEntry[last]
+      slots[slotOfEntry[entry]] = entry
+    }
+    values[last] = null
+
+    // Shift later entries of the probe sequence back, instead of leaving a tombstone
+    var hole = slot
+    var next = (hole + 1) and mask
+    while (slots[next] != EMPTY) {
+      val home = home(keys[slots[next]])
+      // Entries can only move back to a slot between their home slot and where they are
+      val canMove = if (hole <= next) home <= hole || home > next else home <= hole && home > next
+      if (canMove) {
+        slots[hole] = slots[next]
+        slotOfEntry[slots[hole]] = hole
+        hole = next
+      }
+      next = (next + 1) and mask
+    }
+    slots[hole] = EMPTY
+  }
+
+  private fun home(loadTaskId: Long): Int {
+    // loadTaskIds are sequential, so spread them over the table
+    val hash = loadTaskId * -0x61c8864680b583ebL
+    return (hash xor (hash ushr 32)).toInt() and mask
+  }
+}
@@ -0,0 +1,123 @@
+package com.mux.stats.sdk.muxstats.exoplayeradapter.internal
+
+import com.google.android.exoplayer2.Format
+import com.google.android.exoplayer2.source.TrackGroupArray
+
+/**
+ * Finds the level of a rendition from its width, height and bitrate. The level is the index of
+ * the rendition's [Format] in its track group. The index is built once when the tracks change, so
+ * looking up a level is a hash lookup that doesn't allocate.
+ *
+ * If more than one format has the same width, height and bitrate, the first one in track order
+ * wins: the lowest group index, then the lowest format index in that group
+ */
+internal class RenditionLevelIndex(
+  private val widths: IntArray,
+  private val heights: IntArray,
+  private val bitrates: IntArray,
+  private val levels: IntArray,
+) {
+
+  companion object {
+    const val NO_LEVEL = -1
+
+    private const val EMPTY = -1 // in the slots array
+
+    /**
+     * An index with no renditions
+     */
+    @JvmField
+    val EMPTY_INDEX = RenditionLevelIndex(IntArray(0), IntArray(0), IntArray(0), IntArray(0))
+
+    /**
+     * Indexes every format of every track group
+     */
+    @JvmStatic
+    fun of(trackGroups: TrackGroupArray?): RenditionLevelIndex {
+      if (trackGroups == null) {
+        return EMPTY_INDEX
+      }
+      var formatCount = 0
+      for (groupIndex in 0 until trackGroups.length) {
+        formatCount += trackGroups.get(groupIndex).length
+      }
+      val widths = IntArray(formatCount)
+      val heights = IntArray(formatCount)
+      val bitrates = IntArray(formatCount)
+      val levels = IntArray(formatCount)
+      var entry = 0
+      for (groupIndex in 0 until trackGroups.length) {
+        val group = trackGroups.get(groupIndex)
+        for (formatIndex in 0 until group.length) {
+          val format: Format = group.getFormat(formatIndex)
+          widths[entry] = format.width
+          heights[entry] = format.height
+          bitrates[entry] = format.bitrate
+          levels[entry] = formatIndex
+          entry++
+        }
+      }
+      return RenditionLevelIndex(widths, heights, bitrates, levels)
+    }
+  }
+
+  // At least twice the number of renditions, rounded up to a power of 2. Slots hold array indexes
+  private val slots: IntArray
+  private val mask: Int
+
+  /**
+   * Number of renditions that weren't indexed, because an earlier one had the same width, height
+   * and bitrate
+   */
+  val duplicates: Int
+
+  init {
+    val slotCount = Integer.highestOneBit((widths.size * 2 - 1).coerceAtLeast(1)) shl 1
+    slots = IntArray(slotCount) { EMPTY }
+    mask = slotCount - 1
+    var duplicateCount = 0
+    for (entry in widths.indices) {
+      val slot = findSlot(widths[entry], heights[entry], bitrates[entry])
+      if (slots[slot] == EMPTY) {
+        slots[slot] = entry
+      } else {
+        duplicateCount++ // the earlier rendition keeps the slot
+      }
+    }
+    duplicates = duplicateCount
+  }
+
+  /**
+   * Returns the level of the rendition with the given size and bitrate, or [NO_LEVEL] if there
+   * isn't one
+   */
+  fun levelOf(width: Int, height: Int, bitrate: Int): Int {
+    val entry = slots[findSlot(width, height, bitrate)]
+    return if (entry == EMPTY) NO_LEVEL else levels[entry]
+  }
+
+  /**
+   * Returns the slot of the rendition with the given size and bitrate, or the empty slot where it
+   * would go
+   */
+  private fun findSlot(width: Int, height: Int, bitrate: Int): Int {
+    var slot = home(width, height, bitrate)
+    while (true) {
+      val entry = slots[slot]
+      if (entry == EMPTY
+        || (widths[entry] == width && heights[entry] == height && bitrates[entry] == bitrate)
+      ) {
+        return slot
+      }
+      slot = (slot + 1) and mask
+    }
+  }
+
+  private fun home(width: Int, height: Int, bitrate: Int): Int {
+    var hash = width
+    hash = 31 * hash + height
+    hash = 31 * hash + bitrate
+    hash *= -0x61c88647 // spreads similar sizes over the table
+    return (hash xor (hash ushr 16)) and mask
+  }
+}
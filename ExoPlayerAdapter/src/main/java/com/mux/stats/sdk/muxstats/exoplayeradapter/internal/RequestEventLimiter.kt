@@ -0,0 +1,83 @@
+package com.mux.stats.sdk.muxstats.exoplayeradapter.internal
+
+import android.os.SystemClock
+import com.mux.stats.sdk.core.events.playback.PlaybackEvent
+import com.mux.stats.sdk.core.events.playback.RequestCanceled
+import com.mux.stats.sdk.core.events.playback.RequestFailed
+
+/**
+ * Limits how many request events are sent, with a token bucket for each kind of request event
+ * (completed, canceled and failed), so a burst of one kind doesn't use up the budget of the others.
+ * Each bucket holds up to [burst] events, and refills at [eventsPerSecond] on a monotonic clock.
+ *
+ * Events that don't get through are counted, and the count is handed to the next event of the
+ * same kind that does, so the backend can scale its numbers back up. Methods can be called from
+ * any thread
+ */
+internal class RequestEventLimiter(
+  val burst: Int = DEFAULT_BURST,
+  val eventsPerSecond: Double = DEFAULT_EVENTS_PER_SECOND,
+  private val clock: () -> Long = { SystemClock.elapsedRealtime() },
+) {
+
+  companion object {
+    const val DEFAULT_BURST = 10
+    const val DEFAULT_EVENTS_PER_SECOND = 2.0
+
+    /** Returned by [tryAcquire] when the event should be dropped */
+    const val DROPPED = -1
+
+    const val KIND_COMPLETED = 0
+    const val KIND_CANCELED = 1
+    const val KIND_FAILED = 2
+    private const val KIND_COUNT = 3
+
+    @JvmStatic
+    fun kindOf(event: PlaybackEvent): Int = when (event) {
+      is RequestCanceled -> KIND_CANCELED
+      is RequestFailed -> KIND_FAILED
+      else -> KIND_COMPLETED
+    }
+  }
+
+  private val tokens = DoubleArray(KIND_COUNT) { burst.toDouble() }
+  private val refilledAt = LongArray(KIND_COUNT) { clock() }
+  private val droppedSinceLastSent = IntArray(KIND_COUNT)
+  private val droppedTotal = LongArray(KIND_COUNT)
+
+  /**
+   * Takes a token for an event of the given kind, if there is one.
+   *
+   * @return [DROPPED] if the event should be dropped, or else the number of events of this kind
+   *  that were dropped since the last one that got through
+   */
+  @Synchronized
+  fun tryAcquire(kind: Int): Int {
+    refill(kind)
+    if (tokens[kind] < 1.0) {
+      droppedSinceLastSent[kind]++
+      droppedTotal[kind]++
+      return DROPPED
+    }
+    tokens[kind] -= 1.0
+    val dropped = droppedSinceLastSent[kind]
+    droppedSinceLastSent[kind] = 0
+    return dropped
+  }
+
+  /**
+   * Number of events of the given kind dropped since this was created
+   */
+  @Synchronized
+  fun droppedCount(kind: Int): Long = droppedTotal[kind]
+
+  private fun refill(kind: Int) {
+    val now = clock()
+    val elapsedMillis = now - refilledAt[kind]
+    if (elapsedMillis <= 0) {
+      return
+    }
+    refilledAt[kind] = now
+    tokens[kind] = minOf(burst.toDouble(), tokens[kind] + elapsedMillis * eventsPerSecond / 1000.0)
+  }
+}
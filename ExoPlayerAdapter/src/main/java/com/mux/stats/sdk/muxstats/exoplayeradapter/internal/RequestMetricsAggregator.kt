@@ -0,0 +1,270 @@
+package com.mux.stats.sdk.muxstats.exoplayeradapter.internal
+
+import com.mux.stats.sdk.core.events.playback.PlaybackEvent
+import com.mux.stats.sdk.core.events.playback.RequestCanceled
+import com.mux.stats.sdk.core.events.playback.RequestCompleted
+import com.mux.stats.sdk.core.events.playback.RequestFailed
+import com.mux.stats.sdk.core.model.BandwidthMetricData
+import java.util.*
+
+/**
+ * Folds request events into one [Summary] per request type, over intervals of
+ * [intervalMillis]. Every request is counted, and each interval sends at most one request event of
+ * each kind per request type, no matter how many requests there were.
+ *
+ * Recording starts an interval if none is open. The owner calls [drain] once the interval is over,
+ * and sends [Summary.toEvents] for each summary. Methods can be called from any thread
+ */
+internal class RequestMetricsAggregator(val intervalMillis: Long = DEFAULT_INTERVAL_MILLIS) {
+
+  companion object {
+    const val DEFAULT_INTERVAL_MILLIS = 10_000L
+
+    // Requests with an unknown mime type have no type
+    private const val UNKNOWN_TYPE = "other"
+
+    /** Request id of the request-completed event that stands for a whole summary */
+    const val SUMMARY_REQUEST_ID = "summary"
+
+    // Added to the headers of the first event of each summary. The SDK allows x-litix headers
+    const val COMPLETED_HEADER = "x-litix-requests-completed"
+    const val FAILED_HEADER = "x-litix-requests-failed"
+    const val CANCELED_HEADER = "x-litix-requests-canceled"
+    const val LATENCY_P50_HEADER = "x-litix-latency-p50-ms"
+    const val LATENCY_P95_HEADER = "x-litix-latency-p95-ms"
+    const val THROUGHPUT_HEADER = "x-litix-throughput-bps"
+    const val THROUGHPUT_P5_HEADER = "x-litix-throughput-p5-kbps"
+    const val THROUGHPUT_P50_HEADER = "x-litix-throughput-p50-kbps"
+
+    private val LATENCY_BOUNDS_MILLIS = longArrayOf(
+      10, 25, 50, 100, 250, 500, 1000, 2500, 5000, 10000, 30000
+    )
+    private val THROUGHPUT_BOUNDS_KBPS = longArrayOf(
+      250, 500, 1000, 2500, 5000, 10000, 25000, 50000, 100000, 250000
+    )
+  }
+
+  /**
+   * Counts values in fixed buckets, for percentiles. Bucket `i` counts values up to `bounds[i]`,
+   * and the last bucket counts everything larger than the largest bound
+   */
+  class BucketCounts(private val bounds: LongArray) {
+    private val counts = LongArray(bounds.size + 1)
+
+    var count = 0L
+      private set
+    var max = 0L
+      private set
+
+    fun add(value: Long) {
+      val clamped = value.coerceAtLeast(0)
+      var bucket = 0
+      while (bucket < bounds.size && clamped > bounds[bucket]) {
+        bucket++
+      }
+      counts[bucket]++
+      count++
+      max = maxOf(max, clamped)
+    }
+
+    /**
+     * Returns an upper bound for the percentile (0 to 100): the bound of the bucket it falls in, or
+     * the largest value if it's in the last bucket. Returns 0 if nothing was counted
+     */
+    fun percentile(percentile: Double): Long {
+      if (count == 0L) {
+        return 0
+      }
+      val rank = Math.ceil(percentile.coerceIn(0.0, 100.0) / 100.0 * count).toLong()
+        .coerceAtLeast(1)
+      var seen = 0L
+      for (bucket in bounds.indices) {
+        seen += counts[bucket]
+        if (seen >= rank) {
+          return minOf(bounds[bucket], max)
+        }
+      }
+      return max
+    }
+  }
+
+  /**
+   * Everything requested of one type during one interval
+   */
+  class Summary(val requestType: String) {
+    var completed = 0
+      internal set
+    var failed = 0
+      internal set
+    var canceled = 0
+      internal set
+
+    /** Bytes loaded by completed requests */
+    var bytesLoaded = 0L
+      internal set
+
+    /** Sum of the time taken by completed requests */
+    var loadMillis = 0L
+      internal set
+
+    /** Sum of the media duration of completed requests, for media segments */
+    var mediaDurationMillis = 0L
+      internal set
+
+    /** Time taken by each completed request */
+    val latencyMillis = BucketCounts(LATENCY_BOUNDS_MILLIS)
+
+    /** Throughput of each completed request that took any time */
+    val throughputKbps = BucketCounts(THROUGHPUT_BOUNDS_KBPS)
+
+    internal var lastFailed: BandwidthMetricData? = null
+    internal var lastCanceled: BandwidthMetricData? = null
+    private var firstRequestStart: Long? = null
+    private var firstResponseStart = Long.MAX_VALUE
+    private var lastResponseEnd = Long.MIN_VALUE
+
+    /**
+     * Throughput while loading, over the total time taken by completed requests, in bits per
+     * second. Unlike the throughput of the event from [toEvents], this doesn't count the time
+     * between requests, and counts overlapping requests' time more than once
+     */
+    val throughputBps: Long
+      get() = if (loadMillis > 0) bytesLoaded * 8000 / loadMillis else 0
+
+    internal fun add(event: PlaybackEvent, data: BandwidthMetricData) {
+      when (event) {
+        is RequestCompleted -> {
+          val start = data.requestResponseStart ?: 0L
+          val end = data.requestResponseEnd ?: start
+          val bytes = data.requestBytesLoaded ?: 0L
+          val millis = (end - start).coerceAtLeast(0)
+          completed++
+          bytesLoaded += bytes
+          loadMillis += millis
+          mediaDurationMillis += data.requestMediaDuration ?: 0L
+          latencyMillis.add(millis)
+          if (millis > 0) {
+            throughputKbps.add(bytes * 8 / millis)
+          }
+          data.requestStart?.let { firstRequestStart = minOf(firstRequestStart ?: it, it) }
+          firstResponseStart = minOf(firstResponseStart, start)
+          lastResponseEnd = maxOf(lastResponseEnd, end)
+        }
+        is RequestFailed -> {
+          failed++
+          lastFailed = data
+        }
+        is RequestCanceled -> {
+          canceled++
+          lastCanceled = data
+        }
+      }
+    }
+
+    /**
+     * Returns the events that stand for this summary: a request-completed event for every
+     * completed request, plus the latest failed and canceled request, if any. The first event's
+     * headers carry the request counts and percentiles, see [COMPLETED_HEADER].
+     *
+     * The request-completed event isn't any one request, so it has no URL, host or rendition, and
+     * its request id is [SUMMARY_REQUEST_ID]. It has the total bytes, and spans from the start of
+     * the first request to the end of the last, so the throughput the backend computes from it is
+     * the one seen over the interval, even if requests overlapped
+     */
+    fun toEvents(): List<PlaybackEvent> {
+      val events = ArrayList<PlaybackEvent>(3)
+      if (completed > 0) {
+        val data = BandwidthMetricData()
+        if (requestType != UNKNOWN_TYPE) {
+          data.setRequestType(requestType)
+        }
+        data.requestId = SUMMARY_REQUEST_ID
+        firstRequestStart?.let { data.setRequestStart(it) }
+        data.requestResponseStart = firstResponseStart
+        data.setRequestResponseEnd(lastResponseEnd)
+        data.setRequestBytesLoaded(bytesLoaded)
+        if (mediaDurationMillis > 0) {
+          data.setRequestMediaDuration(mediaDurationMillis)
+        }
+        events.add(RequestCompleted(null).apply { bandwidthMetricData = data })
+      }
+      lastFailed?.let { events.add(RequestFailed(null).apply { bandwidthMetricData = it }) }
+      lastCanceled?.let { events.add(RequestCanceled(null).apply { bandwidthMetricData = it }) }
+      events.firstOrNull()?.bandwidthMetricData?.let { addHeaders(it) }
+      return events
+    }
+
+    private fun addHeaders(data: BandwidthMetricData) {
+      val headers = data.requestResponseHeaders ?: Hashtable<String, String>()
+      headers[COMPLETED_HEADER] = completed.toString()
+      headers[FAILED_HEADER] = failed.toString()
+      headers[CANCELED_HEADER] = canceled.toString()
+      if (latencyMillis.count > 0) {
+        headers[LATENCY_P50_HEADER] = latencyMillis.percentile(50.0).toString()
+        headers[LATENCY_P95_HEADER] = latencyMillis.percentile(95.0).toString()
+      }
+      if (throughputKbps.count > 0) {
+        headers[THROUGHPUT_HEADER] = throughputBps.toString()
+        headers[THROUGHPUT_P5_HEADER] = throughputKbps.percentile(5.0).toString()
+        headers[THROUGHPUT_P50_HEADER] = throughputKbps.percentile(50.0).toString()
+      }
+      data.requestResponseHeaders = headers
+    }
+
+    override fun toString(): String {
+      return "RequestMetrics{type=$requestType, completed=$completed, failed=$failed" +
+          ", canceled=$canceled, bytes=$bytesLoaded, throughputBps=$throughputBps" +
+          ", latencyP50Ms=${latencyMillis.percentile(50.0)}" +
+          ", latencyP95Ms=${latencyMillis.percentile(95.0)}" +
+          ", throughputP5Kbps=${throughputKbps.percentile(5.0)}" +
+          ", throughputP50Kbps=${throughputKbps.percentile(50.0)}}"
+    }
+  }
+
+  private var summaries = LinkedHashMap<String, Summary>()
+
+  /**
+   * Number of requests recorded since this was created
+   */
+  var requestsRecorded = 0L
+    @Synchronized get
+    private set
+
+  /**
+   * Number of events sent for [requestsRecorded] requests, by whoever sent [Summary.toEvents]
+   */
+  var eventsDrained = 0L
+    @Synchronized get
+    private set
+
+  /**
+   * Adds a request event to its type's summary.
+   *
+   * @return true if this opened a new interval, so the owner should [drain] in [intervalMillis]
+   */
+  @Synchronized
+  fun record(event: PlaybackEvent, data: BandwidthMetricData): Boolean {
+    val opened = summaries.isEmpty()
+    val type = data.requestType ?: UNKNOWN_TYPE
+    summaries.getOrPut(type) { Summary(type) }.add(event, data)
+    requestsRecorded++
+    return opened
+  }
+
+  /**
+   * Ends the interval, and returns its summaries in the order their types were first seen
+   */
+  @Synchronized
+  fun drain(): List<Summary> {
+    if (summaries.isEmpty()) {
+      return emptyList()
+    }
+    val drained = ArrayList(summaries.values)
+    summaries = LinkedHashMap()
+    for (summary in drained) {
+      eventsDrained += (if (summary.completed > 0) 1 else 0) +
+          (if (summary.failed > 0) 1 else 0) + (if (summary.canceled > 0) 1 else 0)
+    }
+    return drained
+  }
+}
@@ -0,0 +1,115 @@
+package com.mux.stats.sdk.muxstats.exoplayeradapter.internal
+
+import android.os.Handler
+import android.os.Looper
+import android.os.SystemClock
+
+/**
+ * One timer on the main thread, shared by every client in the process. Each client asks to be run
+ * after its own delay, and all clients that are due run in the same main-looper message, so
+ * several players being monitored at once don't each need their own timer.
+ *
+ * Clients are registered the first time they're scheduled, and stay registered until they're
+ * unregistered. Methods can be called from any thread. Clients are always run on the main thread.
+ */
+internal object SharedTicker {
+
+  private const val NOT_DUE = Long.MAX_VALUE
+
+  private class Entry(val client: Runnable) {
+    var dueAtUptimeMillis = NOT_DUE
+  }
+
+  private val handler by lazy { Handler(Looper.getMainLooper()) }
+  private val tick = Runnable { runDueClients() }
+  private val entries = ArrayList<Entry>()
+  private var inTick = false
+
+  // Only used on the main thread, while running a tick
+  private val dueClients = ArrayList<Runnable>()
+
+  /**
+   * Number of clients currently registered
+   */
+  val registeredCount: Int
+    @Synchronized get() = entries.size
+
+  /**
+   * Number of main-looper messages that ran clients. For tests
+   */
+  @Volatile
+  var ticksRun = 0L
+    private set
+
+  /**
+   * Runs the client on the main thread after the given delay, replacing any earlier schedule for
+   * it. Registers the client if it isn't registered
+   */
+  @Synchronized
+  fun schedule(client: Runnable, delayMillis: Long) {
+    val entry = entries.firstOrNull { it.client === client } ?: Entry(client).also { entries.add(it) }
+    entry.dueAtUptimeMillis = SystemClock.uptimeMillis() + delayMillis.coerceAtLeast(0)
+    postNextTick()
+  }
+
+  /**
+   * Stops the client from running until it's scheduled again. It stays registered
+   */
+  @Synchronized
+  fun cancel(client: Runnable) {
+    entries.firstOrNull { it.client === client }?.dueAtUptimeMillis = NOT_DUE
+    postNextTick()
+  }
+
+  /**
+   * Stops the client from running, and forgets about it
+   */
+  @Synchronized
+  fun unregister(client: Runnable) {
+    entries.removeAll { it.client === client }
+    postNextTick()
+  }
+
+  private fun runDueClients() {
+    synchronized(this) {
+      inTick = true
+      val now = SystemClock.uptimeMillis()
+      for (entry in entries) {
+        if (entry.dueAtUptimeMillis <= now) {
+          entry.dueAtUptimeMillis = NOT_DUE
+          dueClients.add(entry.client)
+        }
+      }
+    }
+    try {
+      ticksRun++
+      for (client in dueClients) {
+        client.run()
+      }
+    } finally {
+      dueClients.clear()
+      synchronized(this) {
+        inTick = false
+        postNextTick()
+      }
+    }
+  }
+
+  /**
+   * Posts a message for the client that's due next, if any. Must hold the lock
+   */
+  private fun postNextTick() {
+    if (inTick) {
+      // Clients can reschedule themselves while they run. Post once they've all run
+      return
+    }
+    var next = NOT_DUE
+    for (entry in entries) {
+      next = minOf(next, entry.dueAtUptimeMillis)
+    }
+    handler.removeCallbacks(tick)
+    if (next != NOT_DUE) {
+      handler.postAtTime(tick, next)
+    }
+  }
+}
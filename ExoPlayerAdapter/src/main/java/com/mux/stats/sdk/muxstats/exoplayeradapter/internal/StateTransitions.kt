@@ -0,0 +1,147 @@
+package com.mux.stats.sdk.muxstats.exoplayeradapter.internal
+
+import com.mux.stats.sdk.muxstats.MuxStateCollectorBase
+import com.mux.stats.sdk.muxstats.exoplayeradapter.MuxPlayerState
+import com.mux.stats.sdk.muxstats.exoplayeradapter.MuxPlayerState.*
+
+/**
+ * Transition table for the player states tracked by [MuxStateCollectorBase]. Each entry is
+ * indexed by the current [MuxPlayerState] and an input, and packs the next state and the events to
+ * dispatch into one Int, so a transition is a single array lookup.
+ *
+ * Inputs are the collector's callbacks. A callback whose outcome depends on what was already sent
+ * during the view, like the first play() of a view, maps to a separate input, so the table
+ * doesn't need any other context. A seek is in progress exactly when the state is [SEEKING].
+ */
+internal object StateTransitions {
+
+  const val INPUT_BUFFERING = 0
+  /** play(), after a PlayEvent was sent in this view */
+  const val INPUT_PLAY = 1
+  /** play(), before any PlayEvent was sent in this view */
+  const val INPUT_FIRST_PLAY = 2
+  const val INPUT_PLAYING = 3
+  /** pause(), after a PauseEvent was sent in this view */
+  const val INPUT_PAUSE = 4
+  /** pause(), before any PauseEvent was sent in this view */
+  const val INPUT_FIRST_PAUSE = 5
+  /** seeking(), after a PlayEvent was sent in this view */
+  const val INPUT_SEEKING = 6
+  /** seeking(), before any PlayEvent was sent in this view */
+  const val INPUT_SEEKING_BEFORE_PLAY = 7
+  /** seeked(), without inferring that playback resumed */
+  const val INPUT_SEEKED = 8
+  /** seeked(), with frames rendered since the seek, so playback resumed */
+  const val INPUT_SEEKED_PLAYING = 9
+  /** seeked(), for a seek that started before the view was reset */
+  const val INPUT_SEEKED_ABANDONED = 10
+  const val INPUT_ENDED = 11
+  const val INPUT_PLAYING_ADS = 12
+  const val INPUT_FINISHED_PLAYING_ADS = 13
+  const val INPUT_COUNT = 14
+
+  // Events to dispatch. When a transition sends more than one, they go in the order of these bits
+  const val EMIT_REBUFFER_END = 1 shl 4
+  const val EMIT_PAUSE = 1 shl 5
+  const val EMIT_SEEKING = 1 shl 6
+  const val EMIT_SEEKED = 1 shl 7
+  const val EMIT_PLAY = 1 shl 8
+  const val EMIT_PLAYING = 1 shl 9
+  const val EMIT_ENDED = 1 shl 10
+  const val EMIT_REBUFFER_START = 1 shl 11
+  const val EMIT_TIME_UPDATE = 1 shl 12
+
+  /** The first-frame tracking should start over, because the position jumped */
+  const val RESET_FIRST_FRAME = 1 shl 13
+
+  /** The transition does nothing */
+  const val IGNORE = 0
+
+  // The low bits hold the ordinal of the next state plus one, or 0 to keep the current state
+  private const val STATE_MASK = 0xF
+
+  private val states = MuxPlayerState.values()
+  private val table = IntArray(states.size * INPUT_COUNT)
+
+  init {
+    check(states.size < STATE_MASK) { "Too many states for the transition table" }
+    for (state in states) {
+      rule(state, INPUT_BUFFERING, when (state) {
+        BUFFERING, REBUFFERING, SEEKING, SEEKED -> IGNORE
+        // If we were playing then the player buffers, that's re-buffering instead
+        PLAYING -> to(REBUFFERING) or EMIT_REBUFFER_START
+        else -> to(BUFFERING) or EMIT_TIME_UPDATE
+      })
+
+      rule(state, INPUT_PLAY, when (state) {
+        REBUFFERING, SEEKING, SEEKED -> IGNORE
+        else -> to(PLAY) or EMIT_PLAY
+      })
+      // The first play of a view is always recorded
+      rule(state, INPUT_FIRST_PLAY, to(PLAY) or EMIT_PLAY)
+
+      rule(state, INPUT_PLAYING, when (state) {
+        // We will dispatch playing event after seeked event
+        SEEKING, PLAYING -> IGNORE
+        PAUSED, FINISHED_PLAYING_ADS -> to(PLAYING) or EMIT_PLAY or EMIT_PLAYING
+        REBUFFERING -> to(PLAYING) or EMIT_REBUFFER_END or EMIT_PLAYING
+        else -> to(PLAYING) or EMIT_PLAYING
+      })
+
+      rule(state, INPUT_PAUSE, pauseRule(state, firstPause = false))
+      rule(state, INPUT_FIRST_PAUSE, pauseRule(state, firstPause = true))
+
+      // If the player was playing when the seek started, it's paused now
+      val pauseFirst = if (state == PLAYING) EMIT_PAUSE else 0
+      rule(state, INPUT_SEEKING, to(SEEKING) or pauseFirst or EMIT_SEEKING or RESET_FIRST_FRAME)
+      // Seeks before the first play come from setting up the player, so they're not reported
+      rule(state, INPUT_SEEKING_BEFORE_PLAY, IGNORE)
+
+      // Only seeks that are in progress can finish
+      val seeking = state == SEEKING
+      rule(state, INPUT_SEEKED, if (seeking) to(SEEKED) or EMIT_SEEKED else IGNORE)
+      rule(
+        state,
+        INPUT_SEEKED_PLAYING,
+        if (seeking) to(PLAYING) or EMIT_SEEKED or EMIT_PLAYING else IGNORE
+      )
+      // The seek belongs to the view before a reset, so the new view starts over. Before this
+      // table, the state stayed SEEKING with the seeking flag cleared. Every callback after that
+      // behaved as it does from INIT, only muxPlayerState and isPaused() differed
+      rule(state, INPUT_SEEKED_ABANDONED, if (seeking) to(INIT) else IGNORE)
+
+      rule(state, INPUT_ENDED, to(ENDED) or EMIT_PAUSE or EMIT_ENDED)
+      rule(state, INPUT_PLAYING_ADS, to(PLAYING_ADS))
+      rule(state, INPUT_FINISHED_PLAYING_ADS, to(FINISHED_PLAYING_ADS))
+    }
+  }
+
+  /**
+   * Returns the transition for the given state and input
+   */
+  fun lookup(state: MuxPlayerState, input: Int): Int = table[state.ordinal * INPUT_COUNT + input]
+
+  /**
+   * Returns the state the given transition leads to, from the given state
+   */
+  fun nextState(state: MuxPlayerState, transition: Int): MuxPlayerState {
+    val next = transition and STATE_MASK
+    return if (next == 0) state else states[next - 1]
+  }
+
+  private fun pauseRule(state: MuxPlayerState, firstPause: Boolean): Int = when (state) {
+    // SEEKED is the state of being paused after seeking, so only the first pause is reported
+    SEEKED -> if (firstPause) to(PAUSED) or EMIT_PAUSE else IGNORE
+    // If pause comes during rebuffering, then rebuffering is over
+    REBUFFERING -> to(PAUSED) or EMIT_REBUFFER_END or EMIT_PAUSE
+    // The seek is over, but playback didn't resume
+    SEEKING -> to(SEEKED) or EMIT_SEEKED
+    else -> to(PAUSED) or EMIT_PAUSE
+  }
+
+  private fun to(state: MuxPlayerState) = state.ordinal + 1
+
+  private fun rule(state: MuxPlayerState, input: Int, transition: Int) {
+    table[state.ordinal * INPUT_COUNT + input] = transition
+  }
+}
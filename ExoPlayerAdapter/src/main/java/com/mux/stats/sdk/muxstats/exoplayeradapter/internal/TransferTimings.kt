@@ -0,0 +1,112 @@
+package com.mux.stats.sdk.muxstats.exoplayeradapter.internal
+
+import com.google.android.exoplayer2.upstream.DataSource
+import com.google.android.exoplayer2.upstream.DataSpec
+import com.google.android.exoplayer2.upstream.TransferListener
+import com.mux.stats.sdk.core.model.BandwidthMetricData
+import java.util.*
+
+/**
+ * Times network transfers as the player's [DataSource]s see them, so request events can report
+ * when each request was really made and answered, instead of when the player said it started
+ * loading. Install it by wrapping the player's [DataSource.Factory] with [wrap].
+ *
+ * Transfers are matched with loads by URI and position. Finished transfers wait in a table until
+ * their load completes, fails or is canceled. The table holds up to [maxTransfers] transfers,
+ * forgetting the oldest when it's full. Callbacks come from the player's loading threads
+ */
+internal class TransferTimings(private val maxTransfers: Int = DEFAULT_MAX_TRANSFERS) :
+  TransferListener {
+
+  companion object {
+    const val DEFAULT_MAX_TRANSFERS = 64
+
+    private fun keyOf(dataSpec: DataSpec): String = "${dataSpec.uri}#${dataSpec.position}"
+  }
+
+  /**
+   * When one transfer happened, from [System.currentTimeMillis]
+   */
+  class Timing(val requestStartMillis: Long) {
+    /** When the response started, once the source was opened */
+    var responseStartMillis = requestStartMillis
+      internal set
+    var responseEndMillis = requestStartMillis
+      internal set
+    var bytesTransferred = 0L
+      internal set
+
+    fun applyTo(data: BandwidthMetricData) {
+      data.setRequestStart(requestStartMillis)
+      data.requestResponseStart = responseStartMillis
+      data.setRequestResponseEnd(responseEndMillis)
+    }
+  }
+
+  // Keyed by identity: each transfer reports the same DataSpec to every callback
+  private val inProgress = IdentityHashMap<DataSpec, Timing>()
+  private val finished = object : LinkedHashMap<String, Timing>() {
+    override fun removeEldestEntry(eldest: MutableMap.MutableEntry<String, Timing>?): Boolean =
+      size > maxTransfers
+  }
+
+  /**
+   * Number of transfers that finished, but whose load hasn't taken them yet
+   */
+  val finishedCount: Int
+    @Synchronized get() = finished.size
+
+  /**
+   * Returns a factory whose data sources report their transfers here
+   */
+  fun wrap(upstream: DataSource.Factory): DataSource.Factory = DataSource.Factory {
+    upstream.createDataSource().apply { addTransferListener(this@TransferTimings) }
+  }
+
+  /**
+   * Removes and returns the timing of the transfer for the given load, if it's finished
+   */
+  @Synchronized
+  fun take(dataSpec: DataSpec?): Timing? = dataSpec?.let { finished.remove(keyOf(it)) }
+
+  @Synchronized
+  override fun onTransferInitializing(source: DataSource, dataSpec: DataSpec, isNetwork: Boolean) {
+    if (!isNetwork) {
+      return
+    }
+    if (inProgress.size >= maxTransfers) {
+      // Transfers whose source failed to open never end
+      inProgress.clear()
+    }
+    inProgress[dataSpec] = Timing(System.currentTimeMillis())
+  }
+
+  @Synchronized
+  override fun onTransferStart(source: DataSource, dataSpec: DataSpec, isNetwork: Boolean) {
+    if (!isNetwork) {
+      return
+    }
+    val now = System.currentTimeMillis()
+    val timing = inProgress.getOrPut(dataSpec) { Timing(now) }
+    timing.responseStartMillis = now
+  }
+
+  @Synchronized
+  override fun onBytesTransferred(
+    source: DataSource,
+    dataSpec: DataSpec,
+    isNetwork: Boolean,
+    bytesTransferred: Int
+  ) {
+    if (isNetwork) {
+      inProgress[dataSpec]?.let { it.bytesTransferred += bytesTransferred }
+    }
+  }
+
+  @Synchronized
+  override fun onTransferEnd(source: DataSource, dataSpec: DataSpec, isNetwork: Boolean) {
+    val timing = inProgress.remove(dataSpec) ?: return
+    timing.responseEndMillis = System.currentTimeMillis()
+    finished[keyOf(dataSpec)] = timing
+  }
+}
@@ -22,6 +22,13 @@ import com.mux.stats.sdk.muxstats.MuxStateCollectorBase
 @JvmSynthetic // Hide from Java callers because all are external
 internal fun Any.oneOf(vararg accept: Any) = accept.contains(this)
 
+/**
+ * Returns true if the object is either of the parameters supplied. Unlike the vararg version, this
+ * doesn't allocate an array, so it's safe to call on every event
+ */
+@JvmSynthetic
+internal fun Any.oneOf(first: Any, second: Any) = this == first || this == second
+
 /**
  * Returns true if the object is not any of the parameters supplied
  */
@@ -56,6 +63,7 @@ internal fun isHlsExtensionAvailable() = hlsExtensionAvailable
  */
 @JvmSynthetic
 internal fun  MuxStateCollectorBase.handlePositionDiscontinuity(reason: Int) {
+  positionWatcher?.sync()
   // todo - other versions too
   when (reason) {
     Player.DISCONTINUITY_REASON_SEEK_ADJUSTMENT, Player.DISCONTINUITY_REASON_SEEK -> {
@@ -78,6 +86,7 @@ internal fun  MuxStateCollectorBase.handlePositionDiscontinuity(reason: Int) {
  */
 @JvmSynthetic // Hides from java
 internal fun  MuxStateCollectorBase.handlePositionDiscontinuityBefore218(reason: Int) {
+  positionWatcher?.sync()
   when (reason) {
     Player.DISCONTINUITY_REASON_SEEK -> {
       // If they seek while paused, this is how we know the seek is complete
@@ -227,19 +236,19 @@ internal fun ExoPlayer.MuxMediaHasVideoTrack(): Boolean {
 }
 
 /**
- * Returns and starts an object that will poll ExoPlayer for its content position every so often
- * and updated the given  MuxStateCollectorBase
+ * Returns an object that will track ExoPlayer's content position and update the given
+ * MuxStateCollectorBase. It isn't started
  */
-@Suppress("unused") // this method is used with some versions of ExoPlayer
 @JvmSynthetic // Hidden from Java callers, since the only ones are external
 internal fun ExoPlayer.watchContentPosition(stateCollector:  MuxStateCollectorBase):
          MuxStateCollectorBase.PositionWatcher =
-  ExoPositionWatcher(this, stateCollector).apply { start() }
+  ExoPositionWatcher(this, stateCollector)
 
 // -- private helper classes
 
 /**
- * Watches an ExoPlayer's position, polling it every {@link #UPDATE_INTERVAL_MILIS} milliseconds
+ * Watches an ExoPlayer's position. While seeking, it's polled every {@link #UPDATE_INTERVAL_MILIS}
+ * milliseconds
  */
 private class ExoPositionWatcher(player: ExoPlayer, stateCollector:  MuxStateCollectorBase) :
    MuxStateCollectorBase.PositionWatcher(
@@ -251,4 +260,5 @@ private class ExoPositionWatcher(player: ExoPlayer, stateCollector:  MuxStateCol
 
   private val player by weak(player) // don't hold the player because this object does async looping
   override fun getTimeMillis(): Long? = player?.contentPosition
+  override fun getPlaybackSpeed(): Float = player?.playbackParameters?.speed ?: 1F
 }
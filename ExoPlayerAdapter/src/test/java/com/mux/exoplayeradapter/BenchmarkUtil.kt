@@ -0,0 +1,25 @@
+package com.mux.exoplayeradapter
+
+import java.lang.management.ManagementFactory
+
+/**
+ * Runs the block [warmupRounds] times, then [measuredRounds] times, and returns the CPU time in
+ * nanoseconds and the bytes allocated by the measured rounds, in total. For benchmarks that are
+ * run by hand
+ */
+internal fun measureCpuAndAllocation(
+  warmupRounds: Int,
+  measuredRounds: Int,
+  block: () -> Unit
+): Pair<Long, Long> {
+  val threadBean = ManagementFactory.getThreadMXBean() as com.sun.management.ThreadMXBean
+  repeat(warmupRounds) { block() }
+  val threadId = Thread.currentThread().id
+  val startNanos = threadBean.currentThreadCpuTime
+  val startBytes = threadBean.getThreadAllocatedBytes(threadId)
+  repeat(measuredRounds) { block() }
+  return Pair(
+    threadBean.currentThreadCpuTime - startNanos,
+    threadBean.getThreadAllocatedBytes(threadId) - startBytes
+  )
+}
@@ -0,0 +1,51 @@
+package com.mux.exoplayeradapter
+
+import com.mux.stats.sdk.core.model.BandwidthMetricData
+import com.mux.stats.sdk.muxstats.exoplayeradapter.internal.ConnectionDetails
+import com.mux.stats.sdk.muxstats.exoplayeradapter.internal.ConnectionDetailsTable
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNotNull
+import org.junit.Assert.assertNull
+import org.junit.Test
+import java.util.Hashtable
+
+class ConnectionDetailsTableTests {
+
+  @Test
+  fun testAddsDetailsToHeaders() {
+    val data = BandwidthMetricData().apply {
+      requestResponseHeaders = Hashtable(mapOf("x-cdn" to "fastly"))
+    }
+    ConnectionDetails(protocol = "h3", socketReused = false, handshakeMillis = 42).applyTo(data)
+
+    val headers = data.requestResponseHeaders
+    assertEquals("response header", "fastly", headers["x-cdn"])
+    assertEquals("transport", "quic", headers[ConnectionDetails.TRANSPORT_HEADER])
+    assertEquals("protocol", "h3", headers[ConnectionDetails.PROTOCOL_HEADER])
+    assertEquals("socket reused", "false", headers[ConnectionDetails.SOCKET_REUSED_HEADER])
+    assertEquals("handshake", "42", headers[ConnectionDetails.HANDSHAKE_HEADER])
+  }
+
+  @Test
+  fun testTransports() {
+    assertEquals("h2", "tcp", ConnectionDetails("h2", true, 0).transport)
+    assertEquals("http/1.1", "tcp", ConnectionDetails("http/1.1", true, 0).transport)
+    assertEquals("draft h3", "quic", ConnectionDetails("h3-29", true, 0).transport)
+    assertEquals("google quic", "quic", ConnectionDetails("quic/1+spdy/3", true, 0).transport)
+    assertNull("unknown", ConnectionDetails("", true, 0).transport)
+  }
+
+  @Test
+  fun testForgetsOldestRequests() {
+    val table = ConnectionDetailsTable(maxRequests = 4)
+    for (segment in 0 until 10) {
+      table.put("https://cdn.example.com/seg-$segment.ts", ConnectionDetails("h2", true, 0))
+    }
+
+    assertEquals("requests held", 4, table.size)
+    assertNull("oldest", table.take("https://cdn.example.com/seg-0.ts"))
+    assertNotNull("newest", table.take("https://cdn.example.com/seg-9.ts"))
+    assertNull("taken", table.take("https://cdn.example.com/seg-9.ts"))
+    assertNull("no url", table.take(null))
+  }
+}
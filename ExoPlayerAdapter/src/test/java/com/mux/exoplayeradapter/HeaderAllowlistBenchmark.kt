@@ -0,0 +1,42 @@
+package com.mux.exoplayeradapter
+
+import com.mux.stats.sdk.muxstats.exoplayeradapter.internal.HeaderAllowlist
+import org.junit.Ignore
+import org.junit.Test
+
+/**
+ * Compares [HeaderAllowlist] with the header filtering BandwidthMetricDispatcher used to do, on
+ * segment responses from a few CDNs. Reports CPU time and bytes allocated per response. Run by
+ * hand. [HeaderAllowlistTests] checks correctness
+ */
+@Ignore("Benchmark, run by hand")
+class HeaderAllowlistBenchmark {
+
+  companion object {
+    private const val WARMUP_ROUNDS = 20_000
+    private const val MEASURED_ROUNDS = 100_000
+  }
+
+  @Test
+  fun benchmarkAgainstLegacyFiltering() {
+    val allowlist = HeaderAllowlist(CdnResponses.SDK_SPECS + CdnResponses.COLLECTOR_SPECS)
+
+    println("cdn\theaders\tlegacy ns\tlegacy B\tallowlist ns\tallowlist B")
+    for ((name, response) in CdnResponses.NAMES.zip(CdnResponses.ALL)) {
+      val legacy = measure { CdnResponses.legacyParseHeaders(response) }
+      val compiled = measure { allowlist.collect(response) }
+      println(
+        "$name\t${response.size}\t${legacy.first}\t${legacy.second}"
+                + "\t${compiled.first}\t${compiled.second}"
+      )
+    }
+  }
+
+  /**
+   * Returns the CPU time and the bytes allocated per call
+   */
+  private fun measure(block: () -> Unit): Pair<Long, Long> {
+    val (nanos, bytes) = measureCpuAndAllocation(WARMUP_ROUNDS, MEASURED_ROUNDS, block)
+    return Pair(nanos / MEASURED_ROUNDS, bytes / MEASURED_ROUNDS)
+  }
+}
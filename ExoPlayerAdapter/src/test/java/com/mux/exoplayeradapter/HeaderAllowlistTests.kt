@@ -0,0 +1,216 @@
+package com.mux.exoplayeradapter
+
+import com.mux.stats.sdk.muxstats.MuxStateCollectorBase.AllowedHeaderSpec
+import com.mux.stats.sdk.muxstats.exoplayeradapter.internal.AllowedHeaderList
+import com.mux.stats.sdk.muxstats.exoplayeradapter.internal.HeaderAllowlist
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.util.*
+import java.util.regex.Pattern
+
+class HeaderAllowlistTests {
+
+  @Test
+  fun testMatchesLegacyFiltering() {
+    val allowlist = HeaderAllowlist(CdnResponses.SDK_SPECS + CdnResponses.COLLECTOR_SPECS)
+    // Twice, so the second pass uses cached decisions
+    repeat(2) {
+      for (response in CdnResponses.ALL) {
+        assertEquals(
+          "headers",
+          CdnResponses.legacyParseHeaders(response),
+          allowlist.collect(response)
+        )
+      }
+    }
+    assertEquals(
+      "joined values",
+      "cache-sea4463-SEA, cache-pdx12329-PDX",
+      allowlist.collect(CdnResponses.FASTLY)!!["X-Served-By"]
+    )
+  }
+
+  @Test
+  fun testCacheIsBounded() {
+    val allowlist = HeaderAllowlist(CdnResponses.SDK_SPECS, maxCachedNames = 4)
+    for (index in 0 until 100) {
+      assertFalse("made-up header $index", allowlist.isAllowed("x-made-up-$index"))
+    }
+    assertTrue("allowed after the cache started over", allowlist.isAllowed("X-Litix-Anything"))
+    assertFalse("null names", allowlist.isAllowed(null))
+  }
+
+  @Test
+  fun testListReportsEveryChange() {
+    var changes = 0
+    val list = AllowedHeaderList(CdnResponses.SDK_SPECS, this) { changes++ }
+    list.add(CdnResponses.COLLECTOR_SPECS[0])
+    list.addAll(CdnResponses.COLLECTOR_SPECS)
+    list.removeAt(list.size - 1)
+    list.iterator().apply { next(); remove() }
+    list.subList(0, 2).clear()
+    list.clear()
+
+    assertEquals("changes", 6, changes)
+    assertTrue("empty", list.isEmpty())
+  }
+
+  @Test
+  fun testListReportsChangesFromIteratorsViewsAndBulkOperations() {
+    val specs = List(6) { AllowedHeaderSpec.ExactlyIgnoreCase("x-header-$it") }
+    val (a, b, c, d, e) = specs
+    val f = specs[5]
+    var changes = 0
+    val list = AllowedHeaderList(listOf(a, b, c), this) { changes++ }
+
+    list.listIterator().apply {
+      next()
+      set(d)
+      add(e)
+    }
+    assertEquals(listOf(d, e, b, c), list)
+    list.removeIf { it === e }
+    list.replaceAll { if (it === d) a else it }
+    list.sortWith(compareByDescending { specs.indexOf(it) })
+    assertEquals(listOf(c, b, a), list)
+
+    list.subList(1, 3).apply {
+      add(f)
+      removeAt(0)
+      listIterator().apply { next(); remove() }
+    }
+    assertEquals(listOf(c, f), list)
+    list.listIterator(2).apply { previous(); remove() }
+
+    assertEquals("changes", 9, changes)
+    assertEquals(listOf(c), list)
+  }
+
+  @Test(expected = ConcurrentModificationException::class)
+  fun testSubListFailsAfterTheListChanged() {
+    val list = AllowedHeaderList(CdnResponses.SDK_SPECS, this) {}
+    val subList = list.subList(0, 2)
+    list.removeAt(0)
+    subList.clear()
+  }
+}
+
+/**
+ * Segment responses from a few CDNs, and the header filtering BandwidthMetricDispatcher did before
+ * [HeaderAllowlist]. Shared with [HeaderAllowlistBenchmark]
+ */
+internal object CdnResponses {
+
+  // What MuxStatsExoPlayer allows, plus what a collector might ask for
+  val SDK_SPECS = listOf(
+    AllowedHeaderSpec.ExactlyIgnoreCase("x-cdn"),
+    AllowedHeaderSpec.ExactlyIgnoreCase("content-type"),
+    AllowedHeaderSpec.ExactlyIgnoreCase("x-request-id"),
+    AllowedHeaderSpec.Matching(Pattern.compile("^x-litix-.*", Pattern.CASE_INSENSITIVE)),
+  )
+  val COLLECTOR_SPECS = listOf(
+    AllowedHeaderSpec.ExactlyIgnoreCase("x-amz-cf-pop"),
+    AllowedHeaderSpec.Matching(
+      Pattern.compile("^" + Pattern.quote("x-served-by"), Pattern.CASE_INSENSITIVE)
+    ),
+  )
+
+  val CLOUDFRONT = linkedMapOf(
+    "Content-Type" to listOf("video/mp2t"),
+    "Content-Length" to listOf("1843200"),
+    "Connection" to listOf("keep-alive"),
+    "Date" to listOf("Tue, 14 Mar 2023 18:21:07 GMT"),
+    "Last-Modified" to listOf("Tue, 14 Mar 2023 18:20:59 GMT"),
+    "ETag" to listOf("\"9b2cf535f27731c974343645a3985328\""),
+    "Cache-Control" to listOf("max-age=31536000"),
+    "Accept-Ranges" to listOf("bytes"),
+    "Server" to listOf("AmazonS3"),
+    "X-Cache" to listOf("Hit from cloudfront"),
+    "Via" to listOf("1.1 3f3a3b9a2e0b3b6f.cloudfront.net (CloudFront)"),
+    "X-Amz-Cf-Pop" to listOf("SEA19-C1"),
+    "X-Amz-Cf-Id" to listOf("0yGzJ3u2fDQ7gNUnhTM0iqk4k0mXnqgGRy8XNSvPZ1cLM8Wq1T9kBw=="),
+    "Age" to listOf("4213"),
+    "x-cdn" to listOf("cloudfront"),
+    "x-litix-session-id" to listOf("4c9a9f3c-8d3e-4b5e-9a37-1b2d9e0c7f11"),
+  )
+  val FASTLY = linkedMapOf(
+    "Content-Type" to listOf("video/mp4"),
+    "Content-Length" to listOf("912384"),
+    "Date" to listOf("Tue, 14 Mar 2023 18:21:07 GMT"),
+    "Via" to listOf("1.1 varnish", "1.1 varnish"),
+    "X-Served-By" to listOf("cache-sea4463-SEA", "cache-pdx12329-PDX"),
+    "X-Cache" to listOf("HIT", "HIT"),
+    "X-Cache-Hits" to listOf("1", "12"),
+    "X-Timer" to listOf("S1678818067.412134,VS0,VE0"),
+    "Accept-Ranges" to listOf("bytes"),
+    "Age" to listOf("187"),
+    "Cache-Control" to listOf("public, max-age=86400"),
+    "Access-Control-Allow-Origin" to listOf("*"),
+    "x-cdn" to listOf("fastly"),
+    "X-Request-Id" to listOf("a1f0c4e2-63c2-4ad9-b2e4-79e1d7f1c2ab"),
+    "X-Litix-Cdn-Edge" to listOf("sea4463"),
+  )
+  val AKAMAI = linkedMapOf(
+    "Content-Type" to listOf("video/mp2t"),
+    "Content-Length" to listOf("2211840"),
+    "Server" to listOf("AkamaiNetStorage"),
+    "Last-Modified" to listOf("Tue, 14 Mar 2023 18:20:59 GMT"),
+    "ETag" to listOf("\"8d1ef1f5f6b1ff2d4d6f6d4b4b7f8f0a:1678818059.123456\""),
+    "Expires" to listOf("Tue, 14 Mar 2023 18:21:09 GMT"),
+    "Cache-Control" to listOf("max-age=2"),
+    "Date" to listOf("Tue, 14 Mar 2023 18:21:07 GMT"),
+    "Connection" to listOf("keep-alive"),
+    "Access-Control-Allow-Origin" to listOf("*"),
+    "Access-Control-Expose-Headers" to listOf("Server", "Content-Length", "Date"),
+    "Akamai-Mon-Iucid-Del" to listOf("1234567"),
+    "Alt-Svc" to listOf("h3=\":443\"; ma=93600"),
+    "x-cdn" to listOf("akamai"),
+  )
+  val ALL = listOf(CLOUDFRONT, FASTLY, AKAMAI)
+  val NAMES = listOf("cloudfront", "fastly", "akamai")
+
+  private val legacyLock = Object()
+
+  /**
+   * BandwidthMetricDispatcher.parseHeaders, before the allowlist
+   */
+  fun legacyParseHeaders(
+    responseHeaders: Map<String, List<String>>
+  ): Hashtable<String, String>? {
+    if (responseHeaders.isEmpty()) {
+      return null
+    }
+    val headers = Hashtable<String, String>()
+    for (headerName in responseHeaders.keys) {
+      var headerAllowed = false
+      synchronized(legacyLock) {
+        for (allowedHeader in SDK_SPECS) {
+          if (allowedHeader.isAllowed(headerName)) {
+            headerAllowed = true
+          }
+        }
+        for (allowedHeader in COLLECTOR_SPECS) {
+          if (allowedHeader.isAllowed(headerName)) {
+            headerAllowed = true
+          }
+        }
+      }
+      if (!headerAllowed) {
+        continue
+      }
+      val headerValues = responseHeaders[headerName]!!
+      if (headerValues.size == 1) {
+        headers[headerName] = headerValues[0]
+      } else if (headerValues.size > 1) {
+        var headerValue = headerValues[0]
+        for (i in 1 until headerValues.size) {
+          headerValue = headerValue + ", " + headerValues[i]
+        }
+        headers[headerName] = headerValue
+      }
+    }
+    return headers
+  }
+}
@@ -0,0 +1,69 @@
+package com.mux.exoplayeradapter
+
+import com.mux.stats.sdk.core.model.BandwidthMetricData
+import com.mux.stats.sdk.muxstats.exoplayeradapter.internal.InFlightLoadTable
+import org.junit.Ignore
+import org.junit.Test
+
+/**
+ * Compares [InFlightLoadTable] with a HashMap on an hour of a live stream: 10k segment loads, a
+ * few in flight at a time, with some errors and cancellations. Reports the CPU time per load, the
+ * bytes allocated per load, and how many loads each one still holds. Run by hand.
+ * [InFlightLoadTableTests] checks correctness
+ */
+@Ignore("Benchmark, run by hand")
+class InFlightLoadTableBenchmark {
+
+  companion object {
+    private const val WARMUP_ROUNDS = 20
+    private const val MEASURED_ROUNDS = 50
+  }
+
+  private val data = Array(LiveHour.CONCURRENT_LOADS * 2) { BandwidthMetricData() }
+
+  @Test
+  fun benchmarkAgainstHashMap() {
+    var legacyHeld = 0
+    var tableHeld = 0
+
+    val legacy = measure {
+      val map = HashMap<Long, BandwidthMetricData>()
+      LiveHour.run(
+        data,
+        put = { key, value, _ -> map[key] = value },
+        // onLoadError and onLoadCanceled used to only read the entry
+        abandon = { key -> map[key] },
+        complete = { key -> map.remove(key) }
+      )
+      legacyHeld = map.size
+    }
+    val compact = measure {
+      val table = InFlightLoadTable()
+      LiveHour.run(
+        data,
+        put = { key, value, now -> table.put(key, value, now) },
+        abandon = { key -> table.remove(key) },
+        complete = { key -> table.remove(key) }
+      )
+      tableHeld = table.size
+    }
+
+    println(
+      "loads/hour\tmap ns/load\tmap B/load\tmap held"
+              + "\ttable ns/load\ttable B/load\ttable held"
+    )
+    println(
+      "${LiveHour.SEGMENTS_PER_HOUR}\t${legacy.first}\t${legacy.second}\t$legacyHeld"
+              + "\t${compact.first}\t${compact.second}\t$tableHeld"
+    )
+  }
+
+  /**
+   * Returns the CPU time and the bytes allocated per load
+   */
+  private fun measure(block: () -> Unit): Pair<Long, Long> {
+    val (nanos, bytes) = measureCpuAndAllocation(WARMUP_ROUNDS, MEASURED_ROUNDS, block)
+    val loads = MEASURED_ROUNDS.toLong() * LiveHour.SEGMENTS_PER_HOUR
+    return Pair(nanos / loads, bytes / loads)
+  }
+}
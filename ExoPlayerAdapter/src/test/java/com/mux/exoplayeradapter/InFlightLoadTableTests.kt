@@ -0,0 +1,132 @@
+package com.mux.exoplayeradapter
+
+import com.mux.stats.sdk.core.model.BandwidthMetricData
+import com.mux.stats.sdk.muxstats.exoplayeradapter.internal.InFlightLoadTable
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertSame
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.util.Random
+
+class InFlightLoadTableTests {
+
+  private val data = Array(LiveHour.CONCURRENT_LOADS * 2) { BandwidthMetricData() }
+
+  @Test
+  fun testMatchesHashMap() {
+    val random = Random(LiveHour.SEED)
+    val table = InFlightLoadTable(capacity = 16, maxAgeMillis = Long.MAX_VALUE / 2)
+    val map = HashMap<Long, BandwidthMetricData>()
+
+    repeat(200_000) {
+      // Few distinct keys, so the table fills up and probe sequences collide
+      val key = random.nextInt(24).toLong() * 1_000_003L
+      when (random.nextInt(3)) {
+        0 -> if (map.size < table.capacity || map.containsKey(key)) {
+          val value = data[random.nextInt(data.size)]
+          table.put(key, value, 0)
+          map[key] = value
+        }
+        1 -> assertSame("removed $key", map.remove(key), table.remove(key))
+        else -> assertSame("got $key", map[key], table[key])
+      }
+      assertEquals("size", map.size, table.size)
+    }
+    assertEquals("no evictions", 0L, table.evictedByAge + table.evictedByCapacity)
+  }
+
+  @Test
+  fun testEvictsOrphansByAge() {
+    val table = InFlightLoadTable(capacity = 8, maxAgeMillis = 1_000)
+    table.put(1, data[0], 0)
+    table.put(2, data[1], 500)
+    table.evictExpired(1_200)
+
+    assertNull("old load", table[1])
+    assertSame("recent load", data[1], table[2])
+    assertEquals("evicted by age", 1L, table.evictedByAge)
+  }
+
+  @Test
+  fun testEvictsExpiredLoadsWhenAddingOne() {
+    val table = InFlightLoadTable(capacity = 8, maxAgeMillis = 1_000)
+    table.put(1, data[0], 0)
+    table.put(2, data[1], 500)
+    table.put(3, data[2], 1_200)
+
+    assertNull("old load", table[1])
+    assertSame("recent load", data[1], table[2])
+    val stats = table.stats()
+    assertEquals("in flight", 2, stats.inFlight)
+    assertEquals("peak", 2, stats.peakInFlight)
+    assertEquals("evicted by age", 1L, stats.evictedByAge)
+    assertEquals("evicted by capacity", 0L, stats.evictedByCapacity)
+
+    table.clear()
+    assertEquals("cleared", 2L, table.stats().cleared)
+    assertEquals("in flight after clear", 0, table.stats().inFlight)
+  }
+
+  @Test
+  fun testEvictsOldestWhenFull() {
+    val table = InFlightLoadTable(capacity = 4, maxAgeMillis = Long.MAX_VALUE / 2)
+    for (key in 0L until 6L) {
+      table.put(key, data[0], key)
+    }
+
+    assertEquals("size", 4, table.size)
+    assertNull("oldest load", table[0])
+    assertNull("second-oldest load", table[1])
+    assertSame("newest load", data[0], table[5])
+    assertEquals("evicted by capacity", 2L, table.evictedByCapacity)
+  }
+
+  @Test
+  fun testOnlyHoldsLoadsInFlight() {
+    val table = InFlightLoadTable()
+    LiveHour.run(
+      data,
+      put = { key, value, now -> table.put(key, value, now) },
+      abandon = { key -> table.remove(key) },
+      complete = { key -> table.remove(key) }
+    )
+    assertTrue(
+      "the table should only hold loads in flight",
+      table.size <= LiveHour.CONCURRENT_LOADS
+    )
+  }
+}
+
+/**
+ * An hour of a live stream: [SEGMENTS_PER_HOUR] loads, [CONCURRENT_LOADS] in flight at a time.
+ * Some fail or are canceled. Shared with [InFlightLoadTableBenchmark]
+ */
+internal object LiveHour {
+  const val SEED = 0x10AD5L
+  const val SEGMENTS_PER_HOUR = 10_000
+  const val CONCURRENT_LOADS = 4
+  const val MILLIS_PER_SEGMENT = 3_600_000L / SEGMENTS_PER_HOUR
+  const val ERROR_OR_CANCEL_PERCENT = 5
+
+  inline fun run(
+    data: Array<BandwidthMetricData>,
+    put: (Long, BandwidthMetricData, Long) -> Unit,
+    abandon: (Long) -> Unit,
+    complete: (Long) -> Unit
+  ) {
+    val random = Random(SEED)
+    for (loadTaskId in 0L until SEGMENTS_PER_HOUR) {
+      val now = loadTaskId * MILLIS_PER_SEGMENT
+      put(loadTaskId, data[(loadTaskId % data.size).toInt()], now)
+      val finished = loadTaskId - CONCURRENT_LOADS + 1
+      if (finished >= 0) {
+        if (random.nextInt(100) < ERROR_OR_CANCEL_PERCENT) {
+          abandon(finished)
+        } else {
+          complete(finished)
+        }
+      }
+    }
+  }
+}
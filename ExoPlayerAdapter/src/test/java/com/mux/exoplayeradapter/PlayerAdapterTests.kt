@@ -1,13 +1,20 @@
 package com.mux.exoplayeradapter
 
 import android.view.View
+import com.mux.exoplayeradapter.double.FakeEventDispatcher
 import com.mux.exoplayeradapter.double.FakePlayerBinding
 import com.mux.exoplayeradapter.double.UiDelegateMocks
 import com.mux.stats.sdk.muxstats.exoplayeradapter.MuxPlayerAdapter
 import com.mux.stats.sdk.muxstats.MuxStateCollectorBase
+import com.mux.stats.sdk.muxstats.MuxStateCollectorExoImpl
+import com.mux.stats.sdk.muxstats.MuxStats
 import com.mux.stats.sdk.muxstats.exoplayeradapter.MuxUiDelegate
 import com.mux.stats.sdk.muxstats.exoplayeradapter.muxUiDelegate
 import io.mockk.*
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNotSame
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertSame
 import org.junit.Test
 
 class PlayerAdapterTests : AbsRobolectricTest() {
@@ -82,15 +89,52 @@ class PlayerAdapterTests : AbsRobolectricTest() {
     }
   }
 
+  @Test
+  fun testOneWatcherPerBoundPlayer() {
+    val collector = stateCollector()
+    val liveBefore = MuxStateCollectorBase.PositionWatcher.liveCount
+    val playerAdapter = playerAdapter(collector = collector, watchers = ::FakeWatcher)
+    val firstWatcher = playerAdapter.positionWatcher
+
+    assertSame("collector watcher", firstWatcher, collector.positionWatcher)
+    assertEquals("adapter watchers", 1, playerAdapter.livePositionWatcherCount)
+    assertEquals("live watchers", liveBefore + 1, MuxStateCollectorBase.PositionWatcher.liveCount)
+
+    playerAdapter.basicPlayer = Object()
+    assertNotSame("watcher after rebinding", firstWatcher, playerAdapter.positionWatcher)
+    assertSame("collector watcher", playerAdapter.positionWatcher, collector.positionWatcher)
+    assertEquals("adapter watchers", 1, playerAdapter.livePositionWatcherCount)
+    assertEquals("live watchers", liveBefore + 1, MuxStateCollectorBase.PositionWatcher.liveCount)
+
+    playerAdapter.unbindEverything()
+    assertNull("collector watcher after unbinding", collector.positionWatcher)
+    assertEquals("adapter watchers", 0, playerAdapter.livePositionWatcherCount)
+    assertEquals("live watchers", liveBefore, MuxStateCollectorBase.PositionWatcher.liveCount)
+  }
+
+  @Test
+  fun testNoWatcherLeaksAcrossAdapters() {
+    val liveBefore = MuxStateCollectorBase.PositionWatcher.liveCount
+    repeat(20) {
+      val playerAdapter = playerAdapter(collector = stateCollector(), watchers = ::FakeWatcher)
+      playerAdapter.basicPlayer = Object()
+      playerAdapter.basicPlayer = Object()
+      playerAdapter.unbindEverything()
+    }
+
+    assertEquals("live watchers", liveBefore, MuxStateCollectorBase.PositionWatcher.liveCount)
+  }
+
   private fun playerAdapter(
     basicMetrics: MuxPlayerAdapter.PlayerBinding<Any> = FakePlayerBinding("basic metrics"),
-    extraMetrics: MuxPlayerAdapter.PlayerBinding<Any> = FakePlayerBinding("extra metrics")
+    extraMetrics: MuxPlayerAdapter.PlayerBinding<Any> = FakePlayerBinding("extra metrics"),
+    collector: MuxStateCollectorBase = mockStateCollector(),
+    watchers: MuxPlayerAdapter.PositionWatcherFactory<Any>? = null,
   ): MuxPlayerAdapter<View, Any, Any> {
     val fakePlayer: Any = Object()
     val fakeExtraPlayer: Any = Object()
     val mockUiDelegate: MuxUiDelegate<View> =
       UiDelegateMocks.mockView().muxUiDelegate(UiDelegateMocks.mockActivity())
-    val mockCollector = mockStateCollector()
 
     return MuxPlayerAdapter(
       player = fakePlayer,
@@ -100,10 +144,21 @@ class PlayerAdapterTests : AbsRobolectricTest() {
         fakeExtraPlayer,
         listOf(extraMetrics)
       ),
-      collector = mockCollector
+      collector = collector,
+      positionWatcherFactory = watchers
     )
   }
 
   private fun mockStateCollector() = mockk< MuxStateCollectorBase>()
 
+  private fun stateCollector(): MuxStateCollectorBase =
+    MuxStateCollectorExoImpl({ mockk<MuxStats>(relaxed = true) }, FakeEventDispatcher())
+
+  private class FakeWatcher(
+    @Suppress("unused") player: Any,
+    collector: MuxStateCollectorBase
+  ) : MuxStateCollectorBase.PositionWatcher(150, collector) {
+    override fun getTimeMillis(): Long = 0
+  }
+
 }
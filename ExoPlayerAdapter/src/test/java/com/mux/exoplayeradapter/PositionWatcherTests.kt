@@ -0,0 +1,156 @@
+package com.mux.exoplayeradapter
+
+import android.os.Looper
+import com.mux.exoplayeradapter.double.FakeEventDispatcher
+import com.mux.stats.sdk.core.model.CustomerVideoData
+import com.mux.stats.sdk.muxstats.MuxStateCollectorBase
+import com.mux.stats.sdk.muxstats.MuxStateCollectorExoImpl
+import com.mux.stats.sdk.muxstats.MuxStats
+import com.mux.stats.sdk.muxstats.exoplayeradapter.PositionSamplingPolicy
+import io.mockk.mockk
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Test
+import org.robolectric.Shadows.shadowOf
+import java.util.concurrent.TimeUnit
+
+class PositionWatcherTests : AbsRobolectricTest() {
+
+  private lateinit var stateCollector: MuxStateCollectorBase
+  private var playerPositionMillis = 10_000L
+  private var playerSpeed = 1F
+  private var samples = 0
+
+  @Before
+  fun setUpCollector() {
+    val stats = mockk<MuxStats>(relaxed = true)
+    stateCollector = MuxStateCollectorExoImpl({ stats }, FakeEventDispatcher())
+    stateCollector.positionWatcher = FakeWatcher(stateCollector).apply { start() }
+    idleFor(0)
+  }
+
+  @Test
+  fun testExtrapolatesWhilePlaying() {
+    stateCollector.play()
+    stateCollector.playing()
+    idleFor(1_000)
+
+    assertEquals(
+      "position should advance while playing",
+      11_000L,
+      stateCollector.playbackPositionMills
+    )
+  }
+
+  @Test
+  fun testUsesPlaybackSpeed() {
+    playerSpeed = 2F
+    stateCollector.play()
+    stateCollector.playing()
+    idleFor(1_000)
+
+    assertEquals(
+      "position should advance at the playback speed",
+      12_000L,
+      stateCollector.playbackPositionMills
+    )
+  }
+
+  @Test
+  fun testFrozenWhilePaused() {
+    stateCollector.play()
+    stateCollector.playing()
+    idleFor(1_000)
+    playerPositionMillis = 11_000L
+    stateCollector.pause()
+    idleFor(1_000)
+
+    assertEquals(
+      "position should not advance while paused",
+      11_000L,
+      stateCollector.playbackPositionMills
+    )
+  }
+
+  @Test
+  fun testCorrectsDrift() {
+    stateCollector.play()
+    stateCollector.playing()
+    // The player fell behind the extrapolated position
+    playerPositionMillis = 14_000L
+    idleFor(PositionSamplingPolicy.DEFAULT_PLAYING_INTERVAL_MILLIS)
+
+    assertEquals(
+      "position should be resampled while playing",
+      14_000L,
+      stateCollector.playbackPositionMills
+    )
+  }
+
+  @Test
+  fun testNoSamplesWhileIdle() {
+    stateCollector.play()
+    stateCollector.playing()
+    stateCollector.pause()
+    val samplesWhenPaused = samples
+    idleFor(60_000)
+
+    assertEquals("player should not be sampled while paused", samplesWhenPaused, samples)
+  }
+
+  @Test
+  fun testFastDuringStartup() {
+    stateCollector.play()
+    val ticksBefore = stateCollector.positionTicksInView
+    idleFor(1_500)
+
+    assertEquals("ticks while starting up", 10, stateCollector.positionTicksInView - ticksBefore)
+  }
+
+  @Test
+  fun testSuspendedInBackground() {
+    stateCollector.play()
+    stateCollector.playing()
+    stateCollector.appInForeground = false
+    val samplesInBackground = samples
+    idleFor(60_000)
+
+    assertEquals("player should not be sampled in the background", samplesInBackground, samples)
+  }
+
+  @Test
+  fun testCustomPolicy() {
+    stateCollector.positionSamplingPolicy = PositionSamplingPolicy(playingIntervalMillis = 1_000)
+    stateCollector.play()
+    stateCollector.playing()
+    val ticksBefore = stateCollector.positionTicksInView
+    idleFor(10_000)
+
+    assertEquals("ticks while playing", 10, stateCollector.positionTicksInView - ticksBefore)
+  }
+
+  @Test
+  fun testTicksCountedPerView() {
+    stateCollector.play()
+    idleFor(1_500)
+    assertTrue("ticks while starting up", stateCollector.positionTicksInView > 0)
+    stateCollector.videoChange(CustomerVideoData())
+
+    assertEquals("ticks after the view changed", 0, stateCollector.positionTicksInView)
+  }
+
+  private fun idleFor(millis: Long) {
+    shadowOf(Looper.getMainLooper()).idleFor(millis, TimeUnit.MILLISECONDS)
+  }
+
+  private inner class FakeWatcher(collector: MuxStateCollectorBase) :
+    MuxStateCollectorBase.PositionWatcher(150, collector) {
+    override fun getTimeMillis(): Long {
+      samples++
+      return playerPositionMillis
+    }
+
+    override fun getPlaybackSpeed(): Float = playerSpeed
+  }
+}
@@ -0,0 +1,72 @@
+package com.mux.exoplayeradapter
+
+import com.mux.stats.sdk.muxstats.exoplayeradapter.internal.RenditionLevelIndex
+import org.junit.Assert.assertEquals
+import org.junit.Test
+import java.util.Random
+
+class RenditionLevelIndexTests {
+
+  @Test
+  fun testFindsLevels() {
+    // A video ladder in the first group, and an audio group with no size
+    val index = RenditionLevelIndex(
+      widths = intArrayOf(640, 1280, 1920, -1, -1),
+      heights = intArrayOf(360, 720, 1080, -1, -1),
+      bitrates = intArrayOf(800_000, 2_500_000, 5_000_000, 64_000, 128_000),
+      levels = intArrayOf(0, 1, 2, 0, 1)
+    )
+
+    assertEquals("720p level", 1, index.levelOf(1280, 720, 2_500_000))
+    assertEquals("audio level", 1, index.levelOf(-1, -1, 128_000))
+    assertEquals(
+      "unknown rendition",
+      RenditionLevelIndex.NO_LEVEL,
+      index.levelOf(1280, 720, 3_000_000)
+    )
+  }
+
+  @Test
+  fun testFirstDuplicateWins() {
+    // The same rendition in two groups, and twice in one group
+    val index = RenditionLevelIndex(
+      widths = intArrayOf(640, 1280, 1280, 640, 1280),
+      heights = intArrayOf(360, 720, 720, 360, 720),
+      bitrates = intArrayOf(800_000, 2_500_000, 2_500_000, 800_000, 2_500_000),
+      levels = intArrayOf(0, 1, 2, 0, 1)
+    )
+
+    assertEquals("level of the first 720p rendition", 1, index.levelOf(1280, 720, 2_500_000))
+    assertEquals("duplicates", 3, index.duplicates)
+  }
+
+  @Test
+  fun testMatchesLinearScan() {
+    val random = Random(0x1AD_DE2L)
+    repeat(100) {
+      val count = 1 + random.nextInt(40)
+      // Few distinct values, so there are duplicates and collisions
+      val widths = IntArray(count) { random.nextInt(4) * 640 }
+      val heights = IntArray(count) { random.nextInt(4) * 360 }
+      val bitrates = IntArray(count) { random.nextInt(4) * 1_000_000 }
+      val levels = IntArray(count) { random.nextInt(10) }
+      val index = RenditionLevelIndex(widths, heights, bitrates, levels)
+
+      for (width in 0 until 4) {
+        for (height in 0 until 4) {
+          for (bitrate in 0 until 4) {
+            val first = (0 until count).firstOrNull {
+              widths[it] == width * 640 && heights[it] == height * 360
+                      && bitrates[it] == bitrate * 1_000_000
+            }
+            assertEquals(
+              "level of ${width * 640}x${height * 360}@${bitrate * 1_000_000}",
+              first?.let { levels[it] } ?: RenditionLevelIndex.NO_LEVEL,
+              index.levelOf(width * 640, height * 360, bitrate * 1_000_000)
+            )
+          }
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,71 @@
+package com.mux.exoplayeradapter
+
+import com.mux.stats.sdk.muxstats.exoplayeradapter.internal.RequestEventLimiter
+import org.junit.Assert.assertEquals
+import org.junit.Test
+
+class RequestEventLimiterTests {
+
+  private var nowMillis = 1_000L
+  private val limiter = RequestEventLimiter(burst = 3, eventsPerSecond = 2.0) { nowMillis }
+
+  @Test
+  fun testBurstThenRefill() {
+    repeat(3) {
+      assertEquals("burst", 0, limiter.tryAcquire(RequestEventLimiter.KIND_COMPLETED))
+    }
+    repeat(4) {
+      assertEquals(
+        "over the burst",
+        RequestEventLimiter.DROPPED,
+        limiter.tryAcquire(RequestEventLimiter.KIND_COMPLETED)
+      )
+    }
+
+    nowMillis += 499
+    assertEquals(
+      "not refilled yet",
+      RequestEventLimiter.DROPPED,
+      limiter.tryAcquire(RequestEventLimiter.KIND_COMPLETED)
+    )
+    nowMillis += 1
+    assertEquals(
+      "carries the drops",
+      5,
+      limiter.tryAcquire(RequestEventLimiter.KIND_COMPLETED)
+    )
+    assertEquals("total dropped", 5L, limiter.droppedCount(RequestEventLimiter.KIND_COMPLETED))
+
+    // Refills up to the burst, no more
+    nowMillis += 60_000
+    repeat(3) {
+      assertEquals("burst after idling", 0, limiter.tryAcquire(RequestEventLimiter.KIND_COMPLETED))
+    }
+    assertEquals(
+      "over the burst after idling",
+      RequestEventLimiter.DROPPED,
+      limiter.tryAcquire(RequestEventLimiter.KIND_COMPLETED)
+    )
+  }
+
+  @Test
+  fun testKindsHaveTheirOwnBudgets() {
+    repeat(10) { limiter.tryAcquire(RequestEventLimiter.KIND_CANCELED) }
+
+    assertEquals("completed", 0, limiter.tryAcquire(RequestEventLimiter.KIND_COMPLETED))
+    assertEquals("failed", 0, limiter.tryAcquire(RequestEventLimiter.KIND_FAILED))
+    assertEquals("canceled dropped", 7L, limiter.droppedCount(RequestEventLimiter.KIND_CANCELED))
+    assertEquals("completed dropped", 0L, limiter.droppedCount(RequestEventLimiter.KIND_COMPLETED))
+  }
+
+  @Test
+  fun testClockGoingBackDoesNotRefill() {
+    repeat(3) { limiter.tryAcquire(RequestEventLimiter.KIND_FAILED) }
+    nowMillis -= 10_000
+    assertEquals(
+      "clock went back",
+      RequestEventLimiter.DROPPED,
+      limiter.tryAcquire(RequestEventLimiter.KIND_FAILED)
+    )
+  }
+}
@@ -0,0 +1,145 @@
+package com.mux.exoplayeradapter
+
+import com.mux.stats.sdk.core.events.playback.RequestCanceled
+import com.mux.stats.sdk.core.events.playback.RequestCompleted
+import com.mux.stats.sdk.core.events.playback.RequestFailed
+import com.mux.stats.sdk.core.model.BandwidthMetricData
+import com.mux.stats.sdk.muxstats.exoplayeradapter.internal.RequestMetricsAggregator
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+class RequestMetricsAggregatorTests {
+
+  @Test
+  fun testSummarizesEveryRequestByType() {
+    val aggregator = RequestMetricsAggregator(intervalMillis = 2_000)
+
+    assertTrue("first request opens the interval", aggregator.record(RequestCompleted(null),
+      completed("manifest", bytes = 2_000, startMillis = 0, endMillis = 40)))
+    // Low-latency parts: 50 of them, far more than one per segment duration
+    for (part in 0 until 50) {
+      val start = 100L + part * 40
+      assertFalse("later requests", aggregator.record(RequestCompleted(null),
+        completed("media", bytes = 50_000, startMillis = start, endMillis = start + 20,
+          mediaDurationMillis = 333)))
+    }
+    aggregator.record(RequestFailed(null), typed("media"))
+    aggregator.record(RequestCanceled(null), typed("media"))
+    aggregator.record(RequestCanceled(null), typed("media"))
+
+    val summaries = aggregator.drain()
+    assertEquals("types", listOf("manifest", "media"), summaries.map { it.requestType })
+    val media = summaries[1]
+    assertEquals("completed", 50, media.completed)
+    assertEquals("failed", 1, media.failed)
+    assertEquals("canceled", 2, media.canceled)
+    assertEquals("bytes", 2_500_000L, media.bytesLoaded)
+    assertEquals("load time", 1_000L, media.loadMillis)
+    assertEquals("throughput", 20_000_000L, media.throughputBps)
+    assertEquals("p95 latency", 20L, media.latencyMillis.percentile(95.0))
+    assertEquals("requests recorded", 54L, aggregator.requestsRecorded)
+    assertEquals("events sent", 4L, aggregator.eventsDrained)
+    assertTrue("drained", aggregator.drain().isEmpty())
+  }
+
+  @Test
+  fun testEventsCarryTotals() {
+    val aggregator = RequestMetricsAggregator()
+    aggregator.record(RequestCompleted(null),
+      completed("media", bytes = 1_000_000, startMillis = 1_000, endMillis = 1_500,
+        mediaDurationMillis = 2_000))
+    aggregator.record(RequestCompleted(null),
+      completed("media", bytes = 3_000_000, startMillis = 1_600, endMillis = 3_100,
+        mediaDurationMillis = 2_000))
+
+    val events = aggregator.drain().single().toEvents()
+    val data = (events.single() as RequestCompleted).bandwidthMetricData
+    assertEquals("bytes", 4_000_000L, data.requestBytesLoaded)
+    assertEquals("start", 1_000L, data.requestResponseStart)
+    assertEquals("end", 3_100L, data.requestResponseEnd)
+    assertEquals("media duration", 4_000L, data.requestMediaDuration)
+  }
+
+  @Test
+  fun testSummarySpansOverlappingRequests() {
+    val aggregator = RequestMetricsAggregator()
+    aggregator.record(RequestCompleted(null),
+      completed("media", bytes = 1_000_000, startMillis = 1_000, endMillis = 3_000).apply {
+        setRequestStart(900)
+        requestUrl = "https://cdn.example.com/video/segment-1.ts"
+        requestHostName = "cdn.example.com"
+      })
+    aggregator.record(RequestCompleted(null),
+      completed("media", bytes = 1_000_000, startMillis = 1_500, endMillis = 2_500).apply {
+        setRequestStart(1_400)
+        requestUrl = "https://cdn.example.com/audio/segment-1.aac"
+        requestHostName = "cdn.example.com"
+      })
+
+    val summary = aggregator.drain().single()
+    val data = (summary.toEvents().single() as RequestCompleted).bandwidthMetricData
+    // Loads took 3 seconds in total, but only 2 seconds passed
+    assertEquals("load time", 3_000L, summary.loadMillis)
+    assertEquals("request start", 900L, data.requestStart)
+    assertEquals("response start", 1_000L, data.requestResponseStart)
+    assertEquals("end", 3_000L, data.requestResponseEnd)
+    assertEquals("marked as a summary", RequestMetricsAggregator.SUMMARY_REQUEST_ID, data.requestId)
+    assertEquals("type", "media", data.requestType)
+    assertNull("not one request's url", data.requestUrl)
+    assertNull("not one request's host", data.requestHostName)
+  }
+
+  @Test
+  fun testFirstEventCarriesCountsAndPercentiles() {
+    val aggregator = RequestMetricsAggregator()
+    aggregator.record(RequestCompleted(null),
+      completed("media", bytes = 1_000_000, startMillis = 1_000, endMillis = 1_500))
+    aggregator.record(RequestCompleted(null),
+      completed("media", bytes = 3_000_000, startMillis = 1_600, endMillis = 3_100))
+    aggregator.record(RequestFailed(null), typed("media"))
+
+    val events = aggregator.drain().single().toEvents()
+    val headers = events[0].bandwidthMetricData.requestResponseHeaders
+    assertEquals("completed", "2", headers[RequestMetricsAggregator.COMPLETED_HEADER])
+    assertEquals("failed", "1", headers[RequestMetricsAggregator.FAILED_HEADER])
+    assertEquals("canceled", "0", headers[RequestMetricsAggregator.CANCELED_HEADER])
+    assertEquals("p50 latency", "500", headers[RequestMetricsAggregator.LATENCY_P50_HEADER])
+    assertEquals("p95 latency", "1500", headers[RequestMetricsAggregator.LATENCY_P95_HEADER])
+    assertEquals("throughput", "16000000", headers[RequestMetricsAggregator.THROUGHPUT_HEADER])
+    assertNull("only on the first event", events[1].bandwidthMetricData.requestResponseHeaders)
+  }
+
+  @Test
+  fun testPercentiles() {
+    val counts = RequestMetricsAggregator.BucketCounts(longArrayOf(10, 100, 1000))
+    assertEquals("empty", 0L, counts.percentile(50.0))
+    for (value in 1L..90L) {
+      counts.add(value)
+    }
+    counts.add(5_000)
+    assertEquals("median", 100L, counts.percentile(50.0))
+    assertEquals("tenth", 10L, counts.percentile(10.0))
+    assertEquals("largest", 5_000L, counts.percentile(100.0))
+  }
+
+  private fun typed(type: String) = BandwidthMetricData().apply { setRequestType(type) }
+
+  private fun completed(
+    type: String,
+    bytes: Long,
+    startMillis: Long,
+    endMillis: Long,
+    mediaDurationMillis: Long? = null,
+  ) = BandwidthMetricData().apply {
+    setRequestType(type)
+    setRequestBytesLoaded(bytes)
+    requestResponseStart = startMillis
+    setRequestResponseEnd(endMillis)
+    if (mediaDurationMillis != null) {
+      setRequestMediaDuration(mediaDurationMillis)
+    }
+  }
+}
@@ -0,0 +1,78 @@
+package com.mux.exoplayeradapter
+
+import android.os.Looper
+import com.mux.stats.sdk.muxstats.exoplayeradapter.internal.SharedTicker
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Test
+import org.robolectric.Shadows.shadowOf
+import java.util.concurrent.TimeUnit
+
+class SharedTickerTests : AbsRobolectricTest() {
+
+  private val clients = ArrayList<PeriodicClient>()
+
+  @After
+  fun unregisterClients() {
+    clients.forEach { SharedTicker.unregister(it) }
+  }
+
+  @Test
+  fun testDueClientsShareOneMessage() {
+    val first = PeriodicClient(100)
+    val second = PeriodicClient(100)
+    val ticksBefore = SharedTicker.ticksRun
+
+    idleFor(100)
+
+    assertEquals("first client runs", 1, first.runs)
+    assertEquals("second client runs", 1, second.runs)
+    assertEquals("both clients should run in one message", 1, SharedTicker.ticksRun - ticksBefore)
+  }
+
+  @Test
+  fun testClientsKeepTheirOwnPeriods() {
+    val fast = PeriodicClient(100)
+    val slow = PeriodicClient(250)
+    val ticksBefore = SharedTicker.ticksRun
+
+    idleFor(1_000)
+
+    assertEquals("fast client runs", 10, fast.runs)
+    assertEquals("slow client runs", 4, slow.runs)
+    // at 500ms and 1000ms, both clients run in the same message
+    assertEquals("messages run", 12, SharedTicker.ticksRun - ticksBefore)
+  }
+
+  @Test
+  fun testUnregisteredClientsStopRunning() {
+    val kept = PeriodicClient(100)
+    val removed = PeriodicClient(100)
+    val registeredBefore = SharedTicker.registeredCount
+
+    SharedTicker.unregister(removed)
+    idleFor(1_000)
+
+    assertEquals("registered clients", registeredBefore - 1, SharedTicker.registeredCount)
+    assertEquals("kept client runs", 10, kept.runs)
+    assertEquals("removed client runs", 0, removed.runs)
+  }
+
+  private fun idleFor(millis: Long) {
+    shadowOf(Looper.getMainLooper()).idleFor(millis, TimeUnit.MILLISECONDS)
+  }
+
+  private inner class PeriodicClient(private val periodMillis: Long) : Runnable {
+    var runs = 0
+
+    init {
+      clients.add(this)
+      SharedTicker.schedule(this, periodMillis)
+    }
+
+    override fun run() {
+      runs++
+      SharedTicker.schedule(this, periodMillis)
+    }
+  }
+}
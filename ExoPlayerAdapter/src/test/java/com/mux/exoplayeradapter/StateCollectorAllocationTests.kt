@@ -0,0 +1,93 @@
+package com.mux.exoplayeradapter
+
+import com.mux.stats.sdk.core.events.IEvent
+import com.mux.stats.sdk.core.events.IEventDispatcher
+import com.mux.stats.sdk.muxstats.MuxStateCollectorBase
+import com.mux.stats.sdk.muxstats.MuxStateCollectorExoImpl
+import com.mux.stats.sdk.muxstats.MuxStats
+import io.mockk.mockk
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Assume.assumeTrue
+import org.junit.Before
+import org.junit.Test
+import java.lang.management.ManagementFactory
+import java.util.*
+
+class StateCollectorAllocationTests : AbsRobolectricTest() {
+
+  companion object {
+    const val WARM_UP_CYCLES = 1_000
+    const val MEASURED_CYCLES = 10_000
+    const val TRANSITIONS_PER_CYCLE = 4
+  }
+
+  private lateinit var stateCollector: MuxStateCollectorBase
+  private var dispatchedCount = 0
+
+  @Before
+  fun setUpCollector() {
+    // Counts instead of recording, so the dispatcher itself doesn't allocate
+    val dispatcher = object : IEventDispatcher {
+      override fun dispatch(event: IEvent?) {
+        dispatchedCount++
+      }
+    }
+    val stats = mockk<MuxStats>(relaxed = true)
+    stateCollector = MuxStateCollectorExoImpl({ stats }, dispatcher, false)
+    stateCollector.reuseEvents = true
+  }
+
+  @Test
+  fun testSteadyStatePlaybackDoesNotAllocate() {
+    val threadBean = ManagementFactory.getThreadMXBean() as? com.sun.management.ThreadMXBean
+    assumeTrue(
+      "per-thread allocation counting is not supported on this JVM",
+      threadBean != null && threadBean.isThreadAllocatedMemorySupported
+    )
+    threadBean!!.isThreadAllocatedMemoryEnabled = true
+    val threadId = Thread.currentThread().id
+
+    stateCollector.play()
+    stateCollector.playing()
+    repeat(WARM_UP_CYCLES) { playbackCycle() }
+    dispatchedCount = 0
+
+    val allocatedBefore = threadBean.getThreadAllocatedBytes(threadId)
+    repeat(MEASURED_CYCLES) { playbackCycle() }
+    val allocated = threadBean.getThreadAllocatedBytes(threadId) - allocatedBefore
+
+    // pause, play + playing, rebufferstart, rebufferend + playing
+    assertEquals("events dispatched", MEASURED_CYCLES * 6, dispatchedCount)
+    // Reading the counter costs a few bytes once, which is far less than one per transition
+    val perTransition = allocated / (MEASURED_CYCLES * TRANSITIONS_PER_CYCLE)
+    assertEquals("bytes allocated per transition ($allocated in total)", 0L, perTransition)
+  }
+
+  @Test
+  fun testNewEventsByDefault() {
+    val dispatched = ArrayList<IEvent>()
+    val dispatcher = object : IEventDispatcher {
+      override fun dispatch(event: IEvent?) {
+        event?.let { dispatched += it }
+      }
+    }
+    val collector = MuxStateCollectorExoImpl({ mockk<MuxStats>(relaxed = true) }, dispatcher, false)
+
+    collector.play()
+    collector.playing()
+    repeat(3) { playbackCycle(collector) }
+
+    val distinct = Collections.newSetFromMap(IdentityHashMap<IEvent, Boolean>())
+    distinct.addAll(dispatched)
+    assertTrue("events dispatched", dispatched.size >= 3 * 6)
+    assertEquals("distinct events", dispatched.size, distinct.size)
+  }
+
+  private fun playbackCycle(collector: MuxStateCollectorBase = stateCollector) {
+    collector.pause()
+    collector.playing()
+    collector.buffering()
+    collector.playing()
+  }
+}
@@ -2,6 +2,7 @@ package com.mux.exoplayeradapter
 
 import com.mux.exoplayeradapter.double.FakeEventDispatcher
 import com.mux.stats.sdk.core.events.playback.*
+import com.mux.stats.sdk.core.model.CustomerVideoData
 import com.mux.stats.sdk.muxstats.MuxStateCollectorExoImpl
 import com.mux.stats.sdk.muxstats.exoplayeradapter.MuxPlayerState
 import com.mux.stats.sdk.muxstats.MuxStateCollectorBase
@@ -298,6 +299,28 @@ class StateCollectorTests : AbsRobolectricTest() {
     )
   }
 
+  @Test
+  fun testSeekedAfterProgramChange() {
+    // A seek from before the view changed is dropped without being reported in the new view
+    stateCollector.play()
+    stateCollector.seeking()
+    stateCollector.programChange(CustomerVideoData())
+    stateCollector.onFirstFrameRendered()
+    runBlocking { delay(100) } // onFirstFrameRendered is delayed 50ms
+    stateCollector.seeked(true)
+    assertEquals(
+      "seeking -> programChange -> seeked(true) => init",
+      MuxPlayerState.INIT,
+      stateCollector.muxPlayerState,
+    )
+    eventDispatcher.assertHasExactlyThese(
+      listOf(
+        PlayEvent(null),
+        SeekingEvent(null),
+      )
+    )
+  }
+
   @Test
   fun testAllowedHeaderString() {
     val headerNameMatches = "real-header"
@@ -0,0 +1,415 @@
+package com.mux.exoplayeradapter
+
+import com.mux.stats.sdk.core.events.IEvent
+import com.mux.stats.sdk.core.events.IEventDispatcher
+import com.mux.stats.sdk.core.events.playback.*
+import com.mux.stats.sdk.core.model.CustomerVideoData
+import com.mux.stats.sdk.muxstats.MuxStateCollectorBase
+import com.mux.stats.sdk.muxstats.MuxStateCollectorExoImpl
+import com.mux.stats.sdk.muxstats.MuxStats
+import com.mux.stats.sdk.muxstats.exoplayeradapter.MuxPlayerState
+import io.mockk.mockk
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNotNull
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.util.Random
+
+/**
+ * Drives the collector's state machine with generated callback sequences, checks invariants of
+ * the events it sends, and compares it against [LegacyStateModel], a copy of the state logic from
+ * before the transition table
+ */
+class StateTransitionFuzzTests : AbsRobolectricTest() {
+
+  companion object {
+    const val SEED = 0x5EED_F00DL
+    const val EXHAUSTIVE_LENGTH = 4
+    const val RANDOM_SEQUENCES = 50_000
+    const val MAX_RANDOM_LENGTH = 40
+
+    const val BUFFERING = 0
+    const val PLAY = 1
+    const val PLAYING = 2
+    const val PAUSE = 3
+    const val SEEKING = 4
+    const val SEEKED = 5
+    const val SEEKED_INFERRING_PLAY = 6
+    const val ENDED = 7
+    const val FIRST_FRAME_RENDERED = 8
+    const val AUDIO_ONLY = 9
+    const val PLAYING_ADS = 10
+    const val FINISHED_PLAYING_ADS = 11
+    const val PROGRAM_CHANGE = 12
+    const val VIDEO_CHANGE = 13
+    const val CALLBACK_COUNT = 14
+
+    /** Order of events sent by a single callback */
+    val EVENT_ORDER = listOf(
+      RebufferEndEvent.TYPE,
+      PauseEvent.TYPE,
+      SeekingEvent.TYPE,
+      SeekedEvent.TYPE,
+      PlayEvent.TYPE,
+      PlayingEvent.TYPE,
+      EndedEvent.TYPE,
+      RebufferStartEvent.TYPE,
+      TimeUpdateEvent.TYPE,
+    )
+  }
+
+  /**
+   * Every way the collector is allowed to differ from [LegacyStateModel]. Each one leaves the
+   * legacy seeking flag out of step with its state, which the table doesn't model, so a sequence
+   * is only compared up to the step that diverged
+   */
+  private enum class Divergence {
+    /** Both send pause and ended, but legacy still thinks the seek is in progress */
+    ENDED_WHILE_SEEKING,
+    /** Both move to the ads state, but legacy still thinks the seek is in progress */
+    ADS_WHILE_SEEKING,
+    /** Both move to INIT, but legacy still thinks the seek is in progress */
+    VIDEO_CHANGED_WHILE_SEEKING,
+    /**
+     * play() in a view started by programChange() during a seek. Both send play and move to PLAY,
+     * but legacy still thinks the seek is in progress
+     */
+    FIRST_PLAY_WHILE_SEEKING,
+    /**
+     * seeked(true) for a seek from before programChange(). Neither sends anything, but legacy
+     * stayed in SEEKING with its flag cleared, and the table goes to INIT
+     */
+    SEEK_ABANDONED,
+  }
+
+  private val stats = mockk<MuxStats>(relaxed = true)
+  private var comparedSteps = 0L
+  private val divergences = HashMap<Divergence, Int>()
+
+  @Test
+  fun testAllShortSequencesMatchLegacyBehavior() {
+    val sequence = IntArray(EXHAUSTIVE_LENGTH)
+    var count = 1
+    repeat(EXHAUSTIVE_LENGTH) { count *= CALLBACK_COUNT }
+    for (index in 0 until count) {
+      var rest = index
+      for (step in sequence.indices) {
+        sequence[step] = rest % CALLBACK_COUNT
+        rest /= CALLBACK_COUNT
+      }
+      runSequence(sequence)
+    }
+    assertTrue("no steps were compared", comparedSteps > 0)
+    assertEveryDivergenceSeen()
+  }
+
+  @Test
+  fun testRandomSequencesMatchLegacyBehavior() {
+    val random = Random(SEED)
+    repeat(RANDOM_SEQUENCES) {
+      val sequence = IntArray(1 + random.nextInt(MAX_RANDOM_LENGTH)) {
+        random.nextInt(CALLBACK_COUNT)
+      }
+      runSequence(sequence)
+    }
+    assertTrue("no steps were compared", comparedSteps > 0)
+    assertEveryDivergenceSeen()
+  }
+
+  /**
+   * An allowed divergence that never happens is either fixed or no longer generated, and should
+   * be removed from [Divergence] so the list stays exact
+   */
+  private fun assertEveryDivergenceSeen() {
+    assertEquals("divergences seen: $divergences", Divergence.values().toSet(), divergences.keys)
+  }
+
+  private fun runSequence(sequence: IntArray) {
+    val events = ArrayList<String>()
+    val collector = MuxStateCollectorExoImpl({ stats }, object : IEventDispatcher {
+      override fun dispatch(event: IEvent?) {
+        events.add(event!!.type)
+      }
+    })
+    // With no wait, seeked(true) only depends on whether a frame was rendered since the seek
+    collector.timeToWaitAfterFirstFrameReceived = -1
+    val legacy = LegacyStateModel()
+    val invariants = InvariantChecker()
+    var comparing = true
+
+    for ((step, callback) in sequence.withIndex()) {
+      events.clear()
+      legacy.events.clear()
+      val stateBefore = collector.muxPlayerState
+      collector.call(callback)
+      legacy.call(callback)
+
+      val trace = { "at step $step of ${sequence.joinToString { callbackName(it) }}" }
+      invariants.check(stateBefore, collector.muxPlayerState, events, trace)
+      if (comparing) {
+        val divergence = if (legacy.isConsistent()) null else legacy.divergence(callback)
+        assertEquals("events ${trace()}", legacy.events, events)
+        val expectedState =
+          if (divergence == Divergence.SEEK_ABANDONED) MuxPlayerState.INIT else legacy.state
+        assertEquals("state ${trace()}", expectedState, collector.muxPlayerState)
+        comparedSteps++
+        if (!legacy.isConsistent()) {
+          assertNotNull("divergence not in the allowed list ${trace()}", divergence)
+          divergences.merge(divergence!!, 1, Int::plus)
+          comparing = false
+        }
+      }
+    }
+  }
+
+  private fun MuxStateCollectorBase.call(callback: Int) {
+    when (callback) {
+      BUFFERING -> buffering()
+      PLAY -> play()
+      PLAYING -> playing()
+      PAUSE -> pause()
+      SEEKING -> seeking()
+      SEEKED -> seeked(false)
+      SEEKED_INFERRING_PLAY -> seeked(true)
+      ENDED -> ended()
+      FIRST_FRAME_RENDERED -> onFirstFrameRendered()
+      AUDIO_ONLY -> mediaHasVideoTrack = false
+      PLAYING_ADS -> playingAds()
+      FINISHED_PLAYING_ADS -> finishedPlayingAds()
+      PROGRAM_CHANGE -> programChange(CustomerVideoData())
+      VIDEO_CHANGE -> videoChange(CustomerVideoData())
+    }
+  }
+
+  private fun callbackName(callback: Int) = when (callback) {
+    BUFFERING -> "buffering"
+    PLAY -> "play"
+    PLAYING -> "playing"
+    PAUSE -> "pause"
+    SEEKING -> "seeking"
+    SEEKED -> "seeked(false)"
+    SEEKED_INFERRING_PLAY -> "seeked(true)"
+    ENDED -> "ended"
+    FIRST_FRAME_RENDERED -> "firstFrame"
+    AUDIO_ONLY -> "audioOnly"
+    PLAYING_ADS -> "playingAds"
+    FINISHED_PLAYING_ADS -> "finishedPlayingAds"
+    PROGRAM_CHANGE -> "programChange"
+    else -> "videoChange"
+  }
+
+  /**
+   * Checks properties of the events that must hold whatever the callbacks were
+   */
+  private class InvariantChecker {
+    private var playSent = false
+    private var seekOpen = false
+    private var rebufferOpen = false
+
+    fun check(
+      stateBefore: MuxPlayerState,
+      stateAfter: MuxPlayerState,
+      events: List<String>,
+      trace: () -> String
+    ) {
+      var lastOrder = -1
+      for (type in events) {
+        val order = EVENT_ORDER.indexOf(type)
+        assertTrue("$type out of order in $events ${trace()}", order > lastOrder)
+        lastOrder = order
+
+        when (type) {
+          PlayEvent.TYPE -> playSent = true
+          SeekingEvent.TYPE -> {
+            assertTrue("seeking before play ${trace()}", playSent)
+            seekOpen = true
+          }
+          SeekedEvent.TYPE -> {
+            assertTrue("seeked without seeking ${trace()}", seekOpen)
+            seekOpen = false
+          }
+          RebufferStartEvent.TYPE -> rebufferOpen = true
+          RebufferEndEvent.TYPE -> {
+            assertTrue("rebuffer end without start ${trace()}", rebufferOpen)
+            rebufferOpen = false
+          }
+        }
+      }
+
+      if (stateBefore == MuxPlayerState.SEEKING && stateAfter == MuxPlayerState.SEEKING) {
+        assertTrue(
+          "only seeking events while seeking, got $events ${trace()}",
+          events.all { it == SeekingEvent.TYPE }
+        )
+      }
+      if (events.contains(PlayingEvent.TYPE)) {
+        assertEquals("state after playing event ${trace()}", MuxPlayerState.PLAYING, stateAfter)
+      }
+      if (stateAfter == MuxPlayerState.REBUFFERING) {
+        assertTrue("rebuffering without rebuffer start ${trace()}", rebufferOpen)
+      }
+    }
+  }
+
+  /**
+   * The collector's state logic before it was a transition table, with a separate seeking flag
+   * and event counters. seeked(true) infers playback when a frame was rendered since the seek, or
+   * the media is audio-only
+   */
+  private class LegacyStateModel {
+    val events = ArrayList<String>()
+    var state = MuxPlayerState.INIT
+    private var seekingInProgress = false
+    private var firstFrameReceived = false
+    private var mediaHasVideoTrack = true
+    private var playEventsSent = 0
+    private var pauseEventsSent = 0
+    private var seekingEventsSent = 0
+
+    fun isConsistent() = seekingInProgress == (state == MuxPlayerState.SEEKING)
+
+    /**
+     * Returns which allowed divergence the callback that made this model inconsistent is, or null
+     * if it isn't one of them
+     */
+    fun divergence(callback: Int): Divergence? = when {
+      !seekingInProgress -> {
+        if (callback == SEEKED_INFERRING_PLAY) Divergence.SEEK_ABANDONED else null
+      }
+      callback == ENDED -> Divergence.ENDED_WHILE_SEEKING
+      callback == PLAYING_ADS || callback == FINISHED_PLAYING_ADS -> Divergence.ADS_WHILE_SEEKING
+      callback == VIDEO_CHANGE -> Divergence.VIDEO_CHANGED_WHILE_SEEKING
+      callback == PLAY -> Divergence.FIRST_PLAY_WHILE_SEEKING
+      else -> null
+    }
+
+    fun call(callback: Int) {
+      when (callback) {
+        BUFFERING -> buffering()
+        PLAY -> play()
+        PLAYING -> playing()
+        PAUSE -> pause()
+        SEEKING -> seeking()
+        SEEKED -> seeked(false)
+        SEEKED_INFERRING_PLAY -> seeked(true)
+        ENDED -> ended()
+        FIRST_FRAME_RENDERED -> firstFrameReceived = true
+        AUDIO_ONLY -> mediaHasVideoTrack = false
+        PLAYING_ADS -> state = MuxPlayerState.PLAYING_ADS
+        FINISHED_PLAYING_ADS -> state = MuxPlayerState.FINISHED_PLAYING_ADS
+        PROGRAM_CHANGE -> reset()
+        VIDEO_CHANGE -> {
+          state = MuxPlayerState.INIT
+          reset()
+        }
+      }
+    }
+
+    private fun reset() {
+      playEventsSent = 0
+      pauseEventsSent = 0
+      seekingEventsSent = 0
+      firstFrameReceived = false
+    }
+
+    private fun buffering() {
+      if (state != MuxPlayerState.BUFFERING && state != MuxPlayerState.REBUFFERING
+        && state != MuxPlayerState.SEEKED && !seekingInProgress
+      ) {
+        if (state == MuxPlayerState.PLAYING) {
+          state = MuxPlayerState.REBUFFERING
+          send(RebufferStartEvent.TYPE)
+        } else {
+          state = MuxPlayerState.BUFFERING
+          send(TimeUpdateEvent.TYPE)
+        }
+      }
+    }
+
+    private fun play() {
+      if (playEventsSent <= 0 || (!seekingInProgress
+            && state != MuxPlayerState.REBUFFERING && state != MuxPlayerState.SEEKED)
+      ) {
+        state = MuxPlayerState.PLAY
+        send(PlayEvent.TYPE)
+      }
+    }
+
+    private fun playing() {
+      if (seekingInProgress) {
+        return
+      }
+      if (state == MuxPlayerState.PAUSED || state == MuxPlayerState.FINISHED_PLAYING_ADS) {
+        play()
+      } else if (state == MuxPlayerState.REBUFFERING) {
+        send(RebufferEndEvent.TYPE)
+      } else if (state == MuxPlayerState.PLAYING) {
+        return
+      }
+      state = MuxPlayerState.PLAYING
+      send(PlayingEvent.TYPE)
+    }
+
+    private fun pause() {
+      if (state == MuxPlayerState.SEEKED && pauseEventsSent > 0) {
+        return
+      }
+      if (state == MuxPlayerState.REBUFFERING) {
+        send(RebufferEndEvent.TYPE)
+      }
+      if (seekingInProgress) {
+        seeked(false)
+        return
+      }
+      state = MuxPlayerState.PAUSED
+      send(PauseEvent.TYPE)
+    }
+
+    private fun seeked(inferPlayingState: Boolean) {
+      if (seekingInProgress) {
+        if (inferPlayingState) {
+          if ((firstFrameReceived || !mediaHasVideoTrack) && seekingEventsSent > 0) {
+            send(SeekedEvent.TYPE)
+            seekingInProgress = false
+            playing()
+          }
+        } else {
+          send(SeekedEvent.TYPE)
+          seekingInProgress = false
+          state = MuxPlayerState.SEEKED
+        }
+        if (seekingEventsSent == 0) {
+          seekingInProgress = false
+        }
+      }
+    }
+
+    private fun seeking() {
+      if (playEventsSent == 0) {
+        return
+      }
+      if (state == MuxPlayerState.PLAYING) {
+        send(PauseEvent.TYPE)
+      }
+      state = MuxPlayerState.SEEKING
+      seekingInProgress = true
+      send(SeekingEvent.TYPE)
+      firstFrameReceived = false
+    }
+
+    private fun ended() {
+      send(PauseEvent.TYPE)
+      send(EndedEvent.TYPE)
+      state = MuxPlayerState.ENDED
+    }
+
+    private fun send(type: String) {
+      when (type) {
+        PlayEvent.TYPE -> playEventsSent++
+        PauseEvent.TYPE -> pauseEventsSent++
+        SeekingEvent.TYPE -> seekingEventsSent++
+      }
+      events.add(type)
+    }
+  }
+}
@@ -0,0 +1,67 @@
+package com.mux.exoplayeradapter
+
+import android.net.Uri
+import com.google.android.exoplayer2.upstream.DataSource
+import com.google.android.exoplayer2.upstream.DataSpec
+import com.mux.stats.sdk.muxstats.exoplayeradapter.internal.TransferTimings
+import io.mockk.mockk
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNotNull
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+class TransferTimingsTests : AbsRobolectricTest() {
+
+  private val source = mockk<DataSource>(relaxed = true)
+
+  @Test
+  fun testTimesNetworkTransfers() {
+    val timings = TransferTimings()
+    val segment = DataSpec(Uri.parse("https://cdn.example.com/video/seg-12.ts"))
+
+    timings.onTransferInitializing(source, segment, true)
+    Thread.sleep(20)
+    timings.onTransferStart(source, segment, true)
+    timings.onBytesTransferred(source, segment, true, 65_536)
+    timings.onBytesTransferred(source, segment, true, 1_024)
+    Thread.sleep(20)
+    timings.onTransferEnd(source, segment, true)
+
+    // The load reports its own DataSpec, which is a different object
+    val timing = timings.take(DataSpec(Uri.parse("https://cdn.example.com/video/seg-12.ts")))
+    assertNotNull("timing", timing)
+    assertTrue("waited for the response",
+      timing!!.responseStartMillis - timing.requestStartMillis >= 20)
+    assertTrue("transferred the body", timing.responseEndMillis - timing.responseStartMillis >= 20)
+    assertEquals("bytes", 66_560L, timing.bytesTransferred)
+    assertNull("taken", timings.take(segment))
+  }
+
+  @Test
+  fun testIgnoresLocalTransfers() {
+    val timings = TransferTimings()
+    val cached = DataSpec(Uri.parse("file:///cache/seg-1.ts"))
+
+    timings.onTransferInitializing(source, cached, false)
+    timings.onTransferStart(source, cached, false)
+    timings.onTransferEnd(source, cached, false)
+
+    assertNull("local transfer", timings.take(cached))
+  }
+
+  @Test
+  fun testForgetsOldestTransfers() {
+    val timings = TransferTimings(maxTransfers = 4)
+    val segments = (0 until 10).map { DataSpec(Uri.parse("https://cdn.example.com/seg-$it.ts")) }
+    for (segment in segments) {
+      timings.onTransferInitializing(source, segment, true)
+      timings.onTransferStart(source, segment, true)
+      timings.onTransferEnd(source, segment, true)
+    }
+
+    assertEquals("finished transfers", 4, timings.finishedCount)
+    assertNull("oldest", timings.take(segments[0]))
+    assertNotNull("newest", timings.take(segments[9]))
+  }
+}
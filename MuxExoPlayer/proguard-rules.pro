@@ -12,6 +12,9 @@
 
 -dontwarn com.google.android.exoplayer2.**
 -dontwarn com.google.ads.**
+-dontwarn okhttp3.**
+-dontwarn okio.**
+-dontwarn org.chromium.net.**
 -dontwarn javax.annotation.Nullable
 -dontwarn com.google.common.annotations.VisibleForTesting
 
@@ -4,7 +4,7 @@ import com.google.ads.interactivemedia.v3.api.Ad
 import com.google.ads.interactivemedia.v3.api.AdErrorEvent
 import com.google.ads.interactivemedia.v3.api.AdEvent
 import com.google.android.exoplayer2.ExoPlayer
-import com.mux.stats.sdk.core.events.EventBus
+import com.mux.stats.sdk.core.events.IEventDispatcher
 import com.mux.stats.sdk.core.events.playback.*
 import com.mux.stats.sdk.core.model.AdData
 import com.mux.stats.sdk.core.model.ViewData
@@ -20,7 +20,7 @@ import com.mux.stats.sdk.core.events.playback.AdEvent as MuxAdEvent
 class AdsImaSDKListener private constructor(
   exoPlayer: ExoPlayer,
   private val stateCollector:  MuxStateCollectorBase,
-  private val eventBus: EventBus
+  private val eventBus: IEventDispatcher
 ) : AdErrorEvent.AdErrorListener, AdEvent.AdEventListener {
 
   companion object {
@@ -31,7 +31,7 @@ class AdsImaSDKListener private constructor(
     internal fun createIfImaAvailable(
       exoPlayer: ExoPlayer,
       collector:  MuxStateCollectorBase,
-      eventBus: EventBus
+      eventBus: IEventDispatcher
     ): AdsImaSDKListener? {
       return try {
         // Check for some classes that are definitely part of IMA
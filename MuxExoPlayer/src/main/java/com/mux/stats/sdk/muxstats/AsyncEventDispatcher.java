@@ -0,0 +1,356 @@
+package com.mux.stats.sdk.muxstats;
+
+import android.os.Handler;
+import android.os.Looper;
+import com.mux.stats.sdk.core.events.IEvent;
+import com.mux.stats.sdk.core.events.IEventDispatcher;
+import com.mux.stats.sdk.core.util.MuxLogger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Delivers events to another {@link IEventDispatcher} on a worker thread owned by the SDK, so that
+ * the work done by its listeners, like building beacons, stays off the player's thread.
+ *
+ * <p>Events are published into a preallocated single-producer, single-consumer ring buffer, and
+ * the worker delivers them in the order they were published. Publishing is lock-free and doesn't
+ * allocate. The producer is the thread of the {@link Looper} given to the constructor, which is
+ * normally the player's application looper. Events dispatched from any other thread are posted to
+ * that looper first, so they keep their order relative to the events published after them.
+ *
+ * <p>Listeners that read the player's state while handling an event must not read it from the
+ * worker thread. Give the dispatcher a {@link StateCapture} instead: the state is copied on the
+ * producer thread as each event is published, and listeners read the copy while it's delivered.
+ *
+ * <p>If the buffer is full, the event is dropped and counted in {@link #getOverflowCount()}.
+ *
+ * <p>To release the target, call {@link #shutdown(Runnable)} with a task that releases it. The
+ * worker delivers the events that are still in the buffer, runs the task, and stops, so the target
+ * is released after its last event, on the thread that delivered it. Nothing waits for the worker.
+ * Events dispatched after that are dropped.
+ */
+public class AsyncEventDispatcher implements IEventDispatcher {
+
+  private static final String TAG = "AsyncEventDispatcher";
+
+  /** Default number of events the buffer can hold. */
+  public static final int DEFAULT_CAPACITY = 1024;
+
+  /**
+   * Copies the state that listeners read while handling an event, so they read it as it was when
+   * the event was published, and never from the worker thread.
+   *
+   * @param <S> type of the copies.
+   */
+  public interface StateCapture<S> {
+    /** Returns an empty copy. Called once for each slot of the buffer. */
+    S newSnapshot();
+
+    /** Copies the current state into the snapshot. Called on the producer thread. */
+    void capture(S snapshot);
+
+    /**
+     * Makes the snapshot the state that listeners see, or goes back to the live state if it's
+     * null. Called on the worker thread before and after each event is delivered.
+     */
+    void deliver(S snapshot);
+  }
+
+  private final IEventDispatcher target;
+  private final Handler producerHandler;
+  private final Thread producerThread;
+  private final IEvent[] ring;
+  private final int mask;
+  /** Captures state for each event, or null. */
+  private final StateCapture<Object> stateCapture;
+  /** The state captured for the event in the same slot of {@link #ring}, or null. */
+  private final Object[] snapshots;
+  /** The state captured by {@link #shutdown(Runnable)}, or null. */
+  private final Object finalSnapshot;
+  /** Index of the next slot the producer writes. Only written by the producer. */
+  private final AtomicLong tail = new AtomicLong();
+  /** Index of the next slot the worker reads. Only written by the worker. */
+  private final AtomicLong head = new AtomicLong();
+  /** The producer's last reading of {@link #head}, so it doesn't have to read it every time. */
+  private long cachedHead;
+  /** The worker's last reading of {@link #tail}. */
+  private long cachedTail;
+
+  private final Thread worker;
+  private volatile boolean workerParked;
+  /** Set to false by {@link #shutdown(Runnable)}, after the last event was published. */
+  private volatile boolean running = true;
+  /** Run by the worker after the last event. Written before {@link #running}. */
+  private Runnable onDrained;
+
+  private volatile long publishedCount;
+  private volatile long overflowCount;
+  private volatile long deliveredCount;
+  private volatile int peakDepth;
+
+  /**
+   * Creates a dispatcher with the {@link #DEFAULT_CAPACITY}, and starts its worker thread.
+   *
+   * @param target dispatcher to deliver events to, on the worker thread.
+   * @param producerLooper looper whose thread publishes events.
+   */
+  public AsyncEventDispatcher(IEventDispatcher target, Looper producerLooper) {
+    this(target, producerLooper, DEFAULT_CAPACITY);
+  }
+
+  /**
+   * Creates a dispatcher, and starts its worker thread.
+   *
+   * @param target dispatcher to deliver events to, on the worker thread.
+   * @param producerLooper looper whose thread publishes events.
+   * @param capacity number of events the buffer can hold. Rounded up to a power of 2.
+   */
+  public AsyncEventDispatcher(IEventDispatcher target, Looper producerLooper, int capacity) {
+    this(target, producerLooper, capacity, null);
+  }
+
+  /**
+   * Creates a dispatcher that captures state for each event, and starts its worker thread.
+   *
+   * @param target dispatcher to deliver events to, on the worker thread.
+   * @param producerLooper looper whose thread publishes events.
+   * @param capacity number of events the buffer can hold. Rounded up to a power of 2.
+   * @param stateCapture copies the state the target's listeners read, or null.
+   */
+  @SuppressWarnings("unchecked")
+  public <S> AsyncEventDispatcher(IEventDispatcher target, Looper producerLooper, int capacity,
+      StateCapture<S> stateCapture) {
+    if (target == null || producerLooper == null) {
+      throw new IllegalArgumentException("target and producerLooper can not be null");
+    }
+    this.target = target;
+    this.producerHandler = new Handler(producerLooper);
+    this.producerThread = producerLooper.getThread();
+    int size = Integer.highestOneBit(Math.max(2, Math.min(capacity, 1 << 20)) - 1) << 1;
+    this.ring = new IEvent[size];
+    this.mask = size - 1;
+    this.stateCapture = (StateCapture<Object>) stateCapture;
+    if (stateCapture != null) {
+      snapshots = new Object[size];
+      for (int i = 0; i < size; i++) {
+        snapshots[i] = stateCapture.newSnapshot();
+      }
+      finalSnapshot = stateCapture.newSnapshot();
+    } else {
+      snapshots = null;
+      finalSnapshot = null;
+    }
+    this.worker = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        drainLoop();
+      }
+    }, "MuxEventDispatch");
+    worker.setDaemon(true);
+    worker.start();
+  }
+
+  @Override
+  public void dispatch(final IEvent event) {
+    if (event == null) {
+      return;
+    }
+    if (Thread.currentThread() != producerThread) {
+      producerHandler.post(new Runnable() {
+        @Override
+        public void run() {
+          dispatch(event);
+        }
+      });
+      return;
+    }
+    if (!running) {
+      return; // The target is being released
+    }
+    if (!offer(event)) {
+      overflowCount++;
+      return;
+    }
+    publishedCount++;
+    if (workerParked) {
+      LockSupport.unpark(worker);
+    }
+  }
+
+  /**
+   * Stops accepting events. The worker delivers the events still in the buffer, then runs
+   * {@code onDrained}, then stops. Returns right away. If called from another thread, this is
+   * posted to the producer thread first, like {@link #dispatch}. Only the first call does anything.
+   * Events dispatched after this are dropped.
+   *
+   * <p>If there is a {@link StateCapture}, the state is captured now, and {@code onDrained} sees it
+   * like a listener would.
+   *
+   * @param onDrained run on the worker thread after the last event, to release the target. May be
+   *                  null.
+   */
+  public void shutdown(final Runnable onDrained) {
+    if (Thread.currentThread() != producerThread) {
+      producerHandler.post(new Runnable() {
+        @Override
+        public void run() {
+          shutdown(onDrained);
+        }
+      });
+      return;
+    }
+    if (!running) {
+      return;
+    }
+    if (stateCapture != null) {
+      stateCapture.capture(finalSnapshot);
+    }
+    this.onDrained = onDrained;
+    // A volatile write after the last event, so once the worker sees it, it sees every event
+    running = false;
+    LockSupport.unpark(worker);
+  }
+
+  /** Number of events published into the buffer. */
+  public long getPublishedCount() {
+    return publishedCount;
+  }
+
+  /** Number of events dropped because the buffer was full. */
+  public long getOverflowCount() {
+    return overflowCount;
+  }
+
+  /** Number of events delivered to the target. */
+  public long getDeliveredCount() {
+    return deliveredCount;
+  }
+
+  /** Number of events waiting in the buffer. */
+  public int getQueueDepth() {
+    return (int) (tail.get() - head.get());
+  }
+
+  /** Largest number of events that have waited in the buffer at once. */
+  public int getPeakQueueDepth() {
+    return peakDepth;
+  }
+
+  /** Producer only. */
+  private boolean offer(IEvent event) {
+    long t = tail.get();
+    if (t - cachedHead >= ring.length) {
+      cachedHead = head.get();
+      if (t - cachedHead >= ring.length) {
+        return false;
+      }
+    }
+    int index = (int) t & mask;
+    ring[index] = event;
+    if (stateCapture != null) {
+      stateCapture.capture(snapshots[index]);
+    }
+    // A volatile write, so the worker can't miss it between checking the buffer and parking
+    tail.set(t + 1);
+    if (t + 1 - cachedHead > peakDepth) {
+      // cachedHead may be stale, so only the real head can set a new peak
+      int depth = (int) (t + 1 - head.get());
+      if (depth > peakDepth) {
+        peakDepth = depth;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Worker only. Returns the next event, or null if there's none. Its slot, and the state captured
+   * in it, stay taken until {@link #advance()}.
+   */
+  private IEvent peek() {
+    long h = head.get();
+    if (h >= cachedTail) {
+      cachedTail = tail.get();
+      if (h >= cachedTail) {
+        return null;
+      }
+    }
+    int index = (int) h & mask;
+    IEvent event = ring[index];
+    ring[index] = null;
+    return event;
+  }
+
+  /** Worker only. Frees the slot of the event returned by {@link #peek()}. */
+  private void advance() {
+    head.lazySet(head.get() + 1);
+  }
+
+  /** Worker only. */
+  private void deliver(IEvent event) {
+    Object snapshot = stateCapture == null ? null : snapshots[(int) head.get() & mask];
+    try {
+      if (snapshot != null) {
+        stateCapture.deliver(snapshot);
+      }
+      target.dispatch(event);
+    } catch (RuntimeException e) {
+      MuxLogger.exception(e, TAG, "Listener failed on " + event.getType());
+    } finally {
+      if (snapshot != null) {
+        stateCapture.deliver(null);
+      }
+    }
+    advance();
+  }
+
+  private void drainLoop() {
+    while (true) {
+      IEvent event = peek();
+      if (event == null) {
+        if (!running) {
+          // Look again, in case the last events were published after the first look
+          event = peek();
+          if (event == null) {
+            finish();
+            return;
+          }
+        } else {
+          workerParked = true;
+          // Check again, in case an event was published just before the flag was set
+          event = peek();
+          if (event == null) {
+            if (running) {
+              LockSupport.park(this);
+            }
+            workerParked = false;
+            continue;
+          }
+          workerParked = false;
+        }
+      }
+      deliver(event);
+      deliveredCount++;
+    }
+  }
+
+  /** Worker only. Runs the task given to {@link #shutdown(Runnable)}. */
+  private void finish() {
+    Runnable task = onDrained;
+    onDrained = null;
+    if (task == null) {
+      return;
+    }
+    try {
+      if (finalSnapshot != null) {
+        stateCapture.deliver(finalSnapshot);
+      }
+      task.run();
+    } catch (RuntimeException e) {
+      MuxLogger.exception(e, TAG, "Failed to release the target");
+    } finally {
+      if (finalSnapshot != null) {
+        stateCapture.deliver(null);
+      }
+    }
+  }
+}
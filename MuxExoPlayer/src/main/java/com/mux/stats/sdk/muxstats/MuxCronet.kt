@@ -0,0 +1,42 @@
+package com.mux.stats.sdk.muxstats
+
+import com.mux.stats.sdk.core.util.MuxLogger
+import com.mux.stats.sdk.muxstats.internal.CronetConnectionListener
+import com.mux.stats.sdk.muxstats.internal.logTag
+import org.chromium.net.CronetEngine
+import org.chromium.net.ExperimentalCronetEngine
+import java.io.Closeable
+
+/**
+ * Reports how Cronet made the requests of a player that loads media through CronetDataSource.
+ * Your app must depend on Cronet to use this. [MuxStatsExoPlayer] doesn't refer to Cronet, so apps
+ * that don't use it never load Cronet's classes
+ */
+object MuxCronet {
+
+  /**
+   * Monitors the [CronetEngine] your player's CronetDataSource uses, so network request events say
+   * whether each request went over QUIC or TCP, whether it reused an open connection, and how long
+   * connecting took. Monitoring another engine with the same [MuxStatsExoPlayer] stops monitoring
+   * the first one. Monitoring stops when [muxStats] is released. For example:
+   *
+   *   MuxCronet.monitor(muxStats, cronetEngine)
+   *
+   * @param muxStats The [MuxStatsExoPlayer] monitoring the player
+   * @param engine The engine to monitor
+   * @return true if the engine can be monitored. Engines from [CronetEngine.Builder] can be
+   */
+  @JvmStatic
+  fun monitor(muxStats: MuxStatsExoPlayer, engine: CronetEngine): Boolean {
+    val experimentalEngine = engine as? ExperimentalCronetEngine
+    if (experimentalEngine == null) {
+      MuxLogger.d(logTag(), "This CronetEngine doesn't report finished requests")
+      return false
+    }
+    muxStats.replaceConnectionMonitor { collector ->
+      val listener = CronetConnectionListener(collector).also { it.attach(experimentalEngine) }
+      Closeable { listener.detach() }
+    }
+    return true
+  }
+}
@@ -1,22 +1,37 @@
 package com.mux.stats.sdk.muxstats;
 
-import android.net.Uri;
-import android.os.AsyncTask;
+import android.content.Context;
+import android.os.SystemClock;
 import com.mux.stats.sdk.core.util.MuxLogger;
-import com.mux.stats.sdk.muxstats.compat.AsyncTaskCompat;
-import java.io.ByteArrayOutputStream;
+import com.mux.stats.sdk.muxstats.network.BeaconCompressor;
+import com.mux.stats.sdk.muxstats.network.BeaconExecutor;
+import com.mux.stats.sdk.muxstats.network.BeaconLog;
+import com.mux.stats.sdk.muxstats.network.CircuitBreaker;
+import com.mux.stats.sdk.muxstats.network.CollectorConfig;
+import com.mux.stats.sdk.muxstats.network.CollectorConfigStore;
+import com.mux.stats.sdk.muxstats.network.NetworkMetrics;
+import com.mux.stats.sdk.muxstats.network.RadioAwareFlushScheduler;
+import com.mux.stats.sdk.muxstats.network.RetryPolicy;
+import java.io.FilterOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.Enumeration;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Hashtable;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Pattern;
-import java.util.zip.GZIPOutputStream;
 import org.json.JSONObject;
 
 /**
@@ -24,11 +39,380 @@ import org.json.JSONObject;
  * for all {@link MuxStatsExoPlayer} objects in this process. Instance of this class is associated
  * with {@link MuxStats} object as a static variable set by {@link MuxStats#setHostNetworkApi}
  * method, in this way it is only possible to have single MuxNetworkRequests instance at a time.
+ *
+ * <p>Requests are sent on a {@link BeaconExecutor} owned by the SDK, never on a thread pool shared
+ * with the host app. By default, all instances share one executor. Supply your own executor to
+ * {@link #MuxNetworkRequests(BeaconExecutor)} to change its concurrency, queue size or overflow
+ * policy.
+ *
+ * <p>Requests that fail because of a network error or a server-side error are retried according
+ * to a {@link RetryPolicy}. Every POST carries an {@code Idempotency-Key} header that stays the
+ * same across retries of the same batch, so the collector can recognize a batch it has already
+ * seen.
+ *
+ * <p>Bodies that the caller asked to be gzipped are compressed by a {@link BeaconCompressor}, which
+ * skips compressing small bodies and picks the compression level by size. See
+ * {@link #setCompressor(BeaconCompressor)}.
+ *
+ * <p>Each collector host has a {@link CircuitBreaker}. If the collector can't be reached several
+ * times in a row, beacons to it fail immediately (or wait, see
+ * {@link #setQueueWhileCircuitOpen(boolean)}) until a single probe request gets through. Use
+ * {@link #setCircuitBreakerListener(CircuitBreaker.Listener)} to watch the circuits' state.
+ *
+ * <p>Connections are left open after each request, so the next beacon can reuse them. Call
+ * {@link #prewarm(String)} to resolve and connect to the collector before the first beacon.
+ *
+ * <p>The collector can slow clients down. A {@code Retry-After} header on a 429 or 503 response
+ * holds back every request until it has passed, and the settings described in
+ * {@link CollectorConfig} are read from every response and kept in the process-wide
+ * {@link CollectorConfigStore}. POSTs are spaced at least the collector's flush interval apart,
+ * except those sent right after an error or the end of a view.
+ * Call {@link #restoreCollectorConfig(Context)} to start from the settings of the last run.
+ *
+ * <p>Beacons from the core library go through a {@link RadioAwareFlushScheduler}, which can hold
+ * them while the cellular radio is idle and send them right after the player's next segment load.
+ * See {@link #getFlushScheduler()}.
+ *
+ * <p>Every attempt is counted in {@link NetworkMetrics}: failures, retries, bytes before and after
+ * compression, and latency histograms. See {@link #getNetworkMetrics()}.
+ *
+ * <p>Call {@link #enablePersistentQueue(Context)} to keep each POST in a {@link BeaconLog} on disk
+ * until it has been sent, so beacons that were still in flight when the process died are sent the
+ * next time the app starts.
  */
 public class MuxNetworkRequests implements INetworkRequest {
 
   private static final String TAG = "MuxNetworkRequests";
 
+  /** Domain beacons are sent to, unless the customer set their own collection domain. */
+  public static final String DEFAULT_BEACON_DOMAIN = ".litix.io";
+
+  /** Header carrying a key that is unique to each batch, and identical across its retries. */
+  private static final String HEADER_IDEMPOTENCY_KEY = "Idempotency-Key";
+
+  /** Time limit to wait for server to respond on request. */
+  static final int READ_TIMEOUT_MS = 20 * 1000;
+  /** Kill connection if stale for this number of milliseconds. */
+  static final int CONNECT_TIMEOUT_MS = 30 * 1000;
+
+  /** Maximum number of requests that can wait for open circuits, or for the collector's delay. */
+  private static final int MAX_DEFERRED_REQUESTS = BeaconExecutor.DEFAULT_QUEUE_CAPACITY;
+  /** Shortest time a request waits before checking an open circuit again. */
+  private static final long MIN_DEFER_MS = 5 * 1000;
+
+  /** Property keys that can be used as a subdomain of the collection domain. */
+  private static final Pattern PROPERTY_KEY_PATTERN = Pattern.compile("^[a-z0-9]+$");
+
+  /** Executor used by instances that were not given their own. Created on first use. */
+  private static BeaconExecutor sharedExecutor;
+  /** Collector authorities that were warmed up, or are being warmed up, by any instance. */
+  private static final Set<String> warmedAuthorities = new HashSet<>();
+
+  private final BeaconExecutor executor;
+  private final RetryPolicy retryPolicy;
+  private final RadioAwareFlushScheduler flushScheduler;
+  private final NetworkMetrics networkMetrics = new NetworkMetrics();
+  /** Log that keeps POSTs on disk until they are sent, or null if persistence is not enabled. */
+  private volatile BeaconLog beaconLog;
+  /** Compresses bodies of requests with a gzip Content-Encoding header. */
+  private volatile BeaconCompressor compressor = new BeaconCompressor();
+  /** Beacon URL for the last domain and property key, so it isn't rebuilt for every batch. */
+  private volatile BeaconUrl cachedBeaconUrl;
+  /** How long the last warm-up took, in milliseconds, or -1 if none has finished. */
+  private volatile long prewarmDurationMs = -1;
+  /** Circuit breaker for each collector authority. */
+  private final Map<String, CircuitBreaker> circuitBreakers = new HashMap<>();
+  /** Notified when a circuit changes state, or null. */
+  private volatile CircuitBreaker.Listener circuitBreakerListener;
+  /** If true, requests wait for an open circuit to close instead of failing. */
+  private volatile boolean queueWhileCircuitOpen;
+  /** Number of requests currently waiting for an open circuit, or for the collector's delay. */
+  private final AtomicInteger deferredCount = new AtomicInteger();
+  /** No request is sent before this time, in {@link SystemClock#elapsedRealtime()} terms. */
+  private long notBeforeMs;
+  /** Time the last POST was sent, in {@link SystemClock#elapsedRealtime()} terms. */
+  private long lastPostAtMs = Long.MIN_VALUE / 2;
+
+  /**
+   * Creates an instance that sends beacons using the SDK's shared {@link BeaconExecutor}.
+   */
+  public MuxNetworkRequests() {
+    this(getSharedExecutor());
+  }
+
+  /**
+   * Creates an instance that sends beacons using the given {@link BeaconExecutor}.
+   *
+   * @param executor executor to send beacons on.
+   */
+  public MuxNetworkRequests(BeaconExecutor executor) {
+    this(executor, new RetryPolicy());
+  }
+
+  /**
+   * Creates an instance that sends beacons using the given {@link BeaconExecutor}, and retries
+   * failed beacons according to the given {@link RetryPolicy}.
+   *
+   * @param executor executor to send beacons on.
+   * @param retryPolicy policy for retrying failed beacons. Use {@link RetryPolicy#noRetries()} to
+   *                    leave all retrying to the caller.
+   */
+  public MuxNetworkRequests(BeaconExecutor executor, RetryPolicy retryPolicy) {
+    if (executor == null) {
+      throw new IllegalArgumentException("executor can not be null");
+    }
+    this.executor = executor;
+    this.retryPolicy = retryPolicy == null ? RetryPolicy.noRetries() : retryPolicy;
+    this.flushScheduler = new RadioAwareFlushScheduler(executor);
+  }
+
+  /**
+   * Returns the scheduler that decides when beacons from the core library are sent. It holds
+   * nothing until it's given a {@link RadioAwareFlushScheduler.CellularCheck}.
+   */
+  public RadioAwareFlushScheduler getFlushScheduler() {
+    return flushScheduler;
+  }
+
+  /**
+   * Returns the queue-depth and latency counters of the executor this object sends beacons on.
+   */
+  public BeaconExecutor.Stats getTransportStats() {
+    return executor.getStats();
+  }
+
+  /**
+   * Returns the counters and latency histograms of the requests this object has sent.
+   */
+  public NetworkMetrics.Snapshot getNetworkMetrics() {
+    return networkMetrics.snapshot();
+  }
+
+  /**
+   * Resolves and connects to the collector for the given environment key on a background thread,
+   * so that the first beacon of a view doesn't have to wait for DNS, TCP and TLS. Uses the default
+   * collection domain.
+   *
+   * @param envKey your Mux Data environment key.
+   */
+  public void prewarm(String envKey) {
+    prewarm(envKey, DEFAULT_BEACON_DOMAIN);
+  }
+
+  /**
+   * Resolves and connects to the collector for the given environment key and collection domain on
+   * a background thread, so that the first beacon of a view doesn't have to wait for DNS, TCP and
+   * TLS. Use {@link #getPrewarmDurationMillis()} to find out how long this took.
+   *
+   * <p>Each collector is warmed up at most once per process, since the connection stays open for
+   * every instance to use. Collectors whose circuit isn't closed are not warmed up.
+   *
+   * @param envKey your Mux Data environment key.
+   * @param domain the collection domain, as passed to {@link #postWithCompletion}.
+   */
+  public void prewarm(String envKey, String domain) {
+    if (envKey == null || domain == null) {
+      return;
+    }
+    final URL url;
+    try {
+      url = getBeaconUrl(envKey, domain);
+    } catch (MalformedURLException e) {
+      MuxLogger.d(TAG, "Can't warm up collector: " + e.getMessage());
+      return;
+    }
+    final String authority = url.getAuthority();
+    if (getCircuitState(authority) != CircuitBreaker.State.CLOSED) {
+      return;
+    }
+    synchronized (warmedAuthorities) {
+      if (!warmedAuthorities.add(authority)) {
+        return;
+      }
+    }
+    executor.execute(new BeaconExecutor.BeaconTask() {
+      @Override
+      public void run() {
+        if (getCircuitState(authority) != CircuitBreaker.State.CLOSED) {
+          // Beacons failed while this was queued, so the probe request will connect instead
+          return;
+        }
+        long startNanos = System.nanoTime();
+        try {
+          InetAddress.getAllByName(url.getHost());
+          long dnsMs = (System.nanoTime() - startNanos) / 1000000;
+          preconnect(url);
+          prewarmDurationMs = (System.nanoTime() - startNanos) / 1000000;
+          MuxLogger.d(TAG, "warmed up " + url.getHost() + " in " + prewarmDurationMs
+              + "ms (DNS: " + dnsMs + "ms)");
+        } catch (Exception e) {
+          MuxLogger.d(TAG, "Could not warm up " + url.getHost() + ": " + e.getMessage());
+        }
+      }
+
+      @Override
+      protected void onDropped() {
+        // The first beacon will just have to connect by itself. Another instance may try again
+        synchronized (warmedAuthorities) {
+          warmedAuthorities.remove(authority);
+        }
+      }
+    });
+  }
+
+  /**
+   * Returns how long the last call to {@link #prewarm} took to resolve and connect to the
+   * collector, in milliseconds, or -1 if no warm-up has finished.
+   */
+  public long getPrewarmDurationMillis() {
+    return prewarmDurationMs;
+  }
+
+  /**
+   * Loads the collector settings saved by the last run into the {@link CollectorConfigStore}, and
+   * saves new settings from now on. The settings are read on a beacon thread.
+   *
+   * @param context any context. Only the application context is kept.
+   */
+  public void restoreCollectorConfig(Context context) {
+    final Context appContext = context.getApplicationContext();
+    executor.execute(new BeaconExecutor.BeaconTask() {
+      @Override
+      public void run() {
+        CollectorConfigStore.getInstance().load(appContext);
+      }
+
+      @Override
+      protected void onDropped() {
+        // The defaults apply until the collector sends its settings again
+      }
+    });
+  }
+
+  /**
+   * Sets a listener to be told whenever the circuit breaker for a collector changes state. The
+   * listener is called on a beacon thread.
+   *
+   * @param listener the listener, or null to remove it.
+   */
+  public void setCircuitBreakerListener(CircuitBreaker.Listener listener) {
+    this.circuitBreakerListener = listener;
+  }
+
+  /**
+   * Chooses what happens to requests for a collector whose circuit is open. By default they fail
+   * right away, and the caller decides whether to send the data again. If this is set, they are
+   * held back until the circuit lets requests through again instead, up to a limit, after which
+   * they fail as before.
+   *
+   * @param queue true to hold back requests while the circuit is open.
+   */
+  public void setQueueWhileCircuitOpen(boolean queue) {
+    this.queueWhileCircuitOpen = queue;
+  }
+
+  /**
+   * Returns the state of the circuit for a collector.
+   *
+   * @param authority host (and port, if any) of the collector.
+   */
+  public CircuitBreaker.State getCircuitState(String authority) {
+    synchronized (circuitBreakers) {
+      CircuitBreaker breaker = circuitBreakers.get(authority);
+      return breaker == null ? CircuitBreaker.State.CLOSED : breaker.getState();
+    }
+  }
+
+  private CircuitBreaker getCircuitBreaker(String authority) {
+    synchronized (circuitBreakers) {
+      CircuitBreaker breaker = circuitBreakers.get(authority);
+      if (breaker == null) {
+        breaker = new CircuitBreaker(authority, (host, from, to, failures) -> {
+          MuxLogger.d(TAG, "circuit for " + host + ": " + from + " -> " + to + " after "
+              + failures + " failures");
+          CircuitBreaker.Listener listener = circuitBreakerListener;
+          if (listener != null) {
+            listener.onCircuitStateChanged(host, from, to, failures);
+          }
+        });
+        circuitBreakers.put(authority, breaker);
+      }
+      return breaker;
+    }
+  }
+
+  /**
+   * Sets how bodies are compressed, for requests the caller asked to be gzipped. By default,
+   * bodies under {@link BeaconCompressor#DEFAULT_MIN_COMPRESS_BYTES} are sent uncompressed, and
+   * the rest are gzipped.
+   *
+   * @param compressor the compressor to use. Pass {@link BeaconCompressor.Mode#PRESET_DICTIONARY}
+   *                   mode only if your collector supports it.
+   */
+  public void setCompressor(BeaconCompressor compressor) {
+    this.compressor = compressor == null ? new BeaconCompressor() : compressor;
+  }
+
+  /**
+   * Returns the compressor for request bodies the caller asked to be gzipped.
+   */
+  BeaconCompressor getCompressor() {
+    return compressor;
+  }
+
+  /**
+   * Keeps every POST in an on-disk log until it has been sent, using the default size cap. See
+   * {@link #enablePersistentQueue(Context, long)}.
+   *
+   * @param context any context. Only the application context is kept.
+   */
+  public void enablePersistentQueue(Context context) {
+    enablePersistentQueue(context, BeaconLog.DEFAULT_MAX_BYTES);
+  }
+
+  /**
+   * Keeps every POST in an on-disk log until it has been sent. Beacons left in the log by an
+   * earlier process are read back and sent again on a beacon thread. This method does no disk I/O
+   * itself, so it is safe to call on the main thread. Calling it more than once has no effect.
+   *
+   * @param context any context. Only the application context is kept.
+   * @param maxBytes cap on the size of the log on disk. If it's reached, the oldest unsent beacons
+   *                 are discarded.
+   */
+  public synchronized void enablePersistentQueue(Context context, long maxBytes) {
+    if (beaconLog != null) {
+      return;
+    }
+    final BeaconLog log = new BeaconLog(context, maxBytes);
+    beaconLog = log;
+    executor.execute(new BeaconExecutor.BeaconTask() {
+      @Override
+      public void run() {
+        for (BeaconLog.Entry entry : log.recover()) {
+          try {
+            executor.execute(new NetworkTaskRunner(new PostRequest(new URL(entry.url), entry.body,
+                entry.headers), entry.id));
+          } catch (Exception e) {
+            MuxLogger.d(TAG, "Dropping unreadable beacon: " + e.getMessage());
+            log.ack(entry.id);
+          }
+        }
+      }
+
+      @Override
+      protected void onDropped() {
+        // The beacons stay in the log, and are replayed next time
+      }
+    });
+  }
+
+  static synchronized BeaconExecutor getSharedExecutor() {
+    if (sharedExecutor == null) {
+      sharedExecutor = new BeaconExecutor();
+    }
+    return sharedExecutor;
+  }
+
   /**
    * This interface defines communication methods with the backend.
    */
@@ -115,9 +499,7 @@ public class MuxNetworkRequests implements INetworkRequest {
      * @param body payload to send with this request.
      */
     PostRequest(URL url, String body) {
-      this.url = url;
-      this.body = body == null ? "" : body;
-      this.headers = new Hashtable<String, String>();
+      this(url, body, null);
     }
 
     /**
@@ -130,7 +512,12 @@ public class MuxNetworkRequests implements INetworkRequest {
     PostRequest(URL url, String body, Hashtable<String, String> headers) {
       this.url = url;
       this.body = body == null ? "" : body;
-      this.headers = headers == null ? new Hashtable<String, String>() : headers;
+      // Copy the caller's headers, since the idempotency key is added to them
+      this.headers = headers == null
+          ? new Hashtable<String, String>() : new Hashtable<String, String>(headers);
+      if (!this.headers.containsKey(HEADER_IDEMPOTENCY_KEY)) {
+        this.headers.put(HEADER_IDEMPOTENCY_KEY, UUID.randomUUID().toString());
+      }
     }
 
     @Override
@@ -154,167 +541,533 @@ public class MuxNetworkRequests implements INetworkRequest {
     }
   }
 
-  private static class Response {
+  /**
+   * A beacon URL, and the domain and property key it was made from.
+   */
+  private static final class BeaconUrl {
+    final String domain;
+    final String propertyKey;
+    final URL url;
+
+    BeaconUrl(String domain, String propertyKey, URL url) {
+      this.domain = domain;
+      this.propertyKey = propertyKey;
+      this.url = url;
+    }
+  }
+
+  /**
+   * Outcome of a single attempt to send a request.
+   */
+  static class Response {
+    /** Response code used when no response was received at all. */
+    static final int NO_RESPONSE = -1;
+
     final boolean success;
+    final int code;
     final Map<String, List<String>> headers;
 
-    private Response(boolean success, Map<String, List<String>> headers) {
+    /** Size of the request body before compression, in bytes. */
+    int bodyBytes;
+    /** Size of the request body as sent, in bytes. */
+    long sentBytes;
+    /** Time from the start of the attempt until the response headers arrived, or -1. */
+    long timeToFirstByteNanos = -1;
+
+    Response(boolean success, int code, Map<String, List<String>> headers) {
       this.success = success;
+      this.code = code;
       this.headers = headers;
     }
+
+    /**
+     * Sets what is known about the transfer, for {@link NetworkMetrics}.
+     */
+    Response withTransfer(int bodyBytes, long sentBytes, long timeToFirstByteNanos) {
+      this.bodyBytes = bodyBytes;
+      this.sentBytes = sentBytes;
+      this.timeToFirstByteNanos = timeToFirstByteNanos;
+      return this;
+    }
+
+    /**
+     * Returns true if sending the same request again might succeed. This is the case for network
+     * errors, server errors and rate-limiting, but not for other client errors.
+     */
+    boolean isRetryable() {
+      return !success && (code == NO_RESPONSE || code >= 500 || code == 429);
+    }
+
+    /**
+     * Returns true if the server responded, and wasn't failing. Used by {@link CircuitBreaker}.
+     */
+    boolean reachedServer() {
+      return code != NO_RESPONSE && code < 500;
+    }
   }
 
   /**
-   * This is the asynchronous implementation of network dispatcher, runs on main Thread but does not
-   * block it. Expose methods for:
-   * <ul>
-   *   <li>Get request: @link {@link NetworkRequest#get(URL)}</li>
-   *   <li>Post request: @link {@link NetworkRequest#post(URL, JSONObject, Hashtable)}</li>
-   *   <li>Post request with callback to be called on completion
-   *   </li>
-   * </ul>
+   * Sends a single {@link NetworkRequest} on a {@link BeaconExecutor} thread, and reports the
+   * result to the callback, if any. If the executor drops this task because its queue is full, the
+   * callback is told that the request failed.
+   *
+   * <p>If the request fails in a way that might be temporary, and the {@link RetryPolicy} allows
+   * it, this task reschedules itself instead of reporting the failure. The callback is only called
+   * once, with the result of the last attempt.
+   *
+   * <p>If persistence is enabled, POSTs are appended to the {@link BeaconLog} before their first
+   * attempt, and acknowledged once they are sent or have failed for good. Beacons replayed from the
+   * log have no callback. They get the same retries as any other beacon, and are acknowledged once
+   * those are spent, so a beacon the collector keeps refusing can't hold its segment on disk. They
+   * are only left in the log if the executor drops them before that.
    */
-  private static class NetworkTaskRunner extends AsyncTask<NetworkRequest, Void, Void> {
-    /** Time limit to wait for server to respond on request. */
-    private static final int READ_TIMEOUT_MS = 20 * 1000;
-    /** Kill connection if stale for this number of milliseconds. */
-    private static final int CONNECT_TIMEOUT_MS = 30 * 1000;
-    /**
-     * Time to wait before attempting to resend failed request, this value is used as a base for
-     * exponential calculation on each failed attempt.
-     */
-    private static final int BASE_TIME_BETWEEN_BEACONS = 5000;
+  private class NetworkTaskRunner extends BeaconExecutor.BeaconTask {
     /** Callback to be executed after each successful request. */
     private final IMuxNetworkRequestsCompletion2 callback;
+    /** The request to send. */
+    private final NetworkRequest request;
     /** Number of failed attempts on network request. */
     private int failureCount = 0;
+    /** ID of this request in the {@link BeaconLog}, if it has been written there. */
+    private long logId = BeaconLog.NO_ID;
+    /** True if this request was read back from the {@link BeaconLog} after a restart. */
+    private final boolean replayed;
+    /** True while this request is waiting for an open circuit, or for the collector's delay. */
+    private boolean deferred;
 
     /**
      * Basic constructor.
      *
      * @param callback to be called when request is completed.
+     * @param request HTTP request to be executed.
      */
-    public NetworkTaskRunner(IMuxNetworkRequestsCompletion2 callback) {
+    public NetworkTaskRunner(IMuxNetworkRequestsCompletion2 callback, NetworkRequest request) {
       this.callback = callback;
+      this.request = request;
+      this.replayed = false;
+      retryPolicy.onRequest();
     }
 
     /**
-     * Network communication wrapper. this function make sure to resend the same request appropriate
-     * number of times in case server is unreachable.
-     * This method is executed asynchronously on Main thread.
+     * Constructor for a request replayed from the {@link BeaconLog}.
      *
-     * @param params HTTP request to be executed.
+     * @param request HTTP request to be executed.
+     * @param logId ID of the request in the log.
+     */
+    NetworkTaskRunner(NetworkRequest request, long logId) {
+      this.callback = null;
+      this.request = request;
+      this.logId = logId;
+      this.replayed = true;
+      retryPolicy.onRequest();
+    }
+
+    /**
+     * Network communication wrapper. Executes the request on a beacon thread and reports the
+     * result to the callback.
      */
     @Override
-    protected Void doInBackground(NetworkRequest... params) {
-      NetworkRequest request = params[0];
+    public void run() {
       URL url = request.getUrl();
       String method = request.getMethod();
       Hashtable<String, String> headers = request.getHeaders();
       String body = request.getBody();
 
+      BeaconLog log = beaconLog;
+      if (log != null && logId == BeaconLog.NO_ID && method.equals("POST")) {
+        logId = log.append(url.toString(), method, headers, body);
+      }
+
+      if (deferred) {
+        deferred = false;
+        deferredCount.decrementAndGet();
+      }
+      boolean post = method.equals("POST");
+      // Beacons sent because of an error or the end of a view don't wait for the flush interval
+      long waitMs = getSendDelay(post && !isUrgent());
+      if (waitMs > 0) {
+        if (defer(waitMs)) {
+          return;
+        }
+        MuxLogger.d(TAG, "collector asked to wait, failing " + method + " request to: " + url);
+        complete(log, new Response(false, Response.NO_RESPONSE, null));
+        return;
+      }
+      CircuitBreaker breaker = getCircuitBreaker(url.getAuthority());
+      if (!breaker.allowRequest()) {
+        if (queueWhileCircuitOpen
+            && defer(Math.max(MIN_DEFER_MS, breaker.getRemainingOpenMillis()))) {
+          return;
+        }
+        MuxLogger.d(TAG, "circuit open, failing " + method + " request to: " + url);
+        complete(log, new Response(false, Response.NO_RESPONSE, null));
+        return;
+      }
+      if (post) {
+        onPostSent();
+      }
+
       MuxLogger.d(TAG, "making " + method + " request to: " + url.toString());
-      boolean successful;
-      Map<String, List<String>> responseHeaders;
+      long startNanos = System.nanoTime();
       Response response = executeHttp(url, method, headers, body);
-      successful = response.success;
-      responseHeaders = response.headers;
-      if (callback != null) {
-        callback.onComplete(successful, responseHeaders);
+      networkMetrics.recordAttempt(response.success, response.bodyBytes, response.sentBytes,
+          response.timeToFirstByteNanos, System.nanoTime() - startNanos);
+      breaker.onResult(response.reachedServer());
+      onCollectorResponse(response);
+      if (!response.success) {
+        failureCount++;
+        if (response.isRetryable() && retryPolicy.tryRetry(failureCount)) {
+          long delayMs = Math.max(retryPolicy.nextDelayMillis(failureCount), getNotBeforeDelay());
+          MuxLogger.d(TAG, "retrying request to " + url + " in " + delayMs + "ms (failures: "
+              + failureCount + ")");
+          networkMetrics.recordRetry();
+          executor.schedule(this, delayMs);
+          return;
+        }
       }
-      return null;
+      complete(log, response);
     }
 
     /**
-     * Actual HTTP communication implementation.
+     * Schedules this request to run again after the given delay, unless too many requests are
+     * waiting already.
      *
-     * @param url to send request to.
-     * @param method method to use (POST or GET).
-     * @param headers to send with request.
-     * @param body payload to send with the request.
+     * @return true if the request was scheduled.
      */
-    private Response executeHttp(URL url, String method, Hashtable<String, String> headers,
-        String body) {
-      HttpURLConnection conn = null;
-      InputStream stream = null;
-      boolean successful = true;
-      Map<String, List<String>> responseHeaders = null;
-
-      try {
-        conn = (HttpURLConnection) url.openConnection();
-        conn.setReadTimeout(READ_TIMEOUT_MS);
-        conn.setConnectTimeout(CONNECT_TIMEOUT_MS);
-        conn.setRequestMethod(method);
-
-        // Load in the headers passed in the request
-        Enumeration<String> headerKeys = headers.keys();
-        boolean shouldGzip = false;
-        while (headerKeys.hasMoreElements()) {
-          String key = headerKeys.nextElement();
-          String value = headers.get(key);
-          conn.setRequestProperty(key, value);
-          if (key.equalsIgnoreCase("Content-Encoding")
-              && value.equalsIgnoreCase("gzip")) {
-            shouldGzip = true;
+    private boolean defer(long delayMs) {
+      if (deferredCount.incrementAndGet() > MAX_DEFERRED_REQUESTS) {
+        deferredCount.decrementAndGet();
+        return false;
+      }
+      deferred = true;
+      executor.schedule(this, delayMs);
+      return true;
+    }
+
+    /**
+     * Reports the final outcome of this request, after any retries.
+     */
+    private void complete(BeaconLog log, Response response) {
+      networkMetrics.recordRequest(response.success);
+      if (log != null) {
+        log.ack(logId);
+      }
+      if (callback != null) {
+        callback.onComplete(response.success, response.success ? response.headers : null);
+      }
+    }
+
+    @Override
+    protected void onDropped() {
+      MuxLogger.d(TAG, "dropped " + request.getMethod() + " request to: " + request.getUrl());
+      networkMetrics.recordRequest(false);
+      if (deferred) {
+        deferred = false;
+        deferredCount.decrementAndGet();
+      }
+      final BeaconLog log = beaconLog;
+      if (log != null && !replayed && logId != BeaconLog.NO_ID) {
+        // The caller is told the request failed, so it will resend the data itself. This can be
+        // called on the thread that submitted another beacon, so the disk write is done elsewhere
+        final long id = logId;
+        executor.runInBackground(new Runnable() {
+          @Override
+          public void run() {
+            log.ack(id);
           }
+        });
+      }
+      if (callback != null) {
+        callback.onComplete(false, null);
+      }
+    }
+  }
+
+  /**
+   * Decides when a request may be sent, given the collector's {@code Retry-After} and flush
+   * interval. Nothing is counted as sent until {@link #onPostSent()}.
+   *
+   * @param spaced true if the request must wait for the flush interval since the last POST.
+   * @return 0 if the request may be sent now, or the time to wait, in milliseconds.
+   */
+  private synchronized long getSendDelay(boolean spaced) {
+    long now = SystemClock.elapsedRealtime();
+    long earliest = notBeforeMs;
+    if (spaced) {
+      long flushIntervalMs = CollectorConfigStore.getInstance().get().getFlushIntervalMillis();
+      earliest = Math.max(earliest, lastPostAtMs + flushIntervalMs);
+    }
+    return Math.max(0, earliest - now);
+  }
+
+  /**
+   * Records that a POST is being sent, after its circuit let it through. Later POSTs are spaced
+   * from this one.
+   */
+  private synchronized void onPostSent() {
+    lastPostAtMs = SystemClock.elapsedRealtime();
+  }
+
+  private synchronized long getNotBeforeDelay() {
+    return Math.max(0, notBeforeMs - SystemClock.elapsedRealtime());
+  }
+
+  /**
+   * Applies the collector's {@code Retry-After} and settings headers from a response.
+   */
+  private void onCollectorResponse(Response response) {
+    if (response.headers == null) {
+      return;
+    }
+    if (response.code == 429 || response.code == HttpURLConnection.HTTP_UNAVAILABLE) {
+      long retryAfterMs = RetryPolicy.parseRetryAfterMillis(
+          headerValue(response.headers, "Retry-After"), System.currentTimeMillis());
+      if (retryAfterMs > 0) {
+        MuxLogger.d(TAG, "collector asked to wait " + retryAfterMs + "ms");
+        synchronized (this) {
+          notBeforeMs = Math.max(notBeforeMs, SystemClock.elapsedRealtime() + retryAfterMs);
         }
+      }
+    }
+    CollectorConfigStore store = CollectorConfigStore.getInstance();
+    store.update(CollectorConfig.fromHeaders(response.headers, store.get()));
+  }
 
-        // Handle the case where we have a POST and need to put the body in
-        if (method.equals("POST")) {
-          conn.setRequestProperty("Content-Type", "application/json");
-          byte[] bytes = body.getBytes();
-          if (shouldGzip) {
-            MuxLogger.d(TAG, "gzipping");
-            bytes = gzip(bytes);
-          }
+  /**
+   * Returns the first value of a header, comparing names ignoring case, or null.
+   */
+  static String headerValue(Map<String, List<String>> headers, String name) {
+    for (Map.Entry<String, List<String>> header : headers.entrySet()) {
+      if (name.equalsIgnoreCase(header.getKey()) && header.getValue() != null
+          && !header.getValue().isEmpty()) {
+        return header.getValue().get(0);
+      }
+    }
+    return null;
+  }
 
-          OutputStream outputStream = conn.getOutputStream();
-          outputStream.write(bytes);
-          outputStream.close();
+  /**
+   * Actual HTTP communication implementation. Called on a {@link BeaconExecutor} thread, once for
+   * each attempt of a request. Subclasses in this package can override it to send requests over a
+   * different HTTP stack.
+   *
+   * @param url to send request to.
+   * @param method method to use (POST or GET).
+   * @param headers to send with request.
+   * @param body payload to send with the request.
+   * @return the outcome of the attempt. Response headers are included even if it failed.
+   */
+  Response executeHttp(URL url, String method, Hashtable<String, String> headers,
+      String body) {
+    HttpURLConnection conn = null;
+    InputStream stream = null;
+    boolean successful = true;
+    boolean reusable = false;
+    int responseCode = Response.NO_RESPONSE;
+    Map<String, List<String>> responseHeaders = null;
+    long startNanos = System.nanoTime();
+    long timeToFirstByteNanos = -1;
+    int bodyBytes = 0;
+    long sentBytes = 0;
+
+    try {
+      conn = (HttpURLConnection) url.openConnection();
+      conn.setReadTimeout(READ_TIMEOUT_MS);
+      conn.setConnectTimeout(CONNECT_TIMEOUT_MS);
+      conn.setRequestMethod(method);
+
+      // Load in the headers passed in the request. If gzip was asked for, the compressor decides
+      // the actual Content-Encoding below
+      Enumeration<String> headerKeys = headers.keys();
+      boolean shouldGzip = false;
+      while (headerKeys.hasMoreElements()) {
+        String key = headerKeys.nextElement();
+        String value = headers.get(key);
+        if (key.equalsIgnoreCase("Content-Encoding")
+            && value.equalsIgnoreCase("gzip")) {
+          shouldGzip = true;
+        } else {
+          conn.setRequestProperty(key, value);
         }
+      }
 
-        conn.connect();
-        stream = conn.getInputStream();
-        responseHeaders = conn.getHeaderFields();
-        MuxLogger.d(TAG, "got response: " + conn.getResponseCode());
-      } catch (Exception e) {
-        MuxLogger.d(TAG, e.getMessage());
-        successful = false;
-        failureCount++;
-      } finally {
-        if (stream != null) {
-          try {
-            stream.close();
-          } catch (IOException ioe) {
-            MuxLogger.d(TAG, ioe.getMessage());
-            successful = false;
-            failureCount++;
+      // Handle the case where we have a POST and need to put the body in
+      if (method.equals("POST")) {
+        conn.setRequestProperty("Content-Type", "application/json");
+        int length = utf8Length(body);
+        bodyBytes = length;
+        BeaconCompressor bodyCompressor = shouldGzip ? compressor : null;
+        String encoding = bodyCompressor == null ? null : bodyCompressor.contentEncoding(length);
+        if (encoding != null) {
+          conn.setRequestProperty("Content-Encoding", encoding);
+          if (encoding.equals(BeaconCompressor.ENCODING_DICTIONARY)) {
+            conn.setRequestProperty(BeaconCompressor.HEADER_DICTIONARY_ID,
+                BeaconCompressor.getDictionaryId());
           }
         }
-        if (conn != null) {
-          conn.disconnect();
+        sentBytes = writeBody(conn, body, length, encoding == null ? null : bodyCompressor);
+      }
+
+      conn.connect();
+      responseCode = conn.getResponseCode();
+      timeToFirstByteNanos = System.nanoTime() - startNanos;
+      MuxLogger.d(TAG, "got response: " + responseCode);
+      if (responseCode >= HttpURLConnection.HTTP_BAD_REQUEST) {
+        successful = false;
+        stream = conn.getErrorStream();
+      } else {
+        stream = conn.getInputStream();
+      }
+      responseHeaders = conn.getHeaderFields();
+      reusable = true;
+    } catch (Exception e) {
+      MuxLogger.d(TAG, e.getMessage());
+      successful = false;
+    } finally {
+      if (stream != null) {
+        try {
+          drainAndClose(stream);
+        } catch (IOException ioe) {
+          MuxLogger.d(TAG, ioe.getMessage());
+          successful = false;
+          reusable = false;
         }
       }
-      return new Response(successful, responseHeaders);
+      // disconnect() closes the socket, so only call it if the connection can't be kept alive
+      if (conn != null && !reusable) {
+        conn.disconnect();
+      }
     }
+    return new Response(successful, responseCode, responseHeaders)
+        .withTransfer(bodyBytes, sentBytes, timeToFirstByteNanos);
+  }
 
-    /**
-     * Apply gzip algorithm to a byte array and return gziped byte array.
-     *
-     * @param input bytes to perform gzip on.
-     * @return gziped byte array.
-     * @throws Exception
-     */
-    private static byte[] gzip(byte[] input) throws Exception {
-      ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
-      GZIPOutputStream gzipOutputStream = new GZIPOutputStream(byteArrayOutputStream);
-      gzipOutputStream.write(input);
-      gzipOutputStream.flush();
-      gzipOutputStream.close();
-      return byteArrayOutputStream.toByteArray();
+  /**
+   * Opens a connection to the given URL without sending a beacon, so it's ready for the first one.
+   * Called on a {@link BeaconExecutor} thread.
+   *
+   * @param url beacon URL to connect to.
+   * @throws IOException if the connection could not be made.
+   */
+  void preconnect(URL url) throws IOException {
+    HttpURLConnection conn = (HttpURLConnection) url.openConnection();
+    conn.setReadTimeout(READ_TIMEOUT_MS);
+    conn.setConnectTimeout(CONNECT_TIMEOUT_MS);
+    conn.setRequestMethod("HEAD");
+    try {
+      int responseCode = conn.getResponseCode();
+      InputStream stream = responseCode >= HttpURLConnection.HTTP_BAD_REQUEST
+          ? conn.getErrorStream() : conn.getInputStream();
+      if (stream != null) {
+        drainAndClose(stream);
+      }
+    } catch (IOException e) {
+      conn.disconnect();
+      throw e;
     }
   }
 
+  /**
+   * Reads a response body to the end and closes it. The connection can only be reused for another
+   * request once its response has been read completely.
+   */
+  private static void drainAndClose(InputStream stream) throws IOException {
+    try {
+      byte[] buffer = new byte[512];
+      while (stream.read(buffer) != -1) {
+        // Discard
+      }
+    } finally {
+      stream.close();
+    }
+  }
+
+  /**
+   * Streams a request body to the connection, encoding it as UTF-8 on the fly. Compressed bodies
+   * are compressed on the way out and sent in chunked streaming mode, since their length isn't
+   * known up front. Other bodies are sent in fixed-length streaming mode. Either way, the body is
+   * never copied into a byte array, and the connection doesn't buffer it.
+   *
+   * @param conn connection to write to. Must not be connected yet.
+   * @param body the request body.
+   * @param length size of the body in bytes, from {@link #utf8Length(String)}.
+   * @param compressor compressor to compress the body with, or null to send it uncompressed.
+   * @throws IOException if the body could not be written.
+   */
+  private static long writeBody(HttpURLConnection conn, String body, int length,
+      BeaconCompressor compressor) throws IOException {
+    CountingOutputStream counter;
+    OutputStream outputStream;
+    if (compressor != null) {
+      conn.setChunkedStreamingMode(0);
+      counter = new CountingOutputStream(conn.getOutputStream());
+      outputStream = compressor.compress(counter, length);
+    } else {
+      conn.setFixedLengthStreamingMode(length);
+      counter = new CountingOutputStream(conn.getOutputStream());
+      outputStream = counter;
+    }
+    Writer writer = new OutputStreamWriter(outputStream, "UTF-8");
+    try {
+      writer.write(body);
+    } finally {
+      // Also returns the compressing stream's Deflater to its pool
+      writer.close();
+    }
+    return counter.getCount();
+  }
+
+  /**
+   * Counts the bytes written through it, for {@link NetworkMetrics}.
+   */
+  static final class CountingOutputStream extends FilterOutputStream {
+    private long count;
+
+    CountingOutputStream(OutputStream out) {
+      super(out);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      out.write(b);
+      count++;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      // FilterOutputStream would write one byte at a time
+      out.write(b, off, len);
+      count += len;
+    }
+
+    long getCount() {
+      return count;
+    }
+  }
+
+  /**
+   * Returns the number of bytes in the UTF-8 encoding of a string, without encoding it.
+   */
+  static int utf8Length(String string) {
+    int length = 0;
+    for (int i = 0; i < string.length(); i++) {
+      char c = string.charAt(i);
+      if (c < 0x80) {
+        length++;
+      } else if (c < 0x800) {
+        length += 2;
+      } else if (Character.isHighSurrogate(c) && i + 1 < string.length()
+          && Character.isLowSurrogate(string.charAt(i + 1))) {
+        length += 4;
+        i++;
+      } else {
+        // Unpaired surrogates are encoded as '?', but other chars take 3 bytes
+        length += Character.isSurrogate(c) ? 1 : 3;
+      }
+    }
+    return length;
+  }
+
   /**
    * Calculate the backend URL based on the user environment key variable.
    *
@@ -328,14 +1081,34 @@ public class MuxNetworkRequests implements INetworkRequest {
     // TODO: Next major version bump, we should fix this API to be a bit
     // more clean.
     if (!domain.startsWith(".")) {
-        return domain;
+      return domain;
     }
-    if (Pattern.matches("^[a-z0-9]+$", propertykey)) {
-        return propertykey + domain;
+    if (PROPERTY_KEY_PATTERN.matcher(propertykey).matches()) {
+      return propertykey + domain;
     }
     return "img" + domain;
   }
 
+  /**
+   * Returns the URL beacons for the given property key and domain are posted to. The URL is only
+   * computed again if the property key or domain changed since the last call.
+   *
+   * @param propertyKey environment key variable.
+   * @param domain domain to send beacons to (concatenated with propertykey).
+   * @return the beacon URL.
+   * @throws MalformedURLException if the domain or property key don't make a valid URL.
+   */
+  private URL getBeaconUrl(String propertyKey, String domain) throws MalformedURLException {
+    BeaconUrl cached = cachedBeaconUrl;
+    if (cached == null || !cached.domain.equals(domain)
+        || !cached.propertyKey.equals(propertyKey)) {
+      URL url = new URL("https", getAuthority(propertyKey, domain), "/android");
+      cached = new BeaconUrl(domain, propertyKey, url);
+      cachedBeaconUrl = cached;
+    }
+    return cached.url;
+  }
+
   /**
    * Dispatch the GET request to a URL asynchronously.
    *
@@ -344,7 +1117,7 @@ public class MuxNetworkRequests implements INetworkRequest {
   @Override
   public void get(URL url) {
     try {
-      AsyncTaskCompat.executeParallel(new NetworkTaskRunner(null), new GetRequest(url));
+      executor.execute(new NetworkTaskRunner(null, new GetRequest(url)));
     } catch (Exception e) {
       MuxLogger.d(TAG, e.getMessage());
     }
@@ -360,8 +1133,7 @@ public class MuxNetworkRequests implements INetworkRequest {
   @Override
   public void post(URL url, JSONObject body, Hashtable<String, String> headers) {
     try {
-      AsyncTaskCompat.executeParallel(new NetworkTaskRunner(null),
-          new PostRequest(url, body.toString(), headers));
+      executor.execute(new NetworkTaskRunner(null, new PostRequest(url, body.toString(), headers)));
     } catch (Exception e) {
       MuxLogger.d(TAG, e.getMessage());
     }
@@ -382,11 +1154,9 @@ public class MuxNetworkRequests implements INetworkRequest {
       INetworkRequest.IMuxNetworkRequestsCompletion callback) {
     try {
       if (propertyKey != null) {
-        Uri.Builder uriBuilder = new Uri.Builder();
-        uriBuilder.scheme("https").authority(this.getAuthority(propertyKey, domain)).path(
-            "android");
-        AsyncTaskCompat.executeParallel(new NetworkTaskRunner((success, respHeaders) -> callback.onComplete(success)),
-            new PostRequest(new URL(uriBuilder.build().toString()), body, headers));
+        flushScheduler.submit(new NetworkTaskRunner(
+            (success, respHeaders) -> callback.onComplete(success),
+            new PostRequest(getBeaconUrl(propertyKey, domain), body, headers)));
       } else {
         throw new Exception("propertyKey is null");
       }
@@ -402,11 +1172,8 @@ public class MuxNetworkRequests implements INetworkRequest {
                                  INetworkRequest.IMuxNetworkRequestsCompletion2 callback) {
     try {
       if (propertyKey != null) {
-        Uri.Builder uriBuilder = new Uri.Builder();
-        uriBuilder.scheme("https").authority(this.getAuthority(propertyKey, domain)).path(
-            "android");
-        AsyncTaskCompat.executeParallel(new NetworkTaskRunner(callback),
-            new PostRequest(new URL(uriBuilder.build().toString()), body, headers));
+        flushScheduler.submit(new NetworkTaskRunner(callback,
+            new PostRequest(getBeaconUrl(propertyKey, domain), body, headers)));
       } else {
         throw new Exception("propertyKey is null");
       }
@@ -0,0 +1,205 @@
+package com.mux.stats.sdk.muxstats;
+
+import com.mux.stats.sdk.core.util.MuxLogger;
+import com.mux.stats.sdk.muxstats.network.BeaconCompressor;
+import com.mux.stats.sdk.muxstats.network.BeaconExecutor;
+import com.mux.stats.sdk.muxstats.network.RetryPolicy;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.Hashtable;
+import java.util.concurrent.TimeUnit;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okio.BufferedSink;
+
+/**
+ * Alternative to {@link MuxNetworkRequests} that sends beacons with OkHttp. OkHttp keeps
+ * connections to the collector alive in its connection pool and negotiates HTTP/2 when it can, so
+ * beacons to the same collector share a single connection, and concurrent beacons are multiplexed
+ * over it instead of each paying for their own TLS handshake.
+ *
+ * <p>Everything else works as in {@link MuxNetworkRequests}: requests are queued on a
+ * {@link BeaconExecutor}, retried according to a {@link RetryPolicy}, and can be persisted with
+ * {@link #enablePersistentQueue}.
+ *
+ * <p>OkHttp is not a dependency of this SDK. To use this class, your app must depend on OkHttp
+ * 3.12 or newer. Pass it to {@link MuxStatsExoPlayer} as its {@code network} parameter.
+ */
+public class MuxOkHttpNetworkRequests extends MuxNetworkRequests {
+
+  private static final String TAG = "MuxOkHttpNetworkRequests";
+  private static final MediaType JSON = MediaType.parse("application/json");
+
+  /** Client used by instances that were not given one. Created on first use. */
+  private static OkHttpClient sharedClient;
+
+  private final OkHttpClient client;
+
+  /**
+   * Creates an instance with its own OkHttp client, which is shared by all instances created with
+   * this constructor.
+   */
+  public MuxOkHttpNetworkRequests() {
+    this(getSharedClient());
+  }
+
+  /**
+   * Creates an instance that sends beacons using the connection pool and dispatcher of an
+   * {@link OkHttpClient} your app already has, on the SDK's shared {@link BeaconExecutor}. The
+   * client's own settings are not changed.
+   *
+   * @param client client to derive the beacon client from.
+   */
+  public MuxOkHttpNetworkRequests(OkHttpClient client) {
+    this(client, getSharedExecutor(), new RetryPolicy());
+  }
+
+  /**
+   * Creates an instance that sends beacons using the connection pool and dispatcher of an
+   * {@link OkHttpClient} your app already has, on the given {@link BeaconExecutor}, and retries
+   * failed beacons according to the given {@link RetryPolicy}.
+   *
+   * @param client client to derive the beacon client from.
+   * @param executor executor to send beacons on.
+   * @param retryPolicy policy for retrying failed beacons.
+   */
+  public MuxOkHttpNetworkRequests(OkHttpClient client, BeaconExecutor executor,
+      RetryPolicy retryPolicy) {
+    super(executor, retryPolicy);
+    if (client == null) {
+      throw new IllegalArgumentException("client can not be null");
+    }
+    // newBuilder() shares the connection pool and dispatcher with the original client
+    this.client = client.newBuilder()
+        .protocols(Arrays.asList(Protocol.HTTP_2, Protocol.HTTP_1_1))
+        .connectTimeout(CONNECT_TIMEOUT_MS, TimeUnit.MILLISECONDS)
+        .readTimeout(READ_TIMEOUT_MS, TimeUnit.MILLISECONDS)
+        // Retries are handled by our RetryPolicy
+        .retryOnConnectionFailure(false)
+        .build();
+  }
+
+  private static synchronized OkHttpClient getSharedClient() {
+    if (sharedClient == null) {
+      sharedClient = new OkHttpClient();
+    }
+    return sharedClient;
+  }
+
+  @Override
+  Response executeHttp(URL url, String method, Hashtable<String, String> headers, String body) {
+    Request.Builder builder = new Request.Builder().url(url);
+    boolean shouldGzip = false;
+    Enumeration<String> headerKeys = headers.keys();
+    while (headerKeys.hasMoreElements()) {
+      String key = headerKeys.nextElement();
+      String value = headers.get(key);
+      if (key.equalsIgnoreCase("Content-Encoding") && value.equalsIgnoreCase("gzip")) {
+        shouldGzip = true;
+      } else {
+        builder.header(key, value);
+      }
+    }
+    StreamingBody streamingBody = null;
+    if (method.equals("POST")) {
+      int length = utf8Length(body);
+      BeaconCompressor bodyCompressor = shouldGzip ? getCompressor() : null;
+      String encoding = bodyCompressor == null ? null : bodyCompressor.contentEncoding(length);
+      if (encoding != null) {
+        builder.header("Content-Encoding", encoding);
+        if (encoding.equals(BeaconCompressor.ENCODING_DICTIONARY)) {
+          builder.header(BeaconCompressor.HEADER_DICTIONARY_ID, BeaconCompressor.getDictionaryId());
+        }
+      }
+      streamingBody = new StreamingBody(body, length, encoding == null ? null : bodyCompressor);
+      builder.post(streamingBody);
+    } else {
+      builder.get();
+    }
+
+    okhttp3.Response response = null;
+    long startNanos = System.nanoTime();
+    int bodyBytes = streamingBody == null ? 0 : streamingBody.length;
+    try {
+      response = client.newCall(builder.build()).execute();
+      long timeToFirstByteNanos = System.nanoTime() - startNanos;
+      MuxLogger.d(TAG, "got response: " + response.code() + " over " + response.protocol());
+      boolean successful = response.code() < 400;
+      return new Response(successful, response.code(), response.headers().toMultimap())
+          .withTransfer(bodyBytes, sentBytes(streamingBody), timeToFirstByteNanos);
+    } catch (IOException e) {
+      MuxLogger.d(TAG, e.getMessage());
+      return new Response(false, Response.NO_RESPONSE, null)
+          .withTransfer(bodyBytes, sentBytes(streamingBody), -1);
+    } finally {
+      if (response != null && response.body() != null) {
+        // Releases the connection back to the pool
+        response.body().close();
+      }
+    }
+  }
+
+  private static long sentBytes(StreamingBody body) {
+    return body == null ? 0 : body.sentBytes;
+  }
+
+  @Override
+  void preconnect(URL url) throws IOException {
+    okhttp3.Response response = client.newCall(new Request.Builder().url(url).head().build())
+        .execute();
+    if (response.body() != null) {
+      // Releases the connection back to the pool, where the first beacon will find it
+      response.body().close();
+    }
+  }
+
+  /**
+   * Request body that encodes a String as UTF-8 straight into OkHttp's sink, optionally
+   * compressing it on the way. The length of a compressed body is unknown, so it is sent chunked
+   * over HTTP/1.1.
+   */
+  private static class StreamingBody extends RequestBody {
+    private final String body;
+    private final int length;
+    private final BeaconCompressor compressor;
+    /** Bytes written to the sink by the last call to {@link #writeTo}. */
+    private volatile long sentBytes;
+
+    StreamingBody(String body, int length, BeaconCompressor compressor) {
+      this.body = body;
+      this.length = length;
+      this.compressor = compressor;
+    }
+
+    @Override
+    public MediaType contentType() {
+      return JSON;
+    }
+
+    @Override
+    public long contentLength() {
+      return compressor == null ? length : -1;
+    }
+
+    @Override
+    public void writeTo(BufferedSink sink) throws IOException {
+      CountingOutputStream out = new CountingOutputStream(sink.outputStream());
+      Writer writer = new OutputStreamWriter(compressor == null
+          ? out : compressor.compress(out, length), "UTF-8");
+      try {
+        writer.write(body);
+      } finally {
+        // Also closes the sink, which OkHttp does after writeTo() anyway
+        writer.close();
+        sentBytes = out.getCount();
+      }
+    }
+  }
+}
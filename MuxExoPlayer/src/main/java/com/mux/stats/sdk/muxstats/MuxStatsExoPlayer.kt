@@ -22,6 +22,8 @@ import android.net.ConnectivityManager
 import android.net.NetworkCapabilities
 import android.net.NetworkInfo
 import android.os.Build
+import android.os.Handler
+import android.os.Looper
 import android.os.SystemClock
 import android.util.Log
 import android.view.View
@@ -30,22 +32,35 @@ import com.google.ads.interactivemedia.v3.api.AdsLoader
 import com.google.android.exoplayer2.ExoPlayer
 import com.google.android.exoplayer2.ExoPlayerLibraryInfo
 import com.google.android.exoplayer2.Player
+import com.google.android.exoplayer2.upstream.DataSource
 import com.mux.stats.sdk.core.Core
 import com.mux.stats.sdk.core.CustomOptions
 import com.mux.stats.sdk.core.MuxSDKViewOrientation
 import com.mux.stats.sdk.core.events.EventBus
 import com.mux.stats.sdk.core.events.IEvent
+import com.mux.stats.sdk.core.events.IEventDispatcher
+import com.mux.stats.sdk.core.events.InternalErrorEvent
+import com.mux.stats.sdk.core.events.playback.ViewEndEvent
 import com.mux.stats.sdk.core.model.CustomerData
 import com.mux.stats.sdk.core.model.CustomerPlayerData
 import com.mux.stats.sdk.core.model.CustomerVideoData
 import com.mux.stats.sdk.core.util.MuxLogger
+import com.mux.stats.sdk.muxstats.exoplayeradapter.InFlightLoadStats
 import com.mux.stats.sdk.muxstats.exoplayeradapter.MuxPlayerState
 import com.mux.stats.sdk.muxstats.exoplayeradapter.MuxUiDelegate
+import com.mux.stats.sdk.muxstats.exoplayeradapter.PositionSamplingPolicy
 import com.mux.stats.sdk.muxstats.exoplayeradapter.internal.createExoPlayerAdapter
 import com.mux.stats.sdk.muxstats.exoplayeradapter.internal.*
+import com.mux.stats.sdk.muxstats.internal.AppVisibilityTracker
+import com.mux.stats.sdk.muxstats.internal.PlayerStateSnapshot
 import com.mux.stats.sdk.muxstats.internal.isDebugVariant
 import com.mux.stats.sdk.muxstats.internal.logTag
 import com.mux.stats.sdk.muxstats.internal.weak
+import com.mux.stats.sdk.muxstats.network.CollectorConfig
+import com.mux.stats.sdk.muxstats.network.CollectorConfigStore
+import com.mux.stats.sdk.muxstats.network.NetworkMetrics
+import com.mux.stats.sdk.muxstats.network.RadioAwareFlushScheduler
+import java.io.Closeable
 import java.lang.ref.WeakReference
 import java.util.*
 import java.util.regex.Pattern
@@ -74,6 +89,8 @@ import kotlin.math.ceil
  * @param customerData Data about you, your video, and your player.
  * @param customOptions Options about the behavior of the SDK. Unless you have a special use case,
  *    this can be left null/omitted
+ * @param network Sends beacons to Mux. Pass a [MuxOkHttpNetworkRequests] to send them over a
+ *    pooled HTTP/2 connection using OkHttp, for instance one sharing your app's `OkHttpClient`
  */
 @Suppress("unused")
 class MuxStatsExoPlayer @JvmOverloads constructor(
@@ -108,6 +125,8 @@ class MuxStatsExoPlayer @JvmOverloads constructor(
    * @param customerData Data about you, your video, and your player.
    * @param customOptions Options about the behavior of the SDK. Unless you have a special use case,
    *    this can be left null/omitted
+   * @param network Sends beacons to Mux. Pass a [MuxOkHttpNetworkRequests] to send them over a
+   *    pooled HTTP/2 connection using OkHttp, for instance one sharing your app's `OkHttpClient`
    */
   constructor(
     context: Context,
@@ -159,23 +178,47 @@ class MuxStatsExoPlayer @JvmOverloads constructor(
   private var _player by weak(player)
   private var _playerView by weak(playerView)
 
+  private val muxNetworkRequests = network as? MuxNetworkRequests
+
+  // On cellular, beacons wait for the player's next segment load unless something urgent happened
+  private val flushScheduler = muxNetworkRequests?.flushScheduler
   private val eventBus = EventBus()
-  private val collector =  MuxStateCollectorExoImpl({ muxStats }, eventBus)
+  // Set by enableAsyncDispatch(). Events go straight to the eventBus until then
+  @Volatile private var asyncDispatcher: AsyncEventDispatcher? = null
+  // Set by MuxCronet.monitor(). Closed on release
+  private var connectionMonitor: Closeable? = null
+  private val eventDispatcher = IEventDispatcher { event ->
+    flushIfUrgent(event)
+    (asyncDispatcher ?: eventBus).dispatch(event)
+  }
+  private val collector = MuxStateCollectorExoImpl({ muxStats }, eventDispatcher)
   private val playerAdapter = collector.createExoPlayerAdapter(
     context = context,
     playerView = playerView,
     player = player,
   )
+  // Answers MuxStats' questions about the player, and copies the answers for async dispatch
+  private val playerDelegate = ExoPlayerDelegate()
   private val muxStats: MuxStats // Set in init{} because INetworkRequest must be set statically 1st
+  // The position of the player is sampled less often while the app is in the background
+  private val appVisibilityTracker = AppVisibilityTracker(context) { inForeground ->
+    collector.appInForeground = inForeground
+  }
   private lateinit var playerId: String // Set by constructor (deprecated) or generated (preferred)
 
   private val displayDensity: Float
 
+  // The collector's settings arrive on a beacon thread, and the collector is used on the main one
+  private val mainHandler = Handler(Looper.getMainLooper())
+  private val collectorConfigListener = CollectorConfig.Listener { config ->
+    mainHandler.post { applyCollectorConfig(config) }
+  }
+
   private val imaSdkListener: AdsImaSDKListener? by lazy {
     AdsImaSDKListener.createIfImaAvailable(
       player,
       collector,
-      eventBus
+      eventDispatcher
     )
   }
 
@@ -189,14 +232,23 @@ class MuxStatsExoPlayer @JvmOverloads constructor(
     // Init MuxStats (muxStats must be created last)
     MuxStats.setHostDevice(MuxDevice(context))
     MuxStats.setHostNetworkApi(network)
+    // Resolve and connect to the collector while the player is still starting up
+    muxNetworkRequests?.prewarm(
+      envKey,
+      customOptions?.beaconCollectionDomain?.takeIf { it.isNotEmpty() }
+        ?: MuxNetworkRequests.DEFAULT_BEACON_DOMAIN
+    )
+    muxNetworkRequests?.restoreCollectorConfig(context)
     // Generate a player ID (for our instance-tracking) unless one was supplied
     if (!::playerId.isInitialized) {
       playerId = context.javaClass.canonicalName!! + (playerView?.id ?: "audio")
     }
     muxStats =
-      MuxStats(ExoPlayerDelegate(), playerId, customerData, customOptions ?: CustomOptions())
+      MuxStats(playerDelegate, playerId, customerData, customOptions ?: CustomOptions())
         .also { eventBus.addListener(it) }
 
+    collector.appInForeground = appVisibilityTracker.inForeground
+
     // Setup logging for debug builds of the SDK
     enableMuxCoreDebug(isDebugVariant(), false)
     Core.allowLogcatOutputForPlayer(playerId, isDebugVariant(), false)
@@ -218,6 +270,21 @@ class MuxStatsExoPlayer @JvmOverloads constructor(
     collector.allowHeaderToBeSentToBackend("content-type")
     collector.allowHeaderToBeSentToBackend("x-request-id")
     collector.allowHeaderToBeSentToBackend(Pattern.compile("^x-litix-.*", Pattern.CASE_INSENSITIVE))
+
+    flushScheduler?.let { scheduler ->
+      scheduler.setCellularCheck(RadioAwareFlushScheduler.CellularCheck {
+        val connectionType = MuxDevice.muxStatsInstance?.getNetworkConnectionType()
+        connectionType == MuxDevice.CONNECTION_TYPE_CELLULAR
+      })
+      collector.loadActivityListener = object : MuxStateCollectorBase.LoadActivityListener {
+        override fun onLoadStarted() = scheduler.onLoadStarted()
+        override fun onLoadFinished() = scheduler.onLoadFinished()
+      }
+    }
+
+    // Follow the collector's settings, starting with the last ones it sent
+    CollectorConfigStore.getInstance().addListener(collectorConfigListener)
+    applyCollectorConfig(CollectorConfigStore.getInstance().get())
   }
 
   /**
@@ -377,6 +444,7 @@ class MuxStatsExoPlayer @JvmOverloads constructor(
    */
   @Suppress("KDocUnresolvedReference")
   fun videoChange(videoData: CustomerVideoData) {
+    flushScheduler?.flushUrgent() // The old view is ending
     collector.videoChange(videoData)
   }
 
@@ -384,7 +452,10 @@ class MuxStatsExoPlayer @JvmOverloads constructor(
    * Call when new content is being served over the same URL, such as during a live stream. This
    * method will start a new view to represent the new content being consumed
    */
-  fun programChange(videoData: CustomerVideoData) = collector.programChange(videoData)
+  fun programChange(videoData: CustomerVideoData) {
+    flushScheduler?.flushUrgent() // The old view is ending
+    collector.programChange(videoData)
+  }
 
   /**
    * Call when the device changes physical orientation, such as moving from portrait to landscape
@@ -402,7 +473,113 @@ class MuxStatsExoPlayer @JvmOverloads constructor(
    * Dispatch a raw event to the View. Please use this method with caution, as unexpected events can
    * lead to broken views
    */
-  fun dispatch(event: IEvent?) = eventBus.dispatch(event)
+  fun dispatch(event: IEvent?) = eventDispatcher.dispatch(event)
+
+  /**
+   * Delivers events to Mux Data on a worker thread instead of the player's thread. Player
+   * callbacks then only publish each event into a ring buffer, and the work of turning events into
+   * beacons moves off the UI thread. Events are still delivered in order, and listeners of the
+   * event bus, including [MuxStats], are called on the worker thread. The player state [MuxStats]
+   * reads for each event is copied on the player's thread when the event is dispatched, so it's
+   * never read from the worker. If the buffer fills up, events are dropped and counted in
+   * [AsyncEventDispatcher.getOverflowCount].
+   *
+   * Call this before playback starts. Calling it again has no effect.
+   *
+   * @param capacity Number of events the buffer can hold
+   * @return the dispatcher, for its counters
+   */
+  @JvmOverloads
+  fun enableAsyncDispatch(
+    capacity: Int = AsyncEventDispatcher.DEFAULT_CAPACITY
+  ): AsyncEventDispatcher {
+    return asyncDispatcher
+      ?: AsyncEventDispatcher(eventBus, player.applicationLooper, capacity, playerDelegate)
+        .also {
+          // Events wait in the buffer, so each one needs its own object
+          collector.reuseEvents = false
+          asyncDispatcher = it
+        }
+  }
+
+  /**
+   * Changes how often the player's position is sampled between state changes. By default, it's
+   * sampled often while seeking or starting up, rarely while playing, and not at all while paused
+   * or while the app is in the background. See [PositionSamplingPolicy]
+   *
+   * @param policy The policy to use, or null for the default one
+   */
+  fun setPositionSamplingPolicy(policy: PositionSamplingPolicy?) {
+    collector.positionSamplingPolicy = policy
+  }
+
+  /**
+   * Summarizes network requests instead of reporting each one. By default, a request event is sent
+   * for each request, and events past a limit per segment duration are dropped. With an interval,
+   * every request is counted in a summary for its request type (manifest, media, etc), and each
+   * interval sends one request-completed event per type, whose bytes and timing are the totals for
+   * that type, plus the latest failed and canceled request of each type, if any.
+   *
+   * This suits low-latency and short-segment streams, which make more requests than the limit.
+   *
+   * @param intervalMillis How often summaries are sent, for instance 10000, or 0 to report each
+   *  request again
+   */
+  fun setRequestAggregationInterval(intervalMillis: Long) {
+    collector.requestAggregationIntervalMillis = intervalMillis.coerceAtLeast(0)
+  }
+
+  /**
+   * Changes how many request events are sent when requests are reported one by one. Completed,
+   * canceled and failed requests each have their own budget. Events past the budget are dropped,
+   * and the next event of the same kind that is sent carries the number dropped before it.
+   *
+   * @param burst Number of events of each kind that can be sent at once
+   * @param eventsPerSecond Number of events of each kind that can be sent per second on average
+   */
+  fun setRequestEventRateLimit(burst: Int, eventsPerSecond: Double) {
+    collector.requestEventBurst = burst.coerceAtLeast(1)
+    collector.requestEventsPerSecond = eventsPerSecond.coerceAtLeast(0.0)
+  }
+
+  /**
+   * Wraps your player's [DataSource.Factory] so network request events report when each request
+   * was sent and when its response started and ended. Without it, requests are timed from when
+   * ExoPlayer says it started and finished loading, which skews time to first byte and throughput.
+   * For example:
+   *
+   *   val dataSourceFactory = muxStats.monitorDataSourceFactory(DefaultDataSource.Factory(context))
+   *   val mediaSourceFactory = DefaultMediaSourceFactory(dataSourceFactory)
+   *
+   * @param upstream The factory your player would use otherwise
+   * @return a factory to give the player's media sources instead
+   */
+  fun monitorDataSourceFactory(upstream: DataSource.Factory): DataSource.Factory =
+    collector.timedDataSourceFactory(upstream)
+
+  /**
+   * Stops the connection monitor set before, if any, then starts the one [start] makes. The monitor
+   * runs until the next one is set, or until this object is released
+   */
+  @JvmSynthetic
+  internal fun replaceConnectionMonitor(start: (MuxStateCollectorBase) -> Closeable) {
+    connectionMonitor?.close()
+    connectionMonitor = start(collector)
+  }
+
+  /**
+   * Returns the number of times the player's position was sampled on a timer during the current
+   * view, as opposed to when its state changed
+   */
+  fun getPositionTicksInView(): Int = collector.positionTicksInView
+
+  /**
+   * Returns counters of the segment loads that started and haven't finished yet, and of the ones
+   * that were evicted because their end never arrived. Call on the player's application thread
+   *
+   * @return a snapshot of the counters, or null if segment loads aren't tracked
+   */
+  fun getInFlightLoadStats(): InFlightLoadStats? = collector.inFlightLoadStats
 
   /**
    * Enables ADB logging for this SDK
@@ -412,12 +589,57 @@ class MuxStatsExoPlayer @JvmOverloads constructor(
   fun enableMuxCoreDebug(enable: Boolean, verbose: Boolean) =
     muxStats.allowLogcatOutput(enable, verbose)
 
+  /**
+   * Returns counters and latency histograms for the beacons the SDK has sent so far: attempts,
+   * failures, retries, bytes before and after compression, time to first byte and total time.
+   * These cover every player in the process, since they all share the same network layer.
+   *
+   * @return a snapshot of the metrics, or null if a custom [INetworkRequest] is sending beacons
+   */
+  fun getNetworkMetrics(): NetworkMetrics.Snapshot? = muxNetworkRequests?.networkMetrics
+
   /**
    * Tears down this object. After this, the object will no longer be usable
    */
   fun release() {
+    CollectorConfigStore.getInstance().removeListener(collectorConfigListener)
+    mainHandler.removeCallbacksAndMessages(null)
+    collector.loadActivityListener = null
+    appVisibilityTracker.release()
+    connectionMonitor?.close()
+    connectionMonitor = null
     playerAdapter.unbindEverything()
-    muxStats.release()
+    collector.release()
+    val endView = Runnable {
+      flushScheduler?.flushUrgent() // Releasing ends the view
+      muxStats.release()
+    }
+    val dispatcher = asyncDispatcher
+    if (dispatcher != null) {
+      // The view ends on the worker, after the events still queued. Nothing waits for it here
+      dispatcher.shutdown(endView)
+    } else {
+      endView.run()
+    }
+  }
+
+  private fun flushIfUrgent(event: IEvent?) {
+    if (event is InternalErrorEvent || event?.type == ViewEndEvent.TYPE) {
+      flushScheduler?.flushUrgent()
+    }
+  }
+
+  private fun applyCollectorConfig(config: CollectorConfig) {
+    collector.requestEventSampleRate = config.sampleRate
+    collector.collectorAllowedHeaders = config.allowedHeaders.map { name ->
+      if (name.endsWith("*")) {
+        MuxStateCollectorBase.AllowedHeaderSpec.Matching(
+          Pattern.compile("^" + Pattern.quote(name.dropLast(1)), Pattern.CASE_INSENSITIVE)
+        )
+      } else {
+        MuxStateCollectorBase.AllowedHeaderSpec.ExactlyIgnoreCase(name)
+      }
+    }
   }
 
   /**
@@ -452,59 +674,102 @@ class MuxStatsExoPlayer @JvmOverloads constructor(
   }
 
   @Suppress("RedundantNullableReturnType") // Lots of java interaction here
-  private inner class ExoPlayerDelegate : IPlayerListener {
+  private inner class ExoPlayerDelegate : IPlayerListener,
+    AsyncEventDispatcher.StateCapture<PlayerStateSnapshot> {
     private val viewDelegate: MuxUiDelegate<*> get() = playerAdapter.uiDelegate
 
-    override fun getCurrentPosition(): Long = collector.playbackPositionMills
+    // The state copied when the event being delivered on the async worker was dispatched
+    @Volatile private var delivering: PlayerStateSnapshot? = null
+
+    override fun newSnapshot() = PlayerStateSnapshot()
+
+    override fun capture(snapshot: PlayerStateSnapshot) {
+      val viewSize = viewDelegate.getPlayerViewSize()
+      snapshot.apply {
+        currentPosition = collector.playbackPositionMills
+        mimeType = collector.mimeType
+        sourceWidth = collector.sourceWidth
+        sourceHeight = collector.sourceHeight
+        sourceAdvertisedBitrate = collector.sourceAdvertisedBitrate
+        sourceAdvertisedFramerate = collector.sourceAdvertisedFrameRate
+        sourceDuration = collector.sourceDurationMs
+        paused = collector.isPaused()
+        buffering = collector.muxPlayerState == MuxPlayerState.BUFFERING
+        playerViewWidth = pxToDp(viewSize.x)
+        playerViewHeight = pxToDp(viewSize.y)
+        playerProgramTime = livePlayerProgramTime()
+        playerManifestNewestTime = livePlayerManifestNewestTime()
+        videoHoldback = liveManifestTag("HOLD-BACK")
+        videoPartHoldback = liveManifestTag("PART-HOLD-BACK")
+        videoPartTargetDuration = liveManifestTag("PART-TARGET")
+        videoTargetDuration = liveManifestTag("EXT-X-TARGETDURATION")
+      }
+    }
 
-    override fun getMimeType() = collector.mimeType
+    override fun deliver(snapshot: PlayerStateSnapshot?) {
+      delivering = snapshot
+    }
 
-    override fun getSourceWidth(): Int = collector.sourceWidth
+    override fun getCurrentPosition(): Long =
+      delivering?.currentPosition ?: collector.playbackPositionMills
 
-    override fun getSourceHeight(): Int = collector.sourceHeight
+    override fun getMimeType(): String? {
+      val snapshot = delivering
+      return if (snapshot != null) snapshot.mimeType else collector.mimeType
+    }
 
-    override fun getSourceAdvertisedBitrate(): Int = collector.sourceAdvertisedBitrate
+    override fun getSourceWidth(): Int = delivering?.sourceWidth ?: collector.sourceWidth
 
-    override fun getSourceAdvertisedFramerate(): Float = collector.sourceAdvertisedFrameRate
+    override fun getSourceHeight(): Int = delivering?.sourceHeight ?: collector.sourceHeight
 
-    override fun getSourceDuration() = collector.sourceDurationMs
+    override fun getSourceAdvertisedBitrate(): Int =
+      delivering?.sourceAdvertisedBitrate ?: collector.sourceAdvertisedBitrate
 
-    override fun isPaused() = collector.isPaused()
+    override fun getSourceAdvertisedFramerate(): Float =
+      delivering?.sourceAdvertisedFramerate ?: collector.sourceAdvertisedFrameRate
 
-    override fun isBuffering(): Boolean = collector.muxPlayerState == MuxPlayerState.BUFFERING
+    override fun getSourceDuration() = delivering?.sourceDuration ?: collector.sourceDurationMs
 
-    override fun getPlayerViewWidth() = pxToDp(viewDelegate.getPlayerViewSize().x)
+    override fun isPaused() = delivering?.paused ?: collector.isPaused()
 
-    override fun getPlayerViewHeight() = pxToDp(viewDelegate.getPlayerViewSize().y)
+    override fun isBuffering(): Boolean =
+      delivering?.buffering ?: (collector.muxPlayerState == MuxPlayerState.BUFFERING)
 
-    override fun getPlayerProgramTime(): Long? {
-      return collector.currentTimelineWindow.windowStartTimeMs + currentPosition
-    }
+    override fun getPlayerViewWidth() =
+      delivering?.playerViewWidth ?: pxToDp(viewDelegate.getPlayerViewSize().x)
 
-    override fun getPlayerManifestNewestTime(): Long? {
-      return if (collector.isLivePlayback()) {
-        collector.currentTimelineWindow.windowStartTimeMs
-      } else -1L
-    }
+    override fun getPlayerViewHeight() =
+      delivering?.playerViewHeight ?: pxToDp(viewDelegate.getPlayerViewSize().y)
 
-    override fun getVideoHoldback(): Long? {
-      return if (collector.isLivePlayback())
-        collector.parseManifestTagL("HOLD-BACK") else -1
-    }
+    override fun getPlayerProgramTime(): Long? =
+      delivering?.playerProgramTime ?: livePlayerProgramTime()
 
-    override fun getVideoPartHoldback(): Long? {
-      return if (collector.isLivePlayback())
-        collector.parseManifestTagL("PART-HOLD-BACK") else -1
-    }
+    override fun getPlayerManifestNewestTime(): Long? =
+      delivering?.playerManifestNewestTime ?: livePlayerManifestNewestTime()
+
+    override fun getVideoHoldback(): Long? =
+      delivering?.videoHoldback ?: liveManifestTag("HOLD-BACK")
+
+    override fun getVideoPartHoldback(): Long? =
+      delivering?.videoPartHoldback ?: liveManifestTag("PART-HOLD-BACK")
+
+    override fun getVideoPartTargetDuration(): Long? =
+      delivering?.videoPartTargetDuration ?: liveManifestTag("PART-TARGET")
 
-    override fun getVideoPartTargetDuration(): Long? {
-      return if (collector.isLivePlayback())
-        collector.parseManifestTagL("PART-TARGET") else -1
+    override fun getVideoTargetDuration(): Long? =
+      delivering?.videoTargetDuration ?: liveManifestTag("EXT-X-TARGETDURATION")
+
+    private fun livePlayerProgramTime(): Long =
+      collector.currentTimelineWindow.windowStartTimeMs + collector.playbackPositionMills
+
+    private fun livePlayerManifestNewestTime(): Long {
+      return if (collector.isLivePlayback()) {
+        collector.currentTimelineWindow.windowStartTimeMs
+      } else -1L
     }
 
-    override fun getVideoTargetDuration(): Long? {
-      return if (collector.isLivePlayback())
-        collector.parseManifestTagL("EXT-X-TARGETDURATION") else -1
+    private fun liveManifestTag(tagName: String): Long {
+      return if (collector.isLivePlayback()) collector.parseManifestTagL(tagName) else -1
     }
   }
 }
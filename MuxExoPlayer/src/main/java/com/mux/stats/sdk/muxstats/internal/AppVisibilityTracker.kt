@@ -0,0 +1,63 @@
+package com.mux.stats.sdk.muxstats.internal
+
+import android.app.Activity
+import android.app.ActivityManager
+import android.app.Application
+import android.content.Context
+import android.os.Bundle
+
+/**
+ * Tracks whether the app is in the foreground, by counting the app's started Activities. Calls
+ * [onChange] on the main thread when that changes. Call [release] when it's no longer needed
+ */
+internal class AppVisibilityTracker(
+  context: Context,
+  private val onChange: (inForeground: Boolean) -> Unit
+) : Application.ActivityLifecycleCallbacks {
+
+  private val application = context.applicationContext as? Application
+  // Activities started before this object existed weren't counted, so start with what the system
+  //  says about the process
+  private var startedActivities = if (processIsVisible()) 1 else 0
+
+  /**
+   * True if at least one of the app's Activities is started
+   */
+  val inForeground: Boolean get() = startedActivities > 0
+
+  init {
+    application?.registerActivityLifecycleCallbacks(this)
+  }
+
+  fun release() {
+    application?.unregisterActivityLifecycleCallbacks(this)
+  }
+
+  override fun onActivityStarted(activity: Activity) {
+    val wasInForeground = inForeground
+    startedActivities++
+    if (!wasInForeground) {
+      onChange(true)
+    }
+  }
+
+  override fun onActivityStopped(activity: Activity) {
+    val wasInForeground = inForeground
+    startedActivities = (startedActivities - 1).coerceAtLeast(0)
+    if (wasInForeground && !inForeground) {
+      onChange(false)
+    }
+  }
+
+  override fun onActivityCreated(activity: Activity, savedInstanceState: Bundle?) {}
+  override fun onActivityResumed(activity: Activity) {}
+  override fun onActivityPaused(activity: Activity) {}
+  override fun onActivitySaveInstanceState(activity: Activity, outState: Bundle) {}
+  override fun onActivityDestroyed(activity: Activity) {}
+
+  private fun processIsVisible(): Boolean {
+    val processInfo = ActivityManager.RunningAppProcessInfo()
+    ActivityManager.getMyMemoryState(processInfo)
+    return processInfo.importance <= ActivityManager.RunningAppProcessInfo.IMPORTANCE_VISIBLE
+  }
+}
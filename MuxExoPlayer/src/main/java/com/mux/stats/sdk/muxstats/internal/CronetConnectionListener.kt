@@ -0,0 +1,55 @@
+package com.mux.stats.sdk.muxstats.internal
+
+import com.mux.stats.sdk.muxstats.MuxStateCollectorBase
+import org.chromium.net.ExperimentalCronetEngine
+import org.chromium.net.RequestFinishedInfo
+import java.util.concurrent.Executor
+
+/**
+ * Passes how Cronet made each request to the collector, so it's added to the request event for
+ * the load of the same URL. Runs on Cronet's network thread, so requests are usually reported
+ * before the player finishes the loads that made them. Requests reported later are left out
+ */
+internal class CronetConnectionListener(
+  collector: MuxStateCollectorBase
+) : RequestFinishedInfo.Listener(Executor { it.run() }) {
+
+  private val collector by weak(collector)
+  private var engine: ExperimentalCronetEngine? = null
+
+  /**
+   * Starts listening to the engine's requests
+   */
+  fun attach(engine: ExperimentalCronetEngine) {
+    engine.addRequestFinishedListener(this)
+    this.engine = engine
+  }
+
+  /**
+   * Stops listening to the engine's requests, if it was listening
+   */
+  fun detach() {
+    engine?.removeRequestFinishedListener(this)
+    engine = null
+  }
+
+  override fun onRequestFinished(requestInfo: RequestFinishedInfo) {
+    val collector = collector ?: return
+    val url = requestInfo.url ?: return
+    val metrics = requestInfo.metrics
+    val connectStart = metrics.connectStart
+    val connectEnd = metrics.connectEnd
+    // Cronet has no connect times for reused sockets
+    val handshakeMillis = if (connectStart != null && connectEnd != null) {
+      (connectEnd.time - connectStart.time).coerceAtLeast(0)
+    } else {
+      0L
+    }
+    collector.recordConnection(
+      url = url,
+      protocol = requestInfo.responseInfo?.negotiatedProtocol,
+      socketReused = metrics.socketReused,
+      handshakeMillis = handshakeMillis
+    )
+  }
+}
@@ -0,0 +1,26 @@
+package com.mux.stats.sdk.muxstats.internal
+
+/**
+ * The player's state as Mux Data reads it for each event, copied on the player's thread when the
+ * event was dispatched. Used when events are delivered on another thread, so the state isn't read
+ * from the collector or the player's View off the player's thread. Reused for many events
+ */
+internal class PlayerStateSnapshot {
+  var currentPosition = 0L
+  var mimeType: String? = null
+  var sourceWidth = 0
+  var sourceHeight = 0
+  var sourceAdvertisedBitrate = 0
+  var sourceAdvertisedFramerate = 0F
+  var sourceDuration = 0L
+  var paused = false
+  var buffering = false
+  var playerViewWidth = 0
+  var playerViewHeight = 0
+  var playerProgramTime = 0L
+  var playerManifestNewestTime = 0L
+  var videoHoldback = 0L
+  var videoPartHoldback = 0L
+  var videoPartTargetDuration = 0L
+  var videoTargetDuration = 0L
+}
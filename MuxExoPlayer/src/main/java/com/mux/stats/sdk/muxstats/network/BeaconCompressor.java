@@ -0,0 +1,207 @@
+package com.mux.stats.sdk.muxstats.network;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.zip.Adler32;
+import java.util.zip.Deflater;
+
+/**
+ * Decides how, and whether, a beacon body is compressed before it's sent.
+ *
+ * <p>Bodies smaller than a threshold are sent uncompressed, since the gzip header and trailer
+ * alone cost 18 bytes and the CPU time isn't won back on the wire. Larger bodies are compressed
+ * at a level picked by size: small batches get the best compression, since they are cheap to
+ * compress anyway, and very large ones get the fastest.
+ *
+ * <p>In {@link Mode#PRESET_DICTIONARY} mode, bodies are compressed as raw deflate, primed with a
+ * dictionary of the keys and values that appear in almost every beacon. Small batches then
+ * compress nearly as well as large ones, because their keys are back-references into the
+ * dictionary from the first byte. The collector has to know the dictionary, so this mode is opt-in.
+ * Requests in this mode carry the {@link #ENCODING_DICTIONARY} content encoding, and the
+ * dictionary's Adler-32 checksum in the {@link #HEADER_DICTIONARY_ID} header.
+ */
+public class BeaconCompressor {
+
+  /**
+   * How bodies above the size threshold are compressed.
+   */
+  public enum Mode {
+    /** Standard gzip. */
+    GZIP,
+    /** Raw deflate, with a preset dictionary of common beacon keys and values. */
+    PRESET_DICTIONARY
+  }
+
+  /** Content encoding of gzipped bodies. */
+  public static final String ENCODING_GZIP = "gzip";
+  /** Content encoding of bodies compressed with the preset dictionary. */
+  public static final String ENCODING_DICTIONARY = "x-mux-deflate-dict";
+  /** Header carrying the Adler-32 checksum of the preset dictionary, as 8 hex digits. */
+  public static final String HEADER_DICTIONARY_ID = "X-Mux-Dictionary-Id";
+  /** Default size, in bytes, below which bodies are sent uncompressed. */
+  public static final int DEFAULT_MIN_COMPRESS_BYTES = 256;
+
+  /** Bodies smaller than this are compressed with the best compression. */
+  private static final int BEST_COMPRESSION_MAX_BYTES = 16 * 1024;
+  /** Bodies smaller than this are compressed at the default level, larger ones the fastest. */
+  private static final int DEFAULT_COMPRESSION_MAX_BYTES = 128 * 1024;
+
+  /**
+   * Keys and values that appear in most beacons. Deflate encodes nearer matches in fewer bits, so
+   * the most common strings are at the end.
+   */
+  private static final String DICTIONARY_TEXT = ""
+      // Rarely-sent metadata
+      + "\"video_producer\":\"video_encoding_variant\":\"video_variant_name\":"
+      + "\"video_variant_id\":\"video_language_code\":\"video_series\":\"video_content_type\":"
+      + "\"video_cdn\":\"custom_1\":\"custom_2\":\"custom_3\":\"custom_4\":\"custom_5\":"
+      + "\"sub_property_id\":\"page_type\":\"player_poster\":\"player_preload\":"
+      + "\"player_autoplay\":\"player_language_code\":\"player_remote_played\":"
+      + "\"viewer_user_id\":\"viewer_os_architecture\":\"viewer_application_engine\":"
+      + "\"ad_tag_url\":\"ad_asset_url\":\"ad_id\":\"ad_creative_id\":\"ad_universal_id\":"
+      + "\"adplay\",\"adplaying\",\"adpause\",\"adended\",\"aderror\",\"adrequest\","
+      + "\"adresponse\",\"adbreakstart\",\"adbreakend\",\"adfirstquartile\",\"admidpoint\","
+      + "\"adthirdquartile\","
+      // Per-view metadata
+      + "\"player_error_code\":\"player_error_message\":\"player_error_context\":"
+      + "\"error\",\"ended\",\"viewend\",\"seeking\",\"seeked\",\"rebufferstart\","
+      + "\"rebufferend\",\"renditionchange\",\"orientationchange\",\"viewstart\","
+      + "\"playerready\",\"play\",\"pause\",\"playing\","
+      + "\"viewer_application_name\":\"viewer_application_version\":"
+      + "\"viewer_device_name\":\"viewer_device_category\":\"viewer_device_manufacturer\":"
+      + "\"viewer_device_model\":\"viewer_os_family\":\"android\",\"viewer_os_version\":"
+      + "\"viewer_connection_type\":\"cellular\",\"wifi\",\"wired\","
+      + "\"player_software_name\":\"ExoPlayer\",\"player_software_version\":"
+      + "\"player_mux_plugin_name\":\"android-exoplayer-mux\",\"player_mux_plugin_version\":"
+      + "\"player_name\":\"player_version\":\"player_init_time\":\"player_instance_id\":"
+      + "\"player_source_url\":\"player_source_duration\":\"player_source_width\":"
+      + "\"player_source_height\":\"player_source_stream_type\":\"on-demand\",\"live\","
+      + "\"video_id\":\"video_title\":\"video_duration\":\"video_stream_type\":"
+      + "\"video_source_url\":\"video_source_mime_type\":\"application/x-mpegurl\","
+      + "\"application/dash+xml\",\"video/mp4\",\"video_source_hostname\":"
+      + "\"video_source_duration\":\"video_source_is_live\":\"video_source_width\":"
+      + "\"video_source_height\":\"video_source_advertised_bitrate\":"
+      + "\"video_source_advertised_framerate\":\"env_key\":\"mux_api_version\":"
+      + "\"mux_sample_rate\":\"mux_embed\":\"mux_embed_version\":\"mux-stats-sdk-java\","
+      + "\"session_id\":\"session_start\":\"view_id\":\"view_start\":"
+      + "\"view_sequence_number\":\"view_session_id\":\"view_watch_time\":"
+      + "\"view_playing_time\":\"view_seek_count\":\"view_seek_duration\":"
+      + "\"view_rebuffer_count\":\"view_rebuffer_duration\":\"view_max_playhead_position\":"
+      + "\"view_total_content_playback_time\":\"view_dropped_frame_count\":"
+      + "\"player_width\":\"player_height\":\"player_is_fullscreen\":\"player_is_paused\":"
+      + "\"player_program_time\":\"player_manifest_newest_program_time\":"
+      + "\"player_live_edge_program_time\":\"player_view_count\":\"player_sequence_number\":"
+      // Network events, which are most of the beacons
+      + "\"requestcanceled\",\"requestfailed\",\"request_error\":\"request_error_code\":"
+      + "\"request_error_text\":\"request_cancel\":\"request_id\":\"request_url\":"
+      + "\"request_rendition_lists\":\"request_current_level\":\"request_labeled_bitrate\":"
+      + "\"request_video_width\":\"request_video_height\":\"request_media_duration\":"
+      + "\"request_response_headers\":{\"x-cdn\":\"content-type\":\"x-request-id\":"
+      + "\"request_type\":\"manifest\",\"media\",\"video_init\",\"audio_init\",\"audio\","
+      + "\"request_hostname\":\"request_bytes_loaded\":\"request_start\":"
+      + "\"request_response_start\":\"request_response_end\":\"requestcompleted\","
+      + "\"player_playhead_time\":\"viewer_time\":\"hb\",\"timeupdate\","
+      + "{\"events\":[{\"e\":\"";
+
+  private static final byte[] DICTIONARY = toUtf8(DICTIONARY_TEXT);
+  private static final String DICTIONARY_ID = checksum(DICTIONARY);
+
+  private final Mode mode;
+  private final int minCompressBytes;
+
+  /**
+   * Creates a compressor that gzips bodies of {@link #DEFAULT_MIN_COMPRESS_BYTES} or more.
+   */
+  public BeaconCompressor() {
+    this(Mode.GZIP, DEFAULT_MIN_COMPRESS_BYTES);
+  }
+
+  /**
+   * Creates a compressor.
+   *
+   * @param mode how bodies above the threshold are compressed.
+   * @param minCompressBytes size, in bytes, below which bodies are sent uncompressed.
+   */
+  public BeaconCompressor(Mode mode, int minCompressBytes) {
+    this.mode = mode == null ? Mode.GZIP : mode;
+    this.minCompressBytes = Math.max(0, minCompressBytes);
+  }
+
+  /**
+   * Returns the content encoding a body of the given size will be sent with, or null if it will
+   * be sent uncompressed.
+   *
+   * @param length size of the body, in bytes, before compression.
+   */
+  public String contentEncoding(int length) {
+    if (length < minCompressBytes) {
+      return null;
+    }
+    return mode == Mode.PRESET_DICTIONARY ? ENCODING_DICTIONARY : ENCODING_GZIP;
+  }
+
+  /**
+   * Wraps a stream so that a body of the given size is compressed as it's written, according to
+   * {@link #contentEncoding(int)}. The returned stream must be closed, even if writing fails.
+   *
+   * @param out stream to write the encoded body to.
+   * @param length size of the body, in bytes, before compression.
+   * @throws IOException if the stream could not be set up.
+   */
+  public OutputStream compress(OutputStream out, int length) throws IOException {
+    String encoding = contentEncoding(length);
+    if (encoding == null) {
+      return out;
+    }
+    int level = levelFor(length);
+    if (encoding.equals(ENCODING_DICTIONARY)) {
+      return new PooledDeflaterOutputStream(out, level, DICTIONARY);
+    }
+    return new PooledGzipOutputStream(out, level);
+  }
+
+  /**
+   * Returns the compression level used for a body of the given size.
+   *
+   * @param length size of the body, in bytes, before compression.
+   */
+  public static int levelFor(int length) {
+    if (length < BEST_COMPRESSION_MAX_BYTES) {
+      return Deflater.BEST_COMPRESSION;
+    } else if (length < DEFAULT_COMPRESSION_MAX_BYTES) {
+      return 6;
+    } else {
+      return Deflater.BEST_SPEED;
+    }
+  }
+
+  /**
+   * Returns the value of the {@link #HEADER_DICTIONARY_ID} header.
+   */
+  public static String getDictionaryId() {
+    return DICTIONARY_ID;
+  }
+
+  /**
+   * Returns a copy of the preset dictionary, for decoders.
+   */
+  public static byte[] getDictionary() {
+    return DICTIONARY.clone();
+  }
+
+  private static byte[] toUtf8(String text) {
+    try {
+      return text.getBytes("UTF-8");
+    } catch (UnsupportedEncodingException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private static String checksum(byte[] data) {
+    Adler32 adler = new Adler32();
+    adler.update(data, 0, data.length);
+    String hex = Long.toHexString(adler.getValue());
+    return "00000000".substring(hex.length()) + hex;
+  }
+}
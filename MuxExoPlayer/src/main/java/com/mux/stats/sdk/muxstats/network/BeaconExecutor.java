@@ -0,0 +1,393 @@
+package com.mux.stats.sdk.muxstats.network;
+
+import android.os.Process;
+import com.mux.stats.sdk.core.util.MuxLogger;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Small, bounded executor that owns every thread used to send beacons. Beacon traffic never runs
+ * on {@link android.os.AsyncTask#THREAD_POOL_EXECUTOR} or any other pool shared with the host
+ * app, so a slow or unreachable collector can only ever tie up the threads in this executor.
+ *
+ * <p>Tasks wait in a bounded queue. When the queue is full, the {@link OverflowPolicy} decides
+ * which task is dropped, and the dropped task is told about it via {@link BeaconTask#onDropped()}.
+ * Threads time out when idle, so an SDK with nothing to send holds no threads at all.
+ *
+ * <p>Tasks can also be {@link #schedule scheduled} to run later, for instance to retry a failed
+ * request. Waiting tasks are held by a single timer thread, and don't occupy a beacon thread or a
+ * slot in the queue until their delay has passed.
+ */
+public class BeaconExecutor {
+
+  private static final String TAG = "BeaconExecutor";
+
+  /** Default number of beacons that may be in flight at the same time. */
+  public static final int DEFAULT_CONCURRENCY = 2;
+  /** Default number of beacons that may wait for a free thread. */
+  public static final int DEFAULT_QUEUE_CAPACITY = 64;
+  /** Idle threads are released after this long. */
+  private static final long KEEP_ALIVE_MS = 30 * 1000;
+
+  /**
+   * What to do with a new beacon when the queue is already full.
+   */
+  public enum OverflowPolicy {
+    /** Reject the beacon being submitted. Beacons already waiting are kept. */
+    DROP_NEWEST,
+    /** Evict the beacon that has waited longest to make room for the new one. */
+    DROP_OLDEST
+  }
+
+  /**
+   * A unit of work for this executor. Subclasses must handle being dropped without having run.
+   */
+  public abstract static class BeaconTask implements Runnable {
+    /** Set by the executor when this task is accepted into its queue. */
+    private long enqueuedAtNanos;
+    /** Set by {@link RadioAwareFlushScheduler} if this beacon reports an urgent event. */
+    private volatile boolean urgent;
+
+    /**
+     * Returns true if this beacon was submitted or released because of
+     * {@link RadioAwareFlushScheduler#flushUrgent()}, and should be sent without further delay.
+     * Stays true across retries.
+     */
+    public boolean isUrgent() {
+      return urgent;
+    }
+
+    void markUrgent() {
+      urgent = true;
+    }
+
+    /**
+     * Called instead of {@link #run()} if this task was dropped due to the
+     * {@link OverflowPolicy}. Called on the thread that submitted the work that caused the drop.
+     */
+    protected abstract void onDropped();
+  }
+
+  /**
+   * Point-in-time snapshot of this executor's counters.
+   */
+  public static class Stats {
+    private final long submitted;
+    private final long completed;
+    private final long dropped;
+    private final int queueDepth;
+    private final int peakQueueDepth;
+    private final int activeCount;
+    private final long totalQueueWaitNanos;
+    private final long maxQueueWaitNanos;
+    private final long totalRunNanos;
+
+    private Stats(long submitted, long completed, long dropped, int queueDepth,
+        int peakQueueDepth, int activeCount, long totalQueueWaitNanos, long maxQueueWaitNanos,
+        long totalRunNanos) {
+      this.submitted = submitted;
+      this.completed = completed;
+      this.dropped = dropped;
+      this.queueDepth = queueDepth;
+      this.peakQueueDepth = peakQueueDepth;
+      this.activeCount = activeCount;
+      this.totalQueueWaitNanos = totalQueueWaitNanos;
+      this.maxQueueWaitNanos = maxQueueWaitNanos;
+      this.totalRunNanos = totalRunNanos;
+    }
+
+    /** Number of tasks handed to the executor, including ones that were later dropped. */
+    public long getSubmitted() {
+      return submitted;
+    }
+
+    /** Number of tasks that finished running. */
+    public long getCompleted() {
+      return completed;
+    }
+
+    /** Number of tasks dropped because the queue was full. */
+    public long getDropped() {
+      return dropped;
+    }
+
+    /** Number of tasks waiting for a thread when this snapshot was taken. */
+    public int getQueueDepth() {
+      return queueDepth;
+    }
+
+    /** Largest queue depth seen so far. */
+    public int getPeakQueueDepth() {
+      return peakQueueDepth;
+    }
+
+    /** Number of tasks running when this snapshot was taken. */
+    public int getActiveCount() {
+      return activeCount;
+    }
+
+    /** Average time a task waited in the queue before running, in milliseconds. */
+    public double getMeanQueueWaitMillis() {
+      long started = completed + activeCount;
+      return started == 0 ? 0 : totalQueueWaitNanos / (double) started / 1_000_000.0;
+    }
+
+    /** Longest time any task waited in the queue before running, in milliseconds. */
+    public double getMaxQueueWaitMillis() {
+      return maxQueueWaitNanos / 1_000_000.0;
+    }
+
+    /** Average time a task took to run, in milliseconds. */
+    public double getMeanRunMillis() {
+      return completed == 0 ? 0 : totalRunNanos / (double) completed / 1_000_000.0;
+    }
+
+    @Override
+    public String toString() {
+      return "BeaconExecutor.Stats{submitted=" + submitted
+          + ", completed=" + completed
+          + ", dropped=" + dropped
+          + ", queueDepth=" + queueDepth
+          + ", peakQueueDepth=" + peakQueueDepth
+          + ", active=" + activeCount
+          + ", meanQueueWaitMs=" + getMeanQueueWaitMillis()
+          + ", maxQueueWaitMs=" + getMaxQueueWaitMillis()
+          + ", meanRunMs=" + getMeanRunMillis()
+          + "}";
+    }
+  }
+
+  private final OverflowPolicy overflowPolicy;
+  private final BlockingQueue<Runnable> queue;
+  private final Pool pool;
+  /** Holds delayed tasks until they are due. Created on first use. */
+  private ScheduledThreadPoolExecutor timer;
+
+  private final AtomicLong submitted = new AtomicLong();
+  private final AtomicLong completed = new AtomicLong();
+  private final AtomicLong dropped = new AtomicLong();
+  private final AtomicInteger peakQueueDepth = new AtomicInteger();
+  private final AtomicLong totalQueueWaitNanos = new AtomicLong();
+  private final AtomicLong maxQueueWaitNanos = new AtomicLong();
+  private final AtomicLong totalRunNanos = new AtomicLong();
+
+  /**
+   * Creates an executor with the default concurrency, queue capacity and
+   * {@link OverflowPolicy#DROP_OLDEST}.
+   */
+  public BeaconExecutor() {
+    this(DEFAULT_CONCURRENCY, DEFAULT_QUEUE_CAPACITY, OverflowPolicy.DROP_OLDEST);
+  }
+
+  /**
+   * Creates an executor.
+   *
+   * @param concurrency maximum number of beacons that may be in flight at once. At least 1.
+   * @param queueCapacity maximum number of beacons that may wait for a thread. At least 1.
+   * @param overflowPolicy which beacon to drop when the queue is full.
+   */
+  public BeaconExecutor(int concurrency, int queueCapacity, OverflowPolicy overflowPolicy) {
+    if (concurrency < 1) {
+      throw new IllegalArgumentException("concurrency must be at least 1");
+    }
+    if (queueCapacity < 1) {
+      throw new IllegalArgumentException("queueCapacity must be at least 1");
+    }
+    this.overflowPolicy = overflowPolicy == null ? OverflowPolicy.DROP_OLDEST : overflowPolicy;
+    this.queue = new ArrayBlockingQueue<>(queueCapacity);
+    this.pool = new Pool(concurrency, queue);
+  }
+
+  /**
+   * Queues a task to run on one of this executor's threads. If the queue is full, either this task
+   * or the oldest waiting task is dropped, depending on the {@link OverflowPolicy}.
+   *
+   * @param task the task to run.
+   */
+  public void execute(BeaconTask task) {
+    if (task == null) {
+      throw new IllegalArgumentException("task can not be null");
+    }
+    submitted.incrementAndGet();
+    task.enqueuedAtNanos = System.nanoTime();
+    pool.execute(task);
+    updatePeak(peakQueueDepth, queue.size());
+  }
+
+  /**
+   * Queues a task to run after the given delay. Until then, the task does not use a beacon thread
+   * or a slot in the queue.
+   *
+   * @param task the task to run.
+   * @param delayMs time to wait before queueing the task, in milliseconds.
+   */
+  public void schedule(final BeaconTask task, long delayMs) {
+    if (delayMs <= 0) {
+      execute(task);
+      return;
+    }
+    getTimer().schedule(new Runnable() {
+      @Override
+      public void run() {
+        execute(task);
+      }
+    }, delayMs, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Runs a short piece of bookkeeping on the timer thread, for instance from
+   * {@link BeaconTask#onDropped()}, which may be called on the main thread. Unlike
+   * {@link #execute}, this is never dropped. It must not block for long, or send anything.
+   *
+   * @param work the work to run.
+   */
+  public void runInBackground(Runnable work) {
+    getTimer().execute(work);
+  }
+
+  /**
+   * Returns a snapshot of this executor's queue-depth and latency counters.
+   */
+  public Stats getStats() {
+    return new Stats(
+        submitted.get(),
+        completed.get(),
+        dropped.get(),
+        queue.size(),
+        peakQueueDepth.get(),
+        pool.getActiveCount(),
+        totalQueueWaitNanos.get(),
+        maxQueueWaitNanos.get(),
+        totalRunNanos.get()
+    );
+  }
+
+  private synchronized ScheduledThreadPoolExecutor getTimer() {
+    if (timer == null) {
+      timer = new ScheduledThreadPoolExecutor(1, new BeaconThreadFactory("MuxBeaconTimer-"));
+      timer.setKeepAliveTime(KEEP_ALIVE_MS, TimeUnit.MILLISECONDS);
+      timer.allowCoreThreadTimeOut(true);
+    }
+    return timer;
+  }
+
+  private void drop(Runnable runnable) {
+    dropped.incrementAndGet();
+    MuxLogger.d(TAG, "Beacon queue full, dropping a beacon (" + overflowPolicy + ")");
+    if (runnable instanceof BeaconTask) {
+      try {
+        ((BeaconTask) runnable).onDropped();
+      } catch (Exception e) {
+        MuxLogger.d(TAG, "Exception handling dropped beacon: " + e.getMessage());
+      }
+    }
+  }
+
+  private static void updatePeak(AtomicInteger peak, int value) {
+    int current = peak.get();
+    while (value > current && !peak.compareAndSet(current, value)) {
+      current = peak.get();
+    }
+  }
+
+  private static void updatePeak(AtomicLong peak, long value) {
+    long current = peak.get();
+    while (value > current && !peak.compareAndSet(current, value)) {
+      current = peak.get();
+    }
+  }
+
+  /**
+   * Handles a full queue according to the {@link OverflowPolicy}.
+   */
+  private class OverflowHandler implements RejectedExecutionHandler {
+    @Override
+    public void rejectedExecution(Runnable runnable, ThreadPoolExecutor executor) {
+      if (executor.isShutdown()) {
+        drop(runnable);
+        return;
+      }
+      if (overflowPolicy == OverflowPolicy.DROP_OLDEST) {
+        Runnable oldest = queue.poll();
+        if (oldest != null) {
+          drop(oldest);
+        }
+        if (queue.offer(runnable)) {
+          return;
+        }
+      }
+      drop(runnable);
+    }
+  }
+
+  /**
+   * The underlying thread pool. Keeps timing counters for every task that runs.
+   */
+  private class Pool extends ThreadPoolExecutor {
+    private final ThreadLocal<Long> runStartedAt = new ThreadLocal<>();
+
+    Pool(int concurrency, BlockingQueue<Runnable> queue) {
+      super(concurrency, concurrency, KEEP_ALIVE_MS, TimeUnit.MILLISECONDS, queue,
+          new BeaconThreadFactory("MuxBeacon-"));
+      allowCoreThreadTimeOut(true);
+      setRejectedExecutionHandler(new OverflowHandler());
+    }
+
+    @Override
+    protected void beforeExecute(Thread thread, Runnable runnable) {
+      long now = System.nanoTime();
+      if (runnable instanceof BeaconTask) {
+        long waited = now - ((BeaconTask) runnable).enqueuedAtNanos;
+        totalQueueWaitNanos.addAndGet(waited);
+        updatePeak(maxQueueWaitNanos, waited);
+      }
+      runStartedAt.set(now);
+    }
+
+    @Override
+    protected void afterExecute(Runnable runnable, Throwable throwable) {
+      Long startedAt = runStartedAt.get();
+      if (startedAt != null) {
+        totalRunNanos.addAndGet(System.nanoTime() - startedAt);
+      }
+      completed.incrementAndGet();
+      if (throwable != null) {
+        MuxLogger.d(TAG, "Beacon task failed: " + throwable.getMessage());
+      }
+    }
+  }
+
+  /**
+   * Creates background-priority daemon threads, so beacon work never competes with playback and
+   * never keeps the process alive.
+   */
+  private static class BeaconThreadFactory implements ThreadFactory {
+    private static final AtomicInteger THREAD_COUNT = new AtomicInteger();
+
+    private final String namePrefix;
+
+    BeaconThreadFactory(String namePrefix) {
+      this.namePrefix = namePrefix;
+    }
+
+    @Override
+    public Thread newThread(final Runnable runnable) {
+      Thread thread = new Thread(new Runnable() {
+        @Override
+        public void run() {
+          Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+          runnable.run();
+        }
+      }, namePrefix + THREAD_COUNT.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    }
+  }
+}
@@ -0,0 +1,455 @@
+package com.mux.stats.sdk.muxstats.network;
+
+import android.content.Context;
+import android.os.Build;
+import com.mux.stats.sdk.core.util.MuxLogger;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Hashtable;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only, on-disk log of beacons that have not been confirmed as sent. Beacons are written
+ * before they are sent, and acknowledged once the send finished. If the process dies in between,
+ * the beacon is still in the log, and {@link #recover()} returns it the next time the log is
+ * opened.
+ *
+ * <p>The log is a series of fixed-size, memory-mapped segment files in the app's no-backup
+ * directory. Writing a record is a copy into the mapped page cache, with no system call and no
+ * flush: the kernel writes the pages out on its own, and they survive the process being killed.
+ * Each record carries a CRC32 checksum, so a record that was only partly written when the process
+ * died is detected and ignored.
+ *
+ * <p>When the active segment is full, a new one is started. Segments are deleted, oldest first,
+ * as soon as every beacon in them has been acknowledged. If the log grows past its size cap, the
+ * oldest segment is deleted even if it still has unsent beacons in it. {@link #recover()} compacts
+ * the log by copying unsent beacons into a fresh segment and deleting everything else.
+ *
+ * <p>All methods do disk I/O, and must not be called on the main thread. Nothing is read or
+ * written until the first method call.
+ */
+public class BeaconLog {
+
+  private static final String TAG = "BeaconLog";
+
+  /** Returned by {@link #append} if the beacon could not be written. */
+  public static final long NO_ID = -1;
+  /** Default cap on the total size of the log, in bytes. */
+  public static final long DEFAULT_MAX_BYTES = 2 * 1024 * 1024;
+  /** Size of each segment file, in bytes. */
+  static final int SEGMENT_SIZE = 256 * 1024;
+
+  private static final String DIRECTORY_NAME = "mux-beacons";
+  private static final String SEGMENT_PREFIX = "segment-";
+  private static final String SEGMENT_SUFFIX = ".log";
+
+  /** Marks the end of the written part of a segment. Segment files start zero-filled. */
+  private static final int TYPE_END = 0;
+  private static final int TYPE_BEACON = 0x4D584231; // "MXB1"
+  private static final int TYPE_ACK = 0x4D584131; // "MXA1"
+  /** type (4) + payload length (4) + id (8) + checksum (4). */
+  private static final int RECORD_HEADER_SIZE = 20;
+
+  /**
+   * A beacon read back from the log.
+   */
+  public static class Entry {
+    /** ID of this beacon in the log. Pass to {@link #ack(long)} once it has been sent. */
+    public final long id;
+    public final String url;
+    public final String method;
+    public final Hashtable<String, String> headers;
+    public final String body;
+
+    Entry(long id, String url, String method, Hashtable<String, String> headers, String body) {
+      this.id = id;
+      this.url = url;
+      this.method = method;
+      this.headers = headers;
+      this.body = body;
+    }
+  }
+
+  private final Context appContext;
+  private final int maxSegments;
+  private final CRC32 crc = new CRC32();
+
+  private File directory;
+  /** Number of unacknowledged beacons in each segment, oldest segment first. */
+  private final TreeMap<Integer, Integer> liveCounts = new TreeMap<>();
+  /** Segments left over from a previous process, waiting for {@link #recover()}. */
+  private final List<Integer> leftoverSegments = new ArrayList<>();
+  private int activeSegment = -1;
+  private MappedByteBuffer activeBuffer;
+  private boolean opened;
+  private boolean broken;
+
+  /**
+   * Creates a log in the app's no-backup directory. This constructor does no I/O.
+   *
+   * @param context any context. Only the application context is kept.
+   * @param maxBytes cap on the total size of the log. At least one segment is always kept.
+   */
+  public BeaconLog(Context context, long maxBytes) {
+    this.appContext = context.getApplicationContext();
+    this.maxSegments = (int) Math.max(2, maxBytes / SEGMENT_SIZE);
+  }
+
+  /**
+   * Creates a log in the given directory. This constructor does no I/O.
+   *
+   * @param directory directory to keep the segment files in. Created if it doesn't exist.
+   * @param maxBytes cap on the total size of the log. At least one segment is always kept.
+   */
+  BeaconLog(File directory, long maxBytes) {
+    this.appContext = null;
+    this.directory = directory;
+    this.maxSegments = (int) Math.max(2, maxBytes / SEGMENT_SIZE);
+  }
+
+  /**
+   * Writes a beacon to the log before it is sent.
+   *
+   * @return the ID of the new record, or {@link #NO_ID} if it could not be written.
+   */
+  public synchronized long append(String url, String method, Hashtable<String, String> headers,
+      String body) {
+    if (!ensureOpen()) {
+      return NO_ID;
+    }
+    try {
+      byte[] payload = encode(url, method, headers, body);
+      return write(TYPE_BEACON, -1, payload);
+    } catch (IOException e) {
+      MuxLogger.d(TAG, "Could not persist beacon: " + e.getMessage());
+      return NO_ID;
+    }
+  }
+
+  /**
+   * Records that a beacon no longer needs to be kept, either because it was sent or because its
+   * failure was reported to the caller. Deletes any segments that no longer hold unsent beacons.
+   *
+   * @param id the ID returned by {@link #append}.
+   */
+  public synchronized void ack(long id) {
+    if (id == NO_ID || !ensureOpen()) {
+      return;
+    }
+    int segment = (int) (id >>> 32);
+    Integer live = liveCounts.get(segment);
+    if (live == null) {
+      // Segment was already dropped because of the size cap
+      return;
+    }
+    try {
+      write(TYPE_ACK, id, new byte[0]);
+    } catch (IOException e) {
+      MuxLogger.d(TAG, "Could not persist beacon ack: " + e.getMessage());
+    }
+    liveCounts.put(segment, Math.max(0, live - 1));
+    deleteAckedSegments();
+  }
+
+  /**
+   * Reads every beacon that was written by a previous process but never acknowledged, for
+   * instance because the process died before it could be sent. The beacons are copied into a new
+   * segment under new IDs, and the old segments are deleted. Only the first call does anything.
+   *
+   * @return the unsent beacons, oldest first.
+   */
+  public synchronized List<Entry> recover() {
+    List<Entry> recovered = new ArrayList<>();
+    if (!ensureOpen() || leftoverSegments.isEmpty()) {
+      return recovered;
+    }
+    List<Integer> oldSegments = new ArrayList<>(leftoverSegments);
+    leftoverSegments.clear();
+    Map<Long, Entry> unsent = new LinkedHashMap<>();
+    for (Integer segment : oldSegments) {
+      if (liveCounts.containsKey(segment)) {
+        readSegment(segment, unsent);
+      }
+    }
+
+    // Start a fresh segment, so the old ones can be deleted once the survivors are copied
+    try {
+      startSegment(nextSegment());
+      for (Entry entry : unsent.values()) {
+        long newId = write(TYPE_BEACON, -1, encode(entry.url, entry.method, entry.headers,
+            entry.body));
+        recovered.add(new Entry(newId, entry.url, entry.method, entry.headers, entry.body));
+      }
+    } catch (IOException e) {
+      MuxLogger.d(TAG, "Could not compact beacon log: " + e.getMessage());
+      broken = true;
+      return recovered;
+    }
+    for (Integer segment : oldSegments) {
+      deleteSegment(segment);
+    }
+    if (!recovered.isEmpty()) {
+      MuxLogger.d(TAG, "Recovered " + recovered.size() + " unsent beacons");
+    }
+    return recovered;
+  }
+
+  /**
+   * Returns the directory beacon logs are kept in.
+   */
+  private File resolveDirectory() {
+    File base = Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP
+        ? appContext.getNoBackupFilesDir()
+        : appContext.getFilesDir();
+    return new File(base, DIRECTORY_NAME);
+  }
+
+  /**
+   * Scans the log directory the first time the log is used. Returns false if the log can't be
+   * used, in which case beacons are simply sent without being persisted.
+   */
+  private boolean ensureOpen() {
+    if (opened) {
+      return !broken;
+    }
+    opened = true;
+    try {
+      if (directory == null) {
+        directory = resolveDirectory();
+      }
+      if (!directory.isDirectory() && !directory.mkdirs()) {
+        throw new IOException("could not create " + directory);
+      }
+      String[] names = directory.list();
+      if (names != null) {
+        for (String name : names) {
+          int segment = parseSegmentName(name);
+          if (segment >= 0) {
+            // Counts are unknown until recover() reads the segment; assume it has live beacons
+            liveCounts.put(segment, Integer.MAX_VALUE);
+            leftoverSegments.add(segment);
+          }
+        }
+      }
+      Collections.sort(leftoverSegments);
+    } catch (Exception e) {
+      MuxLogger.d(TAG, "Beacon log unavailable: " + e.getMessage());
+      broken = true;
+    }
+    return !broken;
+  }
+
+  /**
+   * Writes a record to the active segment, starting a new segment if it doesn't fit.
+   *
+   * @return the ID of the record.
+   */
+  private long write(int type, long ackedId, byte[] payload) throws IOException {
+    int recordSize = RECORD_HEADER_SIZE + payload.length;
+    if (recordSize > SEGMENT_SIZE - 4) {
+      throw new IOException("record too large: " + recordSize);
+    }
+    if (activeBuffer == null || activeBuffer.remaining() < recordSize + 4) {
+      startSegment(nextSegment());
+    }
+
+    int position = activeBuffer.position();
+    long id = type == TYPE_ACK ? ackedId : ((long) activeSegment << 32) | position;
+    int checksum = checksum(id, payload);
+
+    // Write the body of the record first, and the type last, so that a record the process died
+    // while writing always reads back as the end of the segment
+    activeBuffer.position(position + 4);
+    activeBuffer.putInt(payload.length);
+    activeBuffer.putLong(id);
+    activeBuffer.putInt(checksum);
+    activeBuffer.put(payload);
+    activeBuffer.putInt(position, type);
+
+    if (type == TYPE_BEACON) {
+      Integer live = liveCounts.get(activeSegment);
+      liveCounts.put(activeSegment, live == null ? 1 : live + 1);
+    }
+    return id;
+  }
+
+  /**
+   * Creates and maps a new, empty segment, enforcing the size cap by deleting the oldest segments.
+   */
+  private void startSegment(int segment) throws IOException {
+    while (liveCounts.size() >= maxSegments) {
+      int oldest = liveCounts.firstKey();
+      MuxLogger.d(TAG, "Beacon log full, dropping segment " + oldest);
+      deleteSegment(oldest);
+    }
+    RandomAccessFile file = new RandomAccessFile(segmentFile(segment), "rw");
+    try {
+      file.setLength(SEGMENT_SIZE);
+      activeBuffer = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, SEGMENT_SIZE);
+    } finally {
+      file.close();
+    }
+    activeSegment = segment;
+    liveCounts.put(segment, 0);
+  }
+
+  /**
+   * Reads the beacons in a segment into {@code beacons}, and removes any beacons it acknowledges.
+   * Stops at the first record that is incomplete or fails its checksum.
+   */
+  private void readSegment(int segment, Map<Long, Entry> beacons) {
+    RandomAccessFile file = null;
+    try {
+      file = new RandomAccessFile(segmentFile(segment), "r");
+      int length = (int) Math.min(file.length(), SEGMENT_SIZE);
+      ByteBuffer buffer = file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, length);
+      while (buffer.remaining() >= RECORD_HEADER_SIZE) {
+        int type = buffer.getInt();
+        if (type != TYPE_BEACON && type != TYPE_ACK) {
+          break; // TYPE_END, or garbage
+        }
+        int payloadLength = buffer.getInt();
+        long id = buffer.getLong();
+        int checksum = buffer.getInt();
+        if (payloadLength < 0 || payloadLength > buffer.remaining()) {
+          break;
+        }
+        byte[] payload = new byte[payloadLength];
+        buffer.get(payload);
+        if (checksum(id, payload) != checksum) {
+          MuxLogger.d(TAG, "Checksum mismatch in beacon log segment " + segment);
+          break;
+        }
+        if (type == TYPE_ACK) {
+          beacons.remove(id);
+        } else {
+          Entry entry = decode(id, payload);
+          if (entry != null) {
+            beacons.put(id, entry);
+          }
+        }
+      }
+    } catch (IOException e) {
+      MuxLogger.d(TAG, "Could not read beacon log segment " + segment + ": " + e.getMessage());
+    } finally {
+      if (file != null) {
+        try {
+          file.close();
+        } catch (IOException ignored) {
+          // Nothing else to do
+        }
+      }
+    }
+  }
+
+  /**
+   * Checksum over a record's ID and payload.
+   */
+  private int checksum(long id, byte[] payload) {
+    crc.reset();
+    for (int shift = 56; shift >= 0; shift -= 8) {
+      crc.update((int) (id >>> shift) & 0xFF);
+    }
+    crc.update(payload, 0, payload.length);
+    return (int) crc.getValue();
+  }
+
+  /**
+   * Returns the number of the next segment to create, which is always after every existing one.
+   */
+  private int nextSegment() {
+    int last = liveCounts.isEmpty() ? -1 : liveCounts.lastKey();
+    return Math.max(last, activeSegment) + 1;
+  }
+
+  private void deleteAckedSegments() {
+    while (!liveCounts.isEmpty()) {
+      int oldest = liveCounts.firstKey();
+      if (oldest == activeSegment || liveCounts.get(oldest) > 0) {
+        return;
+      }
+      deleteSegment(oldest);
+    }
+  }
+
+  private void deleteSegment(int segment) {
+    liveCounts.remove(segment);
+    if (segment == activeSegment) {
+      activeBuffer = null;
+    }
+    File file = segmentFile(segment);
+    if (file.exists() && !file.delete()) {
+      MuxLogger.d(TAG, "Could not delete " + file);
+    }
+  }
+
+  private File segmentFile(int segment) {
+    return new File(directory, SEGMENT_PREFIX + segment + SEGMENT_SUFFIX);
+  }
+
+  private static int parseSegmentName(String name) {
+    if (!name.startsWith(SEGMENT_PREFIX) || !name.endsWith(SEGMENT_SUFFIX)) {
+      return -1;
+    }
+    try {
+      return Integer.parseInt(
+          name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+    } catch (NumberFormatException e) {
+      return -1;
+    }
+  }
+
+  private static byte[] encode(String url, String method, Hashtable<String, String> headers,
+      String body) throws IOException {
+    byte[] bodyBytes = body == null ? new byte[0] : body.getBytes("UTF-8");
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream(bodyBytes.length + 256);
+    DataOutputStream out = new DataOutputStream(bytes);
+    out.writeUTF(url);
+    out.writeUTF(method);
+    out.writeInt(headers == null ? 0 : headers.size());
+    if (headers != null) {
+      for (Map.Entry<String, String> header : headers.entrySet()) {
+        out.writeUTF(header.getKey());
+        out.writeUTF(header.getValue());
+      }
+    }
+    out.writeInt(bodyBytes.length);
+    out.write(bodyBytes);
+    out.flush();
+    return bytes.toByteArray();
+  }
+
+  private static Entry decode(long id, byte[] payload) {
+    try {
+      DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+      String url = in.readUTF();
+      String method = in.readUTF();
+      int headerCount = in.readInt();
+      Hashtable<String, String> headers = new Hashtable<>();
+      for (int i = 0; i < headerCount; i++) {
+        headers.put(in.readUTF(), in.readUTF());
+      }
+      int bodyLength = in.readInt();
+      byte[] body = new byte[bodyLength];
+      in.readFully(body);
+      return new Entry(id, url, method, headers, new String(body, "UTF-8"));
+    } catch (IOException e) {
+      MuxLogger.d(TAG, "Could not decode beacon " + id + ": " + e.getMessage());
+      return null;
+    }
+  }
+}
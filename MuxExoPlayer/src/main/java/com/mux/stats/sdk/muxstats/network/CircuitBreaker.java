@@ -0,0 +1,193 @@
+package com.mux.stats.sdk.muxstats.network;
+
+/**
+ * Stops sending beacons to a collector that can't be reached, instead of having every beacon wait
+ * for the connect and read timeouts.
+ *
+ * <p>The circuit starts {@link State#CLOSED}, and requests go through as normal. After
+ * {@code failureThreshold} requests in a row fail to reach the collector, it
+ * {@link State#OPEN opens}, and requests are refused. Once the open period has passed, the next
+ * request is let through as a probe, and the circuit is {@link State#HALF_OPEN half-open} until the
+ * probe finishes. Other requests are still refused while the probe is in flight. If the probe
+ * reaches the collector, the circuit closes again. If not, it opens again, for twice as long as
+ * the last time, up to a maximum.
+ *
+ * <p>Responses with an HTTP status count as reaching the collector, unless they are server errors.
+ */
+public class CircuitBreaker {
+
+  /** Default number of failures in a row that opens the circuit. */
+  public static final int DEFAULT_FAILURE_THRESHOLD = 5;
+  /** Default time the circuit stays open the first time it opens. */
+  public static final long DEFAULT_OPEN_DURATION_MS = 30 * 1000;
+  /** Default longest time the circuit stays open after failed probes. */
+  public static final long DEFAULT_MAX_OPEN_DURATION_MS = 10 * 60 * 1000;
+
+  /**
+   * State of a circuit.
+   */
+  public enum State {
+    /** Requests are sent as normal. */
+    CLOSED,
+    /** Requests are refused, because the collector couldn't be reached. */
+    OPEN,
+    /** A single probe request has been let through, and other requests are refused. */
+    HALF_OPEN
+  }
+
+  /**
+   * Notified whenever a circuit changes state. Called on the thread that caused the change, which
+   * is usually a beacon thread.
+   */
+  public interface Listener {
+    /**
+     * Called when a circuit changes state.
+     *
+     * @param authority host (and port, if any) of the collector the circuit is for.
+     * @param from the previous state.
+     * @param to the new state.
+     * @param consecutiveFailures number of requests in a row that failed to reach the collector.
+     */
+    void onCircuitStateChanged(String authority, State from, State to, int consecutiveFailures);
+  }
+
+  private final String authority;
+  private final int failureThreshold;
+  private final long baseOpenDurationMs;
+  private final long maxOpenDurationMs;
+  private final Listener listener;
+  private final Clock clock;
+
+  private State state = State.CLOSED;
+  private int consecutiveFailures;
+  private long openDurationMs;
+  private long openUntilMs;
+
+  /**
+   * Creates a circuit breaker with the default settings.
+   *
+   * @param authority host (and port, if any) of the collector this circuit is for.
+   * @param listener notified when the state changes, or null.
+   */
+  public CircuitBreaker(String authority, Listener listener) {
+    this(authority, DEFAULT_FAILURE_THRESHOLD, DEFAULT_OPEN_DURATION_MS,
+        DEFAULT_MAX_OPEN_DURATION_MS, listener);
+  }
+
+  /**
+   * Creates a circuit breaker.
+   *
+   * @param authority host (and port, if any) of the collector this circuit is for.
+   * @param failureThreshold number of failures in a row that opens the circuit.
+   * @param openDurationMs time the circuit stays open the first time it opens.
+   * @param maxOpenDurationMs longest time the circuit stays open after failed probes.
+   * @param listener notified when the state changes, or null.
+   */
+  public CircuitBreaker(String authority, int failureThreshold, long openDurationMs,
+      long maxOpenDurationMs, Listener listener) {
+    this(authority, failureThreshold, openDurationMs, maxOpenDurationMs, listener,
+        Clock.ELAPSED_REALTIME);
+  }
+
+  CircuitBreaker(String authority, int failureThreshold, long openDurationMs,
+      long maxOpenDurationMs, Listener listener, Clock clock) {
+    this.authority = authority;
+    this.failureThreshold = Math.max(1, failureThreshold);
+    this.baseOpenDurationMs = Math.max(0, openDurationMs);
+    this.maxOpenDurationMs = Math.max(this.baseOpenDurationMs, maxOpenDurationMs);
+    this.openDurationMs = this.baseOpenDurationMs;
+    this.listener = listener;
+    this.clock = clock;
+  }
+
+  /**
+   * Decides whether a request may be sent now. If the open period has passed, this request becomes
+   * the probe, and the circuit goes half-open. The result of every request that was allowed must be
+   * reported to {@link #onResult(boolean)}.
+   *
+   * @return true if the request may be sent.
+   */
+  public boolean allowRequest() {
+    int failures;
+    synchronized (this) {
+      if (state == State.CLOSED) {
+        return true;
+      }
+      if (state == State.HALF_OPEN || clock.elapsedRealtime() < openUntilMs) {
+        return false;
+      }
+      state = State.HALF_OPEN;
+      failures = consecutiveFailures;
+    }
+    notifyListener(State.OPEN, State.HALF_OPEN, failures);
+    return true;
+  }
+
+  /**
+   * Reports the result of a request that {@link #allowRequest()} let through.
+   *
+   * @param reachedCollector true if the collector responded with anything but a server error.
+   */
+  public void onResult(boolean reachedCollector) {
+    State from;
+    State to;
+    int failures;
+    synchronized (this) {
+      from = state;
+      if (reachedCollector) {
+        consecutiveFailures = 0;
+        openDurationMs = baseOpenDurationMs;
+        state = State.CLOSED;
+      } else {
+        consecutiveFailures++;
+        if (state == State.HALF_OPEN) {
+          openDurationMs = Math.min(maxOpenDurationMs, openDurationMs * 2);
+          open();
+        } else if (state == State.CLOSED && consecutiveFailures >= failureThreshold) {
+          open();
+        }
+      }
+      to = state;
+      failures = consecutiveFailures;
+    }
+    if (from != to) {
+      notifyListener(from, to, failures);
+    }
+  }
+
+  /**
+   * Returns the current state of the circuit.
+   */
+  public synchronized State getState() {
+    return state;
+  }
+
+  /**
+   * Returns the time until the circuit lets a probe through, in milliseconds. This is 0 unless the
+   * circuit is open.
+   */
+  public synchronized long getRemainingOpenMillis() {
+    if (state != State.OPEN) {
+      return 0;
+    }
+    return Math.max(0, openUntilMs - clock.elapsedRealtime());
+  }
+
+  /**
+   * Returns the host (and port, if any) of the collector this circuit is for.
+   */
+  public String getAuthority() {
+    return authority;
+  }
+
+  private void open() {
+    state = State.OPEN;
+    openUntilMs = clock.elapsedRealtime() + openDurationMs;
+  }
+
+  private void notifyListener(State from, State to, int failures) {
+    if (listener != null) {
+      listener.onCircuitStateChanged(authority, from, to, failures);
+    }
+  }
+}
@@ -0,0 +1,17 @@
+package com.mux.stats.sdk.muxstats.network;
+
+import android.os.SystemClock;
+
+/**
+ * Source of the monotonic time used for timeouts in this package, so tests can control it.
+ */
+interface Clock {
+
+  /** The time since boot, from {@link SystemClock#elapsedRealtime()}. */
+  Clock ELAPSED_REALTIME = SystemClock::elapsedRealtime;
+
+  /**
+   * Returns the current time, in milliseconds.
+   */
+  long elapsedRealtime();
+}
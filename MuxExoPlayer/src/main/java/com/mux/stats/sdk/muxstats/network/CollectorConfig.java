@@ -0,0 +1,234 @@
+package com.mux.stats.sdk.muxstats.network;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Settings the collector can send back in response headers, so that the beacon load from clients
+ * can be turned down during an incident without an app release. The collector sends the
+ * following headers, all optional:
+ *
+ * <ul>
+ *   <li>{@value #HEADER_FLUSH_INTERVAL}: minimum time between two beacons to the collector, in
+ *   seconds. Beacons that are ready sooner wait, and the core library batches more events into
+ *   the next one.</li>
+ *   <li>{@value #HEADER_SAMPLE_RATE}: fraction of network request events to report, from 0 to 1.
+ *   </li>
+ *   <li>{@value #HEADER_ALLOWED_HEADERS}: comma-separated names of extra response headers to
+ *   report with network request events. A name ending in {@code *} matches every header that
+ *   starts with the rest of it.</li>
+ * </ul>
+ *
+ * <p>Objects of this class are immutable.
+ */
+public final class CollectorConfig {
+
+  /** Header with the minimum time between beacons, in seconds. */
+  public static final String HEADER_FLUSH_INTERVAL = "x-litix-flush-interval";
+  /** Header with the fraction of network request events to report. */
+  public static final String HEADER_SAMPLE_RATE = "x-litix-sample-rate";
+  /** Header with the extra response headers to report, comma-separated. */
+  public static final String HEADER_ALLOWED_HEADERS = "x-litix-allowed-headers";
+
+  /** Longest flush interval the collector can ask for. */
+  static final long MAX_FLUSH_INTERVAL_MS = 10 * 60 * 1000;
+  /** Shortest prefix the collector can allow, not counting the {@code *}. */
+  static final int MIN_HEADER_PREFIX_LENGTH = 4;
+  /** Headers that can carry credentials or session state, in lower case. Never reported. */
+  static final List<String> DENIED_HEADERS = Collections.unmodifiableList(Arrays.asList(
+      "authorization",
+      "cookie",
+      "proxy-authenticate",
+      "proxy-authorization",
+      "set-cookie",
+      "set-cookie2",
+      "www-authenticate",
+      "x-api-key",
+      "x-auth-token",
+      "x-csrf-token",
+      "x-xsrf-token"
+  ));
+
+  /** Settings used until the collector sends any: no extra delay, and everything reported. */
+  public static final CollectorConfig DEFAULT =
+      new CollectorConfig(0, 1, Collections.<String>emptyList());
+
+  /**
+   * Notified when the collector sends new settings.
+   */
+  public interface Listener {
+    /**
+     * Called when the settings change. This is called on a background thread.
+     *
+     * @param config the new settings.
+     */
+    void onCollectorConfigChanged(CollectorConfig config);
+  }
+
+  private final long flushIntervalMs;
+  private final float sampleRate;
+  private final List<String> allowedHeaders;
+
+  CollectorConfig(long flushIntervalMs, float sampleRate, List<String> allowedHeaders) {
+    this.flushIntervalMs = Math.max(0, Math.min(MAX_FLUSH_INTERVAL_MS, flushIntervalMs));
+    this.sampleRate = Float.isNaN(sampleRate) ? 1 : Math.max(0, Math.min(1, sampleRate));
+    this.allowedHeaders = Collections.unmodifiableList(removeDeniedHeaders(allowedHeaders));
+  }
+
+  /**
+   * Returns the minimum time between two beacons to the collector, in milliseconds.
+   */
+  public long getFlushIntervalMillis() {
+    return flushIntervalMs;
+  }
+
+  /**
+   * Returns the fraction of network request events to report, from 0 to 1.
+   */
+  public float getSampleRate() {
+    return sampleRate;
+  }
+
+  /**
+   * Returns the names of extra response headers to report. Names ending in {@code *} are
+   * prefixes.
+   */
+  public List<String> getAllowedHeaders() {
+    return allowedHeaders;
+  }
+
+  /**
+   * Reads the collector's settings from response headers. Settings missing from the headers keep
+   * their value from {@code previous}.
+   *
+   * @param headers response headers. Names are compared ignoring case.
+   * @param previous the settings in effect before this response.
+   * @return the new settings, or {@code previous} if the headers don't change anything.
+   */
+  public static CollectorConfig fromHeaders(Map<String, List<String>> headers,
+      CollectorConfig previous) {
+    if (headers == null) {
+      return previous;
+    }
+    long flushIntervalMs = previous.flushIntervalMs;
+    float sampleRate = previous.sampleRate;
+    List<String> allowedHeaders = previous.allowedHeaders;
+    for (Map.Entry<String, List<String>> header : headers.entrySet()) {
+      String name = header.getKey();
+      if (name == null || header.getValue() == null || header.getValue().isEmpty()) {
+        continue;
+      }
+      String value = header.getValue().get(0).trim();
+      try {
+        if (name.equalsIgnoreCase(HEADER_FLUSH_INTERVAL)) {
+          flushIntervalMs = (long) (Double.parseDouble(value) * 1000);
+        } else if (name.equalsIgnoreCase(HEADER_SAMPLE_RATE)) {
+          sampleRate = Float.parseFloat(value);
+        } else if (name.equalsIgnoreCase(HEADER_ALLOWED_HEADERS)) {
+          allowedHeaders = splitNames(value);
+        }
+      } catch (NumberFormatException e) {
+        // Ignore the bad value and keep the old one
+      }
+    }
+    CollectorConfig config = new CollectorConfig(flushIntervalMs, sampleRate, allowedHeaders);
+    return config.equals(previous) ? previous : config;
+  }
+
+  static List<String> splitNames(String value) {
+    List<String> names = new ArrayList<>();
+    for (String name : value.split(",")) {
+      String trimmed = name.trim();
+      if (!trimmed.isEmpty()) {
+        names.add(trimmed);
+      }
+    }
+    return names;
+  }
+
+  /**
+   * Returns the names and prefixes that are safe to report: valid header names that are not on
+   * the {@link #DENIED_HEADERS} list, and prefixes that are long enough and can't match any
+   * header on it.
+   */
+  static List<String> removeDeniedHeaders(List<String> names) {
+    List<String> allowed = new ArrayList<>(names.size());
+    for (String name : names) {
+      boolean prefix = name.endsWith("*");
+      String match = (prefix ? name.substring(0, name.length() - 1) : name)
+          .toLowerCase(Locale.US);
+      if (!isHeaderName(match) || (prefix && match.length() < MIN_HEADER_PREFIX_LENGTH)) {
+        continue;
+      }
+      boolean denied = false;
+      for (String deniedHeader : DENIED_HEADERS) {
+        if (prefix ? deniedHeader.startsWith(match) : deniedHeader.equals(match)) {
+          denied = true;
+          break;
+        }
+      }
+      if (!denied) {
+        allowed.add(name);
+      }
+    }
+    return allowed;
+  }
+
+  /**
+   * Returns true if {@code name} is a non-empty header name of letters, digits, '-' and '_'.
+   */
+  private static boolean isHeaderName(String name) {
+    if (name.isEmpty()) {
+      return false;
+    }
+    for (int i = 0; i < name.length(); i++) {
+      char c = name.charAt(i);
+      if (!((c >= 'a' && c <= 'z') || (c >= '0' && c <= '9') || c == '-' || c == '_')) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  static String joinNames(List<String> names) {
+    StringBuilder builder = new StringBuilder();
+    for (String name : names) {
+      if (builder.length() > 0) {
+        builder.append(',');
+      }
+      builder.append(name);
+    }
+    return builder.toString();
+  }
+
+  @Override
+  public boolean equals(Object other) {
+    if (this == other) {
+      return true;
+    }
+    if (!(other instanceof CollectorConfig)) {
+      return false;
+    }
+    CollectorConfig that = (CollectorConfig) other;
+    return flushIntervalMs == that.flushIntervalMs
+        && Float.compare(sampleRate, that.sampleRate) == 0
+        && allowedHeaders.equals(that.allowedHeaders);
+  }
+
+  @Override
+  public int hashCode() {
+    int result = (int) (flushIntervalMs ^ (flushIntervalMs >>> 32));
+    result = 31 * result + Float.floatToIntBits(sampleRate);
+    return 31 * result + allowedHeaders.hashCode();
+  }
+
+  @Override
+  public String toString() {
+    return "CollectorConfig{flushIntervalMs=" + flushIntervalMs + ", sampleRate=" + sampleRate
+        + ", allowedHeaders=" + allowedHeaders + "}";
+  }
+}
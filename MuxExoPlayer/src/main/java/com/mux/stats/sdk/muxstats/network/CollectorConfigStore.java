@@ -0,0 +1,122 @@
+package com.mux.stats.sdk.muxstats.network;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Holds the {@link CollectorConfig} last sent by the collector, for the whole process, and keeps a
+ * copy in shared preferences so the next cold start begins with the same settings.
+ */
+public final class CollectorConfigStore {
+
+  private static final String PREFS_NAME = "mux_collector_config";
+  private static final String KEY_FLUSH_INTERVAL_MS = "flush_interval_ms";
+  private static final String KEY_SAMPLE_RATE = "sample_rate";
+  private static final String KEY_ALLOWED_HEADERS = "allowed_headers";
+
+  private static final CollectorConfigStore instance = new CollectorConfigStore();
+
+  private final CopyOnWriteArrayList<CollectorConfig.Listener> listeners =
+      new CopyOnWriteArrayList<>();
+  private volatile CollectorConfig config = CollectorConfig.DEFAULT;
+  private SharedPreferences prefs;
+  private boolean updatedSinceStart;
+
+  private CollectorConfigStore() {
+  }
+
+  /**
+   * Returns the store for this process.
+   */
+  public static CollectorConfigStore getInstance() {
+    return instance;
+  }
+
+  /**
+   * Returns the settings currently in effect.
+   */
+  public CollectorConfig get() {
+    return config;
+  }
+
+  /**
+   * Adds a listener to be told when the settings change. Listeners are called on a background
+   * thread.
+   */
+  public void addListener(CollectorConfig.Listener listener) {
+    listeners.addIfAbsent(listener);
+  }
+
+  /**
+   * Removes a listener added with {@link #addListener}.
+   */
+  public void removeListener(CollectorConfig.Listener listener) {
+    listeners.remove(listener);
+  }
+
+  /**
+   * Reads the settings saved by an earlier process, and saves all future settings. This reads from
+   * disk, so don't call it on the main thread. Only the first call does anything.
+   *
+   * @param context any context. Only the application context is kept.
+   */
+  public void load(Context context) {
+    CollectorConfig loaded;
+    synchronized (this) {
+      if (prefs != null) {
+        return;
+      }
+      prefs = context.getApplicationContext()
+          .getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+      if (updatedSinceStart) {
+        // The collector already sent something newer. Keep that, and save it
+        save(config);
+        return;
+      }
+      loaded = new CollectorConfig(
+          prefs.getLong(KEY_FLUSH_INTERVAL_MS, 0),
+          prefs.getFloat(KEY_SAMPLE_RATE, 1),
+          CollectorConfig.splitNames(prefs.getString(KEY_ALLOWED_HEADERS, "")));
+      if (loaded.equals(config)) {
+        return;
+      }
+      config = loaded;
+    }
+    notifyListeners(loaded);
+  }
+
+  /**
+   * Replaces the settings in effect, saves them if {@link #load} was called, and tells the
+   * listeners if anything changed.
+   *
+   * @param newConfig the new settings.
+   */
+  public void update(CollectorConfig newConfig) {
+    synchronized (this) {
+      updatedSinceStart = true;
+      if (newConfig.equals(config)) {
+        return;
+      }
+      config = newConfig;
+      save(newConfig);
+    }
+    notifyListeners(newConfig);
+  }
+
+  private void save(CollectorConfig config) {
+    if (prefs != null) {
+      prefs.edit()
+          .putLong(KEY_FLUSH_INTERVAL_MS, config.getFlushIntervalMillis())
+          .putFloat(KEY_SAMPLE_RATE, config.getSampleRate())
+          .putString(KEY_ALLOWED_HEADERS, CollectorConfig.joinNames(config.getAllowedHeaders()))
+          .apply();
+    }
+  }
+
+  private void notifyListeners(CollectorConfig config) {
+    for (CollectorConfig.Listener listener : listeners) {
+      listener.onCollectorConfigChanged(config);
+    }
+  }
+}
@@ -0,0 +1,55 @@
+package com.mux.stats.sdk.muxstats.network;
+
+import java.util.ArrayDeque;
+import java.util.zip.Deflater;
+
+/**
+ * Small process-wide pool of raw-deflate {@link Deflater}s, so that compressing a beacon doesn't
+ * allocate a new one (and its native zlib state) every time.
+ */
+final class DeflaterPool {
+
+  /** Maximum number of idle deflaters kept in the pool. */
+  static final int MAX_POOLED = BeaconExecutor.DEFAULT_CONCURRENCY * 2;
+
+  private static final ArrayDeque<Deflater> pool = new ArrayDeque<>();
+
+  private DeflaterPool() {
+  }
+
+  /**
+   * Takes a deflater from the pool, or creates one if the pool is empty.
+   *
+   * @param level compression level to use, from 0 to 9.
+   * @param dictionary preset dictionary to use, or null for none.
+   */
+  static Deflater obtain(int level, byte[] dictionary) {
+    Deflater deflater;
+    synchronized (pool) {
+      deflater = pool.poll();
+    }
+    if (deflater == null) {
+      deflater = new Deflater(level, true);
+    } else {
+      deflater.setLevel(level);
+    }
+    if (dictionary != null) {
+      deflater.setDictionary(dictionary);
+    }
+    return deflater;
+  }
+
+  /**
+   * Returns a deflater to the pool. It must not be used after this.
+   */
+  static void release(Deflater deflater) {
+    deflater.reset();
+    synchronized (pool) {
+      if (pool.size() < MAX_POOLED) {
+        pool.push(deflater);
+        return;
+      }
+    }
+    deflater.end();
+  }
+}
@@ -0,0 +1,142 @@
+package com.mux.stats.sdk.muxstats.network;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts durations in a fixed set of buckets. Recording doesn't allocate or lock, so it's cheap
+ * enough to do for every beacon.
+ *
+ * <p>Bucket {@code i} counts durations up to {@link #BUCKET_UPPER_BOUNDS_MS}{@code [i]}
+ * milliseconds, and more than the bound of the bucket before it. The last bucket counts everything
+ * longer than the largest bound.
+ */
+public final class LatencyHistogram {
+
+  /** Upper bound of each bucket but the last, in milliseconds. */
+  private static final long[] BUCKET_UPPER_BOUNDS_MS = {
+      10, 25, 50, 100, 250, 500, 1000, 2500, 5000, 10000, 30000
+  };
+  private static final long[] BUCKET_UPPER_BOUNDS_NANOS = new long[BUCKET_UPPER_BOUNDS_MS.length];
+
+  static {
+    for (int i = 0; i < BUCKET_UPPER_BOUNDS_MS.length; i++) {
+      BUCKET_UPPER_BOUNDS_NANOS[i] = BUCKET_UPPER_BOUNDS_MS[i] * 1000000;
+    }
+  }
+
+  /**
+   * Counts of a histogram at one point in time.
+   */
+  public static final class Snapshot {
+    private final long[] counts;
+    private final long totalNanos;
+    private final long maxNanos;
+
+    private Snapshot(long[] counts, long totalNanos, long maxNanos) {
+      this.counts = counts;
+      this.totalNanos = totalNanos;
+      this.maxNanos = maxNanos;
+    }
+
+    /** Number of durations in each bucket. See {@link #getBucketUpperBoundsMillis()}. */
+    public long[] getCounts() {
+      return counts.clone();
+    }
+
+    /** Number of durations recorded. */
+    public long getCount() {
+      long count = 0;
+      for (long bucket : counts) {
+        count += bucket;
+      }
+      return count;
+    }
+
+    /** Average duration, in milliseconds. */
+    public double getMeanMillis() {
+      long count = getCount();
+      return count == 0 ? 0 : totalNanos / (double) count / 1000000.0;
+    }
+
+    /** Longest duration, in milliseconds. */
+    public double getMaxMillis() {
+      return maxNanos / 1000000.0;
+    }
+
+    /**
+     * Returns an upper bound for the given percentile: the upper bound of the bucket it falls in,
+     * or the longest duration if it falls in the last bucket.
+     *
+     * @param percentile from 0 to 100.
+     * @return the bound, in milliseconds, or 0 if nothing was recorded.
+     */
+    public double getPercentileMillis(double percentile) {
+      long count = getCount();
+      if (count == 0) {
+        return 0;
+      }
+      long rank = (long) Math.ceil(Math.max(0, Math.min(100, percentile)) / 100.0 * count);
+      long seen = 0;
+      for (int i = 0; i < BUCKET_UPPER_BOUNDS_MS.length; i++) {
+        seen += counts[i];
+        if (seen >= Math.max(1, rank)) {
+          return Math.min(BUCKET_UPPER_BOUNDS_MS[i], getMaxMillis());
+        }
+      }
+      return getMaxMillis();
+    }
+
+    @Override
+    public String toString() {
+      return "LatencyHistogram.Snapshot{count=" + getCount()
+          + ", meanMs=" + getMeanMillis()
+          + ", p50Ms=" + getPercentileMillis(50)
+          + ", p95Ms=" + getPercentileMillis(95)
+          + ", maxMs=" + getMaxMillis()
+          + "}";
+    }
+  }
+
+  private final AtomicLongArray counts = new AtomicLongArray(BUCKET_UPPER_BOUNDS_MS.length + 1);
+  private final AtomicLong totalNanos = new AtomicLong();
+  private final AtomicLong maxNanos = new AtomicLong();
+
+  /**
+   * Returns the upper bound of each bucket but the last, in milliseconds.
+   */
+  public static long[] getBucketUpperBoundsMillis() {
+    return BUCKET_UPPER_BOUNDS_MS.clone();
+  }
+
+  /**
+   * Records a duration.
+   *
+   * @param nanos the duration, in nanoseconds. Negative values are counted as 0.
+   */
+  public void record(long nanos) {
+    long duration = Math.max(0, nanos);
+    int bucket = 0;
+    while (bucket < BUCKET_UPPER_BOUNDS_NANOS.length
+        && duration > BUCKET_UPPER_BOUNDS_NANOS[bucket]) {
+      bucket++;
+    }
+    counts.incrementAndGet(bucket);
+    totalNanos.addAndGet(duration);
+    long max = maxNanos.get();
+    while (duration > max && !maxNanos.compareAndSet(max, duration)) {
+      max = maxNanos.get();
+    }
+  }
+
+  /**
+   * Returns the current counts. Durations recorded while this runs may or may not be included.
+   */
+  public Snapshot snapshot() {
+    long[] copy = new long[counts.length()];
+    for (int i = 0; i < copy.length; i++) {
+      copy[i] = counts.get(i);
+    }
+    return new Snapshot(copy, totalNanos.get(), maxNanos.get());
+  }
+}
@@ -0,0 +1,164 @@
+package com.mux.stats.sdk.muxstats.network;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters and latency histograms for the SDK's own network traffic, so its overhead can be
+ * exported to an app's metrics system and kept to a budget. Recording doesn't allocate or lock.
+ *
+ * <p>An attempt is a single HTTP exchange. A request that is retried makes several attempts.
+ */
+public final class NetworkMetrics {
+
+  /**
+   * Values of the counters at one point in time.
+   */
+  public static final class Snapshot {
+    private final long attempts;
+    private final long failedAttempts;
+    private final long retries;
+    private final long succeededRequests;
+    private final long failedRequests;
+    private final long bytesBeforeCompression;
+    private final long bytesSent;
+    private final LatencyHistogram.Snapshot timeToFirstByte;
+    private final LatencyHistogram.Snapshot totalTime;
+
+    private Snapshot(long attempts, long failedAttempts, long retries, long succeededRequests,
+        long failedRequests, long bytesBeforeCompression, long bytesSent,
+        LatencyHistogram.Snapshot timeToFirstByte, LatencyHistogram.Snapshot totalTime) {
+      this.attempts = attempts;
+      this.failedAttempts = failedAttempts;
+      this.retries = retries;
+      this.succeededRequests = succeededRequests;
+      this.failedRequests = failedRequests;
+      this.bytesBeforeCompression = bytesBeforeCompression;
+      this.bytesSent = bytesSent;
+      this.timeToFirstByte = timeToFirstByte;
+      this.totalTime = totalTime;
+    }
+
+    /** Number of HTTP attempts made, including retries. */
+    public long getAttempts() {
+      return attempts;
+    }
+
+    /** Number of attempts that failed, whether or not they were retried. */
+    public long getFailedAttempts() {
+      return failedAttempts;
+    }
+
+    /** Number of retries scheduled. */
+    public long getRetries() {
+      return retries;
+    }
+
+    /** Number of requests that finally succeeded. */
+    public long getSucceededRequests() {
+      return succeededRequests;
+    }
+
+    /** Number of requests that finally failed, or were dropped before they were sent. */
+    public long getFailedRequests() {
+      return failedRequests;
+    }
+
+    /** Total size of request bodies before compression, in bytes. */
+    public long getBytesBeforeCompression() {
+      return bytesBeforeCompression;
+    }
+
+    /** Total size of request bodies as sent, after compression, in bytes. */
+    public long getBytesSent() {
+      return bytesSent;
+    }
+
+    /** Size of request bodies before compression, divided by their size as sent. */
+    public double getCompressionRatio() {
+      return bytesSent == 0 ? 1 : bytesBeforeCompression / (double) bytesSent;
+    }
+
+    /** Time from the start of each attempt until its response headers arrived. */
+    public LatencyHistogram.Snapshot getTimeToFirstByte() {
+      return timeToFirstByte;
+    }
+
+    /** Time from the start of each attempt until its response was read, or it failed. */
+    public LatencyHistogram.Snapshot getTotalTime() {
+      return totalTime;
+    }
+
+    @Override
+    public String toString() {
+      return "NetworkMetrics.Snapshot{attempts=" + attempts
+          + ", failedAttempts=" + failedAttempts
+          + ", retries=" + retries
+          + ", succeededRequests=" + succeededRequests
+          + ", failedRequests=" + failedRequests
+          + ", bytesBeforeCompression=" + bytesBeforeCompression
+          + ", bytesSent=" + bytesSent
+          + ", timeToFirstByte=" + timeToFirstByte
+          + ", totalTime=" + totalTime
+          + "}";
+    }
+  }
+
+  private final AtomicLong attempts = new AtomicLong();
+  private final AtomicLong failedAttempts = new AtomicLong();
+  private final AtomicLong retries = new AtomicLong();
+  private final AtomicLong succeededRequests = new AtomicLong();
+  private final AtomicLong failedRequests = new AtomicLong();
+  private final AtomicLong bytesBeforeCompression = new AtomicLong();
+  private final AtomicLong bytesSent = new AtomicLong();
+  private final LatencyHistogram timeToFirstByte = new LatencyHistogram();
+  private final LatencyHistogram totalTime = new LatencyHistogram();
+
+  /**
+   * Records one HTTP attempt.
+   *
+   * @param success true if the attempt succeeded.
+   * @param bodyBytes size of the request body before compression, in bytes.
+   * @param sentBytes size of the request body as sent, in bytes.
+   * @param timeToFirstByteNanos time until the response headers arrived, or -1 if none did.
+   * @param totalNanos time the whole attempt took.
+   */
+  public void recordAttempt(boolean success, long bodyBytes, long sentBytes,
+      long timeToFirstByteNanos, long totalNanos) {
+    attempts.incrementAndGet();
+    if (!success) {
+      failedAttempts.incrementAndGet();
+    }
+    bytesBeforeCompression.addAndGet(bodyBytes);
+    bytesSent.addAndGet(sentBytes);
+    if (timeToFirstByteNanos >= 0) {
+      timeToFirstByte.record(timeToFirstByteNanos);
+    }
+    totalTime.record(totalNanos);
+  }
+
+  /**
+   * Records that a failed attempt will be retried.
+   */
+  public void recordRetry() {
+    retries.incrementAndGet();
+  }
+
+  /**
+   * Records the final outcome of a request.
+   *
+   * @param success true if the request succeeded.
+   */
+  public void recordRequest(boolean success) {
+    (success ? succeededRequests : failedRequests).incrementAndGet();
+  }
+
+  /**
+   * Returns the current values. Counters are read one at a time, so values recorded while this
+   * runs may be included in some counters but not others.
+   */
+  public Snapshot snapshot() {
+    return new Snapshot(attempts.get(), failedAttempts.get(), retries.get(),
+        succeededRequests.get(), failedRequests.get(), bytesBeforeCompression.get(),
+        bytesSent.get(), timeToFirstByte.snapshot(), totalTime.snapshot());
+  }
+}
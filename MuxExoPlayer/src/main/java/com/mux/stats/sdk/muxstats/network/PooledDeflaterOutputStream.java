@@ -0,0 +1,57 @@
+package com.mux.stats.sdk.muxstats.network;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Raw-deflate compressing stream that borrows its {@link java.util.zip.Deflater} from a small
+ * process-wide pool instead of allocating a new one for every request. The deflater can be primed
+ * with a preset dictionary.
+ *
+ * <p>The deflater is returned to the pool when the stream is closed, so it must always be closed,
+ * even if writing fails.
+ */
+public class PooledDeflaterOutputStream extends DeflaterOutputStream {
+
+  /** Size of the buffer compressed output is collected in before it's written. */
+  private static final int BUFFER_SIZE = 4096;
+
+  private boolean closed;
+
+  /**
+   * Creates a stream that writes raw-deflate compressed data to the given stream.
+   *
+   * @param out stream to write compressed data to.
+   * @param level compression level, from 0 to 9.
+   * @param dictionary preset dictionary, or null for none. The receiver must use the same one.
+   */
+  public PooledDeflaterOutputStream(OutputStream out, int level, byte[] dictionary) {
+    super(out, DeflaterPool.obtain(level, dictionary), BUFFER_SIZE);
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    try {
+      finish();
+    } finally {
+      DeflaterPool.release(def);
+      out.close();
+    }
+  }
+
+  /**
+   * Returns the deflater to the pool without writing anything else, for when the stream could not
+   * be set up.
+   */
+  void abandon() {
+    if (!closed) {
+      closed = true;
+      DeflaterPool.release(def);
+    }
+  }
+}
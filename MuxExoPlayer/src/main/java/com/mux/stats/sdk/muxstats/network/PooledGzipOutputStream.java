@@ -0,0 +1,79 @@
+package com.mux.stats.sdk.muxstats.network;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Gzip-compressing stream that borrows its {@link Deflater} from a small process-wide pool instead
+ * of allocating a new one for every request. {@link java.util.zip.GZIPOutputStream} can't be given
+ * a {@link Deflater}, so this class writes the gzip header and trailer itself around a raw deflate
+ * stream.
+ *
+ * <p>The {@link Deflater} is returned to the pool when the stream is closed, so it must always be
+ * closed, even if writing fails.
+ */
+public class PooledGzipOutputStream extends PooledDeflaterOutputStream {
+
+  private static final int GZIP_MAGIC = 0x8b1f;
+  /** Magic number, CM = deflate, and no flags, mtime, XFL or OS. */
+  private static final byte[] HEADER = {
+      (byte) GZIP_MAGIC, (byte) (GZIP_MAGIC >> 8), Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, 0
+  };
+
+  private final CRC32 crc = new CRC32();
+
+  /**
+   * Creates a stream that writes gzip-compressed data to the given stream, at the default
+   * compression level. The gzip header is written immediately.
+   *
+   * @param out stream to write compressed data to.
+   * @throws IOException if the header could not be written.
+   */
+  public PooledGzipOutputStream(OutputStream out) throws IOException {
+    this(out, Deflater.DEFAULT_COMPRESSION);
+  }
+
+  /**
+   * Creates a stream that writes gzip-compressed data to the given stream. The gzip header is
+   * written immediately.
+   *
+   * @param out stream to write compressed data to.
+   * @param level compression level, from 0 to 9.
+   * @throws IOException if the header could not be written.
+   */
+  public PooledGzipOutputStream(OutputStream out, int level) throws IOException {
+    super(out, level, null);
+    try {
+      out.write(HEADER);
+    } catch (IOException e) {
+      abandon();
+      throw e;
+    }
+  }
+
+  // DeflaterOutputStream.write(int) delegates to this method, so this sees every byte
+  @Override
+  public void write(byte[] b, int off, int len) throws IOException {
+    super.write(b, off, len);
+    crc.update(b, off, len);
+  }
+
+  @Override
+  public void finish() throws IOException {
+    if (def.finished()) {
+      return;
+    }
+    super.finish();
+    writeIntLe((int) crc.getValue());
+    writeIntLe(def.getTotalIn());
+  }
+
+  private void writeIntLe(int value) throws IOException {
+    out.write(value);
+    out.write(value >> 8);
+    out.write(value >> 16);
+    out.write(value >> 24);
+  }
+}
@@ -0,0 +1,307 @@
+package com.mux.stats.sdk.muxstats.network;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Holds beacons back while the cellular radio is idle, and sends them when the player next loads
+ * media, so they share the radio's wake-up instead of causing their own.
+ *
+ * <p>Waking a cellular radio to send a few hundred bytes keeps it in a high-power state for
+ * several seconds afterwards. During playback the player loads a segment every few seconds anyway,
+ * so a beacon submitted while the radio is idle is held until the next load finishes, while the
+ * radio is still on. Beacons submitted while a load is in progress, or shortly after one finished,
+ * are sent right away. No beacon is held longer than the maximum hold time, and
+ * {@link #flushUrgent()} sends held beacons, and the beacons submitted just after it, immediately.
+ * Those beacons are {@link BeaconExecutor.BeaconTask#isUrgent() marked urgent}, so whatever sends
+ * them knows not to delay them either.
+ *
+ * <p>Nothing is held unless a {@link CellularCheck} has been set and reports a cellular
+ * connection. Tell this scheduler about loads with {@link #onLoadStarted()} and
+ * {@link #onLoadFinished()}.
+ */
+public class RadioAwareFlushScheduler {
+
+  /** Default longest time a beacon is held. */
+  public static final long DEFAULT_MAX_HOLD_MS = 10 * 1000;
+  /** Default time the radio is assumed to stay on after a load has finished. */
+  public static final long DEFAULT_RADIO_TAIL_MS = 3 * 1000;
+  /** Time after {@link #flushUrgent()} during which new beacons are marked urgent, and not held. */
+  static final long URGENT_WINDOW_MS = 2 * 1000;
+  /** Loads in progress for longer than this are assumed to have been abandoned. */
+  private static final long STALE_LOAD_MS = 60 * 1000;
+
+  /**
+   * Tells the scheduler whether the device is on a cellular connection.
+   */
+  public interface CellularCheck {
+    /**
+     * Returns true if beacons would go over a cellular connection. Called on the thread that
+     * submits the beacon.
+     */
+    boolean isCellular();
+  }
+
+  /**
+   * Counters of what the scheduler did with the beacons submitted to it.
+   */
+  public static class Stats {
+    private final long submitted;
+    private final long held;
+    private final long piggybacked;
+    private final long timedOut;
+    private final long urgent;
+    private final long wakeUpsSaved;
+
+    private Stats(long submitted, long held, long piggybacked, long timedOut, long urgent,
+        long wakeUpsSaved) {
+      this.submitted = submitted;
+      this.held = held;
+      this.piggybacked = piggybacked;
+      this.timedOut = timedOut;
+      this.urgent = urgent;
+      this.wakeUpsSaved = wakeUpsSaved;
+    }
+
+    /** Number of beacons submitted. */
+    public long getSubmitted() {
+      return submitted;
+    }
+
+    /** Number of beacons that were held instead of being sent right away. */
+    public long getHeld() {
+      return held;
+    }
+
+    /** Number of held beacons that were sent right after a load finished. */
+    public long getPiggybacked() {
+      return piggybacked;
+    }
+
+    /** Number of held beacons that were sent because they had been held too long. */
+    public long getTimedOut() {
+      return timedOut;
+    }
+
+    /** Number of held beacons that were sent early because of an urgent event. */
+    public long getUrgent() {
+      return urgent;
+    }
+
+    /**
+     * Number of times the radio would have been woken up just for a beacon, but wasn't. Each held
+     * beacon that was sent along with a load, or along with an urgent beacon, saved one wake-up.
+     * Held beacons that timed out were sent together, so all but one of each group saved one.
+     */
+    public long getWakeUpsSaved() {
+      return wakeUpsSaved;
+    }
+
+    @Override
+    public String toString() {
+      return "RadioAwareFlushScheduler.Stats{submitted=" + submitted
+          + ", held=" + held
+          + ", piggybacked=" + piggybacked
+          + ", timedOut=" + timedOut
+          + ", urgent=" + urgent
+          + ", wakeUpsSaved=" + wakeUpsSaved
+          + "}";
+    }
+  }
+
+  private final BeaconExecutor executor;
+  private final long maxHoldMs;
+  private final long radioTailMs;
+  private final Clock clock;
+  private volatile CellularCheck cellularCheck;
+
+  private final List<BeaconExecutor.BeaconTask> held = new ArrayList<>();
+  /** Incremented whenever the held beacons are released, so stale timeouts do nothing. */
+  private int holdGeneration;
+  private int activeLoads;
+  private long lastLoadActivityMs = Long.MIN_VALUE / 2;
+  private long urgentUntilMs = Long.MIN_VALUE / 2;
+
+  private long submittedCount;
+  private long heldCount;
+  private long piggybackedCount;
+  private long timedOutCount;
+  private long urgentCount;
+  private long wakeUpsSaved;
+
+  /**
+   * Creates a scheduler with the default hold and radio tail times.
+   *
+   * @param executor executor that sends the beacons once they are released.
+   */
+  public RadioAwareFlushScheduler(BeaconExecutor executor) {
+    this(executor, DEFAULT_MAX_HOLD_MS, DEFAULT_RADIO_TAIL_MS);
+  }
+
+  /**
+   * Creates a scheduler.
+   *
+   * @param executor executor that sends the beacons once they are released.
+   * @param maxHoldMs longest time a beacon is held.
+   * @param radioTailMs time the radio is assumed to stay on after a load has finished.
+   */
+  public RadioAwareFlushScheduler(BeaconExecutor executor, long maxHoldMs, long radioTailMs) {
+    this(executor, maxHoldMs, radioTailMs, Clock.ELAPSED_REALTIME);
+  }
+
+  RadioAwareFlushScheduler(BeaconExecutor executor, long maxHoldMs, long radioTailMs,
+      Clock clock) {
+    if (executor == null) {
+      throw new IllegalArgumentException("executor can not be null");
+    }
+    this.executor = executor;
+    this.maxHoldMs = Math.max(0, maxHoldMs);
+    this.radioTailMs = Math.max(0, radioTailMs);
+    this.clock = clock;
+  }
+
+  /**
+   * Sets the check that decides whether beacons may be held at all.
+   *
+   * @param check the check, or null to never hold beacons.
+   */
+  public void setCellularCheck(CellularCheck check) {
+    this.cellularCheck = check;
+  }
+
+  /**
+   * Sends a beacon now, or holds it until the radio is on.
+   *
+   * @param task the beacon to send.
+   */
+  public void submit(BeaconExecutor.BeaconTask task) {
+    CellularCheck check = cellularCheck;
+    boolean mayHold = maxHoldMs > 0 && check != null && check.isCellular();
+    boolean hold;
+    boolean firstOfGroup = false;
+    int generation;
+    synchronized (this) {
+      submittedCount++;
+      long now = clock.elapsedRealtime();
+      boolean urgent = now < urgentUntilMs;
+      if (urgent) {
+        task.markUrgent();
+      }
+      hold = mayHold && !urgent && !isRadioOn(now);
+      generation = holdGeneration;
+      if (hold) {
+        held.add(task);
+        heldCount++;
+        firstOfGroup = held.size() == 1;
+      }
+    }
+    if (!hold) {
+      executor.execute(task);
+      return;
+    }
+    if (firstOfGroup) {
+      final int heldGeneration = generation;
+      // First beacon of this group. Make sure the group goes out in time, even without a load
+      executor.schedule(new BeaconExecutor.BeaconTask() {
+        @Override
+        public void run() {
+          releaseTimedOut(heldGeneration);
+        }
+
+        @Override
+        protected void onDropped() {
+          releaseTimedOut(heldGeneration);
+        }
+      }, maxHoldMs);
+    }
+  }
+
+  /**
+   * Call when the player starts loading media.
+   */
+  public void onLoadStarted() {
+    synchronized (this) {
+      activeLoads++;
+      lastLoadActivityMs = clock.elapsedRealtime();
+    }
+  }
+
+  /**
+   * Call when a load finishes, whether it completed, failed or was canceled. Held beacons are sent
+   * right away.
+   */
+  public void onLoadFinished() {
+    List<BeaconExecutor.BeaconTask> released;
+    synchronized (this) {
+      activeLoads = Math.max(0, activeLoads - 1);
+      lastLoadActivityMs = clock.elapsedRealtime();
+      released = takeHeld();
+      piggybackedCount += released.size();
+      wakeUpsSaved += released.size();
+    }
+    executeAll(released);
+  }
+
+  /**
+   * Call when something happened that should be reported right away, like an error or the end of
+   * a view. Held beacons are sent now, and beacons submitted in the next moments aren't held. All
+   * of them are marked urgent.
+   */
+  public void flushUrgent() {
+    List<BeaconExecutor.BeaconTask> released;
+    synchronized (this) {
+      urgentUntilMs = clock.elapsedRealtime() + URGENT_WINDOW_MS;
+      released = takeHeld();
+      urgentCount += released.size();
+      wakeUpsSaved += released.size();
+    }
+    for (BeaconExecutor.BeaconTask task : released) {
+      task.markUrgent();
+    }
+    executeAll(released);
+  }
+
+  /**
+   * Returns a snapshot of this scheduler's counters.
+   */
+  public synchronized Stats getStats() {
+    return new Stats(submittedCount, heldCount, piggybackedCount, timedOutCount, urgentCount,
+        wakeUpsSaved);
+  }
+
+  private void releaseTimedOut(int generation) {
+    List<BeaconExecutor.BeaconTask> released;
+    synchronized (this) {
+      if (generation != holdGeneration) {
+        return;
+      }
+      released = takeHeld();
+      timedOutCount += released.size();
+      wakeUpsSaved += Math.max(0, released.size() - 1);
+    }
+    executeAll(released);
+  }
+
+  private boolean isRadioOn(long now) {
+    long sinceLoadActivity = now - lastLoadActivityMs;
+    return sinceLoadActivity < radioTailMs
+        || (activeLoads > 0 && sinceLoadActivity < STALE_LOAD_MS);
+  }
+
+  /** Must hold the lock. */
+  private List<BeaconExecutor.BeaconTask> takeHeld() {
+    if (held.isEmpty()) {
+      return new ArrayList<>(0);
+    }
+    List<BeaconExecutor.BeaconTask> released = new ArrayList<>(held);
+    held.clear();
+    holdGeneration++;
+    return released;
+  }
+
+  private void executeAll(List<BeaconExecutor.BeaconTask> tasks) {
+    for (BeaconExecutor.BeaconTask task : tasks) {
+      executor.execute(task);
+    }
+  }
+}
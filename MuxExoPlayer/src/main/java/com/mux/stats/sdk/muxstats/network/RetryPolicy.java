@@ -0,0 +1,161 @@
+package com.mux.stats.sdk.muxstats.network;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.Random;
+import java.util.TimeZone;
+
+/**
+ * Decides whether, and when, a failed beacon should be sent again.
+ *
+ * <p>Delays use capped exponential backoff with full jitter: the delay before retry {@code n} is a
+ * random value between 0 and {@code min(maxDelay, baseDelay * 2^(n-1))}. This spreads retries from
+ * many clients out over time instead of having them all retry in lock-step.
+ *
+ * <p>Retries are also limited by a retry budget, which is shared by every request sent with the
+ * same policy. Each new request adds a fraction of a token to the budget, and each retry spends one
+ * whole token. When the budget is empty, failed requests are not retried. This keeps the retry rate
+ * to a fixed fraction of the request rate, so retries can't pile up and make congestion worse
+ * during playback.
+ */
+public class RetryPolicy {
+
+  /** Default number of times a request is retried after its first attempt. */
+  public static final int DEFAULT_MAX_RETRIES = 3;
+  /** Default base delay before the first retry. Later retries back off exponentially. */
+  public static final long DEFAULT_BASE_DELAY_MS = 5000;
+  /** Default upper bound on the delay before any single retry. */
+  public static final long DEFAULT_MAX_DELAY_MS = 60 * 1000;
+  /** Default fraction of a retry earned by each new request. */
+  public static final double DEFAULT_BUDGET_RATIO = 0.2;
+  /** Default maximum number of retries that can be saved up in the budget. */
+  public static final int DEFAULT_MAX_BUDGET = 10;
+  /** Longest wait the collector can ask for with a {@code Retry-After} header. */
+  public static final long MAX_RETRY_AFTER_MS = 60 * 60 * 1000;
+
+  private final int maxRetries;
+  private final long baseDelayMs;
+  private final long maxDelayMs;
+  private final double budgetRatio;
+  private final double maxBudget;
+  private final Random random;
+
+  private double budget;
+
+  /**
+   * Creates a policy with the default settings.
+   */
+  public RetryPolicy() {
+    this(DEFAULT_MAX_RETRIES, DEFAULT_BASE_DELAY_MS, DEFAULT_MAX_DELAY_MS, DEFAULT_BUDGET_RATIO,
+        DEFAULT_MAX_BUDGET);
+  }
+
+  /**
+   * Creates a policy.
+   *
+   * @param maxRetries number of times a request may be retried after its first attempt.
+   * @param baseDelayMs upper bound of the delay before the first retry.
+   * @param maxDelayMs upper bound of the delay before any retry.
+   * @param budgetRatio fraction of a retry earned by each new request.
+   * @param maxBudget maximum number of retries that can be saved up in the budget.
+   */
+  public RetryPolicy(int maxRetries, long baseDelayMs, long maxDelayMs, double budgetRatio,
+      int maxBudget) {
+    this(maxRetries, baseDelayMs, maxDelayMs, budgetRatio, maxBudget, new Random());
+  }
+
+  RetryPolicy(int maxRetries, long baseDelayMs, long maxDelayMs, double budgetRatio,
+      int maxBudget, Random random) {
+    this.maxRetries = Math.max(0, maxRetries);
+    this.baseDelayMs = Math.max(0, baseDelayMs);
+    this.maxDelayMs = Math.max(this.baseDelayMs, maxDelayMs);
+    this.budgetRatio = Math.max(0, budgetRatio);
+    this.maxBudget = Math.max(0, maxBudget);
+    this.random = random;
+    this.budget = this.maxBudget;
+  }
+
+  /**
+   * Returns a policy that never retries.
+   */
+  public static RetryPolicy noRetries() {
+    return new RetryPolicy(0, 0, 0, 0, 0);
+  }
+
+  /**
+   * Call once for each new request (not for retries). Adds to the retry budget.
+   */
+  public synchronized void onRequest() {
+    budget = Math.min(maxBudget, budget + budgetRatio);
+  }
+
+  /**
+   * Decides whether a request that has failed {@code failureCount} times should be sent again. If
+   * this returns true, one retry has been taken from the budget.
+   *
+   * @param failureCount number of attempts of this request that have failed so far.
+   * @return true if the request should be retried.
+   */
+  public synchronized boolean tryRetry(int failureCount) {
+    if (failureCount > maxRetries || budget < 1) {
+      return false;
+    }
+    budget -= 1;
+    return true;
+  }
+
+  /**
+   * Returns the time to wait before sending a request again, after it has failed
+   * {@code failureCount} times.
+   *
+   * @param failureCount number of attempts of this request that have failed so far. At least 1.
+   * @return delay before the next attempt, in milliseconds.
+   */
+  public long nextDelayMillis(int failureCount) {
+    int exponent = Math.min(Math.max(failureCount - 1, 0), 30);
+    long ceiling = baseDelayMs << exponent;
+    if (ceiling <= 0 || ceiling > maxDelayMs) {
+      ceiling = maxDelayMs;
+    }
+    if (ceiling == 0) {
+      return 0;
+    }
+    synchronized (random) {
+      return (long) (random.nextDouble() * ceiling);
+    }
+  }
+
+  /**
+   * Parses the value of a {@code Retry-After} header, which is either a number of seconds or an
+   * HTTP date. The result is capped at {@link #MAX_RETRY_AFTER_MS}.
+   *
+   * @param value the header value, or null.
+   * @param nowMs the current wall-clock time, used for dates.
+   * @return time to wait, in milliseconds, or -1 if the value can't be parsed.
+   */
+  public static long parseRetryAfterMillis(String value, long nowMs) {
+    if (value == null) {
+      return -1;
+    }
+    String trimmed = value.trim();
+    long delayMs;
+    try {
+      // Capped before converting, so large values can't overflow
+      long seconds = Long.parseLong(trimmed);
+      delayMs = Math.max(0, Math.min(MAX_RETRY_AFTER_MS / 1000, seconds)) * 1000;
+    } catch (NumberFormatException e) {
+      // SimpleDateFormat isn't thread-safe, so each call gets its own
+      SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+      format.setTimeZone(TimeZone.getTimeZone("GMT"));
+      try {
+        Date date = format.parse(trimmed);
+        delayMs = date.getTime() - nowMs;
+      } catch (ParseException pe) {
+        return -1;
+      }
+    }
+    return Math.max(0, Math.min(MAX_RETRY_AFTER_MS, delayMs));
+  }
+}
@@ -0,0 +1,11 @@
+package com.mux.stats.sdk.muxstats
+
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.annotation.Config
+
+@Config(
+  manifest = Config.NONE
+)
+@RunWith(RobolectricTestRunner::class)
+abstract class AbsRobolectricTest
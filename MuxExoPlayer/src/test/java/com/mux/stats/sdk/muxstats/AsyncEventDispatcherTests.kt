@@ -0,0 +1,233 @@
+package com.mux.stats.sdk.muxstats
+
+import android.os.Looper
+import com.mux.stats.sdk.core.events.IEvent
+import com.mux.stats.sdk.core.events.IEventDispatcher
+import com.mux.stats.sdk.core.events.playback.TimeUpdateEvent
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertSame
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import org.robolectric.Shadows.shadowOf
+import java.util.Collections
+import java.util.IdentityHashMap
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Semaphore
+import java.util.concurrent.TimeUnit
+import kotlin.concurrent.thread
+
+/**
+ * The test thread is the main looper's thread, so it's the producer of every dispatcher here
+ */
+class AsyncEventDispatcherTests : AbsRobolectricTest() {
+
+  private val dispatchers = ArrayList<AsyncEventDispatcher>()
+
+  @After
+  fun shutDownDispatchers() {
+    dispatchers.forEach { it.shutdown(null) }
+  }
+
+  @Test
+  fun testEventsAreDeliveredInOrderOnTheWorker() {
+    val target = RecordingTarget()
+    val dispatcher = newDispatcher(target, capacity = 64)
+    val events = List(50) { TimeUpdateEvent(null) }
+
+    events.forEach { dispatcher.dispatch(it) }
+    shutdownAndWait(dispatcher)
+
+    assertEquals(events.size, target.events.size)
+    events.forEachIndexed { index, event -> assertSame(event, target.events[index]) }
+    assertEquals(setOf("MuxEventDispatch"), target.threadNames.toSet())
+    assertEquals(50L, dispatcher.publishedCount)
+    assertEquals(50L, dispatcher.deliveredCount)
+    assertEquals(0L, dispatcher.overflowCount)
+  }
+
+  @Test
+  fun testEventsFromOtherThreadsGoThroughTheProducer() {
+    val target = RecordingTarget()
+    val dispatcher = newDispatcher(target, capacity = 64)
+    val first = TimeUpdateEvent(null)
+    val second = TimeUpdateEvent(null)
+
+    thread { dispatcher.dispatch(first) }.join()
+    dispatcher.dispatch(second)
+    assertEquals("posted event isn't published yet", 1L, dispatcher.publishedCount)
+    shadowOf(Looper.getMainLooper()).idle()
+    shutdownAndWait(dispatcher)
+
+    assertEquals(listOf<IEvent>(second, first), target.events)
+  }
+
+  @Test
+  fun testFullBufferDropsAndCountsEvents() {
+    val entered = CountDownLatch(1)
+    val gate = CountDownLatch(1)
+    val target = RecordingTarget {
+      entered.countDown()
+      gate.await(5, TimeUnit.SECONDS)
+    }
+    val dispatcher = newDispatcher(target, capacity = 4)
+    val events = List(7) { TimeUpdateEvent(null) }
+
+    dispatcher.dispatch(events[0])
+    assertTrue(entered.await(5, TimeUnit.SECONDS))
+    // The event being delivered keeps its slot, so three more fit
+    events.drop(1).forEach { dispatcher.dispatch(it) }
+    assertEquals(4L, dispatcher.publishedCount)
+    assertEquals(3L, dispatcher.overflowCount)
+    assertEquals(4, dispatcher.peakQueueDepth)
+
+    gate.countDown()
+    shutdownAndWait(dispatcher)
+    assertEquals(events.take(4), target.events)
+  }
+
+  @Test
+  fun testWorkerWakesForEventsPublishedWhileItParks() {
+    val delivered = Semaphore(0)
+    val dispatcher = newDispatcher(IEventDispatcher { delivered.release() }, capacity = 8)
+    val event = TimeUpdateEvent(null)
+
+    // Each event lands while the worker is going idle after the last one, at a slightly different
+    // point each time. If it ever went to sleep without seeing the event, it would never arrive
+    repeat(20_000) { round ->
+      val spins = round % 64
+      var spun = 0
+      while (spun < spins) {
+        spun++
+      }
+      dispatcher.dispatch(event)
+      assertTrue("event $round was never delivered", delivered.tryAcquire(5, TimeUnit.SECONDS))
+    }
+    assertEquals(0L, dispatcher.overflowCount)
+  }
+
+  @Test
+  fun testEachEventSeesTheStateCapturedWithIt() {
+    val capture = CounterCapture()
+    val indexes = IdentityHashMap<IEvent, Int>()
+    val mismatches = Collections.synchronizedList(ArrayList<String>())
+    val dispatcher = newDispatcher(IEventDispatcher { event ->
+      val expected = synchronized(indexes) { indexes[event] }
+      val seen = capture.delivering?.value
+      if (seen != expected) {
+        mismatches.add("event $expected saw $seen")
+      }
+    }, capacity = 4, capture = capture)
+
+    // Only a few slots, so each slot's snapshot is reused many times
+    repeat(2_000) { index ->
+      while (dispatcher.queueDepth >= 4) {
+        Thread.yield()
+      }
+      val event = TimeUpdateEvent(null)
+      synchronized(indexes) { indexes[event] = index }
+      capture.live = index
+      dispatcher.dispatch(event)
+    }
+    shutdownAndWait(dispatcher)
+
+    assertEquals(emptyList<String>(), mismatches)
+    assertEquals(0L, dispatcher.overflowCount)
+    assertEquals("one snapshot per slot, plus one for shutdown", 5, capture.created)
+    assertNull("the live state is back after each event", capture.delivering)
+  }
+
+  @Test
+  fun testShutdownDrainsWithoutWaiting() {
+    val gate = CountDownLatch(1)
+    val target = RecordingTarget { gate.await(5, TimeUnit.SECONDS) }
+    val capture = CounterCapture()
+    val dispatcher = newDispatcher(target, capacity = 16, capture = capture)
+    val events = List(10) { TimeUpdateEvent(null) }
+    events.forEach { dispatcher.dispatch(it) }
+
+    val drained = CountDownLatch(1)
+    var deliveredAtRelease = -1
+    var stateAtRelease: Int? = null
+    var releaseThread: String? = null
+    capture.live = 42
+    dispatcher.shutdown {
+      deliveredAtRelease = target.events.size
+      stateAtRelease = capture.delivering?.value
+      releaseThread = Thread.currentThread().name
+      drained.countDown()
+    }
+    // The worker is still stuck on the first event, and shutdown() didn't wait for it
+    assertEquals(1L, drained.count)
+
+    dispatcher.dispatch(TimeUpdateEvent(null))
+    gate.countDown()
+    assertTrue(drained.await(5, TimeUnit.SECONDS))
+
+    assertEquals("every queued event is delivered first", 10, deliveredAtRelease)
+    assertEquals("release sees the state from shutdown()", 42, stateAtRelease)
+    assertEquals("MuxEventDispatch", releaseThread)
+    assertEquals(events, target.events)
+    assertEquals("events after shutdown are dropped", 10L, dispatcher.publishedCount)
+    assertNull(capture.delivering)
+  }
+
+  @Test
+  fun testShutdownOnlyReleasesOnce() {
+    val dispatcher = newDispatcher(RecordingTarget(), capacity = 4)
+    val releases = Semaphore(0)
+
+    dispatcher.shutdown { releases.release() }
+    dispatcher.shutdown { releases.release() }
+
+    assertTrue(releases.tryAcquire(5, TimeUnit.SECONDS))
+    assertFalse(releases.tryAcquire(100, TimeUnit.MILLISECONDS))
+  }
+
+  private fun newDispatcher(
+    target: IEventDispatcher,
+    capacity: Int,
+    capture: AsyncEventDispatcher.StateCapture<*>? = null,
+  ): AsyncEventDispatcher {
+    return AsyncEventDispatcher(target, Looper.getMainLooper(), capacity, capture)
+      .also { dispatchers.add(it) }
+  }
+
+  private fun shutdownAndWait(dispatcher: AsyncEventDispatcher) {
+    val drained = CountDownLatch(1)
+    dispatcher.shutdown { drained.countDown() }
+    assertTrue("worker didn't drain", drained.await(5, TimeUnit.SECONDS))
+  }
+
+  private class RecordingTarget(private val onEvent: () -> Unit = {}) : IEventDispatcher {
+    val events: MutableList<IEvent> = Collections.synchronizedList(ArrayList())
+    val threadNames: MutableList<String> = Collections.synchronizedList(ArrayList())
+
+    override fun dispatch(event: IEvent) {
+      onEvent()
+      events.add(event)
+      threadNames.add(Thread.currentThread().name)
+    }
+  }
+
+  private class Counter(var value: Int = -1)
+
+  /** Captures [live], and counts the snapshots it creates. */
+  private class CounterCapture : AsyncEventDispatcher.StateCapture<Counter> {
+    @Volatile var live = 0
+    @Volatile var delivering: Counter? = null
+    var created = 0
+
+    override fun newSnapshot(): Counter = Counter().also { created++ }
+
+    override fun capture(snapshot: Counter) {
+      snapshot.value = live
+    }
+
+    override fun deliver(snapshot: Counter?) {
+      delivering = snapshot
+    }
+  }
+}
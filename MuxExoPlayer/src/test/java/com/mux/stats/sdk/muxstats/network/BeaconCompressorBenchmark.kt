@@ -0,0 +1,62 @@
+package com.mux.stats.sdk.muxstats.network
+
+import com.mux.stats.sdk.muxstats.network.BeaconFixtures.beaconBatch
+import com.mux.stats.sdk.muxstats.network.BeaconFixtures.compress
+import com.mux.stats.sdk.muxstats.network.BeaconFixtures.legacyGzip
+import org.junit.Ignore
+import org.junit.Test
+import java.lang.management.ManagementFactory
+
+/**
+ * Compares [BeaconCompressor] with the gzip() helper MuxNetworkRequests used to have, on
+ * synthetic beacon batches. Reports compression ratio and CPU time per beacon for each batch size.
+ * Too slow for every build, so it's run by hand. [BeaconCompressorTests] checks correctness
+ */
+@Ignore("Benchmark, run by hand")
+class BeaconCompressorBenchmark {
+
+  companion object {
+    private val BATCH_SIZES = intArrayOf(1, 2, 5, 10, 25, 100)
+    private const val WARMUP_ROUNDS = 200
+    private const val MEASURED_ROUNDS = 1000
+  }
+
+  @Test
+  fun benchmarkAgainstLegacyGzip() {
+    val threadBean = ManagementFactory.getThreadMXBean()
+    val gzip = BeaconCompressor(BeaconCompressor.Mode.GZIP, 0)
+    val dictionary = BeaconCompressor(BeaconCompressor.Mode.PRESET_DICTIONARY, 0)
+
+    println("beacons\traw\tgzip()\tratio\tns/beacon\tdict\tratio\tns/beacon\tsized-gzip\tns/beacon")
+    for (batchSize in BATCH_SIZES) {
+      val body = beaconBatch(batchSize).toByteArray(Charsets.UTF_8)
+      val legacy = measure(threadBean, batchSize) { legacyGzip(body) }
+      val dict = measure(threadBean, batchSize) { compress(dictionary, body) }
+      val sized = measure(threadBean, batchSize) { compress(gzip, body) }
+      println(
+        "$batchSize\t${body.size}"
+            + "\t${legacy.size}\t${ratio(body, legacy)}\t${legacy.nanosPerBeacon}"
+            + "\t${dict.size}\t${ratio(body, dict)}\t${dict.nanosPerBeacon}"
+            + "\t${sized.size}\t${sized.nanosPerBeacon}"
+      )
+    }
+  }
+
+  private class Result(val size: Int, val nanosPerBeacon: Long)
+
+  private fun measure(
+    threadBean: java.lang.management.ThreadMXBean,
+    batchSize: Int,
+    block: () -> ByteArray
+  ): Result {
+    var size = 0
+    repeat(WARMUP_ROUNDS) { size = block().size }
+    val start = threadBean.currentThreadCpuTime
+    repeat(MEASURED_ROUNDS) { block() }
+    val elapsed = threadBean.currentThreadCpuTime - start
+    return Result(size, elapsed / MEASURED_ROUNDS / batchSize)
+  }
+
+  private fun ratio(raw: ByteArray, compressed: Result): String =
+    String.format("%.2f", raw.size.toDouble() / compressed.size)
+}
@@ -0,0 +1,49 @@
+package com.mux.stats.sdk.muxstats.network
+
+import com.mux.stats.sdk.muxstats.network.BeaconFixtures.beaconBatch
+import com.mux.stats.sdk.muxstats.network.BeaconFixtures.compress
+import com.mux.stats.sdk.muxstats.network.BeaconFixtures.gunzip
+import com.mux.stats.sdk.muxstats.network.BeaconFixtures.inflate
+import com.mux.stats.sdk.muxstats.network.BeaconFixtures.legacyGzip
+import org.junit.Assert.assertArrayEquals
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+class BeaconCompressorTests {
+
+  @Test
+  fun testRoundTrip() {
+    val body = beaconBatch(10).toByteArray(Charsets.UTF_8)
+    val gzip = BeaconCompressor()
+    val dictionary = BeaconCompressor(BeaconCompressor.Mode.PRESET_DICTIONARY, 0)
+
+    assertArrayEquals(body, gunzip(compress(gzip, body)))
+    assertArrayEquals(body, inflate(compress(dictionary, body)))
+    // Deflaters come from a pool, so compressing again must give the same result
+    assertArrayEquals(body, inflate(compress(dictionary, body)))
+  }
+
+  @Test
+  fun testSmallBodiesAreNotCompressed() {
+    val compressor = BeaconCompressor()
+    assertNull(compressor.contentEncoding(BeaconCompressor.DEFAULT_MIN_COMPRESS_BYTES - 1))
+    assertEquals(
+      BeaconCompressor.ENCODING_GZIP,
+      compressor.contentEncoding(BeaconCompressor.DEFAULT_MIN_COMPRESS_BYTES)
+    )
+  }
+
+  @Test
+  fun testDictionaryIsSmallerThanGzip() {
+    val dictionary = BeaconCompressor(BeaconCompressor.Mode.PRESET_DICTIONARY, 0)
+    for (batchSize in intArrayOf(1, 5, 25)) {
+      val body = beaconBatch(batchSize).toByteArray(Charsets.UTF_8)
+      assertTrue(
+        "dictionary output should be smaller than gzip() for $batchSize beacons",
+        compress(dictionary, body).size < legacyGzip(body).size
+      )
+    }
+  }
+}
@@ -0,0 +1,139 @@
+package com.mux.stats.sdk.muxstats.network
+
+import com.mux.stats.sdk.muxstats.AbsRobolectricTest
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.util.Collections
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+
+/**
+ * Each executor here has a single thread, held by a task that waits on a latch, so the queue
+ * contents only change when the test submits something
+ */
+class BeaconExecutorTests : AbsRobolectricTest() {
+
+  private val ran: MutableList<String> = Collections.synchronizedList(ArrayList())
+  private val dropped: MutableList<String> = Collections.synchronizedList(ArrayList())
+
+  @Test
+  fun testDropOldestEvictsTheLongestWaitingTask() {
+    val gate = CountDownLatch(1)
+    val executor = BeaconExecutor(1, 2, BeaconExecutor.OverflowPolicy.DROP_OLDEST)
+    blockThread(executor, gate)
+
+    listOf("a", "b", "c", "d").forEach { executor.execute(RecordingTask(it)) }
+    assertEquals(listOf("a", "b"), dropped)
+
+    gate.countDown()
+    awaitRuns(executor, 3)
+    assertEquals(listOf("blocker", "c", "d"), ran)
+  }
+
+  @Test
+  fun testDropNewestRejectsTheSubmittedTask() {
+    val gate = CountDownLatch(1)
+    val executor = BeaconExecutor(1, 2, BeaconExecutor.OverflowPolicy.DROP_NEWEST)
+    blockThread(executor, gate)
+
+    listOf("a", "b", "c", "d").forEach { executor.execute(RecordingTask(it)) }
+    assertEquals(listOf("c", "d"), dropped)
+
+    gate.countDown()
+    awaitRuns(executor, 3)
+    assertEquals(listOf("blocker", "a", "b"), ran)
+  }
+
+  @Test
+  fun testStatsCountDropsAndQueueDepth() {
+    val gate = CountDownLatch(1)
+    val executor = BeaconExecutor(1, 3, BeaconExecutor.OverflowPolicy.DROP_OLDEST)
+    blockThread(executor, gate)
+
+    repeat(5) { executor.execute(RecordingTask("task $it")) }
+    val stats = executor.stats
+    assertEquals(6L, stats.submitted)
+    assertEquals(2L, stats.dropped)
+    assertEquals(3, stats.queueDepth)
+    assertEquals(3, stats.peakQueueDepth)
+    assertEquals(1, stats.activeCount)
+
+    gate.countDown()
+    awaitRuns(executor, 4)
+    assertEquals(4L, executor.stats.completed)
+    assertEquals(0, executor.stats.queueDepth)
+  }
+
+  @Test
+  fun testAnExceptionFromOnDroppedDoesNotStopTheSubmitter() {
+    val gate = CountDownLatch(1)
+    val executor = BeaconExecutor(1, 1, BeaconExecutor.OverflowPolicy.DROP_NEWEST)
+    blockThread(executor, gate)
+    executor.execute(RecordingTask("a"))
+
+    executor.execute(object : BeaconExecutor.BeaconTask() {
+      override fun run() {}
+      override fun onDropped() {
+        throw IllegalStateException("thrown from onDropped")
+      }
+    })
+    executor.execute(RecordingTask("b"))
+
+    assertEquals(listOf("b"), dropped)
+    assertEquals(2L, executor.stats.dropped)
+    gate.countDown()
+  }
+
+  @Test
+  fun testScheduledTasksWaitOffTheQueue() {
+    val gate = CountDownLatch(1)
+    val executor = BeaconExecutor(1, 1, BeaconExecutor.OverflowPolicy.DROP_NEWEST)
+    blockThread(executor, gate)
+
+    executor.schedule(RecordingTask("later"), 200)
+    // The queue's only slot is still free while the scheduled task waits
+    executor.execute(RecordingTask("now"))
+    assertEquals(emptyList<String>(), dropped)
+    assertEquals(1, executor.stats.queueDepth)
+
+    gate.countDown()
+    awaitRuns(executor, 3)
+    assertEquals(listOf("blocker", "now", "later"), ran)
+  }
+
+  /**
+   * Occupies the executor's only thread until [gate] opens
+   */
+  private fun blockThread(executor: BeaconExecutor, gate: CountDownLatch) {
+    val started = CountDownLatch(1)
+    executor.execute(object : BeaconExecutor.BeaconTask() {
+      override fun run() {
+        started.countDown()
+        gate.await(5, TimeUnit.SECONDS)
+        ran.add("blocker")
+      }
+
+      override fun onDropped() {}
+    })
+    assertTrue("blocking task didn't start", started.await(5, TimeUnit.SECONDS))
+  }
+
+  private fun awaitRuns(executor: BeaconExecutor, count: Int) {
+    val deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5)
+    while (executor.stats.completed < count && System.nanoTime() < deadline) {
+      Thread.sleep(1)
+    }
+    assertEquals("tasks completed", count.toLong(), executor.stats.completed)
+  }
+
+  private inner class RecordingTask(private val name: String) : BeaconExecutor.BeaconTask() {
+    override fun run() {
+      ran.add(name)
+    }
+
+    override fun onDropped() {
+      dropped.add(name)
+    }
+  }
+}
@@ -0,0 +1,86 @@
+package com.mux.stats.sdk.muxstats.network
+
+import java.io.ByteArrayOutputStream
+import java.util.zip.GZIPInputStream
+import java.util.zip.GZIPOutputStream
+import java.util.zip.Inflater
+
+/**
+ * Beacon batches and compression helpers shared by [BeaconCompressorTests] and
+ * [BeaconCompressorBenchmark]
+ */
+internal object BeaconFixtures {
+
+  /** The gzip() helper from MuxNetworkRequests, before BeaconCompressor replaced it. */
+  fun legacyGzip(input: ByteArray): ByteArray {
+    val byteArrayOutputStream = ByteArrayOutputStream()
+    val gzipOutputStream = GZIPOutputStream(byteArrayOutputStream)
+    gzipOutputStream.write(input)
+    gzipOutputStream.flush()
+    gzipOutputStream.close()
+    return byteArrayOutputStream.toByteArray()
+  }
+
+  fun compress(compressor: BeaconCompressor, input: ByteArray): ByteArray {
+    val out = ByteArrayOutputStream()
+    val stream = compressor.compress(out, input.size)
+    stream.write(input)
+    stream.close()
+    return out.toByteArray()
+  }
+
+  fun gunzip(input: ByteArray): ByteArray = GZIPInputStream(input.inputStream()).readBytes()
+
+  fun inflate(input: ByteArray): ByteArray {
+    // Raw deflate has no header to ask for the dictionary, so it's set up front
+    val inflater = Inflater(true)
+    inflater.setDictionary(BeaconCompressor.getDictionary())
+    inflater.setInput(input)
+    val out = ByteArrayOutputStream()
+    val buffer = ByteArray(4096)
+    while (!inflater.finished()) {
+      out.write(buffer, 0, inflater.inflate(buffer))
+    }
+    inflater.end()
+    return out.toByteArray()
+  }
+
+  /**
+   * Builds a batch that looks like what the core library sends during playback: mostly network
+   * events, with the occasional heartbeat.
+   */
+  fun beaconBatch(count: Int): String {
+    val builder = StringBuilder("{\"events\":[")
+    for (i in 0 until count) {
+      if (i > 0) {
+        builder.append(',')
+      }
+      val time = 1_700_000_000_000L + i * 2_000L
+      if (i % 5 == 4) {
+        builder.append("{\"e\":\"hb\",\"player_playhead_time\":").append(i * 2_000)
+          .append(",\"viewer_time\":").append(time)
+          .append(",\"view_watch_time\":").append(i * 2_010)
+          .append(",\"view_sequence_number\":").append(i)
+          .append(",\"player_is_paused\":false}")
+      } else {
+        builder.append("{\"e\":\"requestcompleted\",\"request_type\":\"media\"")
+          .append(",\"request_start\":").append(time)
+          .append(",\"request_response_start\":").append(time + 83 + i % 7)
+          .append(",\"request_response_end\":").append(time + 412 + i % 13)
+          .append(",\"request_bytes_loaded\":").append(812_345 + i * 1_031)
+          .append(",\"request_hostname\":\"cdn-").append(i % 3).append(".example.com\"")
+          .append(",\"request_media_duration\":2000")
+          .append(",\"request_video_width\":1920,\"request_video_height\":1080")
+          .append(",\"request_labeled_bitrate\":").append(4_500_000 + (i % 3) * 1_000_000)
+          .append(",\"request_response_headers\":{\"x-cdn\":\"fastly\"")
+          .append(",\"content-type\":\"video/mp4\",\"x-request-id\":\"")
+          .append(java.util.UUID.nameUUIDFromBytes(byteArrayOf(i.toByte()))).append("\"}")
+          .append(",\"player_playhead_time\":").append(i * 2_000)
+          .append(",\"viewer_time\":").append(time)
+          .append(",\"view_sequence_number\":").append(i)
+          .append('}')
+      }
+    }
+    return builder.append("]}").toString()
+  }
+}
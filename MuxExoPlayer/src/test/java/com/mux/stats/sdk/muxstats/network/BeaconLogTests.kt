@@ -0,0 +1,251 @@
+package com.mux.stats.sdk.muxstats.network
+
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertNotEquals
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Test
+import java.io.File
+import java.io.RandomAccessFile
+import java.nio.file.Files
+import java.util.Hashtable
+
+/**
+ * Each test writes with one [BeaconLog] and reads back with a new one over the same directory,
+ * the way a new process would after the old one was killed
+ */
+class BeaconLogTests {
+
+  private lateinit var directory: File
+
+  @Before
+  fun setUp() {
+    directory = Files.createTempDirectory("beacon-log").toFile()
+  }
+
+  @After
+  fun tearDown() {
+    directory.deleteRecursively()
+  }
+
+  @Test
+  fun testUnackedBeaconsAreRecovered() {
+    val log = newLog()
+    val headers = Hashtable(mapOf("Content-Type" to "application/json", "x-litix-shard" to "3"))
+    log.append(URL, "POST", headers, "{\"events\":[1]}")
+    log.append(URL, "POST", null, "{\"events\":[2]}")
+    log.append(URL, "POST", null, null)
+
+    val recovered = newLog().recover()
+    assertEquals(3, recovered.size)
+    assertEquals(URL, recovered[0].url)
+    assertEquals("POST", recovered[0].method)
+    assertEquals(headers, recovered[0].headers)
+    assertEquals("{\"events\":[1]}", recovered[0].body)
+    assertTrue(recovered[1].headers.isEmpty())
+    assertEquals("{\"events\":[2]}", recovered[1].body)
+    assertEquals("", recovered[2].body)
+  }
+
+  @Test
+  fun testAckedBeaconsAreNotRecovered() {
+    val log = newLog()
+    val first = log.append(URL, "POST", null, "first")
+    log.append(URL, "POST", null, "second")
+    val third = log.append(URL, "POST", null, "third")
+    log.ack(first)
+    log.ack(third)
+
+    assertEquals(listOf("second"), newLog().recover().map { it.body })
+  }
+
+  @Test
+  fun testRecoverIsOnlyDoneOnce() {
+    newLog().append(URL, "POST", null, "lost")
+
+    val log = newLog()
+    assertEquals(1, log.recover().size)
+    assertTrue(log.recover().isEmpty())
+  }
+
+  @Test
+  fun testRecoverCompactsIntoANewSegment() {
+    val log = newLog()
+    val acked = log.append(URL, "POST", null, "acked")
+    log.append(URL, "POST", null, "unsent")
+    log.ack(acked)
+    assertEquals(listOf(segmentName(0)), segmentNames())
+
+    val second = newLog()
+    val recovered = second.recover()
+    assertEquals(listOf("unsent"), recovered.map { it.body })
+    assertEquals(1, (recovered[0].id ushr 32).toInt())
+    assertEquals(listOf(segmentName(1)), segmentNames())
+
+    // The copy is recovered again until it's acked
+    val third = newLog()
+    val again = third.recover()
+    assertEquals(listOf("unsent"), again.map { it.body })
+    third.ack(again[0].id)
+    assertTrue(newLog().recover().isEmpty())
+  }
+
+  @Test
+  fun testTornRecordEndsTheSegment() {
+    val log = newLog()
+    log.append(URL, "POST", null, "first")
+    log.append(URL, "POST", null, "second")
+    val torn = log.append(URL, "POST", null, "third")
+
+    // The type is written last, so a record the process died while writing reads as the end
+    writeInt(torn, 0, 0)
+    assertEquals(listOf("first", "second"), newLog().recover().map { it.body })
+  }
+
+  @Test
+  fun testTruncatedSegmentIsReadUpToTheCut() {
+    val log = newLog()
+    log.append(URL, "POST", null, "first")
+    val cut = log.append(URL, "POST", null, "second")
+
+    RandomAccessFile(File(directory, segmentName(0)), "rw").use {
+      it.setLength(offset(cut) + HEADER_SIZE + 3L)
+    }
+    assertEquals(listOf("first"), newLog().recover().map { it.body })
+  }
+
+  @Test
+  fun testImpossibleLengthEndsTheSegment() {
+    val log = newLog()
+    log.append(URL, "POST", null, "first")
+    val bad = log.append(URL, "POST", null, "second")
+    log.append(URL, "POST", null, "third")
+
+    writeInt(bad, 4, Int.MAX_VALUE)
+    assertEquals(listOf("first"), newLog().recover().map { it.body })
+  }
+
+  @Test
+  fun testChecksumMismatchEndsTheSegment() {
+    val log = newLog()
+    log.append(URL, "POST", null, "first")
+    val corrupt = log.append(URL, "POST", null, "second")
+    log.append(URL, "POST", null, "third")
+
+    RandomAccessFile(File(directory, segmentName(0)), "rw").use {
+      val position = offset(corrupt) + HEADER_SIZE + 5L
+      it.seek(position)
+      val original = it.read()
+      it.seek(position)
+      it.write(original xor 0x20)
+    }
+    assertEquals(listOf("first"), newLog().recover().map { it.body })
+  }
+
+  @Test
+  fun testCorruptAckLeavesTheBeaconUnsent() {
+    val log = newLog()
+    val id = log.append(URL, "POST", null, "first")
+    log.ack(id)
+    val ackOffset = offset(id) + HEADER_SIZE + encodedSize("first")
+
+    RandomAccessFile(File(directory, segmentName(0)), "rw").use {
+      it.seek(ackOffset + 8L) // The ID the ack is for
+      it.writeLong(id + 1)
+    }
+    assertEquals(listOf("first"), newLog().recover().map { it.body })
+  }
+
+  @Test
+  fun testFullyAckedSegmentsAreDeleted() {
+    val log = newLog()
+    val ids = (1..5).map { log.append(URL, "POST", null, bigBody(it)) }
+    assertEquals(listOf(0, 0, 1, 1, 2), ids.map { (it ushr 32).toInt() })
+    assertEquals(3, segmentNames().size)
+
+    log.ack(ids[1])
+    assertTrue(File(directory, segmentName(0)).exists()) // Still has ids[0]
+    log.ack(ids[0])
+    assertFalse(File(directory, segmentName(0)).exists())
+
+    log.ack(ids[2])
+    log.ack(ids[3])
+    log.ack(ids[4])
+    // The active segment is kept, even with nothing left in it
+    assertEquals(listOf(segmentName(2)), segmentNames())
+  }
+
+  @Test
+  fun testLeftoverSegmentsAreKeptUntilRecovered() {
+    val old = newLog()
+    old.ack(old.append(URL, "POST", null, "sent"))
+    assertEquals(listOf(segmentName(0)), segmentNames())
+
+    // The new log can't know what's in segment 0 until it reads it, so acking everything it
+    // wrote itself must not delete it
+    val log = newLog()
+    val id = log.append(URL, "POST", null, "new")
+    assertEquals(1, (id ushr 32).toInt())
+    log.ack(id)
+    log.ack(log.append(URL, "POST", null, bigBody(1)))
+    log.ack(log.append(URL, "POST", null, bigBody(2)))
+    assertTrue(File(directory, segmentName(0)).exists())
+
+    assertTrue(log.recover().isEmpty())
+    assertFalse(File(directory, segmentName(0)).exists())
+  }
+
+  @Test
+  fun testSizeCapDropsTheOldestSegment() {
+    val log = BeaconLog(directory, 2L * BeaconLog.SEGMENT_SIZE)
+    val ids = (1..6).map { log.append(URL, "POST", null, bigBody(it)) }
+    assertEquals(listOf(0, 0, 1, 1, 2, 2), ids.map { (it ushr 32).toInt() })
+    assertEquals(listOf(segmentName(1), segmentName(2)), segmentNames())
+
+    // Acks for dropped beacons are ignored
+    log.ack(ids[0])
+    assertEquals(listOf(segmentName(1), segmentName(2)), segmentNames())
+
+    val recovered = BeaconLog(directory, 2L * BeaconLog.SEGMENT_SIZE).recover()
+    assertEquals((3..6).map { bigBody(it) }, recovered.map { it.body })
+    assertTrue(segmentNames().size <= 2)
+  }
+
+  @Test
+  fun testRecoveredBeaconsGetNewIds() {
+    val log = newLog()
+    val first = log.append(URL, "POST", null, "first")
+    val recovered = newLog().recover()
+    assertNotEquals(first, recovered[0].id)
+  }
+
+  private fun newLog() = BeaconLog(directory, BeaconLog.DEFAULT_MAX_BYTES)
+
+  private fun segmentNames() = directory.list()!!.sorted()
+
+  private fun segmentName(segment: Int) = "segment-$segment.log"
+
+  private fun offset(id: Long) = (id and 0xFFFFFFFFL).toInt()
+
+  private fun writeInt(id: Long, fieldOffset: Int, value: Int) {
+    val segment = (id ushr 32).toInt()
+    RandomAccessFile(File(directory, segmentName(segment)), "rw").use {
+      it.seek(offset(id) + fieldOffset.toLong())
+      it.writeInt(value)
+    }
+  }
+
+  /** Size of the payload [BeaconLog] writes for a beacon to [URL] with no headers. */
+  private fun encodedSize(body: String) =
+    (2 + URL.length) + (2 + "POST".length) + 4 + 4 + body.length
+
+  /** Large enough that two fit in a segment, but three don't. */
+  private fun bigBody(index: Int) = index.toString().repeat(100 * 1024)
+
+  companion object {
+    private const val URL = "https://img.litix.io/?a=1"
+    private const val HEADER_SIZE = 20
+  }
+}
@@ -0,0 +1,95 @@
+package com.mux.stats.sdk.muxstats.network
+
+import com.mux.stats.sdk.muxstats.network.CircuitBreaker.State
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+class CircuitBreakerTests {
+
+  private var now = 1_000_000L
+  private val changes = ArrayList<String>()
+  private val breaker = CircuitBreaker("collector.example.com", 3, 1000, 5000,
+    { authority, from, to, failures -> changes.add("$authority $from->$to $failures") },
+    { now })
+
+  @Test
+  fun testOpensAfterTheThresholdOfFailuresInARow() {
+    failRequests(2)
+    breaker.onResult(true) // Resets the count
+    failRequests(2)
+    assertEquals(State.CLOSED, breaker.state)
+    assertTrue(breaker.allowRequest())
+
+    failRequests(1)
+    assertEquals(State.OPEN, breaker.state)
+    assertFalse(breaker.allowRequest())
+    assertEquals(1000L, breaker.remainingOpenMillis)
+    assertEquals(listOf("collector.example.com CLOSED->OPEN 3"), changes)
+  }
+
+  @Test
+  fun testLetsOneProbeThroughOnceTheOpenPeriodHasPassed() {
+    failRequests(3)
+
+    now += 999
+    assertFalse(breaker.allowRequest())
+    assertEquals(1L, breaker.remainingOpenMillis)
+    now += 1
+    assertTrue("probe", breaker.allowRequest())
+    assertEquals(State.HALF_OPEN, breaker.state)
+    assertEquals(0L, breaker.remainingOpenMillis)
+    assertFalse("only one probe at a time", breaker.allowRequest())
+
+    breaker.onResult(true)
+    assertEquals(State.CLOSED, breaker.state)
+    assertTrue(breaker.allowRequest())
+    assertEquals(
+      listOf(
+        "collector.example.com CLOSED->OPEN 3",
+        "collector.example.com OPEN->HALF_OPEN 3",
+        "collector.example.com HALF_OPEN->CLOSED 0",
+      ),
+      changes
+    )
+  }
+
+  @Test
+  fun testFailedProbesDoubleTheOpenPeriodUpToTheMaximum() {
+    failRequests(3)
+    val openPeriods = ArrayList<Long>()
+    repeat(4) {
+      openPeriods.add(breaker.remainingOpenMillis)
+      now += breaker.remainingOpenMillis
+      assertTrue(breaker.allowRequest())
+      breaker.onResult(false)
+      assertEquals(State.OPEN, breaker.state)
+    }
+    openPeriods.add(breaker.remainingOpenMillis)
+
+    assertEquals(listOf(1000L, 2000L, 4000L, 5000L, 5000L), openPeriods)
+  }
+
+  @Test
+  fun testClosingResetsTheOpenPeriod() {
+    failRequests(3)
+    now += 1000
+    breaker.allowRequest()
+    breaker.onResult(false)
+    assertEquals(2000L, breaker.remainingOpenMillis)
+
+    now += 2000
+    breaker.allowRequest()
+    breaker.onResult(true)
+    failRequests(3)
+    assertEquals(1000L, breaker.remainingOpenMillis)
+  }
+
+  private fun failRequests(times: Int) {
+    repeat(times) {
+      assertTrue(breaker.allowRequest())
+      breaker.onResult(false)
+    }
+  }
+}
@@ -0,0 +1,68 @@
+package com.mux.stats.sdk.muxstats.network
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertSame
+import org.junit.Test
+
+class CollectorConfigTests {
+
+  @Test
+  fun testHeadersAreRead() {
+    val config = CollectorConfig.fromHeaders(
+      mapOf(
+        "X-Litix-Flush-Interval" to listOf("2.5"),
+        CollectorConfig.HEADER_SAMPLE_RATE to listOf("0.25"),
+        CollectorConfig.HEADER_ALLOWED_HEADERS to listOf(" x-cache , x-amz-cf-*,,age"),
+      ),
+      CollectorConfig.DEFAULT
+    )
+    assertEquals(2500L, config.flushIntervalMillis)
+    assertEquals(0.25F, config.sampleRate, 0F)
+    assertEquals(listOf("x-cache", "x-amz-cf-*", "age"), config.allowedHeaders)
+  }
+
+  @Test
+  fun testMissingAndBadValuesKeepThePreviousSettings() {
+    val previous = CollectorConfig(1000, 0.5F, listOf("x-cache"))
+    val config = CollectorConfig.fromHeaders(
+      mapOf(CollectorConfig.HEADER_FLUSH_INTERVAL to listOf("soon")),
+      previous
+    )
+    assertSame(previous, config)
+  }
+
+  @Test
+  fun testCredentialHeadersAreNeverAllowed() {
+    val config = allowing("set-cookie, Authorization, COOKIE, proxy-authorization, x-cache")
+    assertEquals(listOf("x-cache"), config.allowedHeaders)
+  }
+
+  @Test
+  fun testPrefixesMatchingCredentialHeadersAreIgnored() {
+    val config = allowing("set-*, authoriz*, cookie*, x-api-*, x-amz-cf-*")
+    assertEquals(listOf("x-amz-cf-*"), config.allowedHeaders)
+  }
+
+  @Test
+  fun testWildcardsAndShortPrefixesAreIgnored() {
+    val config = allowing("*, x*, x-*, cdn*, x-cdn*")
+    assertEquals(listOf("x-cdn*"), config.allowedHeaders)
+  }
+
+  @Test
+  fun testInvalidNamesAreIgnored() {
+    val config = allowing("x-*-cache, x cache, x-cache:1, x-served-by")
+    assertEquals(listOf("x-served-by"), config.allowedHeaders)
+  }
+
+  @Test
+  fun testSavedNamesAreFilteredToo() {
+    val config = CollectorConfig(0, 1F, CollectorConfig.splitNames("*,set-cookie,age"))
+    assertEquals(listOf("age"), config.allowedHeaders)
+  }
+
+  private fun allowing(value: String) = CollectorConfig.fromHeaders(
+    mapOf(CollectorConfig.HEADER_ALLOWED_HEADERS to listOf(value)),
+    CollectorConfig.DEFAULT
+  )
+}
@@ -0,0 +1,55 @@
+package com.mux.stats.sdk.muxstats.network
+
+import org.junit.Assert.assertEquals
+import org.junit.Test
+import java.util.concurrent.TimeUnit
+
+class LatencyHistogramTests {
+
+  @Test
+  fun testDurationsLandInTheRightBuckets() {
+    val histogram = LatencyHistogram()
+    histogram.record(TimeUnit.MILLISECONDS.toNanos(10)) // Bounds are inclusive
+    histogram.record(TimeUnit.MILLISECONDS.toNanos(11))
+    histogram.record(TimeUnit.MILLISECONDS.toNanos(60_000))
+    histogram.record(-5)
+
+    val counts = histogram.snapshot().counts
+    assertEquals(LatencyHistogram.getBucketUpperBoundsMillis().size + 1, counts.size)
+    assertEquals(2L, counts[0])
+    assertEquals(1L, counts[1])
+    assertEquals(1L, counts[counts.size - 1])
+    assertEquals(4L, histogram.snapshot().count)
+  }
+
+  @Test
+  fun testPercentiles() {
+    val histogram = LatencyHistogram()
+    repeat(90) { histogram.record(TimeUnit.MILLISECONDS.toNanos(40)) }
+    repeat(10) { histogram.record(TimeUnit.MILLISECONDS.toNanos(700)) }
+
+    val snapshot = histogram.snapshot()
+    assertEquals(50.0, snapshot.getPercentileMillis(50.0), 0.0)
+    assertEquals(700.0, snapshot.getPercentileMillis(95.0), 0.0)
+    assertEquals(700.0, snapshot.maxMillis, 0.0)
+    assertEquals(106.0, snapshot.meanMillis, 0.001)
+  }
+
+  @Test
+  fun testNetworkMetricsCompressionRatio() {
+    val metrics = NetworkMetrics()
+    metrics.recordAttempt(true, 4000, 1000, TimeUnit.MILLISECONDS.toNanos(80),
+      TimeUnit.MILLISECONDS.toNanos(120))
+    metrics.recordAttempt(false, 4000, 1000, -1, TimeUnit.MILLISECONDS.toNanos(30_000))
+    metrics.recordRetry()
+    metrics.recordRequest(true)
+
+    val snapshot = metrics.snapshot()
+    assertEquals(2L, snapshot.attempts)
+    assertEquals(1L, snapshot.failedAttempts)
+    assertEquals(1L, snapshot.retries)
+    assertEquals(4.0, snapshot.compressionRatio, 0.0)
+    assertEquals(1L, snapshot.timeToFirstByte.count)
+    assertEquals(2L, snapshot.totalTime.count)
+  }
+}
@@ -0,0 +1,180 @@
+package com.mux.stats.sdk.muxstats.network
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Test
+
+class RadioAwareFlushSchedulerTests {
+
+  companion object {
+    const val MAX_HOLD_MS = 10_000L
+    const val RADIO_TAIL_MS = 3_000L
+  }
+
+  private var now = 1_000_000L
+  private var cellular = true
+  private val executor = RecordingExecutor()
+  private val scheduler = RadioAwareFlushScheduler(executor, MAX_HOLD_MS, RADIO_TAIL_MS) { now }
+    .also { it.setCellularCheck { cellular } }
+
+  @Test
+  fun testSendsRightAwayWhenNotOnCellular() {
+    cellular = false
+    val task = Beacon("a")
+    scheduler.submit(task)
+
+    assertEquals(listOf(task), executor.executed)
+    assertEquals(0L, scheduler.stats.held)
+  }
+
+  @Test
+  fun testSendsRightAwayWithoutACellularCheck() {
+    scheduler.setCellularCheck(null)
+    scheduler.submit(Beacon("a"))
+
+    assertEquals(1, executor.executed.size)
+  }
+
+  @Test
+  fun testHoldsWhileTheRadioIsIdleUntilTheNextLoadFinishes() {
+    val first = Beacon("a")
+    val second = Beacon("b")
+    scheduler.submit(first)
+    scheduler.submit(second)
+    assertEquals(emptyList<Beacon>(), executor.executed)
+    assertEquals("one timeout for the group", listOf(MAX_HOLD_MS), executor.delays)
+
+    scheduler.onLoadStarted()
+    now += 2_000
+    scheduler.onLoadFinished()
+
+    assertEquals(listOf(first, second), executor.executed)
+    assertFalse(first.isUrgent)
+    val stats = scheduler.stats
+    assertEquals(2L, stats.submitted)
+    assertEquals(2L, stats.held)
+    assertEquals(2L, stats.piggybacked)
+    assertEquals(2L, stats.wakeUpsSaved)
+  }
+
+  @Test
+  fun testSendsRightAwayWhileTheRadioIsOn() {
+    scheduler.onLoadStarted()
+    now += 30_000
+    scheduler.submit(Beacon("during a load"))
+    scheduler.onLoadFinished()
+    now += RADIO_TAIL_MS - 1
+    scheduler.submit(Beacon("in the tail"))
+    assertEquals(2, executor.executed.size)
+
+    now += 1
+    scheduler.submit(Beacon("after the tail"))
+    assertEquals(2, executor.executed.size)
+    assertEquals(1L, scheduler.stats.held)
+  }
+
+  @Test
+  fun testLoadsThatNeverFinishStopCounting() {
+    scheduler.onLoadStarted()
+    now += 60_000
+    scheduler.submit(Beacon("a"))
+
+    assertEquals(emptyList<Beacon>(), executor.executed)
+  }
+
+  @Test
+  fun testHeldBeaconsAreSentTogetherWhenTheyTimeOut() {
+    scheduler.submit(Beacon("a"))
+    now += 5_000
+    scheduler.submit(Beacon("b"))
+
+    executor.runScheduled()
+
+    assertEquals(2, executor.executed.size)
+    val stats = scheduler.stats
+    assertEquals(2L, stats.timedOut)
+    assertEquals("the first one still woke the radio", 1L, stats.wakeUpsSaved)
+  }
+
+  @Test
+  fun testTimeoutOfAGroupThatWasAlreadySentDoesNothing() {
+    scheduler.submit(Beacon("a"))
+    scheduler.onLoadFinished()
+    now += RADIO_TAIL_MS
+    scheduler.submit(Beacon("b"))
+    assertEquals("a new group, with its own timeout", 2, executor.delays.size)
+
+    // Runs the first group's timeout, which must not release the second group early
+    executor.runScheduled(count = 1)
+    assertEquals(1, executor.executed.size)
+    executor.runScheduled()
+    assertEquals(2, executor.executed.size)
+    assertEquals(1L, scheduler.stats.timedOut)
+  }
+
+  @Test
+  fun testUrgentFlushSendsHeldBeaconsAndTheNextOnes() {
+    val held = Beacon("held")
+    scheduler.submit(held)
+
+    scheduler.flushUrgent()
+    assertEquals(listOf(held), executor.executed)
+    assertTrue(held.isUrgent)
+
+    now += RadioAwareFlushScheduler.URGENT_WINDOW_MS - 1
+    val inWindow = Beacon("in the window")
+    scheduler.submit(inWindow)
+    assertEquals(listOf(held, inWindow), executor.executed)
+    assertTrue(inWindow.isUrgent)
+
+    now += 1
+    val afterWindow = Beacon("after the window")
+    scheduler.submit(afterWindow)
+    assertEquals(2, executor.executed.size)
+    assertFalse(afterWindow.isUrgent)
+
+    val stats = scheduler.stats
+    assertEquals(1L, stats.urgent)
+    assertEquals(1L, stats.wakeUpsSaved)
+  }
+
+  @Test
+  fun testUrgentFlushMarksBeaconsEvenOffCellular() {
+    cellular = false
+    scheduler.flushUrgent()
+    val task = Beacon("a")
+    scheduler.submit(task)
+
+    assertTrue(task.isUrgent)
+  }
+
+  private class Beacon(val name: String) : BeaconExecutor.BeaconTask() {
+    override fun run() {}
+    override fun onDropped() {}
+    override fun toString() = name
+  }
+
+  /**
+   * Records what it's given instead of running it. Scheduled tasks run when the test says so
+   */
+  private class RecordingExecutor : BeaconExecutor() {
+    val executed = ArrayList<BeaconTask>()
+    val delays = ArrayList<Long>()
+    private val scheduled = ArrayList<BeaconTask>()
+
+    override fun execute(task: BeaconTask) {
+      executed.add(task)
+    }
+
+    override fun schedule(task: BeaconTask, delayMs: Long) {
+      scheduled.add(task)
+      delays.add(delayMs)
+    }
+
+    /** Runs the oldest [count] scheduled tasks, or all of them */
+    fun runScheduled(count: Int = scheduled.size) {
+      repeat(count) { scheduled.removeAt(0).run() }
+    }
+  }
+}
@@ -0,0 +1,121 @@
+package com.mux.stats.sdk.muxstats.network
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.util.Random
+
+class RetryPolicyTests {
+
+  @Test
+  fun testDelayCeilingDoublesUpToTheMaximum() {
+    // Always draws the middle of the range, so each delay is half its ceiling
+    val policy = RetryPolicy(10, 1000, 6000, 0.0, 10, FixedRandom(0.5))
+
+    assertEquals(500L, policy.nextDelayMillis(1))
+    assertEquals(1000L, policy.nextDelayMillis(2))
+    assertEquals(2000L, policy.nextDelayMillis(3))
+    assertEquals(3000L, policy.nextDelayMillis(4))
+    assertEquals(3000L, policy.nextDelayMillis(40)) // Doesn't overflow
+    assertEquals(500L, policy.nextDelayMillis(0))
+  }
+
+  @Test
+  fun testDelaysAreJitteredBelowTheCeiling() {
+    assertEquals(0L, RetryPolicy(3, 1000, 6000, 0.0, 10, FixedRandom(0.0)).nextDelayMillis(2))
+    assertEquals(500L, RetryPolicy(3, 1000, 6000, 0.0, 10, FixedRandom(0.25)).nextDelayMillis(2))
+
+    val policy = RetryPolicy(3, 1000, 6000, 0.0, 10, Random(42))
+    val delays = List(1000) { policy.nextDelayMillis(3) }
+    assertTrue("delays out of range", delays.all { it in 0 until 4000 })
+    // Full jitter spreads the delays over the whole range
+    assertTrue(delays.any { it < 1000 })
+    assertTrue(delays.any { it >= 3000 })
+  }
+
+  @Test
+  fun testNoDelayWithoutABaseDelay() {
+    assertEquals(0L, RetryPolicy(3, 0, 0, 0.0, 10, FixedRandom(0.5)).nextDelayMillis(2))
+  }
+
+  @Test
+  fun testRetriesAreLimitedPerRequest() {
+    val policy = RetryPolicy(2, 1000, 6000, 0.0, 10, FixedRandom(0.0))
+
+    assertTrue(policy.tryRetry(1))
+    assertTrue(policy.tryRetry(2))
+    assertFalse(policy.tryRetry(3))
+  }
+
+  @Test
+  fun testRetriesSpendTheBudget() {
+    val policy = RetryPolicy(5, 1000, 6000, 0.5, 2, FixedRandom(0.0))
+
+    // Starts full
+    assertTrue(policy.tryRetry(1))
+    assertTrue(policy.tryRetry(1))
+    assertFalse("budget is empty", policy.tryRetry(1))
+
+    // Each request earns half a retry
+    policy.onRequest()
+    assertFalse(policy.tryRetry(1))
+    policy.onRequest()
+    assertTrue(policy.tryRetry(1))
+    assertFalse(policy.tryRetry(1))
+  }
+
+  @Test
+  fun testBudgetIsCapped() {
+    val policy = RetryPolicy(5, 1000, 6000, 1.0, 2, FixedRandom(0.0))
+
+    repeat(10) { policy.onRequest() }
+    assertTrue(policy.tryRetry(1))
+    assertTrue(policy.tryRetry(1))
+    assertFalse("only two retries can be saved up", policy.tryRetry(1))
+  }
+
+  @Test
+  fun testNoRetries() {
+    val policy = RetryPolicy.noRetries()
+    policy.onRequest()
+
+    assertFalse(policy.tryRetry(1))
+    assertEquals(0L, policy.nextDelayMillis(1))
+  }
+
+  @Test
+  fun testRetryAfterSeconds() {
+    assertEquals(120_000L, RetryPolicy.parseRetryAfterMillis(" 120 ", 0))
+    assertEquals(0L, RetryPolicy.parseRetryAfterMillis("-5", 0))
+    assertEquals(-1L, RetryPolicy.parseRetryAfterMillis("soon", 0))
+    assertEquals(-1L, RetryPolicy.parseRetryAfterMillis(null, 0))
+  }
+
+  @Test
+  fun testRetryAfterDate() {
+    // Sun, 06 Nov 1994 08:49:37 GMT
+    val date = 784111777000L
+    val value = "Sun, 06 Nov 1994 08:49:37 GMT"
+
+    assertEquals(30_000L, RetryPolicy.parseRetryAfterMillis(value, date - 30_000))
+    // Dates in the past mean now
+    assertEquals(0L, RetryPolicy.parseRetryAfterMillis(value, date + 30_000))
+  }
+
+  @Test
+  fun testRetryAfterIsCapped() {
+    val cap = RetryPolicy.MAX_RETRY_AFTER_MS
+
+    assertEquals(cap, RetryPolicy.parseRetryAfterMillis("86400", 0))
+    assertEquals(cap, RetryPolicy.parseRetryAfterMillis("Sun, 06 Nov 1994 08:49:37 GMT", 0))
+    // Would overflow if converted to milliseconds first
+    assertEquals(cap, RetryPolicy.parseRetryAfterMillis(Long.MAX_VALUE.toString(), 0))
+    assertEquals(0L, RetryPolicy.parseRetryAfterMillis((Long.MIN_VALUE / 1000 - 1).toString(), 0))
+  }
+
+  /** Returns the same double every time */
+  private class FixedRandom(private val value: Double) : Random() {
+    override fun nextDouble() = value
+  }
+}